@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the data source tests against the compressed block store.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LocationBlockStoreDataSourceTests extends LocationDataSourceTests {
+
+    @Override
+    protected LocationDataSource createDataSource() {
+        return new LocationBlockStore(DatabaseHelper.getInstance(InstrumentationRegistry.getTargetContext()));
+    }
+
+    private OpenLocateLocation getLocation(long created) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(created), 10.403, 10.234, 40.43f, 1234, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields);
+    }
+
+    private List<Long> readCreated(LocationDataSource dataSource, DispatchCursor cursor) {
+        List<Long> created = new ArrayList<>();
+        LocationIterator iterator = dataSource.iterateAfter(cursor, 0);
+        while (iterator.hasNext()) {
+            created.add(iterator.next().getCreated().getTime());
+        }
+        iterator.close();
+        return created;
+    }
+
+    /**
+     * Each batch is sorted by creation time when it is packed, as documented on
+     * {@link LocationStorage#COMPRESSED_DATABASE}, while batches keep the order they were added in.
+     */
+    @Test
+    public void testBlocksAreReadInStoredOrder() {
+        // Given
+        LocationDataSource dataSource = createDataSource();
+        OpenLocateLocation last = getLocation(5000);
+        dataSource.addAll(Arrays.asList(getLocation(1000), getLocation(3000), last));
+        dataSource.addAll(Arrays.asList(getLocation(4000), getLocation(2000)));
+
+        // When
+        List<Long> created = readCreated(dataSource, DispatchCursor.START);
+
+        // Then
+        assertEquals(Arrays.asList(1000L, 3000L, 5000L, 2000L, 4000L), created);
+        assertEquals(2, dataSource.countAfter(DispatchCursor.of(last)));
+    }
+
+    @Test
+    public void testPurgeTrimsTheStraddlingBlock() {
+        // Given
+        LocationDataSource dataSource = createDataSource();
+        List<OpenLocateLocation> locations = Arrays.asList(getLocation(1000), getLocation(2000), getLocation(3000));
+        dataSource.addAll(locations);
+        OpenLocateLocation last = locations.get(2);
+
+        // When
+        dataSource.advanceCursor("only", DispatchCursor.of(locations.get(0)), Collections.singletonList("only"));
+
+        // Then
+        assertEquals(2, dataSource.size());
+        assertEquals(Arrays.asList(2000L, 3000L), readCreated(dataSource, DispatchCursor.START));
+        LocationIterator iterator = dataSource.iterateAfter(DispatchCursor.of(locations.get(1)), 0);
+        assertEquals(last.getId(), iterator.next().getId());
+        iterator.close();
+    }
+}
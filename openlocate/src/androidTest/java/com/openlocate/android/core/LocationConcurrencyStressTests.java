@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how long storing a location takes while a dispatch-sized read of the whole backlog
+ * runs on another thread, next to the same inserts without the read. The latencies are logged
+ * under this class name. Since absolute latency depends on the device, the check is relative to
+ * the inserts without the read in the same run.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LocationConcurrencyStressTests {
+
+    private static final String TAG = LocationConcurrencyStressTests.class.getSimpleName();
+
+    private static final int BACKLOG = 20000;
+    private static final int BATCH_SIZE = 500;
+    private static final int INSERTS = 200;
+
+    // A read holding the write lock would stall inserts for the whole read, far beyond this.
+    private static final int MAX_SLOWDOWN = 4;
+    private static final long SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private LocationDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        dataSource = new LocationDatabase(DatabaseHelper.getInstance(InstrumentationRegistry.getTargetContext()));
+        dataSource.deleteBefore(Long.MAX_VALUE, 0);
+    }
+
+    @After
+    public void tearDown() {
+        dataSource.deleteBefore(Long.MAX_VALUE, 0);
+        dataSource.close();
+    }
+
+    private List<OpenLocateLocation> createLocations(long start, int count) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        AdvertisingIdClient.Info info = new AdvertisingIdClient.Info("1234", false);
+
+        List<OpenLocateLocation> locations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(new OpenLocateLocation(new Date(start + i), 1, 2, 3, 4, 5, 6, 7, info, fields));
+        }
+        return locations;
+    }
+
+    private static long getP95(long[] latencies) {
+        long[] sorted = Arrays.copyOf(latencies, latencies.length);
+        Arrays.sort(sorted);
+        return sorted[sorted.length * 95 / 100];
+    }
+
+    private static String describe(long[] latencies) {
+        Arrays.sort(latencies);
+        return String.format("median %d ms, p95 %d ms, p99 %d ms, max %d ms",
+                TimeUnit.NANOSECONDS.toMillis(latencies[latencies.length / 2]),
+                TimeUnit.NANOSECONDS.toMillis(getP95(latencies)),
+                TimeUnit.NANOSECONDS.toMillis(latencies[latencies.length * 99 / 100]),
+                TimeUnit.NANOSECONDS.toMillis(latencies[latencies.length - 1]));
+    }
+
+    @Test
+    public void testInsertsDoNotWaitForALargeRead() throws InterruptedException {
+        // Given
+        long start = System.currentTimeMillis() - BACKLOG;
+        for (int i = 0; i < BACKLOG; i += BATCH_SIZE) {
+            dataSource.addAll(createLocations(start + i, BATCH_SIZE));
+        }
+
+        long[] baseline = new long[INSERTS];
+        List<OpenLocateLocation> baselineInserts = createLocations(System.currentTimeMillis(), INSERTS);
+        for (int i = 0; i < INSERTS; i++) {
+            long before = System.nanoTime();
+            dataSource.add(baselineInserts.get(i));
+            baseline[i] = System.nanoTime() - before;
+        }
+
+        final CountDownLatch reading = new CountDownLatch(1);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicInteger read = new AtomicInteger();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                LocationIterator iterator = dataSource.iterateAfter(DispatchCursor.START, BACKLOG);
+                try {
+                    while (iterator.hasNext()) {
+                        iterator.next();
+                        if (read.incrementAndGet() == 1) {
+                            reading.countDown();
+                        }
+                    }
+                } finally {
+                    iterator.close();
+                    done.set(true);
+                }
+            }
+        });
+
+        // When
+        reader.start();
+        assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+        long[] latencies = new long[INSERTS];
+        int overlapping = 0;
+        List<OpenLocateLocation> inserts = createLocations(System.currentTimeMillis(), INSERTS);
+        for (int i = 0; i < INSERTS; i++) {
+            long before = System.nanoTime();
+            dataSource.add(inserts.get(i));
+            latencies[i] = System.nanoTime() - before;
+            if (!done.get()) {
+                overlapping++;
+            }
+        }
+        reader.join();
+
+        // Then
+        Log.i(TAG, String.format("Insert latency without a read: %s", describe(baseline)));
+        Log.i(TAG, String.format("Insert latency during a read of %d locations: %s, %d of %d inserts overlapped "
+                + "the read", BACKLOG, describe(latencies), overlapping, INSERTS));
+
+        assertEquals(BACKLOG, read.get());
+        assertEquals(BACKLOG + 2 * INSERTS, dataSource.size());
+        assertTrue(getP95(latencies) <= MAX_SLOWDOWN * getP95(baseline) + SLACK_NANOS);
+    }
+}
@@ -21,33 +21,36 @@
  */
 package com.openlocate.android.core;
 
-import android.support.test.InstrumentationRegistry;
-import android.support.test.runner.AndroidJUnit4;
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
-import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
-@RunWith(AndroidJUnit4.class)
-public class LocationDataSourceTests {
+/**
+ * Tests every data source must pass. Subclasses run them against one storage each.
+ */
+public abstract class LocationDataSourceTests {
     private LocationDataSource dataSource;
 
     @Before
     public void setUp() {
-        DatabaseHelper helper = new DatabaseHelper(InstrumentationRegistry.getTargetContext());
-        dataSource = new LocationDatabase(helper);
-        dataSource.deleteBefore(System.currentTimeMillis());
+        dataSource = createDataSource();
+        dataSource.deleteBefore(System.currentTimeMillis(), 0);
     }
 
-    private JSONObject getJson() {
+    protected abstract LocationDataSource createDataSource();
+
+    protected JSONObject getJson() {
         double lat = 10.403;
         double lng = 10.234;
         String accuracy = "40.43";
@@ -68,7 +71,7 @@ public class LocationDataSourceTests {
         return jsonObject;
     }
 
-    private OpenLocateLocation getOpenLocateLocation() {
+    protected OpenLocateLocation getOpenLocateLocation() {
         return new OpenLocateLocation(new Date(), getJson().toString());
     }
 
@@ -92,7 +95,7 @@ public class LocationDataSourceTests {
 
         // When
         List<OpenLocateLocation> locations = dataSource.getSince(0);
-        dataSource.deleteBefore(System.currentTimeMillis());
+        dataSource.deleteBefore(System.currentTimeMillis(), 0);
 
         // Then
         assertEquals(1, locations.size());
@@ -112,4 +115,255 @@ public class LocationDataSourceTests {
         // Then
         assertEquals(2, dataSource.size());
     }
+
+    @Test
+    public void testLocationFieldsRoundTrip() {
+        // Given
+        Date created = new Date(1500000000000L);
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        OpenLocateLocation location = new OpenLocateLocation(created, 10.403, 10.234, 40.43f, 1234, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields);
+
+        // When
+        dataSource.add(location);
+        OpenLocateLocation stored = dataSource.getSince(0).get(0);
+
+        // Then
+        assertEquals(created, stored.getCreated());
+        assertEquals(10.403, stored.getLocation().getLatitude(), 0.0d);
+        assertEquals(10.234, stored.getLocation().getLongitude(), 0.0d);
+        assertEquals(40.43f, stored.getLocation().getHorizontalAccuracy(), 0.0001);
+        assertEquals(1234, stored.getLocation().getTimeStampSecs());
+        assertEquals(1.5f, stored.getLocation().getSpeed(), 0.0f);
+        assertEquals(90.0f, stored.getLocation().getCourse(), 0.0f);
+        assertEquals(12.5, stored.getLocation().getAltitude(), 0.0d);
+        assertEquals(location.getJson().toString(), stored.getJson().toString());
+    }
+
+    @Test
+    public void testIterateAfter() {
+        // Given
+        OpenLocateLocation first = new OpenLocateLocation(new Date(1000), getJson().toString());
+        dataSource.add(first);
+        dataSource.add(new OpenLocateLocation(new Date(2000), getJson().toString()));
+        dataSource.add(new OpenLocateLocation(new Date(3000), getJson().toString()));
+
+        // When
+        List<Long> created = new ArrayList<>();
+        LocationIterator iterator = dataSource.iterateAfter(DispatchCursor.of(first), 1);
+        while (iterator.hasNext()) {
+            created.add(iterator.next().getCreated().getTime());
+        }
+        iterator.close();
+
+        // Then
+        assertEquals(1, created.size());
+        assertEquals(2000L, (long) created.get(0));
+    }
+
+    @Test
+    public void testIterateAfterWithinSameMillisecond() {
+        // Given
+        dataSource.add(new OpenLocateLocation(new Date(1000), getJson().toString()));
+        dataSource.add(new OpenLocateLocation(new Date(1000), getJson().toString()));
+        dataSource.add(new OpenLocateLocation(new Date(1000), getJson().toString()));
+
+        // When
+        LocationIterator first = dataSource.iterateAfter(DispatchCursor.START, 2);
+        OpenLocateLocation last = null;
+        while (first.hasNext()) {
+            last = first.next();
+        }
+        first.close();
+
+        List<OpenLocateLocation> rest = new ArrayList<>();
+        LocationIterator second = dataSource.iterateAfter(DispatchCursor.of(last), 0);
+        while (second.hasNext()) {
+            rest.add(second.next());
+        }
+        second.close();
+
+        // Then
+        assertEquals(1, rest.size());
+        assertTrue(rest.get(0).getId() > last.getId());
+    }
+
+    @Test
+    public void testAdvanceCursorPurgesDeliveredLocations() {
+        // Given
+        OpenLocateLocation first = new OpenLocateLocation(new Date(1000), getJson().toString());
+        OpenLocateLocation last = new OpenLocateLocation(new Date(3000), getJson().toString());
+        dataSource.add(first);
+        dataSource.add(new OpenLocateLocation(new Date(2000), getJson().toString()));
+        dataSource.add(last);
+        List<String> endpoints = Arrays.asList("first", "second");
+
+        // When
+        dataSource.advanceCursor("first", DispatchCursor.of(last), endpoints);
+        dataSource.advanceCursor("second", DispatchCursor.of(first), endpoints);
+
+        // Then
+        assertEquals(DispatchCursor.of(last), dataSource.getCursor("first"));
+        assertEquals(DispatchCursor.of(first), dataSource.getCursor("second"));
+        assertEquals(2, dataSource.size());
+    }
+
+    @Test
+    public void testLocationStoredLateIsNotSkipped() {
+        // Given
+        OpenLocateLocation delivered = new OpenLocateLocation(new Date(2000), getJson().toString());
+        dataSource.add(delivered);
+        DispatchCursor cursor = DispatchCursor.of(delivered);
+
+        // When
+        dataSource.add(new OpenLocateLocation(new Date(1000), getJson().toString()));
+        LocationIterator iterator = dataSource.iterateAfter(cursor, 0);
+        List<Long> created = new ArrayList<>();
+        while (iterator.hasNext()) {
+            created.add(iterator.next().getCreated().getTime());
+        }
+        iterator.close();
+
+        // Then
+        assertEquals(1, created.size());
+        assertEquals(1000L, (long) created.get(0));
+        assertEquals(1, dataSource.countAfter(cursor));
+    }
+
+    @Test
+    public void testDeleteBeforeStopsAtLimit() {
+        // Given
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            locations.add(new OpenLocateLocation(new Date(1000 + i), getJson().toString()));
+        }
+        dataSource.addAll(locations);
+        dataSource.add(new OpenLocateLocation(new Date(5000), getJson().toString()));
+
+        // When
+        int first = dataSource.deleteBefore(2000, 4);
+        int second = dataSource.deleteBefore(2000, 4);
+        int third = dataSource.deleteBefore(2000, 4);
+
+        // Then
+        assertEquals(4, first);
+        assertEquals(4, second);
+        assertEquals(2, third);
+        assertEquals(1, dataSource.size());
+        assertEquals(5000, dataSource.getSince(0).get(0).getCreated().getTime());
+    }
+
+    @Test
+    public void testStatsFollowInsertsAndPurges() {
+        // Given
+        OpenLocateLocation first = new OpenLocateLocation(new Date(1000), getJson().toString());
+        OpenLocateLocation third = new OpenLocateLocation(new Date(3000), getJson().toString());
+        dataSource.add(first);
+        dataSource.add(new OpenLocateLocation(new Date(2000), getJson().toString()));
+        dataSource.addAll(Arrays.asList(third, new OpenLocateLocation(new Date(4000), getJson().toString())));
+        List<String> endpoints = Arrays.asList("first", "second");
+
+        // When
+        dataSource.advanceCursor("first", DispatchCursor.of(third), endpoints);
+        dataSource.advanceCursor("second", DispatchCursor.of(first), endpoints);
+        LocationStats stats = dataSource.getStats();
+
+        // Then
+        assertEquals(3, stats.getCount());
+        assertEquals(3, dataSource.size());
+        assertTrue(stats.getApproximateBytes() > 0);
+        assertEquals(2000, stats.getOldestCreatedAt());
+        assertEquals(4000, stats.getNewestCreatedAt());
+        assertEquals(1, dataSource.countAfter(dataSource.getCursor("first")));
+        assertEquals(3, dataSource.countAfter(dataSource.getCursor("second")));
+    }
+
+    private OpenLocateLocation getLocationAt(long created, double latitude, double longitude) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(created), latitude, longitude, 5, 4, 5, 6, 7,
+                new AdvertisingIdClient.Info("1234", false), fields);
+    }
+
+    private List<OpenLocateLocation> query(LocationQuery query) {
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        LocationIterator iterator = dataSource.query(query);
+        while (iterator.hasNext()) {
+            locations.add(iterator.next());
+        }
+        iterator.close();
+        return locations;
+    }
+
+    @Test
+    public void testQueryBoundingBox() {
+        // Given
+        dataSource.addAll(Arrays.asList(getLocationAt(1000, 40.7128, -74.0060),
+                getLocationAt(2000, 51.5074, -0.1278), getLocationAt(3000, 40.7306, -73.9352)));
+
+        // When
+        List<OpenLocateLocation> locations = query(new LocationQuery.Builder()
+                .setBoundingBox(40.5, -74.3, 41.0, -73.7)
+                .build());
+
+        // Then
+        assertEquals(2, locations.size());
+        assertEquals(1000, locations.get(0).getCreated().getTime());
+        assertEquals(3000, locations.get(1).getCreated().getTime());
+    }
+
+    @Test
+    public void testQueryRadius() {
+        // Given
+        dataSource.addAll(Arrays.asList(getLocationAt(1000, 40.7128, -74.0060),
+                getLocationAt(2000, 40.7160, -74.0060), getLocationAt(3000, 40.7578, -73.9855)));
+
+        // When
+        List<OpenLocateLocation> locations = query(new LocationQuery.Builder()
+                .setRadius(40.7128, -74.0060, 1000)
+                .build());
+
+        // Then
+        assertEquals(2, locations.size());
+        assertEquals(2000, locations.get(1).getCreated().getTime());
+    }
+
+    @Test
+    public void testQueryAcrossAntimeridian() {
+        // Given
+        dataSource.addAll(Arrays.asList(getLocationAt(1000, -17.7, 179.5),
+                getLocationAt(2000, -17.7, 0), getLocationAt(3000, -17.7, -179.5)));
+
+        // When
+        List<OpenLocateLocation> locations = query(new LocationQuery.Builder()
+                .setBoundingBox(-18, 179, -17, -179)
+                .build());
+
+        // Then
+        assertEquals(2, locations.size());
+        assertEquals(1000, locations.get(0).getCreated().getTime());
+        assertEquals(3000, locations.get(1).getCreated().getTime());
+    }
+
+    @Test
+    public void testQueryTimeRangeInPages() {
+        // Given
+        long day = LocationTable.DEFAULT_PARTITION_WINDOW;
+        dataSource.addAll(Arrays.asList(getLocationAt(1000, 10, 10), getLocationAt(day + 1000, 10, 10),
+                getLocationAt(day + 2000, 10, 10), getLocationAt(2 * day + 1000, 10, 10)));
+        LocationQuery.Builder builder = new LocationQuery.Builder()
+                .setTimeRange(new Date(day), new Date(2 * day))
+                .setLimit(1);
+
+        // When
+        List<OpenLocateLocation> first = query(builder.build());
+        List<OpenLocateLocation> second = query(builder.setStartAfter(first.get(0)).build());
+        List<OpenLocateLocation> third = query(builder.setStartAfter(second.get(0)).build());
+
+        // Then
+        assertEquals(day + 1000, first.get(0).getCreated().getTime());
+        assertEquals(day + 2000, second.get(0).getCreated().getTime());
+        assertTrue(third.isEmpty());
+    }
 }
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the data source tests against the SQLite database, along with the tests of its schema
+ * upgrade, device contexts, quotas and partitions, which only this storage has.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LocationDatabaseDataSourceTests extends LocationDataSourceTests {
+
+    @Override
+    protected LocationDataSource createDataSource() {
+        DatabaseHelper helper = DatabaseHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        return new LocationDatabase(helper);
+    }
+
+    @Test
+    public void testUpgradeFromJsonSchema() throws JSONException {
+        // Given
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "created_at INTEGER NOT NULL, location TEXT NOT NULL);");
+        db.execSQL("CREATE INDEX created_at_index ON location (created_at ASC);");
+
+        JSONObject json = getJson();
+        json.put(OpenLocateLocation.Keys.COURSE, "90.0");
+        json.put(OpenLocateLocation.Keys.SPEED, "1.5");
+        json.put(OpenLocateLocation.Keys.ALTITUDE, 12.5);
+        json.put(OpenLocateLocation.Keys.WIFI_SSID, "ssid");
+        db.execSQL("INSERT INTO location (created_at, location) VALUES (?, ?)", new Object[]{1000L, json.toString()});
+        db.execSQL("INSERT INTO location (created_at, location) VALUES (?, ?)", new Object[]{2000L, json.toString()});
+
+        // When
+        LocationTable.upgrade(db, 2, 3);
+        List<OpenLocateLocation> locations = LocationTable.getSince(db, 0);
+
+        // Then
+        assertEquals(2, LocationTable.size(db));
+        assertTrue(locations.get(0).getId() < locations.get(1).getId());
+        assertEquals(1000L, locations.get(0).getCreated().getTime());
+        assertEquals(2000L, locations.get(1).getCreated().getTime());
+        assertEquals(10.403, locations.get(0).getLocation().getLatitude(), 0.0d);
+        assertEquals(12.5, locations.get(0).getLocation().getAltitude(), 0.0d);
+        assertEquals("1234", locations.get(0).getAdvertisingInfo().getId());
+        assertEquals("ssid", locations.get(0).getInformationFields().getWifiSsid());
+        assertNull(locations.get(0).getInformationFields().getLocationProvider());
+        db.close();
+    }
+
+    @Test
+    public void testDeviceContextIsSharedBetweenLocations() {
+        // Given
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        LocationTable.createIfRequired(db);
+        DeviceContextCache contexts = new DeviceContextCache();
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        AdvertisingIdClient.Info info = new AdvertisingIdClient.Info("1234", false);
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            add(db, new OpenLocateLocation(new Date(), 1, 2, 3, 4, 5, 6, 7, info, fields), contexts);
+        }
+
+        // Then
+        assertEquals(3, LocationTable.size(db));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, DeviceContextTable.TABLE_NAME));
+        db.close();
+    }
+
+    @Test
+    public void testUnreferencedDeviceContextsAreDeleted() {
+        // Given
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        LocationTable.createIfRequired(db);
+        DeviceContextCache contexts = new DeviceContextCache();
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        AdvertisingIdClient.Info first = new AdvertisingIdClient.Info("1", false);
+        AdvertisingIdClient.Info second = new AdvertisingIdClient.Info("2", false);
+        AdvertisingIdClient.Info third = new AdvertisingIdClient.Info("3", false);
+        add(db, new OpenLocateLocation(new Date(1000), 1, 2, 3, 4, 5, 6, 7, first, fields), contexts);
+        add(db, new OpenLocateLocation(new Date(2000), 1, 2, 3, 4, 5, 6, 7, second, fields), contexts);
+        LocationBlockTable.addAll(db, new StatementCache(db), Arrays.asList(
+                new OpenLocateLocation(new Date(3000), 1, 2, 3, 4, 5, 6, 7, third, fields)), contexts);
+        LocationTable.deleteBefore(db, 1000, 0);
+
+        // When
+        int deleted = DeviceContextTable.deleteUnreferenced(db);
+
+        // Then
+        assertEquals(1, deleted);
+        assertEquals(2, DatabaseUtils.queryNumEntries(db, DeviceContextTable.TABLE_NAME));
+
+        // When
+        add(db, new OpenLocateLocation(new Date(4000), 1, 2, 3, 4, 5, 6, 7, first, fields), contexts);
+
+        // Then
+        List<OpenLocateLocation> locations = LocationTable.getSince(db, 0);
+        assertEquals("1", locations.get(1).getAdvertisingInfo().getId());
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, DeviceContextTable.TABLE_NAME));
+        db.close();
+    }
+
+    @Test
+    public void testClosingOneStoreLeavesTheDatabaseOpenForAnother() {
+        // Given
+        DatabaseHelper helper = DatabaseHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        LocationDatabase first = new LocationDatabase(helper);
+        LocationDatabase second = new LocationDatabase(helper);
+        SQLiteDatabase database = helper.getWritableDatabase();
+
+        // When
+        first.close();
+        first.close();
+        second.add(getOpenLocateLocation());
+
+        // Then
+        assertTrue(database.isOpen());
+        assertEquals(1, second.size());
+        second.close();
+    }
+
+    private static void add(SQLiteDatabase db, OpenLocateLocation location, DeviceContextCache contexts) {
+        StatementCache statements = new StatementCache(db);
+        try {
+            LocationTable.addAll(db, statements, Collections.singletonList(location), contexts,
+                    LocationTable.DEFAULT_PARTITION_WINDOW);
+        } finally {
+            statements.clear();
+        }
+    }
+
+    private SQLiteDatabase createLocations(long[] created, float[] accuracy) {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        LocationTable.createIfRequired(db);
+        DeviceContextCache contexts = new DeviceContextCache();
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        AdvertisingIdClient.Info info = new AdvertisingIdClient.Info("1234", false);
+
+        for (int i = 0; i < created.length; i++) {
+            add(db, new OpenLocateLocation(new Date(created[i]), 1, 2, accuracy[i], 4, 5, 6, 7, info, fields), contexts);
+        }
+
+        return db;
+    }
+
+    @Test
+    public void testQuotaDropsOldest() {
+        // Given
+        SQLiteDatabase db = createLocations(new long[]{1000, 2000, 3000, 4000}, new float[]{5, 5, 5, 5});
+        StorageQuota quota = new StorageQuota(2, 0, EvictionPolicy.dropOldest());
+
+        // When
+        quota.enforce(db, 1);
+
+        // Then
+        List<OpenLocateLocation> locations = LocationTable.getSince(db, 0);
+        assertEquals(2, locations.size());
+        assertEquals(3000, locations.get(0).getCreated().getTime());
+        db.close();
+    }
+
+    @Test
+    public void testQuotaThinsToOnePerInterval() {
+        // Given
+        long minute = 60 * 1000;
+        SQLiteDatabase db = createLocations(
+                new long[]{0, 10 * 1000, 20 * 1000, minute, minute + 10 * 1000, 2 * minute},
+                new float[]{5, 5, 5, 5, 5, 5});
+        StorageQuota quota = new StorageQuota(3, 0, EvictionPolicy.thin(1));
+
+        // When
+        quota.enforce(db, 1);
+
+        // Then
+        List<OpenLocateLocation> locations = LocationTable.getSince(db, -1);
+        assertEquals(3, locations.size());
+        assertEquals(0, locations.get(0).getCreated().getTime());
+        assertEquals(minute, locations.get(1).getCreated().getTime());
+        assertEquals(2 * minute, locations.get(2).getCreated().getTime());
+        db.close();
+    }
+
+    @Test
+    public void testQuotaDropsInaccurateFirst() {
+        // Given
+        SQLiteDatabase db = createLocations(new long[]{1000, 2000, 3000, 4000}, new float[]{5, 500, 5, 500});
+        StorageQuota quota = new StorageQuota(2, 0, EvictionPolicy.dropInaccurate(100));
+
+        // When
+        quota.enforce(db, 1);
+
+        // Then
+        List<OpenLocateLocation> locations = LocationTable.getSince(db, 0);
+        assertEquals(2, locations.size());
+        assertEquals(1000, locations.get(0).getCreated().getTime());
+        assertEquals(3000, locations.get(1).getCreated().getTime());
+        db.close();
+    }
+
+    @Test
+    public void testLocationsAreStoredInPartitionsOfTheWindow() {
+        // Given
+        long day = LocationTable.DEFAULT_PARTITION_WINDOW;
+        SQLiteDatabase db = createLocations(new long[]{1000, day + 1000, day + 2000, 2 * day + 1000},
+                new float[]{5, 5, 5, 5});
+
+        // When
+        List<OpenLocateLocation> locations = LocationTable.getSince(db, 1000);
+
+        // Then
+        assertEquals(3, LocationPartitionTable.getAll(db).size());
+        assertEquals(3, locations.size());
+        assertEquals(day + 1000, locations.get(0).getCreated().getTime());
+        assertEquals(2 * day + 1000, locations.get(2).getCreated().getTime());
+        assertTrue(locations.get(1).getId() < locations.get(2).getId());
+        db.close();
+    }
+
+    @Test
+    public void testDeleteBeforeDropsExpiredPartitions() {
+        // Given
+        long day = LocationTable.DEFAULT_PARTITION_WINDOW;
+        SQLiteDatabase db = createLocations(new long[]{1000, 2000, day + 1000, day + 2000, 2 * day + 1000},
+                new float[]{5, 5, 5, 5, 5});
+
+        // When
+        LocationTable.deleteBefore(db, day + 1000, 0);
+
+        // Then
+        List<LocationPartitionTable.Partition> partitions = LocationPartitionTable.getAll(db);
+        assertEquals(2, partitions.size());
+        assertEquals(day, partitions.get(0).getStart());
+        assertEquals(2, LocationTable.size(db));
+        db.close();
+    }
+
+    @Test
+    public void testDeleteBeforeWithLimitKeepsPartitionsTooLargeForIt() {
+        // Given
+        long day = LocationTable.DEFAULT_PARTITION_WINDOW;
+        SQLiteDatabase db = createLocations(new long[]{1000, 2000, 3000, day + 1000, day + 2000},
+                new float[]{5, 5, 5, 5, 5});
+
+        // When
+        int deleted = LocationTable.deleteBefore(db, day + 1000, 2);
+
+        // Then
+        assertEquals(2, deleted);
+        assertEquals(2, LocationPartitionTable.getAll(db).size());
+        assertEquals(3000, LocationTable.getSince(db, 0).get(0).getCreated().getTime());
+        db.close();
+    }
+
+    @Test
+    public void testDeleteUpToDropsDeliveredPartitions() {
+        // Given
+        long day = LocationTable.DEFAULT_PARTITION_WINDOW;
+        SQLiteDatabase db = createLocations(new long[]{1000, day + 1000, 2 * day + 1000}, new float[]{5, 5, 5});
+        OpenLocateLocation delivered = LocationTable.getSince(db, 0).get(1);
+
+        // When
+        LocationTable.deleteUpTo(db, DispatchCursor.of(delivered));
+
+        // Then
+        assertEquals(1, LocationPartitionTable.getAll(db).size());
+        assertEquals(1, LocationTable.size(db));
+        assertEquals(2 * day + 1000, LocationTable.getSince(db, 0).get(0).getCreated().getTime());
+        db.close();
+    }
+}
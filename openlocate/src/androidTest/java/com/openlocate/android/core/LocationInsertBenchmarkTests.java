@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the objects allocated per stored location, with the ContentValues insert the table used
+ * to do and with the cached statements it uses now. The counts are logged under this class name.
+ */
+@RunWith(AndroidJUnit4.class)
+@SuppressWarnings("deprecation")
+public class LocationInsertBenchmarkTests {
+
+    private static final String TAG = LocationInsertBenchmarkTests.class.getSimpleName();
+
+    private static final int WARM_UP = 100;
+    private static final int BATCH_SIZE = 50;
+    private static final int BATCHES = 20;
+    private static final String BASELINE_TABLE = "location_baseline";
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        db = SQLiteDatabase.create(null);
+        LocationTable.createIfRequired(db);
+        LocationTable.createPartition(db, BASELINE_TABLE);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private List<OpenLocateLocation> createLocations(int count) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        AdvertisingIdClient.Info info = new AdvertisingIdClient.Info("1234", false);
+
+        List<OpenLocateLocation> locations = new ArrayList<>(count);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            locations.add(new OpenLocateLocation(new Date(now + i), 1, 2, 3, 4, 5, 6, 7, info, fields));
+        }
+        return locations;
+    }
+
+    // The insert path before statements were cached: one context lookup key and one
+    // ContentValues per location.
+    private void insertWithContentValues(List<OpenLocateLocation> locations, DeviceContextCache contexts) {
+        db.beginTransaction();
+        try {
+            for (OpenLocateLocation location : locations) {
+                DeviceContext.from(location);
+                OpenLocateLocation.LocationInfo info = location.getLocation();
+                InformationFields fields = location.getInformationFields();
+
+                ContentValues values = new ContentValues();
+                values.put("created_at", location.getCreated().getTime());
+                values.put("latitude", info.getLatitude());
+                values.put("longitude", info.getLongitude());
+                values.put("horizontal_accuracy", info.getHorizontalAccuracy());
+                values.put("utc_timestamp", info.getTimeStampSecs());
+                values.put("speed", info.getSpeed());
+                values.put("course", info.getCourse());
+                values.put("altitude", info.getAltitude());
+                values.put("context_id", contexts.getId(db, location));
+                values.put("is_charging", fields.isCharging());
+                values.put("connection_type", fields.getConnectionType());
+                values.put("location_method", fields.getLocationProvider().getValue());
+                values.put("location_context", fields.getLocationContext().getValue());
+                db.insert(BASELINE_TABLE, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private double measure(Runnable insert) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < BATCHES; i++) {
+            insert.run();
+        }
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount() / (double) (BATCHES * BATCH_SIZE);
+    }
+
+    @Test
+    public void testCachedStatementsAllocateLessPerInsert() {
+        // Given
+        final DeviceContextCache contexts = new DeviceContextCache();
+        final StatementCache statements = new StatementCache(db);
+        final List<OpenLocateLocation> batch = createLocations(BATCH_SIZE);
+        insertWithContentValues(createLocations(WARM_UP), contexts);
+        LocationTable.addAll(db, statements, createLocations(WARM_UP), contexts, LocationTable.DEFAULT_PARTITION_WINDOW);
+
+        // When
+        double before = measure(new Runnable() {
+            @Override
+            public void run() {
+                insertWithContentValues(batch, contexts);
+            }
+        });
+        double after = measure(new Runnable() {
+            @Override
+            public void run() {
+                LocationTable.addAll(db, statements, batch, contexts, LocationTable.DEFAULT_PARTITION_WINDOW);
+            }
+        });
+        statements.clear();
+
+        // Then
+        Log.i(TAG, String.format("Allocations per insert: %.1f with ContentValues, %.1f with cached statements",
+                before, after));
+        assertTrue(after < before);
+    }
+}
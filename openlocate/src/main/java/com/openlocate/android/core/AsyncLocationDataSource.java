@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.database.sqlite.SQLiteFullException;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Asynchronous front of a location store. Every write runs on one writer thread, in the order it
+ * was submitted, so callers such as location callbacks on the main thread never wait for the
+ * disk.
+ *
+ * <p>Failures are delivered through the returned futures. They are also logged, since callers
+ * usually do not wait for them.</p>
+ */
+final class AsyncLocationDataSource {
+
+    private static final String TAG = AsyncLocationDataSource.class.getSimpleName();
+
+    private final LocationDataSource writer;
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor(named("OpenLocate-writer"));
+
+    AsyncLocationDataSource(LocationDataSource writer) {
+        this.writer = writer;
+    }
+
+    Future<Void> add(final OpenLocateLocation location) {
+        return write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                writer.add(location);
+                return null;
+            }
+        });
+    }
+
+    Future<Void> addAll(final List<OpenLocateLocation> locations) {
+        return write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                writer.addAll(locations);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Writes out the locations the writer buffers, if it is a {@link BufferedLocationDataSource}.
+     */
+    Future<Void> flush() {
+        return write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (writer instanceof BufferedLocationDataSource) {
+                    ((BufferedLocationDataSource) writer).flush();
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Stops accepting work. Writes already submitted still run, after which the thread ends.
+     * The store is left open.
+     */
+    void shutdown() {
+        writeExecutor.shutdown();
+    }
+
+    /**
+     * Closes the store once the writes already submitted are done, and stops the thread.
+     */
+    Future<Void> close() {
+        Future<Void> closed = writeExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                writer.close();
+                return null;
+            }
+        });
+        writeExecutor.shutdown();
+        return closed;
+    }
+
+    private <T> Future<T> write(final Callable<T> task) {
+        return writeExecutor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    return task.call();
+                } catch (SQLiteFullException e) {
+                    Log.w(TAG, "Database is full. Cannot write data.");
+                    throw e;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Could not write locations: " + e.getMessage());
+                    throw e;
+                }
+            }
+        });
+    }
+
+    static ThreadFactory named(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
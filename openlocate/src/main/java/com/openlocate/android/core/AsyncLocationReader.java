@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.util.Log;
+
+import com.openlocate.android.callbacks.LocationReadCallback;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs reads of the location store on a reader thread, so callers such as the app's main thread
+ * never wait for the disk. Each read opens the store read-only on that thread and closes it when
+ * done. The database serves queries made outside a transaction from the read-only connections of
+ * its pool, so a long read neither waits for nor holds up the location service writing to it.
+ *
+ * <p>Results and failures are delivered through the returned futures or the given callback.</p>
+ */
+final class AsyncLocationReader {
+
+    private static final String TAG = AsyncLocationReader.class.getSimpleName();
+
+    /**
+     * Opens the store a read runs against.
+     */
+    interface Opener {
+        LocationDataSource open();
+    }
+
+    /**
+     * A read of the store, run on the reader thread.
+     */
+    interface Read<T> {
+        T read(LocationDataSource dataSource) throws Exception;
+    }
+
+    private final Opener opener;
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(AsyncLocationDataSource.named("OpenLocate-reader"));
+
+    AsyncLocationReader(Opener opener) {
+        this.opener = opener;
+    }
+
+    <T> Future<T> read(final Read<T> read) {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return run(read);
+            }
+        });
+    }
+
+    /**
+     * Runs the read and hands its result or failure to the callback, on the reader thread.
+     */
+    <T> void read(final Read<T> read, final LocationReadCallback<T> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                T result;
+                try {
+                    result = AsyncLocationReader.this.run(read);
+                } catch (Exception e) {
+                    Log.e(TAG, "Could not read locations: " + e.getMessage());
+                    callback.onError(new Error(e.getMessage()));
+                    return;
+                }
+                callback.onRead(result);
+            }
+        });
+    }
+
+    private <T> T run(Read<T> read) throws Exception {
+        LocationDataSource dataSource = opener.open();
+        try {
+            return read.read(dataSource);
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * Stops accepting reads. Reads already submitted still run, after which the thread ends.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Snapshot of the locations stored on the device that are waiting to be sent.
+ */
+public final class BacklogStatus {
+
+    private final LocationStats stats;
+    private final Map<String, Long> pendingLocations;
+
+    BacklogStatus(LocationStats stats, Map<String, Long> pendingLocations) {
+        this.stats = stats;
+        this.pendingLocations = Collections.unmodifiableMap(pendingLocations);
+    }
+
+    public long getLocationCount() {
+        return stats.getCount();
+    }
+
+    public long getApproximateBytes() {
+        return stats.getApproximateBytes();
+    }
+
+    /**
+     * Returns when the oldest stored location was collected, or null if there are none.
+     */
+    public Date getOldestLocationDate() {
+        return stats.getCount() > 0 ? new Date(stats.getOldestCreatedAt()) : null;
+    }
+
+    /**
+     * Returns when the newest stored location was collected, or null if there are none.
+     */
+    public Date getNewestLocationDate() {
+        return stats.getCount() > 0 ? new Date(stats.getNewestCreatedAt()) : null;
+    }
+
+    /**
+     * Returns, for each endpoint URL, how many stored locations it has yet to receive.
+     */
+    public Map<String, Long> getPendingLocations() {
+        return pendingLocations;
+    }
+
+    @Override
+    public String toString() {
+        return "BacklogStatus{" +
+                "locationCount=" + getLocationCount() +
+                ", approximateBytes=" + getApproximateBytes() +
+                ", pendingLocations=" + pendingLocations +
+                '}';
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Write-behind buffer in front of another data source. Added locations are kept in memory and
+ * written through a single {@link LocationDataSource#addAll(List)} once the buffer holds
+ * {@code maxCount} locations or its oldest location has waited {@code maxAgeMillis}.
+ * Reads flush the buffer first, so they always see every added location.
+ *
+ * <p>Locations a failed write did not store stay in the buffer and go out with the next flush.
+ * At most {@code maxPending} are kept, whether they were just added or put back by a failed
+ * write; past that the oldest are dropped.</p>
+ */
+final class BufferedLocationDataSource implements LocationDataSource {
+
+    private static final String TAG = BufferedLocationDataSource.class.getSimpleName();
+
+    private final LocationDataSource delegate;
+    private final int maxCount;
+    private final long maxAgeMillis;
+    private final int maxPending;
+
+    private List<OpenLocateLocation> buffer = new ArrayList<>();
+    private long bufferedSince;
+
+    BufferedLocationDataSource(LocationDataSource delegate, int maxCount, long maxAgeMillis) {
+        this(delegate, maxCount, maxAgeMillis, Constants.LOCATION_BUFFER_MAX_PENDING);
+    }
+
+    BufferedLocationDataSource(LocationDataSource delegate, int maxCount, long maxAgeMillis, int maxPending) {
+        this.delegate = delegate;
+        this.maxCount = maxCount;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Writes the buffered locations and these in one batch.
+     */
+    @Override
+    public synchronized void addAll(List<OpenLocateLocation> locationList) {
+        if (buffer.isEmpty()) {
+            bufferedSince = System.currentTimeMillis();
+        }
+
+        buffer.addAll(locationList);
+        flush();
+    }
+
+    @Override
+    public synchronized void add(OpenLocateLocation location) {
+        long now = System.currentTimeMillis();
+        if (buffer.isEmpty()) {
+            bufferedSince = now;
+        }
+
+        buffer.add(location);
+        dropOverflow();
+
+        if (buffer.size() >= maxCount || now - bufferedSince >= maxAgeMillis) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes every buffered location to the underlying data source. If the write fails, the
+     * locations are put back and the failure is rethrown.
+     */
+    synchronized void flush() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+
+        List<OpenLocateLocation> pending = buffer;
+        buffer = new ArrayList<>();
+        try {
+            delegate.addAll(pending);
+        } catch (RuntimeException e) {
+            restore(pending);
+            throw e;
+        }
+    }
+
+    private void restore(List<OpenLocateLocation> pending) {
+        buffer = pending;
+        dropOverflow();
+    }
+
+    private void dropOverflow() {
+        int dropped = buffer.size() - maxPending;
+        if (dropped > 0) {
+            Log.w(TAG, "Too many locations waiting to be written. Dropped the " + dropped + " oldest.");
+            buffer.subList(0, dropped).clear();
+        }
+    }
+
+    synchronized int getBufferedCount() {
+        return buffer.size();
+    }
+
+    @Override
+    public synchronized List<OpenLocateLocation> getSince(long millisecondsSince1970) {
+        flush();
+        return delegate.getSince(millisecondsSince1970);
+    }
+
+    @Override
+    public synchronized LocationIterator iterateAfter(DispatchCursor cursor, int limit) {
+        flush();
+        return delegate.iterateAfter(cursor, limit);
+    }
+
+    @Override
+    public synchronized LocationIterator query(LocationQuery query) {
+        flush();
+        return delegate.query(query);
+    }
+
+    @Override
+    public synchronized int deleteBefore(long millisecondsSince1970, int limit) {
+        flush();
+        return delegate.deleteBefore(millisecondsSince1970, limit);
+    }
+
+    @Override
+    public synchronized long size() {
+        return delegate.size() + buffer.size();
+    }
+
+    @Override
+    public synchronized LocationStats getStats() {
+        flush();
+        return delegate.getStats();
+    }
+
+    @Override
+    public synchronized long countAfter(DispatchCursor cursor) {
+        flush();
+        return delegate.countAfter(cursor);
+    }
+
+    @Override
+    public DispatchCursor getCursor(String endpoint) {
+        return delegate.getCursor(endpoint);
+    }
+
+    @Override
+    public void advanceCursor(String endpoint, DispatchCursor cursor, Collection<String> endpoints) {
+        delegate.advanceCursor(endpoint, cursor, endpoints);
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            flush();
+        } finally {
+            delegate.close();
+        }
+    }
+}
@@ -27,11 +27,23 @@ final class Constants {
     static final long DEFAULT_LOCATION_INTERVAL_SEC = 5 * 60;
     static final long DEFAULT_FAST_LOCATION_INTERVAL_SEC = 1 * 60;
     static final long DEFAULT_TRANSMISSION_INTERVAL_SEC = 6 * 60 * 60;
+    static final long DEFAULT_PURGE_INTERVAL_SEC = 6 * 60 * 60;
     static final long SERVICE_CHECK_INTERVAL_MSEC = 5 * 60 * 1000;
+    static final int LOCATION_BUFFER_MAX_COUNT = 50;
+    static final long LOCATION_BUFFER_MAX_AGE_MSEC = 5 * 60 * 1000;
+    static final int LOCATION_BUFFER_MAX_PENDING = 1000;
+    static final long DATABASE_IDLE_TIMEOUT_MSEC = 60 * 1000;
+    static final int DEFAULT_MEMORY_CAPACITY = 10000;
     static final LocationAccuracy DEFAULT_LOCATION_ACCURACY = LocationAccuracy.HIGH;
 
     // Location service intent keys
     static final String ENDPOINTS_KEY = "endpoints";
+    static final String LOCATION_STORAGE_KEY = "location_storage";
+    static final String MAX_STORED_LOCATIONS_KEY = "max_stored_locations";
+    static final String MAX_STORAGE_BYTES_KEY = "max_storage_bytes";
+    static final String EVICTION_POLICY_KEY = "eviction_policy";
+    static final String EVICTION_INTERVAL_KEY = "eviction_interval";
+    static final String EVICTION_ACCURACY_KEY = "eviction_accuracy";
     static final String SERVICE_STATUS = "service_status";
     static final String TRACKING_STATUS = "tracking_status";
 
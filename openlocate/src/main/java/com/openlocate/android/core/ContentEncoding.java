@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * How the body of a post to an endpoint is compressed. Location pages compress well, since
+ * field names and device details repeat on every location. Endpoints that answer a compressed
+ * post with 415 Unsupported Media Type are sent uncompressed bodies from then on.
+ */
+public enum ContentEncoding {
+    /**
+     * Not compressed.
+     */
+    IDENTITY(null),
+
+    /**
+     * Compressed with gzip (RFC 1952).
+     */
+    GZIP("gzip"),
+
+    /**
+     * Compressed with zlib-wrapped deflate (RFC 1950), as HTTP defines "deflate".
+     */
+    DEFLATE("deflate");
+
+    // Location pages are sent from a phone, so compressing them has to stay cheap. The fastest
+    // level gets most of the gain on data this repetitive.
+    private static final int LEVEL = Deflater.BEST_SPEED;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String headerValue;
+
+    ContentEncoding(String headerValue) {
+        this.headerValue = headerValue;
+    }
+
+    /**
+     * Returns the value of the Content-Encoding header, or null if none is sent.
+     */
+    String getHeaderValue() {
+        return headerValue;
+    }
+
+    /**
+     * Wraps the stream so that what is written to it is compressed. Closing the returned stream
+     * finishes the compressed data and releases the compressor, but leaves the wrapped stream open.
+     */
+    OutputStream wrap(OutputStream out) throws IOException {
+        OutputStream unclosed = new UnclosedOutputStream(out);
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(unclosed, BUFFER_SIZE) {
+                    {
+                        def.setLevel(LEVEL);
+                    }
+                };
+            case DEFLATE:
+                final Deflater deflater = new Deflater(LEVEL);
+                return new DeflaterOutputStream(unclosed, deflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            deflater.end();
+                        }
+                    }
+                };
+            default:
+                return unclosed;
+        }
+    }
+
+    private static final class UnclosedOutputStream extends OutputStream {
+
+        private final OutputStream out;
+
+        UnclosedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -22,15 +22,27 @@
 package com.openlocate.android.core;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
+import java.util.Timer;
+import java.util.TimerTask;
+
 final class DatabaseHelper extends SQLiteOpenHelper {
 
     private static DatabaseHelper instance;
     private static final String DATABASE_NAME = "OpenLocate.db";
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 3;
+
+    // Pages the write-ahead log may grow to before a commit folds it back into the database.
+    // Collection commits small batches, so this keeps checkpoints out of its way; purges
+    // checkpoint explicitly once they are done.
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 2000;
+
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
 
     public static synchronized DatabaseHelper getInstance(Context context) {
         if (instance == null) {
@@ -39,15 +51,120 @@ final class DatabaseHelper extends SQLiteOpenHelper {
         return instance;
     }
 
+    private final Timer idleTimer = new Timer("OpenLocate-database", true);
+    private int leases;
+    private long idleTimeoutMillis = Constants.DATABASE_IDLE_TIMEOUT_MSEC;
+    private TimerTask pendingClose;
+
     private DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /**
+     * Sets how long the database stays open after the last lease is released.
+     */
+    synchronized void setIdleTimeout(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = Math.max(0, idleTimeoutMillis);
+    }
+
+    /**
+     * Keeps the database open until the lease is released. Every store that uses the database
+     * holds one, so one component closing its store cannot close the database under another.
+     */
+    synchronized void acquire() {
+        leases++;
+        if (pendingClose != null) {
+            pendingClose.cancel();
+            pendingClose = null;
+        }
+    }
+
+    /**
+     * Releases a lease taken with {@link #acquire()}. Once none are left and none is taken for
+     * the idle timeout, the database is closed.
+     */
+    synchronized void release() {
+        if (leases == 0 || --leases > 0) {
+            return;
+        }
+
+        if (idleTimeoutMillis == 0) {
+            close();
+            return;
+        }
+
+        pendingClose = new TimerTask() {
+            @Override
+            public void run() {
+                closeIfIdle(this);
+            }
+        };
+        idleTimer.schedule(pendingClose, idleTimeoutMillis);
+    }
+
+    private synchronized void closeIfIdle(TimerTask task) {
+        if (pendingClose == task) {
+            pendingClose = null;
+            close();
+        }
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         LocationTable.createIfRequired(db);
     }
 
+    /**
+     * Turns on write-ahead logging, so reads no longer wait for writes. Reads made outside of a
+     * transaction then run on the read-only connections the database keeps in a small pool.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        if (!db.isReadOnly() && db.enableWriteAheadLogging()) {
+            pragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        }
+    }
+
+    /**
+     * Copies what it can of the write-ahead log back into the database without waiting for
+     * readers. Does nothing when the log is not in use.
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        if (db != null) {
+            pragma(db, "PRAGMA wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    /**
+     * Gives the pages left free by purges back to the file system. A database created without
+     * incremental auto-vacuum is rebuilt once to turn it on, which takes about as much free space
+     * as the database itself. Must not be called inside a transaction.
+     */
+    static void vacuum(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        } else {
+            pragma(db, "PRAGMA incremental_vacuum");
+        }
+        checkpoint(db);
+    }
+
+    // Pragmas that return a row cannot go through execSQL. A query only runs once its cursor is
+    // moved, so it is moved before being closed.
+    private static void pragma(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        if (cursor != null) {
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         LocationTable.upgrade(db, oldVersion, newVersion);
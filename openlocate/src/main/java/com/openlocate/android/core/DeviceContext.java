@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+/**
+ * The part of a location that describes the device rather than the fix. It rarely changes
+ * between fixes, so it is stored once in {@link DeviceContextTable} and referenced by id.
+ */
+final class DeviceContext {
+
+    private final String adId;
+    private final boolean adOptOut;
+    private final String manufacturer;
+    private final String model;
+    private final String operatingSystem;
+    private final String carrierName;
+    private final String wifiSsid;
+    private final String wifiBssid;
+
+    private AdvertisingIdClient.Info advertisingInfo;
+
+    DeviceContext(String adId, boolean adOptOut,
+                  String manufacturer, String model, String operatingSystem,
+                  String carrierName, String wifiSsid, String wifiBssid) {
+        this.adId = nonNull(adId);
+        this.adOptOut = adOptOut;
+        this.manufacturer = nonNull(manufacturer);
+        this.model = nonNull(model);
+        this.operatingSystem = nonNull(operatingSystem);
+        this.carrierName = nonNull(carrierName);
+        this.wifiSsid = nonNull(wifiSsid);
+        this.wifiBssid = nonNull(wifiBssid);
+    }
+
+    static DeviceContext from(OpenLocateLocation location) {
+        AdvertisingIdClient.Info advertisingInfo = location.getAdvertisingInfo();
+        InformationFields fields = location.getInformationFields();
+
+        String adId = null;
+        boolean adOptOut = false;
+        if (advertisingInfo != null) {
+            adId = advertisingInfo.getId();
+            adOptOut = advertisingInfo.isLimitAdTrackingEnabled();
+        }
+
+        if (fields == null) {
+            return new DeviceContext(adId, adOptOut, null, null, null, null, null, null);
+        }
+
+        return new DeviceContext(adId, adOptOut,
+                fields.getManufacturer(), fields.getModel(), fields.getOperatingSystem(),
+                fields.getCarrierName(), fields.getWifiSsid(), fields.getWifiBssid());
+    }
+
+    /**
+     * Returns whether the location was collected in this context, without building a context
+     * from it.
+     */
+    boolean matches(OpenLocateLocation location) {
+        AdvertisingIdClient.Info advertisingInfo = location.getAdvertisingInfo();
+        if (advertisingInfo != null) {
+            if (adOptOut != advertisingInfo.isLimitAdTrackingEnabled() || !adId.equals(nonNull(advertisingInfo.getId()))) {
+                return false;
+            }
+        } else if (adOptOut || !adId.isEmpty()) {
+            return false;
+        }
+
+        InformationFields fields = location.getInformationFields();
+        if (fields == null) {
+            return manufacturer.isEmpty() && model.isEmpty() && operatingSystem.isEmpty()
+                    && carrierName.isEmpty() && wifiSsid.isEmpty() && wifiBssid.isEmpty();
+        }
+
+        return manufacturer.equals(nonNull(fields.getManufacturer()))
+                && model.equals(nonNull(fields.getModel()))
+                && operatingSystem.equals(nonNull(fields.getOperatingSystem()))
+                && carrierName.equals(nonNull(fields.getCarrierName()))
+                && wifiSsid.equals(nonNull(fields.getWifiSsid()))
+                && wifiBssid.equals(nonNull(fields.getWifiBssid()));
+    }
+
+    String getAdId() {
+        return adId;
+    }
+
+    boolean isAdOptOut() {
+        return adOptOut;
+    }
+
+    String getManufacturer() {
+        return manufacturer;
+    }
+
+    String getModel() {
+        return model;
+    }
+
+    String getOperatingSystem() {
+        return operatingSystem;
+    }
+
+    String getCarrierName() {
+        return carrierName;
+    }
+
+    String getWifiSsid() {
+        return wifiSsid;
+    }
+
+    String getWifiBssid() {
+        return wifiBssid;
+    }
+
+    AdvertisingIdClient.Info getAdvertisingInfo() {
+        if (advertisingInfo == null) {
+            advertisingInfo = new AdvertisingIdClient.Info(adId, adOptOut);
+        }
+        return advertisingInfo;
+    }
+
+    private static String nonNull(String value) {
+        return value != null ? value : "";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        DeviceContext that = (DeviceContext) o;
+        return adOptOut == that.adOptOut
+                && adId.equals(that.adId)
+                && manufacturer.equals(that.manufacturer)
+                && model.equals(that.model)
+                && operatingSystem.equals(that.operatingSystem)
+                && carrierName.equals(that.carrierName)
+                && wifiSsid.equals(that.wifiSsid)
+                && wifiBssid.equals(that.wifiBssid);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = adId.hashCode();
+        result = 31 * result + (adOptOut ? 1 : 0);
+        result = 31 * result + manufacturer.hashCode();
+        result = 31 * result + model.hashCode();
+        result = 31 * result + operatingSystem.hashCode();
+        result = 31 * result + carrierName.hashCode();
+        result = 31 * result + wifiSsid.hashCode();
+        result = 31 * result + wifiBssid.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceContext{" +
+                "adId='" + adId + '\'' +
+                ", adOptOut=" + adOptOut +
+                ", manufacturer='" + manufacturer + '\'' +
+                ", model='" + model + '\'' +
+                ", operatingSystem='" + operatingSystem + '\'' +
+                ", carrierName='" + carrierName + '\'' +
+                ", wifiSsid='" + wifiSsid + '\'' +
+                ", wifiBssid='" + wifiBssid + '\'' +
+                '}';
+    }
+}
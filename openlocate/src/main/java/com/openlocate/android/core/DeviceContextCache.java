@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Interns device contexts so that storing a location only needs a map lookup to find the id of
+ * its context row. Only the most recently used contexts are kept.
+ */
+final class DeviceContextCache {
+
+    private static final int MAX_ENTRIES = 16;
+
+    private final Map<DeviceContext, Long> ids = new LinkedHashMap<DeviceContext, Long>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<DeviceContext, Long> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    // Consecutive locations nearly always share a context, which is checked without allocating.
+    private DeviceContext lastContext;
+    private long lastId;
+
+    private int generation = DeviceContextTable.getGeneration();
+
+    synchronized long getId(SQLiteDatabase db, OpenLocateLocation location) {
+        if (generation != DeviceContextTable.getGeneration()) {
+            clear();
+            generation = DeviceContextTable.getGeneration();
+        }
+
+        if (lastContext != null && lastContext.matches(location)) {
+            return lastId;
+        }
+
+        DeviceContext context = DeviceContext.from(location);
+
+        Long id = ids.get(context);
+        if (id == null) {
+            id = DeviceContextTable.getId(db, context);
+            ids.put(context, id);
+        }
+
+        lastContext = context;
+        lastId = id;
+        return id;
+    }
+
+    /**
+     * Forgets every cached id. Needed whenever an insert is rolled back, since the context rows it
+     * created are rolled back with it, and done on its own once unreferenced contexts are deleted.
+     */
+    synchronized void clear() {
+        ids.clear();
+        lastContext = null;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class DeviceContextTable {
+
+    private static final String TAG = DeviceContextTable.class.getSimpleName();
+
+    static final String TABLE_NAME = "device_context";
+
+    static final String COLUMN_ID = "_id";
+    static final String COLUMN_AD_ID = "ad_id";
+    static final String COLUMN_AD_OPT_OUT = "ad_opt_out";
+    static final String COLUMN_DEVICE_MANUFACTURER = "device_manufacturer";
+    static final String COLUMN_DEVICE_MODEL = "device_model";
+    static final String COLUMN_OPERATING_SYSTEM = "os_version";
+    static final String COLUMN_CARRIER_NAME = "carrier_name";
+    static final String COLUMN_WIFI_SSID = "wifi_ssid";
+    static final String COLUMN_WIFI_BSSID = "wifi_bssid";
+
+    static final String CONTEXT_COLUMNS = COLUMN_AD_ID + ", "
+            + COLUMN_AD_OPT_OUT + ", "
+            + COLUMN_DEVICE_MANUFACTURER + ", "
+            + COLUMN_DEVICE_MODEL + ", "
+            + COLUMN_OPERATING_SYSTEM + ", "
+            + COLUMN_CARRIER_NAME + ", "
+            + COLUMN_WIFI_SSID + ", "
+            + COLUMN_WIFI_BSSID;
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_NAME
+            + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY, "
+            + COLUMN_AD_ID + " TEXT NOT NULL DEFAULT '', "
+            + COLUMN_AD_OPT_OUT + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_DEVICE_MANUFACTURER + " TEXT NOT NULL DEFAULT '', "
+            + COLUMN_DEVICE_MODEL + " TEXT NOT NULL DEFAULT '', "
+            + COLUMN_OPERATING_SYSTEM + " TEXT NOT NULL DEFAULT '', "
+            + COLUMN_CARRIER_NAME + " TEXT NOT NULL DEFAULT '', "
+            + COLUMN_WIFI_SSID + " TEXT NOT NULL DEFAULT '', "
+            + COLUMN_WIFI_BSSID + " TEXT NOT NULL DEFAULT '', "
+            + "UNIQUE (" + CONTEXT_COLUMNS + ")"
+            + ");";
+
+    private static final String FIND_SELECTION = COLUMN_AD_ID + " = ? AND "
+            + COLUMN_AD_OPT_OUT + " = ? AND "
+            + COLUMN_DEVICE_MANUFACTURER + " = ? AND "
+            + COLUMN_DEVICE_MODEL + " = ? AND "
+            + COLUMN_OPERATING_SYSTEM + " = ? AND "
+            + COLUMN_CARRIER_NAME + " = ? AND "
+            + COLUMN_WIFI_SSID + " = ? AND "
+            + COLUMN_WIFI_BSSID + " = ?";
+
+    private static final String[] ID_COLUMNS = new String[]{COLUMN_ID};
+
+    private static final String[] CONTEXT_COLUMN_NAMES = new String[]{
+            COLUMN_AD_ID,
+            COLUMN_AD_OPT_OUT,
+            COLUMN_DEVICE_MANUFACTURER,
+            COLUMN_DEVICE_MODEL,
+            COLUMN_OPERATING_SYSTEM,
+            COLUMN_CARRIER_NAME,
+            COLUMN_WIFI_SSID,
+            COLUMN_WIFI_BSSID
+    };
+
+    // Moves on whenever contexts are deleted, so cached ids are looked up again.
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    static void createIfRequired(SQLiteDatabase db) {
+        db.execSQL(CREATE_TABLE_SQL);
+    }
+
+    static int getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Deletes the contexts that no stored location references any more. Locations and blocks are
+     * scanned in the same transaction as the delete, so a location stored meanwhile cannot point
+     * at a deleted row.
+     *
+     * @return how many contexts were deleted.
+     */
+    static int deleteUnreferenced(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            Set<Long> referenced = new HashSet<>();
+            LocationTable.addContextIds(db, referenced);
+            try {
+                LocationBlockTable.addContextIds(db, referenced);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Cannot tell which contexts are in use: " + e.getMessage());
+                return 0;
+            }
+
+            List<Long> unreferenced = new ArrayList<>();
+            Cursor cursor = db.query(TABLE_NAME, ID_COLUMNS, null, null, null, null, null);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        if (!referenced.contains(cursor.getLong(0))) {
+                            unreferenced.add(cursor.getLong(0));
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            for (long id : unreferenced) {
+                db.delete(TABLE_NAME, COLUMN_ID + " = " + id, null);
+            }
+            if (!unreferenced.isEmpty()) {
+                generation.incrementAndGet();
+            }
+
+            db.setTransactionSuccessful();
+            return unreferenced.size();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the id of the stored context equal to the given one, inserting it first if needed.
+     *
+     * @throws android.database.SQLException if the context cannot be inserted, which fails the
+     * batch that references it.
+     */
+    static long getId(SQLiteDatabase db, DeviceContext context) {
+        Cursor cursor = db.query(TABLE_NAME, ID_COLUMNS, FIND_SELECTION, new String[]{
+                context.getAdId(),
+                context.isAdOptOut() ? "1" : "0",
+                context.getManufacturer(),
+                context.getModel(),
+                context.getOperatingSystem(),
+                context.getCarrierName(),
+                context.getWifiSsid(),
+                context.getWifiBssid()
+        }, null, null, null);
+
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    return cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_AD_ID, context.getAdId());
+        values.put(COLUMN_AD_OPT_OUT, context.isAdOptOut());
+        values.put(COLUMN_DEVICE_MANUFACTURER, context.getManufacturer());
+        values.put(COLUMN_DEVICE_MODEL, context.getModel());
+        values.put(COLUMN_OPERATING_SYSTEM, context.getOperatingSystem());
+        values.put(COLUMN_CARRIER_NAME, context.getCarrierName());
+        values.put(COLUMN_WIFI_SSID, context.getWifiSsid());
+        values.put(COLUMN_WIFI_BSSID, context.getWifiBssid());
+        return db.insertOrThrow(TABLE_NAME, null, values);
+    }
+
+    static DeviceContext get(SQLiteDatabase db, long id) {
+        Cursor cursor = db.query(TABLE_NAME, CONTEXT_COLUMN_NAMES, COLUMN_ID + " = " + id,
+                null, null, null, null);
+
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+
+            return new DeviceContext(
+                    cursor.getString(0),
+                    cursor.getInt(1) != 0,
+                    cursor.getString(2),
+                    cursor.getString(3),
+                    cursor.getString(4),
+                    cursor.getString(5),
+                    cursor.getString(6),
+                    cursor.getString(7)
+            );
+        } finally {
+            cursor.close();
+        }
+    }
+}
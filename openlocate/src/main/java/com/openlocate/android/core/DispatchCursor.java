@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+/**
+ * Position of an endpoint in the location store: the id of the last location it accepted.
+ * Location ids are handed out in the order locations are stored and never reused, so everything
+ * stored after the cursor has a higher id, whenever it was created.
+ */
+final class DispatchCursor implements Comparable<DispatchCursor> {
+
+    static final DispatchCursor START = new DispatchCursor(0);
+
+    private final long id;
+
+    DispatchCursor(long id) {
+        this.id = id;
+    }
+
+    static DispatchCursor of(OpenLocateLocation location) {
+        return new DispatchCursor(location.getId());
+    }
+
+    long getId() {
+        return id;
+    }
+
+    boolean isBefore(OpenLocateLocation location) {
+        return location.getId() > id;
+    }
+
+    @Override
+    public int compareTo(DispatchCursor other) {
+        return id < other.id ? -1 : (id == other.id ? 0 : 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        DispatchCursor that = (DispatchCursor) o;
+        return id == that.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (id ^ (id >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "DispatchCursor{" +
+                "id=" + id +
+                '}';
+    }
+}
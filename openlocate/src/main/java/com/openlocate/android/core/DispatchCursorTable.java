@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Collection;
+
+/**
+ * Keeps the position of every endpoint in the location table, next to the locations themselves,
+ * so moving a cursor and purging the locations every endpoint has received is one transaction.
+ */
+final class DispatchCursorTable {
+
+    static final String TABLE_NAME = "dispatch_cursor";
+
+    private static final String COLUMN_ENDPOINT = "endpoint";
+    private static final String COLUMN_LOCATION_ID = "location_id";
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_NAME
+            + " ("
+            + COLUMN_ENDPOINT + " TEXT PRIMARY KEY, "
+            + COLUMN_LOCATION_ID + " INTEGER NOT NULL"
+            + ");";
+
+    private static final String[] CURSOR_COLUMNS = new String[]{COLUMN_LOCATION_ID};
+
+    static void createIfRequired(SQLiteDatabase db) {
+        db.execSQL(CREATE_TABLE_SQL);
+    }
+
+    /**
+     * Returns the stored cursor of the endpoint, or null if it has never been stored.
+     */
+    static DispatchCursor get(SQLiteDatabase db, String endpoint) {
+        Cursor cursor = db.query(TABLE_NAME, CURSOR_COLUMNS, COLUMN_ENDPOINT + " = ?",
+                new String[]{endpoint}, null, null, null);
+
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            return cursor.moveToFirst() ? new DispatchCursor(cursor.getLong(0)) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static void set(SQLiteDatabase db, String endpoint, DispatchCursor cursor) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ENDPOINT, endpoint);
+        values.put(COLUMN_LOCATION_ID, cursor.getId());
+        db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Stores the cursor of the endpoint and deletes the locations that all of the given endpoints
+     * have received, in one transaction. Nothing is deleted while any of them has no cursor yet.
+     */
+    static void advance(SQLiteDatabase db, String endpoint, DispatchCursor cursor, Collection<String> endpoints) {
+        db.beginTransaction();
+        try {
+            set(db, endpoint, cursor);
+
+            DispatchCursor delivered = getMinimum(db, endpoints);
+            if (delivered != null) {
+                LocationTable.deleteUpTo(db, delivered);
+                LocationBlockTable.deleteUpTo(db, delivered);
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static DispatchCursor getMinimum(SQLiteDatabase db, Collection<String> endpoints) {
+        DispatchCursor minimum = null;
+        for (String endpoint : endpoints) {
+            DispatchCursor cursor = get(db, endpoint);
+            if (cursor == null) {
+                return null;
+            }
+
+            if (minimum == null || cursor.compareTo(minimum) < 0) {
+                minimum = cursor;
+            }
+        }
+
+        return minimum;
+    }
+}
@@ -22,9 +22,6 @@
 package com.openlocate.android.core;
 
 import android.content.Context;
-import android.database.sqlite.SQLiteFullException;
-import android.database.sqlite.SQLiteOpenHelper;
-import android.util.Log;
 
 import com.google.android.gms.gcm.GcmNetworkManager;
 import com.google.android.gms.gcm.GcmTaskService;
@@ -43,7 +40,16 @@ final public class DispatchLocationService extends GcmTaskService {
 
     private final static String TAG = DispatchLocationService.class.getSimpleName();
 
-    public static final long EXPIRED_PERIOD = TimeUnit.DAYS.toMillis(10);
+    /**
+     * @deprecated Expired locations are purged by {@link PurgeLocationService}, after the period
+     * of the configured {@link RetentionPolicy}.
+     */
+    @Deprecated
+    public static final long EXPIRED_PERIOD = TimeUnit.HOURS.toMillis(RetentionPolicy.DEFAULT_PERIOD_IN_HOURS);
+
+    // GcmNetworkManager stops waiting for a task after three minutes.
+    static final long DRAIN_TIME_BUDGET = TimeUnit.MINUTES.toMillis(2);
+    static final long DRAIN_BYTE_BUDGET = 4 * 1024 * 1024;
 
     @Override
     public int onRunTask(TaskParams taskParams) {
@@ -60,53 +66,134 @@ final public class DispatchLocationService extends GcmTaskService {
 
     public static int sendLocations(Context context, List<OpenLocate.Endpoint> endpoints) {
 
-        SQLiteOpenHelper helper = DatabaseHelper.getInstance(context);
-        LocationDataSource dataSource = new LocationDatabase(helper);
+        final LocationDataSource dataSource = LocationStores.open(context);
         HttpClient httpClient = new HttpClientImpl();
 
         LocationDispatcher dispatcher = new LocationDispatcher();
 
-        List<Long> timestamps = new ArrayList<>(endpoints.size());
+        // Every endpoint gets an equal share of the run's budgets so a large backlog on one of
+        // them cannot starve the others.
+        long timeShare = DRAIN_TIME_BUDGET / Math.max(1, endpoints.size());
+        long byteShare = DRAIN_BYTE_BUDGET / Math.max(1, endpoints.size());
+
+        final List<String> keys = new ArrayList<>(endpoints.size());
+        List<DispatchCursor> cursors = new ArrayList<>(endpoints.size());
         for (OpenLocate.Endpoint endpoint : endpoints) {
+            keys.add(getKey(endpoint));
+            cursors.add(getCursor(context, dataSource, endpoint));
+        }
 
-            String key = md5(endpoint.getUrl().toLowerCase());
+        // Endpoints at the same cursor that take the same format are sent the same pages, which
+        // are then read and encoded once for all of them. A group gets the time its endpoints
+        // would have had between them; every endpoint in it is sent the same bytes, so the
+        // byte budget stays that of one endpoint.
+        for (DispatchPlanner.Group group : DispatchPlanner.plan(endpoints, cursors)) {
+            long deadline = System.currentTimeMillis() + timeShare * group.endpoints.size();
 
             try {
-                long timestamp = SharedPreferenceUtils.getInstance(context).getLongValue(key, 0);
-                List<OpenLocateLocation> sentLocations =
-                        dispatcher.postLocations(httpClient, endpoint, timestamp, dataSource);
-
-                if (sentLocations != null && sentLocations.isEmpty() == false) {
-                    long latestCreatedLocationDate =
-                            sentLocations.get(sentLocations.size() - 1).getCreated().getTime();
-                    SharedPreferenceUtils.getInstance(context).setValue(key, latestCreatedLocationDate);
+                if (group.endpoints.size() == 1) {
+                    final String key = getKey(group.endpoints.get(0));
+                    dispatcher.drainLocations(httpClient, group.endpoints.get(0), group.cursor, dataSource,
+                            deadline, byteShare,
+                            new LocationDispatcher.ProgressListener() {
+                                @Override
+                                public void onProgress(DispatchCursor cursor) {
+                                    dataSource.advanceCursor(key, cursor, keys);
+                                }
+                            });
+                } else {
+                    dispatcher.drainGroup(httpClient, group, dataSource, deadline, byteShare,
+                            new LocationDispatcher.GroupProgressListener() {
+                                @Override
+                                public void onProgress(OpenLocate.Endpoint endpoint, DispatchCursor cursor) {
+                                    dataSource.advanceCursor(getKey(endpoint), cursor, keys);
+                                }
+                            });
                 }
             } catch (Exception e) {
                 e.printStackTrace();
             }
+        }
+
+        // Locations every endpoint received are purged as the cursors move. Expired ones are
+        // left to PurgeLocationService.
+        dataSource.close();
+
+        return GcmNetworkManager.RESULT_SUCCESS;
+    }
 
-            timestamps.add(SharedPreferenceUtils.getInstance(context).getLongValue(key, 0));
+    static String getKey(OpenLocate.Endpoint endpoint) {
+        return md5(endpoint.getUrl().toLowerCase());
+    }
+
+    /**
+     * Returns the cursor of the endpoint. Cursors kept in shared preferences by earlier versions
+     * are moved into the database the first time they are read.
+     */
+    static DispatchCursor getCursor(Context context, LocationDataSource dataSource, OpenLocate.Endpoint endpoint) {
+        String key = getKey(endpoint);
+        DispatchCursor cursor = dataSource.getCursor(key);
+        if (cursor != null) {
+            return cursor;
         }
 
-        Long min = Collections.min(timestamps);
-        if (min != null) {
-            long expired = System.currentTimeMillis() - EXPIRED_PERIOD;
+        cursor = getPreferenceCursor(context, dataSource, key);
+        if (cursor == null) {
+            return DispatchCursor.START;
+        }
 
-            if (min < expired) {
-                min = expired;
-            }
+        dataSource.advanceCursor(key, cursor, Collections.<String>emptyList());
 
-            try {
-                dataSource.deleteBefore(min);
-            } catch (SQLiteFullException exception) {
-                Log.w(TAG, "Database is full. Cannot purge data.");
-            } finally {
-                dataSource.close();
-            }
+        SharedPreferenceUtils preferences = SharedPreferenceUtils.getInstance(context);
+        preferences.removeKey(key);
 
+        return cursor;
+    }
+
+    /**
+     * Returns the cursor of the endpoint without moving it out of shared preferences, for
+     * processes that only read the store.
+     */
+    static DispatchCursor readCursor(Context context, LocationDataSource dataSource, OpenLocate.Endpoint endpoint) {
+        String key = getKey(endpoint);
+        DispatchCursor cursor = dataSource.getCursor(key);
+        if (cursor == null) {
+            cursor = getPreferenceCursor(context, dataSource, key);
         }
+        return cursor != null ? cursor : DispatchCursor.START;
+    }
 
-        return GcmNetworkManager.RESULT_SUCCESS;
+    private static DispatchCursor getPreferenceCursor(Context context, LocationDataSource dataSource, String key) {
+        SharedPreferenceUtils preferences = SharedPreferenceUtils.getInstance(context);
+        long createdAt = preferences.getLongValue(key, 0);
+        if (createdAt == 0) {
+            return null;
+        }
+
+        return getCursorAfter(dataSource, createdAt);
+    }
+
+    /**
+     * Preferences only hold a creation time, which meant everything created up to and including
+     * that time was sent. The cursor goes right before the first location created after it, or
+     * after the last one if there is none.
+     */
+    private static DispatchCursor getCursorAfter(LocationDataSource dataSource, long createdAt) {
+        List<OpenLocateLocation> later = dataSource.getSince(createdAt);
+        if (later != null && !later.isEmpty()) {
+            return new DispatchCursor(later.get(0).getId() - 1);
+        }
+
+        DispatchCursor cursor = DispatchCursor.START;
+        LocationIterator iterator = dataSource.iterateAfter(cursor, 0);
+        try {
+            while (iterator.hasNext()) {
+                cursor = DispatchCursor.of(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+        return cursor;
     }
 
     public static int sendLocations(Context context) throws JSONException {
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plans a dispatch run by grouping endpoints that would be sent the same bytes: those at the same
+ * cursor that take the same payload format. Each page for a group is read and encoded once and
+ * posted to all of its endpoints.
+ */
+final class DispatchPlanner {
+
+    /**
+     * Endpoints that share a cursor and a payload format.
+     */
+    static final class Group {
+        final DispatchCursor cursor;
+        final PayloadFormat format;
+        final List<OpenLocate.Endpoint> endpoints = new ArrayList<>();
+
+        Group(DispatchCursor cursor, PayloadFormat format) {
+            this.cursor = cursor;
+            this.format = format;
+        }
+    }
+
+    private DispatchPlanner() {
+    }
+
+    /**
+     * Groups the endpoints, given the cursor of each at the same index. Groups are in the order
+     * their first endpoint comes in, and so are the endpoints within them.
+     */
+    static List<Group> plan(List<OpenLocate.Endpoint> endpoints, List<DispatchCursor> cursors) {
+        if (endpoints.size() != cursors.size()) {
+            throw new IllegalArgumentException("Every endpoint needs a cursor");
+        }
+
+        if (endpoints.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // There are only ever a handful of endpoints, so the groups are searched in turn.
+        List<Group> groups = new ArrayList<>();
+        for (int i = 0; i < endpoints.size(); i++) {
+            OpenLocate.Endpoint endpoint = endpoints.get(i);
+            DispatchCursor cursor = cursors.get(i);
+
+            Group group = null;
+            for (Group candidate : groups) {
+                if (candidate.cursor.equals(cursor) && candidate.format == endpoint.getPayloadFormat()) {
+                    group = candidate;
+                    break;
+                }
+            }
+
+            if (group == null) {
+                group = new Group(cursor, endpoint.getPayloadFormat());
+                groups.add(group);
+            }
+            group.endpoints.add(endpoint);
+        }
+
+        return groups;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses another body as it is written, and counts the bytes it puts on the stream.
+ */
+final class EncodedHttpBody implements HttpBody {
+
+    private final HttpBody body;
+    private final ContentEncoding encoding;
+    private long bytesWritten;
+
+    EncodedHttpBody(HttpBody body, ContentEncoding encoding) {
+        this.body = body;
+        this.encoding = encoding;
+    }
+
+    @Override
+    public String getContentType() {
+        return body.getContentType();
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return encoding.getHeaderValue();
+    }
+
+    /**
+     * The encoded length is only known once the body is written.
+     */
+    @Override
+    public long getContentLength() {
+        return encoding == ContentEncoding.IDENTITY ? body.getContentLength() : -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        OutputStream counted = new FilterOutputStream(outputStream) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesWritten++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesWritten += len;
+            }
+        };
+
+        OutputStream encoded = encoding.wrap(counted);
+        try {
+            body.writeTo(encoded);
+        } finally {
+            encoded.close();
+        }
+    }
+
+    /**
+     * Returns how many bytes of the encoded body were written.
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which stored locations are deleted first when the storage quota is exceeded. Whatever
+ * the policy, the oldest locations are deleted once it has nothing left to remove.
+ */
+public final class EvictionPolicy implements Parcelable {
+
+    private static final int DROP_OLDEST = 0;
+    private static final int THIN = 1;
+    private static final int DROP_INACCURATE = 2;
+
+    private final int type;
+    private final long intervalInMillis;
+    private final float accuracyInMeters;
+
+    private EvictionPolicy(int type, long intervalInMillis, float accuracyInMeters) {
+        this.type = type;
+        this.intervalInMillis = intervalInMillis;
+        this.accuracyInMeters = accuracyInMeters;
+    }
+
+    /**
+     * Deletes the oldest locations first.
+     */
+    public static EvictionPolicy dropOldest() {
+        return new EvictionPolicy(DROP_OLDEST, 0, 0);
+    }
+
+    /**
+     * Thins the oldest locations down to one location per interval before deleting any whole
+     * interval.
+     */
+    public static EvictionPolicy thin(long intervalInMins) {
+        if (intervalInMins <= 0) {
+            throw new IllegalArgumentException("Thinning interval must be positive.");
+        }
+
+        return new EvictionPolicy(THIN, TimeUnit.MINUTES.toMillis(intervalInMins), 0);
+    }
+
+    /**
+     * Deletes the oldest locations less accurate than the given horizontal accuracy first.
+     */
+    public static EvictionPolicy dropInaccurate(float accuracyInMeters) {
+        if (Float.isNaN(accuracyInMeters) || accuracyInMeters <= 0) {
+            throw new IllegalArgumentException("Accuracy must be positive.");
+        }
+
+        return new EvictionPolicy(DROP_INACCURATE, 0, accuracyInMeters);
+    }
+
+    void save(SharedPreferenceUtils preferences) {
+        preferences.setValue(Constants.EVICTION_POLICY_KEY, type);
+        preferences.setValue(Constants.EVICTION_INTERVAL_KEY, intervalInMillis);
+        preferences.setValue(Constants.EVICTION_ACCURACY_KEY, Float.floatToIntBits(accuracyInMeters));
+    }
+
+    static EvictionPolicy load(SharedPreferenceUtils preferences) {
+        return new EvictionPolicy(preferences.getIntValue(Constants.EVICTION_POLICY_KEY, DROP_OLDEST),
+                preferences.getLongValue(Constants.EVICTION_INTERVAL_KEY, 0),
+                Float.intBitsToFloat(preferences.getIntValue(Constants.EVICTION_ACCURACY_KEY, 0)));
+    }
+
+    /**
+     * Deletes up to {@code limit} locations and returns how many were deleted.
+     */
+    int evict(SQLiteDatabase db, int limit) {
+        int deleted = 0;
+        if (type == THIN) {
+            deleted = LocationTable.deleteThinned(db, intervalInMillis, limit);
+        } else if (type == DROP_INACCURATE) {
+            deleted = LocationTable.deleteInaccurate(db, accuracyInMeters, limit);
+        }
+
+        if (deleted < limit) {
+            deleted += LocationTable.deleteOldest(db, limit - deleted);
+        }
+
+        return deleted;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(this.type);
+        dest.writeLong(this.intervalInMillis);
+        dest.writeFloat(this.accuracyInMeters);
+    }
+
+    protected EvictionPolicy(Parcel in) {
+        this.type = in.readInt();
+        this.intervalInMillis = in.readLong();
+        this.accuracyInMeters = in.readFloat();
+    }
+
+    public static final Creator<EvictionPolicy> CREATOR = new Creator<EvictionPolicy>() {
+        @Override
+        public EvictionPolicy createFromParcel(Parcel source) {
+            return new EvictionPolicy(source);
+        }
+
+        @Override
+        public EvictionPolicy[] newArray(int size) {
+            return new EvictionPolicy[size];
+        }
+    };
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Integer geohashes: longitude and latitude quantized to {@link #BITS_PER_AXIS} bits each and
+ * interleaved, longitude first. Locations close to each other share a prefix, so a bounding box
+ * is covered by a few ranges of hash values that an ordinary index can serve.
+ */
+final class GeoHash {
+
+    static final int BITS_PER_AXIS = 26;
+    private static final int BITS = 2 * BITS_PER_AXIS;
+
+    // Bounds the number of ranges, and so of index probes, per query.
+    private static final int MAX_CELLS = 32;
+
+    private GeoHash() {
+    }
+
+    static long encode(double latitude, double longitude) {
+        return interleave(quantize(longitude, -180, 360, BITS_PER_AXIS), quantize(latitude, -90, 180, BITS_PER_AXIS),
+                BITS_PER_AXIS);
+    }
+
+    /**
+     * Returns sorted, non-overlapping [start, end) ranges of hashes that together contain every
+     * hash inside the box. They may contain hashes outside of it too.
+     */
+    static List<long[]> cover(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        int level = BITS_PER_AXIS;
+        long minX = 0;
+        long maxX = 0;
+        long minY = 0;
+        long maxY = 0;
+        for (; level >= 0; level--) {
+            minX = quantize(minLongitude, -180, 360, level);
+            maxX = quantize(maxLongitude, -180, 360, level);
+            minY = quantize(minLatitude, -90, 180, level);
+            maxY = quantize(maxLatitude, -90, 180, level);
+            if ((maxX - minX + 1) * (maxY - minY + 1) <= MAX_CELLS) {
+                break;
+            }
+        }
+
+        int shift = BITS - 2 * level;
+        List<long[]> cells = new ArrayList<>();
+        for (long x = minX; x <= maxX; x++) {
+            for (long y = minY; y <= maxY; y++) {
+                long prefix = interleave(x, y, level);
+                cells.add(new long[]{prefix << shift, (prefix + 1) << shift});
+            }
+        }
+
+        Collections.sort(cells, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+
+        List<long[]> ranges = new ArrayList<>();
+        for (long[] cell : cells) {
+            long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && last[1] >= cell[0]) {
+                last[1] = Math.max(last[1], cell[1]);
+            } else {
+                ranges.add(cell);
+            }
+        }
+
+        return ranges;
+    }
+
+    private static long quantize(double value, double min, double span, int bits) {
+        long cells = 1L << bits;
+        long cell = (long) Math.floor((value - min) / span * cells);
+        return Math.max(0, Math.min(cells - 1, cell));
+    }
+
+    private static long interleave(long x, long y, int bits) {
+        long hash = 0;
+        for (int i = bits - 1; i >= 0; i--) {
+            hash = (hash << 2) | (((x >>> i) & 1) << 1) | ((y >>> i) & 1);
+        }
+        return hash;
+    }
+}
@@ -25,7 +25,7 @@ import java.util.Map;
 
 interface HttpClient {
     void post(String url,
-              String json,
+              HttpBody body,
               Map<String, String> additionalHeaders,
               HttpClientCallback successCallback,
               HttpClientCallback failureCallback);
@@ -27,11 +27,11 @@ import java.util.concurrent.ExecutionException;
 final class HttpClientImpl implements HttpClient {
 
     @Override
-    public void post(String url, String json, Map<String, String> additionalHeaders, HttpClientCallback successCallback, HttpClientCallback failureCallback) {
+    public void post(String url, HttpBody body, Map<String, String> additionalHeaders, HttpClientCallback successCallback, HttpClientCallback failureCallback) {
         HttpRequest request = new HttpRequest.Builder()
                 .setUrl(url)
                 .setMethodType(HttpMethodType.POST)
-                .setParams(json)
+                .setBody(body)
                 .setAdditionalHeaders(additionalHeaders)
                 .setSuccessCallback(successCallback)
                 .setFailureCallback(failureCallback)
@@ -27,14 +27,16 @@ final class HttpRequest {
     private HttpMethodType methodType;
     private String url;
     private String params;
+    private HttpBody body;
     private HttpClientCallback successCallback;
     private HttpClientCallback failureCallback;
     private Map<String, String> additionalHeaders;
 
-    private HttpRequest(HttpMethodType methodType, String url, String params, Map<String, String> additionalHeaders, HttpClientCallback successCallback, HttpClientCallback failureCallback) {
+    private HttpRequest(HttpMethodType methodType, String url, String params, HttpBody body, Map<String, String> additionalHeaders, HttpClientCallback successCallback, HttpClientCallback failureCallback) {
         this.methodType = methodType;
         this.url = url;
         this.params = params;
+        this.body = body;
         this.additionalHeaders = additionalHeaders;
         this.successCallback = successCallback;
         this.failureCallback = failureCallback;
@@ -52,6 +54,10 @@ final class HttpRequest {
         return params;
     }
 
+    HttpBody getBody() {
+        return body;
+    }
+
     HttpClientCallback getSuccessCallback() {
         return successCallback;
     }
@@ -65,13 +71,14 @@ final class HttpRequest {
     }
 
     boolean isValidForPost() {
-        return getMethodType() == HttpMethodType.POST && getParams() != null;
+        return getMethodType() == HttpMethodType.POST && (getParams() != null || getBody() != null);
     }
 
     static class Builder {
         private HttpMethodType methodType;
         private String url;
         private String params;
+        private HttpBody body;
         private Map<String, String> additionalHeaders;
         private HttpClientCallback successCallback;
         private HttpClientCallback failureCallback;
@@ -91,6 +98,11 @@ final class HttpRequest {
             return this;
         }
 
+        Builder setBody(HttpBody body) {
+            this.body = body;
+            return this;
+        }
+
         Builder setSuccessCallback(HttpClientCallback successCallback) {
             this.successCallback = successCallback;
             return this;
@@ -107,7 +119,7 @@ final class HttpRequest {
         }
 
         HttpRequest build() {
-            return new HttpRequest(methodType, url, params, additionalHeaders, successCallback, failureCallback);
+            return new HttpRequest(methodType, url, params, body, additionalHeaders, successCallback, failureCallback);
         }
     }
 
@@ -23,6 +23,7 @@ package com.openlocate.android.core;
 
 import android.os.AsyncTask;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
@@ -34,6 +35,7 @@ class HttpTask extends AsyncTask<HttpRequest, Void, HttpResponse> {
     private final static int CONNECTION_READ_TIMEOUT = 15000;
     private final static int CONNECTION_CONNECT_TIMEOUT = 15000;
     private static String CONNECTION_CHARSET = "UTF-8";
+    private final static int BODY_BUFFER_SIZE = 8192;
 
     @Override
     protected HttpResponse doInBackground(HttpRequest... params) {
@@ -46,7 +48,10 @@ class HttpTask extends AsyncTask<HttpRequest, Void, HttpResponse> {
 
             setRequestProperty(connection, request.getAdditionalHeaders());
 
-            if (request.isValidForPost()) {
+            if (request.isValidForPost() && request.getBody() != null) {
+                setPostRequestArguments(connection, request.getBody());
+                writeToOutputStream(connection.getOutputStream(), request.getBody());
+            } else if (request.isValidForPost()) {
                 setPostRequestArguments(connection);
                 writeToOutputStream(connection.getOutputStream(), request.getParams());
             }
@@ -88,6 +93,28 @@ class HttpTask extends AsyncTask<HttpRequest, Void, HttpResponse> {
         outputStream.flush();
     }
 
+    // Either way the body is streamed rather than buffered whole by the connection. A body whose
+    // length is not known up front is sent in chunks.
+    private void setPostRequestArguments(HttpURLConnection connection, HttpBody body) {
+        connection.setDoOutput(true);
+        long length = body.getContentLength();
+        if (length >= 0 && length <= Integer.MAX_VALUE) {
+            connection.setFixedLengthStreamingMode((int) length);
+        } else {
+            connection.setChunkedStreamingMode(0);
+        }
+        connection.setRequestProperty("Content-Type", body.getContentType());
+        if (body.getContentEncoding() != null) {
+            connection.setRequestProperty("Content-Encoding", body.getContentEncoding());
+        }
+    }
+
+    private void writeToOutputStream(OutputStream outputStream, HttpBody body) throws IOException {
+        OutputStream bufferedStream = new BufferedOutputStream(outputStream, BODY_BUFFER_SIZE);
+        body.writeTo(bufferedStream);
+        bufferedStream.flush();
+    }
+
     private HttpURLConnection getConnection(URL url, HttpMethodType methodType) throws IOException {
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
 
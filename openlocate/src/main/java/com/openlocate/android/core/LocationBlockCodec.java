@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Packs consecutive locations into one block. Each numeric field is stored as the zigzag varint
+ * of its difference from the previous location, so a run of fixes from one device takes a few
+ * bytes per location before compression. Coordinates are kept as E7 fixed point (about 1 cm),
+ * and accuracy, speed, course and altitude to two decimals. Short strings are stored once per
+ * block and referenced by index, and device details by the id of their context row.
+ */
+final class LocationBlockCodec {
+
+    /**
+     * Looks up the device context rows that encoded locations reference.
+     */
+    interface Contexts {
+        DeviceContext get(long id);
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int VERSION = 1;
+    private static final int FLAG_DEFLATED = 1;
+    private static final int HEADER_SIZE = 2;
+
+    private static final double E7 = 1e7;
+    private static final double E2 = 1e2;
+
+    private LocationBlockCodec() {
+    }
+
+    /**
+     * Encodes the locations, which must be ordered by creation time. The block is deflated when
+     * that makes it smaller.
+     *
+     * @param contextIds the device context id of each location.
+     */
+    static byte[] encode(List<OpenLocateLocation> locations, long[] contextIds) {
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        Output rows = new Output(locations.size() * 24);
+
+        long created = 0;
+        long latitude = 0;
+        long longitude = 0;
+        long accuracy = 0;
+        long timestamp = 0;
+        long speed = 0;
+        long course = 0;
+        long altitude = 0;
+        long contextId = 0;
+        for (int i = 0; i < locations.size(); i++) {
+            OpenLocateLocation location = locations.get(i);
+            OpenLocateLocation.LocationInfo info = location.getLocation();
+
+            created = rows.putDelta(location.getCreated().getTime(), created);
+            latitude = rows.putDelta(Math.round(info.getLatitude() * E7), latitude);
+            longitude = rows.putDelta(Math.round(info.getLongitude() * E7), longitude);
+            accuracy = rows.putDelta(Math.round(info.getHorizontalAccuracy() * E2), accuracy);
+            timestamp = rows.putDelta(info.getTimeStampSecs(), timestamp);
+            speed = rows.putDelta(Math.round(info.getSpeed() * E2), speed);
+            course = rows.putDelta(Math.round(info.getCourse() * E2), course);
+            altitude = rows.putDelta(Math.round(info.getAltitude() * E2), altitude);
+            contextId = rows.putDelta(contextIds[i], contextId);
+
+            InformationFields fields = location.getInformationFields();
+            if (fields == null) {
+                rows.putVarint(0);
+                rows.putVarint(0);
+                rows.putVarint(0);
+                rows.putVarint(0);
+            } else {
+                rows.putVarint(intern(fields.isCharging(), strings, table));
+                rows.putVarint(intern(fields.getConnectionType(), strings, table));
+                rows.putVarint(intern(fields.getLocationProvider() != null
+                        ? fields.getLocationProvider().getValue() : null, strings, table));
+                rows.putVarint(intern(fields.getLocationContext() != null
+                        ? fields.getLocationContext().getValue() : null, strings, table));
+            }
+        }
+
+        Output body = new Output(rows.size() + 64);
+        body.putVarint(locations.size());
+        body.putVarint(table.size());
+        for (String value : table) {
+            byte[] bytes = value.getBytes(UTF_8);
+            body.putVarint(bytes.length);
+            body.write(bytes, 0, bytes.length);
+        }
+        rows.copyTo(body);
+
+        byte[] plain = body.toByteArray();
+        byte[] deflated = deflate(plain);
+        boolean useDeflated = deflated.length < plain.length;
+        byte[] payload = useDeflated ? deflated : plain;
+
+        byte[] block = new byte[HEADER_SIZE + payload.length];
+        block[0] = VERSION;
+        block[1] = (byte) (useDeflated ? FLAG_DEFLATED : 0);
+        System.arraycopy(payload, 0, block, HEADER_SIZE, payload.length);
+        return block;
+    }
+
+    /**
+     * Decodes every location of the block, in the order they were encoded. Ids are left unset.
+     *
+     * @throws IllegalArgumentException if the block is corrupt or of an unknown version.
+     */
+    static List<OpenLocateLocation> decode(byte[] block, Contexts contexts) {
+        byte[] body = getBody(block);
+        Input input = new Input(body);
+
+        int count = (int) input.getVarint();
+        String[] table = new String[(int) input.getVarint()];
+        for (int i = 0; i < table.length; i++) {
+            int length = (int) input.getVarint();
+            if (length < 0 || length > body.length - input.position) {
+                throw new IllegalArgumentException("Location block is truncated.");
+            }
+            table[i] = new String(body, input.position, length, UTF_8);
+            input.position += length;
+        }
+
+        List<OpenLocateLocation> locations = new ArrayList<>(count);
+        long created = 0;
+        long latitude = 0;
+        long longitude = 0;
+        long accuracy = 0;
+        long timestamp = 0;
+        long speed = 0;
+        long course = 0;
+        long altitude = 0;
+        long contextId = 0;
+        for (int i = 0; i < count; i++) {
+            created += input.getDelta();
+            latitude += input.getDelta();
+            longitude += input.getDelta();
+            accuracy += input.getDelta();
+            timestamp += input.getDelta();
+            speed += input.getDelta();
+            course += input.getDelta();
+            altitude += input.getDelta();
+            contextId += input.getDelta();
+
+            DeviceContext context = contexts.get(contextId);
+            if (context == null) {
+                context = new DeviceContext(null, false, null, null, null, null, null, null);
+            }
+
+            InformationFields fields = InformationFieldsFactory.getInformationFields(
+                    context.getManufacturer(),
+                    context.getModel(),
+                    lookup(table, input.getVarint()),
+                    context.getOperatingSystem(),
+                    context.getCarrierName(),
+                    context.getWifiSsid(),
+                    context.getWifiBssid(),
+                    lookup(table, input.getVarint()),
+                    lookup(table, input.getVarint()),
+                    lookup(table, input.getVarint())
+            );
+
+            locations.add(new OpenLocateLocation(new Date(created), latitude / E7, longitude / E7,
+                    (float) (accuracy / E2), timestamp, (float) (speed / E2), (float) (course / E2),
+                    altitude / E2, context.getAdvertisingInfo(), fields));
+        }
+
+        return locations;
+    }
+
+    /**
+     * Adds the device context ids the locations of the block reference, without decoding them.
+     *
+     * @throws IllegalArgumentException if the block is corrupt or of an unknown version.
+     */
+    static void addContextIds(byte[] block, Set<Long> ids) {
+        byte[] body = getBody(block);
+        Input input = new Input(body);
+
+        long count = input.getVarint();
+        long strings = input.getVarint();
+        for (long i = 0; i < strings; i++) {
+            long length = input.getVarint();
+            if (length < 0 || length > body.length - input.position) {
+                throw new IllegalArgumentException("Location block is truncated.");
+            }
+            input.position += length;
+        }
+
+        long contextId = 0;
+        for (long i = 0; i < count; i++) {
+            // Creation time, coordinates, accuracy, timestamp, speed, course and altitude.
+            for (int field = 0; field < 8; field++) {
+                input.getVarint();
+            }
+            contextId += input.getDelta();
+            ids.add(contextId);
+            for (int field = 0; field < 4; field++) {
+                input.getVarint();
+            }
+        }
+    }
+
+    private static byte[] getBody(byte[] block) {
+        if (block.length < HEADER_SIZE || block[0] != VERSION) {
+            throw new IllegalArgumentException("Unknown location block version.");
+        }
+
+        return (block[1] & FLAG_DEFLATED) != 0
+                ? inflate(block, HEADER_SIZE)
+                : copyOfRange(block, HEADER_SIZE);
+    }
+
+    private static int intern(String value, Map<String, Integer> strings, List<String> table) {
+        if (value == null) {
+            return 0;
+        }
+
+        Integer index = strings.get(value);
+        if (index == null) {
+            index = table.size() + 1;
+            strings.put(value, index);
+            table.add(value);
+        }
+        return index;
+    }
+
+    private static String lookup(String[] table, long index) {
+        if (index < 0 || index > table.length) {
+            throw new IllegalArgumentException("Location block references an unknown string.");
+        }
+        return index == 0 ? null : table[(int) index - 1];
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length);
+            byte[] chunk = new byte[1024];
+            while (!deflater.finished()) {
+                output.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] input, int offset) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input, offset, input.length - offset);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length * 4);
+            byte[] chunk = new byte[1024];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(chunk);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Location block is truncated.");
+                }
+                output.write(chunk, 0, inflated);
+            }
+            return output.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Location block is corrupt.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] copyOfRange(byte[] input, int offset) {
+        byte[] output = new byte[input.length - offset];
+        System.arraycopy(input, offset, output, 0, output.length);
+        return output;
+    }
+
+    private static final class Output extends ByteArrayOutputStream {
+
+        Output(int size) {
+            super(size);
+        }
+
+        /**
+         * Writes the difference from the previous value and returns the value, to be passed as
+         * the previous one for the next location.
+         */
+        long putDelta(long value, long previous) {
+            long delta = value - previous;
+            putVarint((delta << 1) ^ (delta >> 63));
+            return value;
+        }
+
+        void putVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void copyTo(Output other) {
+            other.write(buf, 0, count);
+        }
+    }
+
+    private static final class Input {
+
+        private final byte[] bytes;
+        private int position;
+
+        Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long getDelta() {
+            long value = getVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long getVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= bytes.length) {
+                    throw new IllegalArgumentException("Location block is truncated.");
+                }
+
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Location block has a malformed number.");
+        }
+    }
+}
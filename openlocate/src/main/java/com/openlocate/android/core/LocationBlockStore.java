@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps locations in compressed blocks in the same database as {@link LocationDatabase}. Each
+ * batch that is added becomes one or more blocks, so batches should be as large as the buffer
+ * in front of the store allows.
+ */
+final class LocationBlockStore implements LocationDataSource {
+
+    private final DatabaseHelper helper;
+    private final DeviceContextCache contexts = new DeviceContextCache();
+    private final StatementCache statements = new StatementCache(null);
+    private boolean closed;
+
+    LocationBlockStore(DatabaseHelper helper) {
+        this.helper = helper;
+        helper.acquire();
+    }
+
+    @Override
+    public synchronized void addAll(List<OpenLocateLocation> locations) {
+        SQLiteDatabase database = helper.getWritableDatabase();
+        LocationBlockTable.addAll(database, statements.on(database), locations, contexts);
+    }
+
+    @Override
+    public void add(OpenLocateLocation location) {
+        if (location != null) {
+            addAll(Collections.singletonList(location));
+        }
+    }
+
+    @Override
+    public List<OpenLocateLocation> getSince(long millisecondsSince1970) {
+        return LocationBlockTable.getSince(helper.getReadableDatabase(), millisecondsSince1970);
+    }
+
+    @Override
+    public LocationIterator iterateAfter(DispatchCursor cursor, int limit) {
+        return LocationBlockTable.iterateAfter(helper.getReadableDatabase(), cursor, limit);
+    }
+
+    /**
+     * Blocks have no spatial index, so this decodes every block after the query's start.
+     */
+    @Override
+    public LocationIterator query(LocationQuery query) {
+        return query.filter(iterateAfter(query.getAfter(), 0));
+    }
+
+    @Override
+    public synchronized int deleteBefore(long millisecondsSince1970, int limit) {
+        SQLiteDatabase database = helper.getWritableDatabase();
+        int deleted = LocationBlockTable.deleteBefore(database, statements.on(database), millisecondsSince1970,
+                limit);
+        DatabaseHelper.checkpoint(database);
+        return deleted;
+    }
+
+    @Override
+    public long size() {
+        return getStats().getCount();
+    }
+
+    @Override
+    public LocationStats getStats() {
+        return LocationBlockTable.getStats(helper.getReadableDatabase());
+    }
+
+    @Override
+    public long countAfter(DispatchCursor cursor) {
+        return LocationBlockTable.countAfter(helper.getReadableDatabase(), cursor);
+    }
+
+    @Override
+    public DispatchCursor getCursor(String endpoint) {
+        return DispatchCursorTable.get(helper.getReadableDatabase(), endpoint);
+    }
+
+    @Override
+    public void advanceCursor(String endpoint, DispatchCursor cursor, Collection<String> endpoints) {
+        DispatchCursorTable.advance(helper.getWritableDatabase(), endpoint, cursor, endpoints);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            statements.clear();
+            helper.release();
+        }
+    }
+}
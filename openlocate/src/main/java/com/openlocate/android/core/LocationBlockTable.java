@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Stores locations in blocks of up to {@link #MAX_BLOCK_LOCATIONS} consecutive locations encoded
+ * by {@link LocationBlockCodec}, one row per block. A block is keyed on the first id of the range
+ * it was given by {@link LocationSequenceTable}, and the id of a location is derived from it and
+ * the location's index, so cursors work the same as with {@link LocationTable}.
+ */
+final class LocationBlockTable {
+
+    static final String TABLE_NAME = "location_block";
+
+    static final int MAX_BLOCK_LOCATIONS = 256;
+
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_FIRST_CREATED_AT = "first_created_at";
+    private static final String COLUMN_LAST_CREATED_AT = "last_created_at";
+    private static final String COLUMN_FIRST_INDEX = "first_index";
+    private static final String COLUMN_LOCATION_COUNT = "location_count";
+    private static final String COLUMN_DATA = "data";
+
+    private static final String COLUMNS = COLUMN_ID + ", " + COLUMN_FIRST_CREATED_AT + ", "
+            + COLUMN_LAST_CREATED_AT + ", " + COLUMN_FIRST_INDEX + ", " + COLUMN_LOCATION_COUNT + ", " + COLUMN_DATA;
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_NAME
+            + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY, "
+            + COLUMN_FIRST_CREATED_AT + " INTEGER NOT NULL, "
+            + COLUMN_LAST_CREATED_AT + " INTEGER NOT NULL, "
+            + COLUMN_FIRST_INDEX + " INTEGER NOT NULL, "
+            + COLUMN_LOCATION_COUNT + " INTEGER NOT NULL, "
+            + COLUMN_DATA + " BLOB NOT NULL"
+            + ");";
+
+    private static final String INSERT_SQL = "INSERT INTO " + TABLE_NAME + " (" + COLUMNS
+            + ") VALUES (?, ?, ?, 0, ?, ?)";
+
+    private static final String TRIM_SQL = "UPDATE " + TABLE_NAME + " SET "
+            + COLUMN_FIRST_CREATED_AT + " = ?, "
+            + COLUMN_FIRST_INDEX + " = ?, "
+            + COLUMN_LOCATION_COUNT + " = ?, "
+            + COLUMN_DATA + " = ? WHERE " + COLUMN_ID + " = ?";
+
+    // The ids of the first and last location left in a block.
+    private static final String FIRST_ID = "(" + COLUMN_ID + " + " + COLUMN_FIRST_INDEX + ")";
+    private static final String LAST_ID = "(" + COLUMN_ID + " + " + COLUMN_FIRST_INDEX + " + "
+            + COLUMN_LOCATION_COUNT + " - 1)";
+
+    // A block spans fewer than MAX_BLOCK_LOCATIONS ids from its key, so every selection on the
+    // ids of its locations also bounds the key (?2) and becomes a range scan of the primary key.
+    private static final String UP_TO_SELECTION = COLUMN_ID + " <= ?1 AND " + LAST_ID + " <= ?1";
+
+    private static final String AFTER_SELECTION = COLUMN_ID + " > ?2 AND " + LAST_ID + " > ?1";
+
+    // The one block that has locations on both sides of the cursor, if any.
+    private static final String STRADDLING_SELECTION = AFTER_SELECTION + " AND " + FIRST_ID + " <= ?1";
+
+    private static final String ORDER_BY = COLUMN_ID;
+
+    private static final String STATS_SQL = "SELECT IFNULL(SUM(" + COLUMN_LOCATION_COUNT + "), 0), IFNULL(SUM(LENGTH("
+            + COLUMN_DATA + ")), 0), IFNULL(MIN(" + COLUMN_FIRST_CREATED_AT + "), 0), IFNULL(MAX("
+            + COLUMN_LAST_CREATED_AT + "), 0) FROM " + TABLE_NAME;
+
+    private static final String COUNT_AFTER_SQL = "SELECT IFNULL(SUM(CASE WHEN " + FIRST_ID + " > ?1 THEN "
+            + COLUMN_LOCATION_COUNT + " ELSE " + LAST_ID + " - ?1 END), 0) FROM " + TABLE_NAME
+            + " WHERE " + AFTER_SELECTION;
+
+    private static final String[] BLOCK_COLUMNS = new String[]{COLUMN_ID, COLUMN_FIRST_INDEX, COLUMN_LOCATION_COUNT,
+            COLUMN_DATA};
+
+    private static final Comparator<OpenLocateLocation> CREATED_ORDER = new Comparator<OpenLocateLocation>() {
+        @Override
+        public int compare(OpenLocateLocation a, OpenLocateLocation b) {
+            long first = a.getCreated().getTime();
+            long second = b.getCreated().getTime();
+            return first < second ? -1 : (first == second ? 0 : 1);
+        }
+    };
+
+    private LocationBlockTable() {
+    }
+
+    static void createIfRequired(SQLiteDatabase db) {
+        db.execSQL(CREATE_TABLE_SQL);
+    }
+
+    /**
+     * Stores the locations in as few blocks as possible and sets their ids.
+     */
+    static void addAll(SQLiteDatabase database, StatementCache statements, List<OpenLocateLocation> locations,
+                       DeviceContextCache contexts) {
+        if (database == null || locations == null || locations.isEmpty()) {
+            return;
+        }
+
+        // Sorting lets a purge by age trim a block's head and keep its ids consecutive, at the cost
+        // of the batch's collection order, as documented on LocationStorage.COMPRESSED_DATABASE.
+        // The sort is stable, so locations created in the same millisecond keep their order.
+        List<OpenLocateLocation> sorted = new ArrayList<>(locations);
+        Collections.sort(sorted, CREATED_ORDER);
+
+        boolean successful = false;
+        database.beginTransaction();
+        try {
+            long firstId = LocationSequenceTable.reserve(statements, sorted.size());
+            SQLiteStatement statement = statements.get(INSERT_SQL);
+            for (int start = 0; start < sorted.size(); start += MAX_BLOCK_LOCATIONS) {
+                List<OpenLocateLocation> block = sorted.subList(start, Math.min(sorted.size(), start + MAX_BLOCK_LOCATIONS));
+                byte[] data = encode(database, block, contexts);
+                long id = firstId + start;
+
+                statement.clearBindings();
+                statement.bindLong(1, id);
+                statement.bindLong(2, block.get(0).getCreated().getTime());
+                statement.bindLong(3, block.get(block.size() - 1).getCreated().getTime());
+                statement.bindLong(4, block.size());
+                statement.bindBlob(5, data);
+                statement.executeInsert();
+
+                for (int i = 0; i < block.size(); i++) {
+                    block.get(i).setId(id + i);
+                }
+            }
+
+            database.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            database.endTransaction();
+
+            if (!successful) {
+                contexts.clear();
+            }
+        }
+    }
+
+    static LocationStats getStats(SQLiteDatabase database) {
+        if (database == null) {
+            return LocationStats.EMPTY;
+        }
+
+        Cursor cursor = database.rawQuery(STATS_SQL, null);
+        if (cursor == null) {
+            return LocationStats.EMPTY;
+        }
+
+        try {
+            if (!cursor.moveToFirst()) {
+                return LocationStats.EMPTY;
+            }
+            return new LocationStats(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2), cursor.getLong(3));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Counts the locations after the cursor from the id ranges of the blocks, without decoding
+     * any of them.
+     */
+    static long countAfter(SQLiteDatabase database, DispatchCursor cursor) {
+        if (database == null) {
+            return 0;
+        }
+
+        return DatabaseUtils.longForQuery(database, COUNT_AFTER_SQL, getArguments(cursor));
+    }
+
+    private static String[] getArguments(DispatchCursor cursor) {
+        return new String[]{String.valueOf(cursor.getId()), String.valueOf(cursor.getId() - MAX_BLOCK_LOCATIONS)};
+    }
+
+    /**
+     * Iterates over the locations after the cursor in id order. Blocks are decoded one at a time
+     * as the iteration reaches them.
+     */
+    static LocationIterator iterateAfter(SQLiteDatabase database, DispatchCursor cursor, int limit) {
+        if (database == null) {
+            return LocationIterator.EMPTY;
+        }
+
+        Cursor blocks = database.query(TABLE_NAME, BLOCK_COLUMNS, AFTER_SELECTION, getArguments(cursor),
+                null, null, ORDER_BY);
+        if (blocks == null || blocks.isClosed()) {
+            return LocationIterator.EMPTY;
+        }
+
+        return new BlockLocationIterator(database, blocks, cursor.getId(), Long.MIN_VALUE, limit);
+    }
+
+    /**
+     * Returns up to {@link LocationTable#QUERY_LIMIT} locations created after the given time, in
+     * id order.
+     */
+    static List<OpenLocateLocation> getSince(SQLiteDatabase database, long millisecondsSince1970) {
+        if (database == null) {
+            return null;
+        }
+
+        Cursor blocks = database.query(TABLE_NAME, BLOCK_COLUMNS, COLUMN_LAST_CREATED_AT + " > ?",
+                new String[]{String.valueOf(millisecondsSince1970)}, null, null, ORDER_BY);
+        if (blocks == null || blocks.isClosed()) {
+            return null;
+        }
+
+        LocationIterator iterator = new BlockLocationIterator(database, blocks, Long.MIN_VALUE,
+                millisecondsSince1970, LocationTable.QUERY_LIMIT);
+        List<OpenLocateLocation> locations = null;
+        try {
+            while (iterator.hasNext()) {
+                if (locations == null) {
+                    locations = new ArrayList<>();
+                }
+                locations.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+
+        return locations;
+    }
+
+    /**
+     * Deletes the locations at or before the cursor. Blocks that hold nothing else are deleted
+     * whole, and the one that straddles the cursor is rewritten without its delivered head.
+     */
+    static void deleteUpTo(SQLiteDatabase database, DispatchCursor cursor) {
+        String[] arguments = getArguments(cursor);
+
+        SQLiteStatement statement = database.compileStatement(TRIM_SQL);
+        database.beginTransaction();
+        try {
+            database.delete(TABLE_NAME, UP_TO_SELECTION, new String[]{arguments[0]});
+            trim(database, statement, STRADDLING_SELECTION, arguments, cursor, Long.MIN_VALUE, 0);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+        }
+    }
+
+    /**
+     * Deletes up to {@code limit} of the locations created at or before the given time, oldest
+     * block first, and returns how many were deleted. Locations are sorted by creation time
+     * within a block, so the ones to delete are always a block's head. A limit of zero or less
+     * deletes all of them.
+     */
+    static int deleteBefore(SQLiteDatabase database, StatementCache statements, long millisecondsSince1970,
+                            int limit) {
+        String[] arguments = new String[]{String.valueOf(millisecondsSince1970)};
+        int deleted = 0;
+
+        database.beginTransaction();
+        try {
+            Cursor blocks = database.query(TABLE_NAME, new String[]{COLUMN_ID, COLUMN_LOCATION_COUNT},
+                    COLUMN_LAST_CREATED_AT + " <= ?", arguments, null, null, COLUMN_LAST_CREATED_AT + ", " + COLUMN_ID);
+            if (blocks != null) {
+                try {
+                    while (blocks.moveToNext()) {
+                        int count = blocks.getInt(1);
+                        if (limit > 0 && deleted + count > limit) {
+                            break;
+                        }
+                        database.delete(TABLE_NAME, COLUMN_ID + " = ?", new String[]{blocks.getString(0)});
+                        deleted += count;
+                    }
+                } finally {
+                    blocks.close();
+                }
+            }
+
+            if (limit <= 0 || deleted < limit) {
+                deleted += trim(database, statements.get(TRIM_SQL), COLUMN_FIRST_CREATED_AT + " <= ?", arguments,
+                        DispatchCursor.START, millisecondsSince1970, limit > 0 ? limit - deleted : 0);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Rewrites the selected blocks without up to {@code limit} of the locations at or before the
+     * cursor or created at or before the given time, and returns how many were removed. A limit of
+     * zero or less removes all of them.
+     */
+    private static int trim(SQLiteDatabase database, SQLiteStatement statement, String selection,
+                            String[] selectionArgs, DispatchCursor cursor, long createdUpTo, int limit) {
+        Map<Long, DeviceContext> contexts = new HashMap<>();
+        Cursor blocks = database.query(TABLE_NAME, BLOCK_COLUMNS, selection, selectionArgs, null, null, ORDER_BY);
+        if (blocks == null) {
+            return 0;
+        }
+
+        int trimmed = 0;
+        try {
+            while ((limit <= 0 || trimmed < limit) && blocks.moveToNext()) {
+                trimmed += trim(database, statement, blocks, cursor, createdUpTo, limit > 0 ? limit - trimmed : 0,
+                        contexts);
+            }
+        } finally {
+            blocks.close();
+        }
+        return trimmed;
+    }
+
+    private static int trim(SQLiteDatabase database, SQLiteStatement statement, Cursor block,
+                            DispatchCursor cursor, long createdUpTo, int limit, Map<Long, DeviceContext> contexts) {
+        List<OpenLocateLocation> locations = decode(database, block, contexts);
+
+        int delivered = 0;
+        while (delivered < locations.size() && (limit <= 0 || delivered < limit)
+                && (!cursor.isBefore(locations.get(delivered))
+                || locations.get(delivered).getCreated().getTime() <= createdUpTo)) {
+            delivered++;
+        }
+        if (delivered == 0) {
+            return 0;
+        }
+
+        long id = block.getLong(0);
+        if (delivered == locations.size()) {
+            database.delete(TABLE_NAME, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+            return delivered;
+        }
+
+        List<OpenLocateLocation> rest = locations.subList(delivered, locations.size());
+        statement.clearBindings();
+        statement.bindLong(1, rest.get(0).getCreated().getTime());
+        statement.bindLong(2, block.getLong(1) + delivered);
+        statement.bindLong(3, rest.size());
+        statement.bindBlob(4, encode(database, rest, new DeviceContextCache()));
+        statement.bindLong(5, id);
+        statement.executeUpdateDelete();
+        return delivered;
+    }
+
+    /**
+     * Adds the ids of the device contexts the stored blocks reference.
+     *
+     * @throws IllegalArgumentException if a block is corrupt.
+     */
+    static void addContextIds(SQLiteDatabase database, Set<Long> ids) {
+        Cursor cursor = database.query(TABLE_NAME, new String[]{COLUMN_DATA}, null, null, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+
+        try {
+            while (cursor.moveToNext()) {
+                LocationBlockCodec.addContextIds(cursor.getBlob(0), ids);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static byte[] encode(SQLiteDatabase database, List<OpenLocateLocation> locations,
+                                 DeviceContextCache contexts) {
+        long[] contextIds = new long[locations.size()];
+        for (int i = 0; i < contextIds.length; i++) {
+            contextIds[i] = contexts.getId(database, locations.get(i));
+        }
+        return LocationBlockCodec.encode(locations, contextIds);
+    }
+
+    /**
+     * Decodes the block the cursor is on and sets the ids of its locations.
+     */
+    private static List<OpenLocateLocation> decode(final SQLiteDatabase database, Cursor block,
+                                                   final Map<Long, DeviceContext> contexts) {
+        long firstId = block.getLong(0) + block.getLong(1);
+        List<OpenLocateLocation> locations = LocationBlockCodec.decode(block.getBlob(3), new LocationBlockCodec.Contexts() {
+            @Override
+            public DeviceContext get(long id) {
+                DeviceContext context = contexts.get(id);
+                if (context == null) {
+                    context = DeviceContextTable.get(database, id);
+                    contexts.put(id, context);
+                }
+                return context;
+            }
+        });
+
+        for (int i = 0; i < locations.size(); i++) {
+            locations.get(i).setId(firstId + i);
+        }
+        return locations;
+    }
+
+    /**
+     * Walks the blocks in id order, decoding the next one once the previous one is used up. Block
+     * id ranges never overlap, so there is nothing to merge.
+     */
+    private static final class BlockLocationIterator implements LocationIterator {
+
+        private final SQLiteDatabase database;
+        private final Cursor blocks;
+        private final long afterId;
+        private final long createdAfter;
+        private final int limit;
+        private final Map<Long, DeviceContext> contexts = new HashMap<>();
+
+        private List<OpenLocateLocation> block = Collections.emptyList();
+        private int index;
+        private OpenLocateLocation next;
+        private int returned;
+
+        BlockLocationIterator(SQLiteDatabase database, Cursor blocks, long afterId, long createdAfter, int limit) {
+            this.database = database;
+            this.blocks = blocks;
+            this.afterId = afterId;
+            this.createdAfter = createdAfter;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && (limit <= 0 || returned < limit)) {
+                if (index >= block.size()) {
+                    if (blocks.isClosed() || !blocks.moveToNext()) {
+                        break;
+                    }
+                    block = decode(database, blocks, contexts);
+                    index = 0;
+                    continue;
+                }
+
+                OpenLocateLocation candidate = block.get(index++);
+                if (candidate.getId() > afterId && candidate.getCreated().getTime() > createdAfter) {
+                    next = candidate;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public OpenLocateLocation next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            OpenLocateLocation location = next;
+            next = null;
+            returned++;
+            return location;
+        }
+
+        @Override
+        public void close() {
+            blocks.close();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.text.TextUtils;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a page of locations in CBOR as a map of two entries. Under {@value #KEYS_KEY} is an
+ * array with the names of the fields of {@link OpenLocateLocation#getJson()}; under the page key
+ * is an array of locations, each a map from the index of a field name in that array to its value.
+ * Field names are sent once per page instead of once per location. The array of locations and the
+ * location maps have an indefinite length, so nothing has to be counted before it is written.
+ */
+final class LocationCborWriter extends LocationPageWriter {
+
+    static final String KEYS_KEY = "keys";
+
+    private static final String[] KEYS = {
+            OpenLocateLocation.Keys.LATITUDE,
+            OpenLocateLocation.Keys.LONGITUDE,
+            OpenLocateLocation.Keys.HORIZONTAL_ACCURACY,
+            OpenLocateLocation.Keys.TIMESTAMP,
+            OpenLocateLocation.Keys.COURSE,
+            OpenLocateLocation.Keys.SPEED,
+            OpenLocateLocation.Keys.ALTITUDE,
+            OpenLocateLocation.Keys.AD_ID,
+            OpenLocateLocation.Keys.AD_OPT_OUT,
+            OpenLocateLocation.Keys.AD_TYPE,
+            OpenLocateLocation.Keys.DEVICE_MANUFACTURER,
+            OpenLocateLocation.Keys.DEVICE_MODEL,
+            OpenLocateLocation.Keys.IS_CHARGING,
+            OpenLocateLocation.Keys.OPERATING_SYSTEM,
+            OpenLocateLocation.Keys.CARRIER_NAME,
+            OpenLocateLocation.Keys.WIFI_SSID,
+            OpenLocateLocation.Keys.WIFI_BSSID,
+            OpenLocateLocation.Keys.CONNECTION_TYPE,
+            OpenLocateLocation.Keys.LOCATION_METHOD,
+            OpenLocateLocation.Keys.LOCATION_CONTEXT
+    };
+
+    private static final int LATITUDE = 0;
+    private static final int LONGITUDE = 1;
+    private static final int HORIZONTAL_ACCURACY = 2;
+    private static final int TIMESTAMP = 3;
+    private static final int COURSE = 4;
+    private static final int SPEED = 5;
+    private static final int ALTITUDE = 6;
+    private static final int AD_ID = 7;
+    private static final int AD_OPT_OUT = 8;
+    private static final int AD_TYPE = 9;
+    private static final int DEVICE_MANUFACTURER = 10;
+    private static final int DEVICE_MODEL = 11;
+    private static final int IS_CHARGING = 12;
+    private static final int OPERATING_SYSTEM = 13;
+    private static final int CARRIER_NAME = 14;
+    private static final int WIFI_SSID = 15;
+    private static final int WIFI_BSSID = 16;
+    private static final int CONNECTION_TYPE = 17;
+    private static final int LOCATION_METHOD = 18;
+    private static final int LOCATION_CONTEXT = 19;
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1 << 5;
+    private static final int MAJOR_TEXT = 3 << 5;
+    private static final int MAJOR_ARRAY = 4 << 5;
+    private static final int MAJOR_MAP = 5 << 5;
+
+    private static final int INDEFINITE_ARRAY = 0x9F;
+    private static final int INDEFINITE_MAP = 0xBF;
+    private static final int BREAK = 0xFF;
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int FLOAT32 = 0xFA;
+    private static final int FLOAT64 = 0xFB;
+
+    LocationCborWriter(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    void beginPage(String key) throws IOException {
+        writeHead(MAJOR_MAP, 2);
+        writeText(KEYS_KEY);
+        writeHead(MAJOR_ARRAY, KEYS.length);
+        for (String name : KEYS) {
+            writeText(name);
+        }
+        writeText(key);
+        writeByte(INDEFINITE_ARRAY);
+    }
+
+    @Override
+    void write(OpenLocateLocation location) throws IOException {
+        writeByte(INDEFINITE_MAP);
+
+        OpenLocateLocation.LocationInfo info = location.getLocation();
+        if (info != null) {
+            writeKey(LATITUDE);
+            writeDouble(info.getLatitude());
+            writeKey(LONGITUDE);
+            writeDouble(info.getLongitude());
+            writeKey(HORIZONTAL_ACCURACY);
+            writeFloat((float) info.getHorizontalAccuracy());
+            writeKey(TIMESTAMP);
+            writeLong(info.getTimeStampSecs());
+            writeKey(COURSE);
+            writeFloat(info.getCourse());
+            writeKey(SPEED);
+            writeFloat(info.getSpeed());
+            writeKey(ALTITUDE);
+            writeDouble(info.getAltitude());
+        }
+
+        AdvertisingIdClient.Info advertisingInfo = location.getAdvertisingInfo();
+        if (advertisingInfo != null) {
+            writeField(AD_ID, advertisingInfo.getId());
+            writeKey(AD_OPT_OUT);
+            writeByte(advertisingInfo.isLimitAdTrackingEnabled() ? TRUE : FALSE);
+            writeField(AD_TYPE, OpenLocateLocation.ADVERTISING_ID_TYPE);
+        }
+
+        InformationFields informationFields = location.getInformationFields();
+        if (informationFields != null) {
+            writeField(DEVICE_MANUFACTURER, informationFields.getManufacturer());
+            writeField(DEVICE_MODEL, informationFields.getModel());
+            writeField(IS_CHARGING, informationFields.isCharging());
+            writeField(OPERATING_SYSTEM, informationFields.getOperatingSystem());
+            writeField(CARRIER_NAME, informationFields.getCarrierName());
+            writeField(WIFI_SSID, informationFields.getWifiSsid());
+            writeField(WIFI_BSSID, informationFields.getWifiBssid());
+            writeField(CONNECTION_TYPE, informationFields.getConnectionType());
+            if (informationFields.getLocationProvider() != null) {
+                writeField(LOCATION_METHOD, informationFields.getLocationProvider().getValue());
+            }
+            if (informationFields.getLocationContext() != null) {
+                writeField(LOCATION_CONTEXT, informationFields.getLocationContext().getValue());
+            }
+        }
+
+        writeByte(BREAK);
+    }
+
+    @Override
+    void endPage() throws IOException {
+        writeByte(BREAK);
+        flush();
+    }
+
+    // Empty values are left out, as they are from the JSON.
+    private void writeField(int key, String value) throws IOException {
+        if (!TextUtils.isEmpty(value)) {
+            writeKey(key);
+            writeText(value);
+        }
+    }
+
+    private void writeKey(int key) throws IOException {
+        writeHead(MAJOR_UNSIGNED, key);
+    }
+
+    private void writeText(String value) throws IOException {
+        writeHead(MAJOR_TEXT, utf8Length(value));
+        for (int i = 0; i < value.length(); ) {
+            i = writeUtf8(value, i);
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value < 0) {
+            writeHead(MAJOR_NEGATIVE, -1 - value);
+        } else {
+            writeHead(MAJOR_UNSIGNED, value);
+        }
+    }
+
+    private void writeFloat(float value) throws IOException {
+        writeByte(FLOAT32);
+        writeInt(Float.floatToIntBits(value));
+    }
+
+    private void writeDouble(double value) throws IOException {
+        writeByte(FLOAT64);
+        long bits = Double.doubleToLongBits(value);
+        writeInt((int) (bits >>> 32));
+        writeInt((int) bits);
+    }
+
+    // The argument is unsigned and takes the fewest bytes that hold it.
+    private void writeHead(int major, long argument) throws IOException {
+        if (argument < 24) {
+            writeByte(major | (int) argument);
+        } else if (argument < 0x100) {
+            writeByte(major | 24);
+            writeByte((int) argument);
+        } else if (argument < 0x10000) {
+            writeByte(major | 25);
+            writeByte((int) (argument >> 8));
+            writeByte((int) argument);
+        } else if (argument < 0x100000000L) {
+            writeByte(major | 26);
+            writeInt((int) argument);
+        } else {
+            writeByte(major | 27);
+            writeInt((int) (argument >>> 32));
+            writeInt((int) argument);
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        writeByte(value >>> 24);
+        writeByte(value >>> 16);
+        writeByte(value >>> 8);
+        writeByte(value);
+    }
+}
@@ -21,6 +21,7 @@
  */
 package com.openlocate.android.core;
 
+import java.util.Collection;
 import java.util.List;
 
 interface LocationDataSource {
@@ -28,11 +29,53 @@ interface LocationDataSource {
 
     void add(OpenLocateLocation location);
 
+    /**
+     * Returns the first page of locations created after the given time, in the order they were
+     * stored.
+     */
     List<OpenLocateLocation> getSince(long millisecondsSince1970);
 
-    void deleteBefore(long millisecondsSince1970);
+    /**
+     * Iterates over the locations after the given cursor in the order they were stored, which is
+     * the order of their ids. A limit of zero or less iterates over all of them.
+     */
+    LocationIterator iterateAfter(DispatchCursor cursor, int limit);
+
+    /**
+     * Iterates over the page of locations the query selects, in the order they were stored.
+     */
+    LocationIterator query(LocationQuery query);
+
+    /**
+     * Deletes up to {@code limit} of the locations created at or before the given time, oldest
+     * first, and returns how many were deleted. A limit of zero or less deletes all of them.
+     */
+    int deleteBefore(long millisecondsSince1970, int limit);
 
     long size();
 
+    /**
+     * Returns the number, approximate size and time span of the stored locations. These are kept
+     * up to date as locations are added and purged, so reading them does not scan the store.
+     */
+    LocationStats getStats();
+
+    /**
+     * Returns how many stored locations come after the cursor, the ones an endpoint at that
+     * cursor has yet to receive.
+     */
+    long countAfter(DispatchCursor cursor);
+
+    /**
+     * Returns the stored cursor of the endpoint, or null if none has been stored yet.
+     */
+    DispatchCursor getCursor(String endpoint);
+
+    /**
+     * Stores the cursor of the endpoint and, atomically with it, deletes the locations every one
+     * of the given endpoints has received.
+     */
+    void advanceCursor(String endpoint, DispatchCursor cursor, Collection<String> endpoints);
+
     void close();
 }
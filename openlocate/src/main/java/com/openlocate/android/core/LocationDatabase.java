@@ -21,45 +21,140 @@
  */
 package com.openlocate.android.core;
 
-import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteFullException;
+import android.util.Log;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 final class LocationDatabase implements LocationDataSource {
 
-    private SQLiteOpenHelper helper;
+    private static final String TAG = LocationDatabase.class.getSimpleName();
 
-    LocationDatabase(SQLiteOpenHelper helper) {
+    private final DatabaseHelper helper;
+    private final DeviceContextCache contexts = new DeviceContextCache();
+    private final StatementCache statements = new StatementCache(null);
+    private volatile StorageQuota quota = StorageQuota.UNLIMITED;
+    private volatile long partitionWindowInMillis = LocationTable.DEFAULT_PARTITION_WINDOW;
+    private boolean closed;
+
+    LocationDatabase(DatabaseHelper helper) {
         this.helper = helper;
+        helper.acquire();
+    }
+
+    void setQuota(StorageQuota quota) {
+        this.quota = quota;
+    }
+
+    /**
+     * Sets the time span of new partitions. Existing partitions keep their span.
+     */
+    void setPartitionWindow(long windowInMillis) {
+        this.partitionWindowInMillis = windowInMillis > 0 ? windowInMillis : LocationTable.DEFAULT_PARTITION_WINDOW;
     }
 
     @Override
-    public void addAll(List<OpenLocateLocation> locations) {
-        LocationTable.addAll(helper.getWritableDatabase(), locations);
+    public synchronized void addAll(List<OpenLocateLocation> locations) {
+        SQLiteDatabase database = helper.getWritableDatabase();
+        try {
+            LocationTable.addAll(database, statements.on(database), locations, contexts, partitionWindowInMillis);
+        } catch (SQLiteFullException exception) {
+            // Give up older data according to the eviction policy rather than the new locations.
+            if (quota.makeRoom(database, locations.size()) == 0) {
+                throw exception;
+            }
+            LocationTable.addAll(database, statements.on(database), locations, contexts, partitionWindowInMillis);
+        }
+
+        enforceQuota(database, locations.size());
     }
 
     @Override
     public void add(OpenLocateLocation location) {
-        LocationTable.add(helper.getWritableDatabase(), location);
+        if (location != null) {
+            addAll(Collections.singletonList(location));
+        }
+    }
+
+    private void enforceQuota(SQLiteDatabase database, int inserted) {
+        try {
+            quota.enforce(database, inserted);
+        } catch (SQLiteFullException exception) {
+            Log.w(TAG, "Database is full. Cannot evict data.");
+        }
     }
 
     @Override
     public List<OpenLocateLocation> getSince(long millisecondsSince1970) {
-        return LocationTable.getSince(helper.getWritableDatabase(), millisecondsSince1970);
+        return LocationTable.getSince(helper.getReadableDatabase(), millisecondsSince1970);
+    }
+
+    @Override
+    public LocationIterator iterateAfter(DispatchCursor cursor, int limit) {
+        return LocationTable.iterateAfter(helper.getReadableDatabase(), cursor, limit);
     }
 
     @Override
-    public void deleteBefore(long millisecondsSince1970) {
-        LocationTable.deleteBefore(helper.getWritableDatabase(), millisecondsSince1970);
+    public LocationIterator query(LocationQuery query) {
+        return LocationTable.query(helper.getReadableDatabase(), query);
+    }
+
+    @Override
+    public int deleteBefore(long millisecondsSince1970, int limit) {
+        SQLiteDatabase database = helper.getWritableDatabase();
+        int deleted = LocationTable.deleteBefore(database, millisecondsSince1970, limit);
+
+        // Expired locations are purged in chunks by the maintenance job, so each chunk is folded
+        // back into the database before the next one grows the log.
+        DatabaseHelper.checkpoint(database);
+        return deleted;
     }
 
     @Override
     public long size() {
-        return LocationTable.size(helper.getReadableDatabase());
+        return getStats().getCount();
+    }
+
+    @Override
+    public LocationStats getStats() {
+        return LocationTable.getStats(helper.getReadableDatabase());
+    }
+
+    @Override
+    public long countAfter(DispatchCursor cursor) {
+        return LocationTable.countAfter(helper.getReadableDatabase(), cursor);
+    }
+
+    @Override
+    public DispatchCursor getCursor(String endpoint) {
+        return DispatchCursorTable.get(helper.getReadableDatabase(), endpoint);
+    }
+
+    @Override
+    public void advanceCursor(String endpoint, DispatchCursor cursor, Collection<String> endpoints) {
+        SQLiteDatabase database = helper.getWritableDatabase();
+        try {
+            DispatchCursorTable.advance(database, endpoint, cursor, endpoints);
+        } catch (SQLiteFullException exception) {
+            // The purge needs room in the journal. Still record the progress, so the page is not
+            // sent again.
+            Log.w(TAG, "Database is full. Cannot purge data.");
+            DispatchCursorTable.advance(database, endpoint, cursor, Collections.<String>emptyList());
+        }
     }
 
     @Override
     public void close() {
-        helper.close();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            statements.clear();
+        }
+        helper.release();
     }
 }
@@ -23,62 +23,397 @@ package com.openlocate.android.core;
 
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 final class LocationDispatcher {
 
     private static final String TAG = LocationDispatcher.class.getSimpleName();
     private static final String LOCATIONS_KEY = "locations";
+    private static final int STATUS_CODE_UNSUPPORTED_MEDIA_TYPE = 415;
+
+    // Endpoints that rejected a compressed body, for as long as the process lives.
+    private static final Set<String> UNCOMPRESSED_ENDPOINTS = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * Receives the cursor after every page an endpoint accepts, so progress can be persisted
+     * before the next page is read.
+     */
+    interface ProgressListener {
+        void onProgress(DispatchCursor cursor);
+    }
+
+    /**
+     * Receives the cursor of an endpoint in a group after every page it accepts.
+     */
+    interface GroupProgressListener {
+        void onProgress(OpenLocate.Endpoint endpoint, DispatchCursor cursor);
+    }
+
+    /**
+     * Outcome of posting a single page of locations.
+     */
+    static final class Page {
+        final DispatchCursor cursor;
+        final int count;
+        final long bytes;
+        final boolean posted;
+
+        Page(DispatchCursor cursor, int count, long bytes, boolean posted) {
+            this.cursor = cursor;
+            this.count = count;
+            this.bytes = bytes;
+            this.posted = posted;
+        }
+    }
+
+    /**
+     * Keeps posting pages of locations to the endpoint until the backlog is empty, a post fails,
+     * the deadline passes or the byte budget is spent. The listener is told about every page
+     * the endpoint accepts.
+     *
+     * @return the cursor after the last location the endpoint accepted.
+     */
+    DispatchCursor drainLocations(HttpClient httpClient, OpenLocate.Endpoint endpoint, DispatchCursor after,
+                                  LocationDataSource dataSource, long deadlineMillis, long byteBudget,
+                                  ProgressListener listener) {
+        DispatchCursor cursor = after;
+        long bytes = 0;
 
-    List<OpenLocateLocation> postLocations(HttpClient httpClient, final OpenLocate.Endpoint endpoint, long sinceId, final LocationDataSource dataSource) {
-        final List<OpenLocateLocation> locations = dataSource.getSince(sinceId);
+        while (true) {
+            Page page = postLocations(httpClient, endpoint, cursor, dataSource);
+            if (!page.posted) {
+                break;
+            }
 
-        if (locations == null || locations.isEmpty()) {
-            Log.i(TAG, "Attempted to post locations, but found none to post.");
+            cursor = page.cursor;
+            bytes += page.bytes;
+            listener.onProgress(cursor);
+
+            if (page.count < LocationTable.QUERY_LIMIT) {
+                break;
+            }
+
+            if (System.currentTimeMillis() >= deadlineMillis || bytes >= byteBudget) {
+                Log.i(TAG, "Dispatch budget spent, the rest of the backlog is left for the next run.");
+                break;
+            }
+        }
+
+        return cursor;
+    }
+
+    /**
+     * Posts the next page of locations after the cursor to the endpoint. The cursor of the
+     * returned page only moves forward if the endpoint accepted it.
+     */
+    Page postLocations(HttpClient httpClient, OpenLocate.Endpoint endpoint, DispatchCursor after, LocationDataSource dataSource) {
+        ContentEncoding encoding = getContentEncoding(endpoint);
+        int[] statusCode = new int[1];
+        Page page = postLocations(httpClient, endpoint, encoding, after, dataSource, statusCode);
+
+        if (!page.posted && isEncodingRejected(endpoint, encoding, statusCode[0])) {
+            page = postLocations(httpClient, endpoint, ContentEncoding.IDENTITY, after, dataSource, statusCode);
+        }
+
+        return page;
+    }
+
+    /**
+     * Keeps posting pages of locations to a group of endpoints at the same cursor until the
+     * backlog is empty, every endpoint failed a post, the deadline passes or the byte budget is
+     * spent. Each page is read and encoded once, and the same bytes are posted to every endpoint
+     * still in the group, compressed once per content encoding they take. An endpoint that fails
+     * a post is left out of the rest of the run. The listener is told about every page an endpoint
+     * accepts.
+     */
+    void drainGroup(HttpClient httpClient, DispatchPlanner.Group group, LocationDataSource dataSource,
+                    long deadlineMillis, long byteBudget, GroupProgressListener listener) {
+        List<OpenLocate.Endpoint> endpoints = new ArrayList<>(group.endpoints);
+        DispatchCursor cursor = group.cursor;
+        long bytes = 0;
+
+        while (!endpoints.isEmpty()) {
+            EncodedPage page = encodePage(dataSource, cursor, group.format);
+            if (page == null) {
+                break;
+            }
+
+            long pageBytes = 0;
+            Iterator<OpenLocate.Endpoint> iterator = endpoints.iterator();
+            while (iterator.hasNext()) {
+                OpenLocate.Endpoint endpoint = iterator.next();
+                long posted = postPage(httpClient, endpoint, page);
+                if (posted < 0) {
+                    iterator.remove();
+                    continue;
+                }
+
+                pageBytes = Math.max(pageBytes, posted);
+                listener.onProgress(endpoint, page.cursor);
+            }
+
+            cursor = page.cursor;
+            bytes += pageBytes;
+
+            if (page.count < LocationTable.QUERY_LIMIT) {
+                break;
+            }
+
+            if (System.currentTimeMillis() >= deadlineMillis || bytes >= byteBudget) {
+                Log.i(TAG, "Dispatch budget spent, the rest of the backlog is left for the next run.");
+                break;
+            }
+        }
+    }
+
+    /**
+     * Reads and encodes the next page after the cursor.
+     *
+     * @return the page, or null if there is nothing after the cursor.
+     */
+    private static EncodedPage encodePage(LocationDataSource dataSource, DispatchCursor after, PayloadFormat format) {
+        LocationIterator iterator = dataSource.iterateAfter(after, LocationTable.QUERY_LIMIT);
+        try {
+            if (!iterator.hasNext()) {
+                Log.i(TAG, "Attempted to post locations, but found none to post.");
+                return null;
+            }
+
+            LocationsBody body = new LocationsBody(format, iterator);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            body.writeTo(outputStream);
+            return new EncodedPage(DispatchCursor.of(body.last), body.count, format, outputStream.toByteArray());
+        } catch (IOException e) {
+            Log.e(TAG, "Could not encode locations " + e.getMessage());
             return null;
+        } finally {
+            iterator.close();
+        }
+    }
+
+    /**
+     * Posts an encoded page to the endpoint in the content encoding it takes.
+     *
+     * @return how many bytes were posted, or -1 if the endpoint did not accept the page.
+     */
+    private static long postPage(HttpClient httpClient, OpenLocate.Endpoint endpoint, EncodedPage page) {
+        ContentEncoding encoding = getContentEncoding(endpoint);
+        int[] statusCode = new int[1];
+        byte[] bytes = page.getBytes(encoding);
+        boolean posted = post(httpClient, endpoint, new ByteArrayBody(page.format, encoding, bytes), statusCode);
+
+        if (!posted && isEncodingRejected(endpoint, encoding, statusCode[0])) {
+            bytes = page.getBytes(ContentEncoding.IDENTITY);
+            posted = post(httpClient, endpoint, new ByteArrayBody(page.format, ContentEncoding.IDENTITY, bytes), statusCode);
+        }
+
+        return posted ? bytes.length : -1;
+    }
+
+    private static ContentEncoding getContentEncoding(OpenLocate.Endpoint endpoint) {
+        if (UNCOMPRESSED_ENDPOINTS.contains(endpoint.getUrl())) {
+            return ContentEncoding.IDENTITY;
+        }
+        return endpoint.getContentEncoding();
+    }
+
+    /**
+     * Tells whether the endpoint turned down a compressed post because of its encoding, in which
+     * case it is sent uncompressed posts from then on.
+     */
+    private static boolean isEncodingRejected(OpenLocate.Endpoint endpoint, ContentEncoding encoding, int statusCode) {
+        if (statusCode != STATUS_CODE_UNSUPPORTED_MEDIA_TYPE || encoding == ContentEncoding.IDENTITY) {
+            return false;
         }
 
+        Log.w(TAG, endpoint.getUrl() + " does not accept " + encoding.getHeaderValue()
+                + " bodies, they are sent uncompressed from now on.");
+        UNCOMPRESSED_ENDPOINTS.add(endpoint.getUrl());
+        return true;
+    }
+
+    private Page postLocations(HttpClient httpClient, OpenLocate.Endpoint endpoint, ContentEncoding encoding,
+                               DispatchCursor after, LocationDataSource dataSource, int[] statusCode) {
+        LocationIterator iterator = dataSource.iterateAfter(after, LocationTable.QUERY_LIMIT);
+        try {
+            if (!iterator.hasNext()) {
+                Log.i(TAG, "Attempted to post locations, but found none to post.");
+                return new Page(after, 0, 0, false);
+            }
+
+            LocationsBody body = new LocationsBody(endpoint.getPayloadFormat(), iterator);
+            EncodedHttpBody encodedBody = encoding == ContentEncoding.IDENTITY ? null : new EncodedHttpBody(body, encoding);
+            boolean posted = post(httpClient, endpoint, encodedBody != null ? encodedBody : body, statusCode);
+
+            boolean accepted = posted && body.last != null;
+            long bytes = encodedBody != null ? encodedBody.getBytesWritten() : body.bytes;
+            return new Page(accepted ? DispatchCursor.of(body.last) : after, body.count, bytes, accepted);
+        } finally {
+            iterator.close();
+        }
+    }
+
+    /**
+     * Posts the body to the endpoint.
+     *
+     * @return whether the endpoint accepted it. The status code it answered with is left in the
+     * first element of the array.
+     */
+    private static boolean post(HttpClient httpClient, OpenLocate.Endpoint endpoint, HttpBody body, final int[] statusCode) {
+        final boolean[] posted = new boolean[1];
         final String endpointUrl = endpoint.getUrl();
         httpClient.post(
                 endpointUrl,
-                getLocationsParam(locations).toString(),
+                body,
                 endpoint.getHeaders(),
                 new HttpClientCallback() {
                     @Override
                     public void onCompletion(HttpRequest request, HttpResponse response) {
+                        posted[0] = true;
                         Log.i(TAG, "Successfully posted locations to " + endpointUrl);
                     }
                 }, new HttpClientCallback() {
                     @Override
                     public void onCompletion(HttpRequest request, HttpResponse response) {
-                        locations.clear();
+                        statusCode[0] = response.getStatusCode();
                         Log.e(TAG, "Fail to post location to " + endpointUrl);
                     }
                 }
         );
+        return posted[0];
+    }
+
+    /**
+     * A page read and encoded once, to be posted to several endpoints. The encoded bytes are
+     * never changed once made; compressed copies are made the first time an endpoint needs them.
+     */
+    private static final class EncodedPage {
+        final DispatchCursor cursor;
+        final int count;
+        final PayloadFormat format;
+        private final Map<ContentEncoding, byte[]> bytes = new EnumMap<>(ContentEncoding.class);
+
+        EncodedPage(DispatchCursor cursor, int count, PayloadFormat format, byte[] bytes) {
+            this.cursor = cursor;
+            this.count = count;
+            this.format = format;
+            this.bytes.put(ContentEncoding.IDENTITY, bytes);
+        }
 
-        dataSource.close();
+        byte[] getBytes(ContentEncoding encoding) {
+            byte[] encoded = bytes.get(encoding);
+            if (encoded != null) {
+                return encoded;
+            }
 
-        return locations;
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try {
+                OutputStream encodingStream = encoding.wrap(outputStream);
+                try {
+                    encodingStream.write(bytes.get(ContentEncoding.IDENTITY));
+                } finally {
+                    encodingStream.close();
+                }
+            } catch (IOException e) {
+                // Only thrown by the underlying stream, which is in memory.
+                throw new IllegalStateException(e);
+            }
+
+            encoded = outputStream.toByteArray();
+            bytes.put(encoding, encoded);
+            return encoded;
+        }
     }
 
-    private JSONObject getLocationsParam(List<OpenLocateLocation> locationsToPost) {
-        JSONObject jsonObject = new JSONObject();
-        JSONArray jsonArray = new JSONArray();
-        for (OpenLocateLocation location : locationsToPost) {
-            jsonArray.put(location.getJson());
+    /**
+     * Posts bytes that were encoded up front.
+     */
+    private static final class ByteArrayBody implements HttpBody {
+
+        private final PayloadFormat format;
+        private final ContentEncoding encoding;
+        private final byte[] bytes;
+
+        ByteArrayBody(PayloadFormat format, ContentEncoding encoding, byte[] bytes) {
+            this.format = format;
+            this.encoding = encoding;
+            this.bytes = bytes;
         }
 
-        try {
-            jsonObject.put(LOCATIONS_KEY, jsonArray);
-        } catch (JSONException e) {
-            Log.e(TAG, "JSON exception while posting locations " + e.getMessage());
+        @Override
+        public String getContentType() {
+            return format.getContentType();
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return encoding.getHeaderValue();
+        }
+
+        @Override
+        public long getContentLength() {
+            return bytes.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            outputStream.write(bytes);
+        }
+    }
+
+    /**
+     * Streams a page of locations from the iterator in the endpoint's format, so the page is
+     * never held in memory as a whole. Records what it wrote for the page outcome.
+     */
+    private static final class LocationsBody implements HttpBody {
+
+        private final PayloadFormat format;
+        private final LocationIterator iterator;
+        private OpenLocateLocation last;
+        private int count;
+        private long bytes;
+
+        LocationsBody(PayloadFormat format, LocationIterator iterator) {
+            this.format = format;
+            this.iterator = iterator;
+        }
+
+        @Override
+        public String getContentType() {
+            return format.getContentType();
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return null;
         }
 
-        return jsonObject;
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            LocationPageWriter writer = LocationPageWriter.create(format, outputStream);
+            writer.beginPage(LOCATIONS_KEY);
+            while (iterator.hasNext()) {
+                last = iterator.next();
+                writer.write(last);
+                count++;
+            }
+            writer.endPage();
+            bytes = writer.getBytesWritten();
+        }
     }
 }
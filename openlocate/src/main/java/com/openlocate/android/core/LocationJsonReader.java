@@ -0,0 +1,563 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.json.JSONException;
+
+/**
+ * Reads a location stored as the JSON {@link OpenLocateLocation#getJson()} gives in one pass,
+ * without building a {@code JSONObject}. Only the spans of the keys it knows are recorded while
+ * the row is scanned; unknown keys are skipped, and strings are only allocated for the values
+ * that are kept. Values are converted the way {@code JSONObject}'s getters would.
+ */
+final class LocationJsonReader {
+
+    private static final String[] KEYS = {
+            OpenLocateLocation.Keys.LATITUDE,
+            OpenLocateLocation.Keys.LONGITUDE,
+            OpenLocateLocation.Keys.HORIZONTAL_ACCURACY,
+            OpenLocateLocation.Keys.TIMESTAMP,
+            OpenLocateLocation.Keys.ALTITUDE,
+            OpenLocateLocation.Keys.COURSE,
+            OpenLocateLocation.Keys.SPEED,
+            OpenLocateLocation.Keys.AD_ID,
+            OpenLocateLocation.Keys.AD_OPT_OUT,
+            OpenLocateLocation.Keys.DEVICE_MANUFACTURER,
+            OpenLocateLocation.Keys.DEVICE_MODEL,
+            OpenLocateLocation.Keys.IS_CHARGING,
+            OpenLocateLocation.Keys.OPERATING_SYSTEM,
+            OpenLocateLocation.Keys.CARRIER_NAME,
+            OpenLocateLocation.Keys.WIFI_SSID,
+            OpenLocateLocation.Keys.WIFI_BSSID,
+            OpenLocateLocation.Keys.CONNECTION_TYPE,
+            OpenLocateLocation.Keys.LOCATION_METHOD,
+            OpenLocateLocation.Keys.LOCATION_CONTEXT
+    };
+
+    private static final int LATITUDE = 0;
+    private static final int LONGITUDE = 1;
+    private static final int HORIZONTAL_ACCURACY = 2;
+    private static final int TIMESTAMP = 3;
+    private static final int ALTITUDE = 4;
+    private static final int COURSE = 5;
+    private static final int SPEED = 6;
+    private static final int AD_ID = 7;
+    private static final int AD_OPT_OUT = 8;
+    private static final int DEVICE_MANUFACTURER = 9;
+    private static final int DEVICE_MODEL = 10;
+    private static final int IS_CHARGING = 11;
+    private static final int OPERATING_SYSTEM = 12;
+    private static final int CARRIER_NAME = 13;
+    private static final int WIFI_SSID = 14;
+    private static final int WIFI_BSSID = 15;
+    private static final int CONNECTION_TYPE = 16;
+    private static final int LOCATION_METHOD = 17;
+    private static final int LOCATION_CONTEXT = 18;
+
+    private static final byte ABSENT = 0;
+    private static final byte STRING = 1;
+    private static final byte ESCAPED_STRING = 2;
+    private static final byte NUMBER = 3;
+    private static final byte TRUE = 4;
+    private static final byte FALSE = 5;
+    private static final byte NULL = 6;
+
+    // Integers up to 2^53 and powers of ten up to 10^22 are exact doubles, so a single multiply
+    // or divide of the two rounds the same way as parsing the whole number.
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final String json;
+    private int position;
+
+    private final byte[] types = new byte[KEYS.length];
+    private final int[] starts = new int[KEYS.length];
+    private final int[] ends = new int[KEYS.length];
+
+    LocationJsonReader(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Scans the row, recording where the value of every known key is. Fails if the row is not
+     * a JSON object.
+     */
+    void read() throws JSONException {
+        if (json == null) {
+            throw new JSONException("No location to read");
+        }
+
+        position = 0;
+        skipWhitespace();
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            return;
+        }
+
+        while (true) {
+            skipWhitespace();
+            int field = readKey();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (field < 0) {
+                skipValue();
+            } else {
+                readValue(field);
+            }
+            skipWhitespace();
+
+            char c = next();
+            if (c == '}') {
+                return;
+            } else if (c != ',') {
+                throw syntaxError("Expected ',' or '}'");
+            }
+        }
+    }
+
+    /**
+     * Fills in the location in the order the JSON constructor did, stopping at the first value
+     * that is missing or cannot be converted.
+     */
+    void readLocationInfo(OpenLocateLocation.LocationInfo location) throws JSONException {
+        location.setLatitude(getDouble(LATITUDE));
+        location.setLongitude(getDouble(LONGITUDE));
+        location.setHorizontalAccuracy(getFloat(HORIZONTAL_ACCURACY));
+        location.setTimeStampSecs(getLong(TIMESTAMP));
+        location.setAltitude(getDouble(ALTITUDE));
+        location.setCourse(getFloat(COURSE));
+        location.setSpeed(getFloat(SPEED));
+    }
+
+    InformationFields getInformationFields() {
+        return InformationFieldsFactory.getInformationFields(
+                optString(DEVICE_MANUFACTURER),
+                optString(DEVICE_MODEL),
+                optString(IS_CHARGING),
+                optString(OPERATING_SYSTEM),
+                optString(CARRIER_NAME),
+                optString(WIFI_SSID),
+                optString(WIFI_BSSID),
+                optString(CONNECTION_TYPE),
+                optString(LOCATION_METHOD),
+                optString(LOCATION_CONTEXT)
+        );
+    }
+
+    AdvertisingIdClient.Info getAdvertisingInfo() throws JSONException {
+        return new AdvertisingIdClient.Info(getString(AD_ID), getBoolean(AD_OPT_OUT));
+    }
+
+    private String optString(int field) {
+        String value = getStringOrNull(field);
+        return value == null ? "" : value;
+    }
+
+    private String getString(int field) throws JSONException {
+        String value = getStringOrNull(field);
+        if (value == null) {
+            throw missing(field);
+        }
+        return value;
+    }
+
+    // Numbers and booleans are read as their text, like JSONObject.getString does.
+    private String getStringOrNull(int field) {
+        switch (types[field]) {
+            case STRING:
+            case NUMBER:
+            case TRUE:
+            case FALSE:
+                return json.substring(starts[field], ends[field]);
+            case ESCAPED_STRING:
+                return unescape(starts[field], ends[field]);
+            default:
+                return null;
+        }
+    }
+
+    private boolean getBoolean(int field) throws JSONException {
+        switch (types[field]) {
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case STRING:
+                int length = ends[field] - starts[field];
+                if (length == 4 && json.regionMatches(true, starts[field], "true", 0, 4)) {
+                    return true;
+                } else if (length == 5 && json.regionMatches(true, starts[field], "false", 0, 5)) {
+                    return false;
+                }
+                throw notA(field, "boolean");
+            default:
+                throw missing(field);
+        }
+    }
+
+    private long getLong(int field) throws JSONException {
+        checkNumeric(field);
+        int start = starts[field];
+        int end = ends[field];
+
+        int i = start;
+        boolean negative = i < end && json.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+
+        // Up to 18 digits cannot overflow a long.
+        if (i < end && end - i <= 18) {
+            long value = 0;
+            for (; i < end; i++) {
+                char c = json.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+            if (i == end) {
+                return negative ? -value : value;
+            }
+        }
+
+        String text = json.substring(start, end);
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return (long) parseDouble(field, text);
+        }
+    }
+
+    private float getFloat(int field) throws JSONException {
+        double value = getDouble(field);
+        float floatValue = (float) value;
+
+        // A double that holds a float exactly rounds to that float from any decimal it was
+        // parsed from, which covers every float the writer stored.
+        if ((double) floatValue == value || Double.isNaN(value)) {
+            return floatValue;
+        }
+
+        try {
+            return Float.parseFloat(json.substring(starts[field], ends[field]));
+        } catch (NumberFormatException e) {
+            throw notA(field, "float");
+        }
+    }
+
+    private double getDouble(int field) throws JSONException {
+        checkNumeric(field);
+        int start = starts[field];
+        int end = ends[field];
+
+        int i = start;
+        boolean negative = i < end && json.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        boolean digits = false;
+        boolean exact = true;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            char c = json.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+                if (mantissa > (MAX_EXACT_MANTISSA - 9) / 10) {
+                    exact = false;
+                    break;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (fraction) {
+                    exponent--;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (exact && digits && i < end && (json.charAt(i) == 'e' || json.charAt(i) == 'E')) {
+            i++;
+            boolean negativeExponent = i < end && json.charAt(i) == '-';
+            if (i < end && (json.charAt(i) == '-' || json.charAt(i) == '+')) {
+                i++;
+            }
+            int value = 0;
+            int exponentStart = i;
+            for (; i < end && i - exponentStart < 4; i++) {
+                char c = json.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+            exact = i > exponentStart;
+            exponent += negativeExponent ? -value : value;
+        }
+
+        if (exact && digits && i == end && exponent >= -22 && exponent <= 22) {
+            double value = exponent < 0
+                    ? mantissa / POWERS_OF_TEN[-exponent]
+                    : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+
+        return parseDouble(field, json.substring(start, end));
+    }
+
+    private double parseDouble(int field, String text) throws JSONException {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw notA(field, "number");
+        }
+    }
+
+    // JSONObject converts numeric strings as well, as long as they have no escapes.
+    private void checkNumeric(int field) throws JSONException {
+        if (types[field] == ABSENT || types[field] == NULL) {
+            throw missing(field);
+        }
+        if (types[field] != NUMBER && types[field] != STRING) {
+            throw notA(field, "number");
+        }
+    }
+
+    private int readKey() throws JSONException {
+        expect('"');
+        int start = position;
+        boolean escaped = skipString();
+        int end = position - 1;
+
+        if (escaped) {
+            String key = unescape(start, end);
+            for (int field = 0; field < KEYS.length; field++) {
+                if (KEYS[field].equals(key)) {
+                    return field;
+                }
+            }
+            return -1;
+        }
+
+        int length = end - start;
+        for (int field = 0; field < KEYS.length; field++) {
+            if (KEYS[field].length() == length && json.regionMatches(start, KEYS[field], 0, length)) {
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    // A key that appears twice keeps its last value, as in JSONObject.
+    private void readValue(int field) throws JSONException {
+        char c = peek();
+        if (c == '"') {
+            position++;
+            starts[field] = position;
+            types[field] = skipString() ? ESCAPED_STRING : STRING;
+            ends[field] = position - 1;
+        } else if (c == '{' || c == '[') {
+            skipValue();
+            types[field] = ABSENT;
+        } else {
+            starts[field] = position;
+            skipLiteral();
+            ends[field] = position;
+            types[field] = literalType(starts[field], ends[field]);
+        }
+    }
+
+    private byte literalType(int start, int end) throws JSONException {
+        int length = end - start;
+        if (length == 4 && json.regionMatches(start, "true", 0, 4)) {
+            return TRUE;
+        } else if (length == 5 && json.regionMatches(start, "false", 0, 5)) {
+            return FALSE;
+        } else if (length == 4 && json.regionMatches(start, "null", 0, 4)) {
+            return NULL;
+        }
+
+        char c = json.charAt(start);
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            return NUMBER;
+        }
+        throw syntaxError("Unexpected value");
+    }
+
+    private void skipValue() throws JSONException {
+        int depth = 0;
+        do {
+            char c = peek();
+            if (c == '"') {
+                position++;
+                skipString();
+            } else if (c == '{' || c == '[') {
+                position++;
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    throw syntaxError("Unexpected '" + c + "'");
+                }
+                position++;
+                depth--;
+            } else if (c == ',' || c == ':' || isWhitespace(c)) {
+                if (depth == 0) {
+                    throw syntaxError("Expected a value");
+                }
+                position++;
+            } else {
+                skipLiteral();
+            }
+        } while (depth > 0);
+    }
+
+    private void skipLiteral() throws JSONException {
+        int start = position;
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if (c == ',' || c == '}' || c == ']' || c == ':' || isWhitespace(c)) {
+                break;
+            }
+            position++;
+        }
+        if (position == start) {
+            throw syntaxError("Expected a value");
+        }
+    }
+
+    /**
+     * Moves past the closing quote of the string the position is in.
+     *
+     * @return whether the string has escapes.
+     */
+    private boolean skipString() throws JSONException {
+        boolean escaped = false;
+        while (position < json.length()) {
+            char c = json.charAt(position++);
+            if (c == '"') {
+                return escaped;
+            } else if (c == '\\') {
+                escaped = true;
+                position++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private String unescape(int start, int end) {
+        StringBuilder builder = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = json.charAt(i);
+            if (c != '\\' || i + 1 >= end) {
+                builder.append(c);
+                continue;
+            }
+
+            c = json.charAt(++i);
+            switch (c) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 < end) {
+                        try {
+                            builder.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                            i += 4;
+                            break;
+                        } catch (NumberFormatException e) {
+                            // Kept as it is below.
+                        }
+                    }
+                    builder.append(c);
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length() && isWhitespace(json.charAt(position))) {
+            position++;
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private void expect(char expected) throws JSONException {
+        if (next() != expected) {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+    }
+
+    private char peek() throws JSONException {
+        if (position >= json.length()) {
+            throw syntaxError("Unexpected end");
+        }
+        return json.charAt(position);
+    }
+
+    private char next() throws JSONException {
+        char c = peek();
+        position++;
+        return c;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + position);
+    }
+
+    private static JSONException missing(int field) {
+        return new JSONException("No value for " + KEYS[field]);
+    }
+
+    private static JSONException notA(int field, String type) {
+        return new JSONException("Value of " + KEYS[field] + " is not a " + type);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.text.TextUtils;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a page of locations as {@code {"locations":[...]}} in UTF-8, each location in the form
+ * {@link OpenLocateLocation#getJson()} gives it.
+ */
+final class LocationJsonWriter extends LocationPageWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private int locations;
+    private int fields;
+
+    LocationJsonWriter(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    void beginPage(String key) throws IOException {
+        writeByte('{');
+        writeString(key);
+        writeByte(':');
+        writeByte('[');
+        locations = 0;
+    }
+
+    @Override
+    void write(OpenLocateLocation location) throws IOException {
+        if (locations++ > 0) {
+            writeByte(',');
+        }
+
+        writeByte('{');
+        fields = 0;
+        writeFields(location);
+        writeByte('}');
+    }
+
+    @Override
+    void endPage() throws IOException {
+        writeByte(']');
+        writeByte('}');
+        flush();
+    }
+
+    // Mirrors getJson(), which stops adding fields at the first value it cannot put.
+    private void writeFields(OpenLocateLocation location) throws IOException {
+        OpenLocateLocation.LocationInfo info = location.getLocation();
+        if (info == null
+                || !writeField(OpenLocateLocation.Keys.LATITUDE, info.getLatitude())
+                || !writeField(OpenLocateLocation.Keys.LONGITUDE, info.getLongitude())) {
+            return;
+        }
+        writeField(OpenLocateLocation.Keys.HORIZONTAL_ACCURACY, String.valueOf(info.getHorizontalAccuracy()));
+        writeField(OpenLocateLocation.Keys.TIMESTAMP, info.getTimeStampSecs());
+        writeField(OpenLocateLocation.Keys.COURSE, String.valueOf(info.getCourse()));
+        writeField(OpenLocateLocation.Keys.SPEED, String.valueOf(info.getSpeed()));
+        if (!writeField(OpenLocateLocation.Keys.ALTITUDE, info.getAltitude())) {
+            return;
+        }
+
+        AdvertisingIdClient.Info advertisingInfo = location.getAdvertisingInfo();
+        if (advertisingInfo == null) {
+            return;
+        }
+        writeField(OpenLocateLocation.Keys.AD_ID, advertisingInfo.getId());
+        writeField(OpenLocateLocation.Keys.AD_OPT_OUT, advertisingInfo.isLimitAdTrackingEnabled());
+        writeField(OpenLocateLocation.Keys.AD_TYPE, OpenLocateLocation.ADVERTISING_ID_TYPE);
+
+        InformationFields informationFields = location.getInformationFields();
+        if (informationFields == null) {
+            return;
+        }
+        writeOptionalField(OpenLocateLocation.Keys.DEVICE_MANUFACTURER, informationFields.getManufacturer());
+        writeOptionalField(OpenLocateLocation.Keys.DEVICE_MODEL, informationFields.getModel());
+        writeOptionalField(OpenLocateLocation.Keys.IS_CHARGING, informationFields.isCharging());
+        writeOptionalField(OpenLocateLocation.Keys.OPERATING_SYSTEM, informationFields.getOperatingSystem());
+        writeOptionalField(OpenLocateLocation.Keys.CARRIER_NAME, informationFields.getCarrierName());
+        if (!(TextUtils.isEmpty(informationFields.getWifiSsid()) && TextUtils.isEmpty(informationFields.getWifiBssid()))) {
+            writeField(OpenLocateLocation.Keys.WIFI_SSID, informationFields.getWifiSsid());
+            writeField(OpenLocateLocation.Keys.WIFI_BSSID, informationFields.getWifiBssid());
+        }
+        writeOptionalField(OpenLocateLocation.Keys.CONNECTION_TYPE, informationFields.getConnectionType());
+
+        if (informationFields.getLocationProvider() == null) {
+            return;
+        }
+        writeOptionalField(OpenLocateLocation.Keys.LOCATION_METHOD, informationFields.getLocationProvider().getValue());
+
+        if (informationFields.getLocationContext() == null) {
+            return;
+        }
+        writeOptionalField(OpenLocateLocation.Keys.LOCATION_CONTEXT, informationFields.getLocationContext().getValue());
+    }
+
+    private void writeOptionalField(String key, String value) throws IOException {
+        if (!TextUtils.isEmpty(value)) {
+            writeField(key, value);
+        }
+    }
+
+    // A null value removes the key from a JSONObject, so it is left out.
+    private void writeField(String key, String value) throws IOException {
+        if (value != null) {
+            writeKey(key);
+            writeString(value);
+        }
+    }
+
+    private void writeField(String key, boolean value) throws IOException {
+        writeKey(key);
+        writeAscii(value ? "true" : "false");
+    }
+
+    private void writeField(String key, long value) throws IOException {
+        writeKey(key);
+        writeAscii(Long.toString(value));
+    }
+
+    /**
+     * Writes the number the way JSONObject does, which rejects numbers that are not finite.
+     *
+     * @return whether the number was written.
+     */
+    private boolean writeField(String key, double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return false;
+        }
+
+        writeKey(key);
+        long longValue = (long) value;
+        if (value == 0 && 1 / value < 0) {
+            writeAscii("-0");
+        } else if (value == (double) longValue) {
+            writeAscii(Long.toString(longValue));
+        } else {
+            writeAscii(Double.toString(value));
+        }
+        return true;
+    }
+
+    private void writeKey(String key) throws IOException {
+        if (fields++ > 0) {
+            writeByte(',');
+        }
+        writeString(key);
+        writeByte(':');
+    }
+
+    // Escapes the same characters as JSONStringer and encodes the rest as UTF-8.
+    private void writeString(String value) throws IOException {
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    writeByte('\\');
+                    writeByte(c);
+                    break;
+                case '\t':
+                    writeAscii("\\t");
+                    break;
+                case '\b':
+                    writeAscii("\\b");
+                    break;
+                case '\n':
+                    writeAscii("\\n");
+                    break;
+                case '\r':
+                    writeAscii("\\r");
+                    break;
+                case '\f':
+                    writeAscii("\\f");
+                    break;
+                default:
+                    if (c <= 0x1F) {
+                        writeAscii("\\u00");
+                        writeByte(HEX[c >> 4]);
+                        writeByte(HEX[c & 0xF]);
+                    } else {
+                        i = writeUtf8(value, i) - 1;
+                    }
+            }
+        }
+        writeByte('"');
+    }
+}
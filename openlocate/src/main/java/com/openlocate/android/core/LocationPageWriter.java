@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a page of locations to an output stream in one of the {@link PayloadFormat}s. Output
+ * goes through a small fixed buffer, whatever the number of locations, and no intermediate
+ * objects are built for the page.
+ */
+abstract class LocationPageWriter {
+
+    static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+    private long written;
+
+    LocationPageWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    static LocationPageWriter create(PayloadFormat format, OutputStream out) {
+        switch (format) {
+            case CBOR:
+                return new LocationCborWriter(out);
+            default:
+                return new LocationJsonWriter(out);
+        }
+    }
+
+    /**
+     * Starts the page, which holds the locations under the given key.
+     */
+    abstract void beginPage(String key) throws IOException;
+
+    abstract void write(OpenLocateLocation location) throws IOException;
+
+    /**
+     * Ends the page and flushes it to the stream.
+     */
+    abstract void endPage() throws IOException;
+
+    /**
+     * Returns how many bytes were written so far, including those still in the buffer.
+     */
+    long getBytesWritten() {
+        return written + count;
+    }
+
+    void flush() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            written += count;
+            count = 0;
+        }
+        out.flush();
+    }
+
+    void writeByte(int b) throws IOException {
+        if (count == buffer.length) {
+            out.write(buffer, 0, count);
+            written += count;
+            count = 0;
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    void writeAscii(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            writeByte(value.charAt(i));
+        }
+    }
+
+    /**
+     * Encodes the character at the index as UTF-8, along with the one after it if the two form a
+     * surrogate pair. Unpaired surrogates become '?', as with {@code String.getBytes}.
+     *
+     * @return the index of the next character.
+     */
+    int writeUtf8(String value, int index) throws IOException {
+        char c = value.charAt(index);
+        if (c < 0x80) {
+            writeByte(c);
+        } else if (c < 0x800) {
+            writeByte(0xC0 | (c >> 6));
+            writeByte(0x80 | (c & 0x3F));
+        } else if (isSurrogatePair(value, index)) {
+            int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            writeByte(0xF0 | (codePoint >> 18));
+            writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+            writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+            writeByte(0x80 | (codePoint & 0x3F));
+            return index + 2;
+        } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+            writeByte('?');
+        } else {
+            writeByte(0xE0 | (c >> 12));
+            writeByte(0x80 | ((c >> 6) & 0x3F));
+            writeByte(0x80 | (c & 0x3F));
+        }
+        return index + 1;
+    }
+
+    /**
+     * Returns the length of the string in UTF-8, as {@link #writeUtf8(String, int)} encodes it.
+     */
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (isSurrogatePair(value, i)) {
+                length += 4;
+                i++;
+            } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static boolean isSurrogatePair(String value, int index) {
+        return Character.isHighSurrogate(value.charAt(index)) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registers the tables that locations are partitioned into. Each partition holds the locations
+ * created in the half-open range [start, end), and ranges never overlap, so whole partitions can
+ * be dropped once everything in them has expired or been delivered.
+ *
+ * <p>Each partition also keeps its row count, approximate size, time span and range of location
+ * ids, updated in the transactions that insert and delete its rows, so the totals never need a
+ * scan.
+ */
+final class LocationPartitionTable {
+
+    static final String TABLE_NAME = "location_partition";
+
+    private static final String COLUMN_NAME = "name";
+    private static final String COLUMN_START_AT = "start_at";
+    private static final String COLUMN_END_AT = "end_at";
+    private static final String COLUMN_ROW_COUNT = "row_count";
+    private static final String COLUMN_BYTE_COUNT = "byte_count";
+    private static final String COLUMN_FIRST_CREATED_AT = "first_created_at";
+    private static final String COLUMN_LAST_CREATED_AT = "last_created_at";
+    private static final String COLUMN_FIRST_ID = "first_location_id";
+    private static final String COLUMN_LAST_ID = "last_location_id";
+
+    private static final String PARTITION_PREFIX = "location_";
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_NAME
+            + " ("
+            + COLUMN_NAME + " TEXT PRIMARY KEY, "
+            + COLUMN_START_AT + " INTEGER NOT NULL, "
+            + COLUMN_END_AT + " INTEGER NOT NULL, "
+            + COLUMN_ROW_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_BYTE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_FIRST_CREATED_AT + " INTEGER, "
+            + COLUMN_LAST_CREATED_AT + " INTEGER, "
+            + COLUMN_FIRST_ID + " INTEGER, "
+            + COLUMN_LAST_ID + " INTEGER"
+            + ");";
+
+    private static final String INSERTED_SQL = "UPDATE " + TABLE_NAME + " SET "
+            + COLUMN_ROW_COUNT + " = " + COLUMN_ROW_COUNT + " + ?1, "
+            + COLUMN_BYTE_COUNT + " = " + COLUMN_BYTE_COUNT + " + ?2, "
+            + COLUMN_FIRST_CREATED_AT + " = MIN(IFNULL(" + COLUMN_FIRST_CREATED_AT + ", ?3), ?3), "
+            + COLUMN_LAST_CREATED_AT + " = MAX(IFNULL(" + COLUMN_LAST_CREATED_AT + ", ?4), ?4), "
+            + COLUMN_FIRST_ID + " = MIN(IFNULL(" + COLUMN_FIRST_ID + ", ?5), ?5), "
+            + COLUMN_LAST_ID + " = MAX(IFNULL(" + COLUMN_LAST_ID + ", ?6), ?6)"
+            + " WHERE " + COLUMN_NAME + " = ?7";
+
+    private static final String STATS_SQL = "SELECT IFNULL(SUM(" + COLUMN_ROW_COUNT + "), 0), IFNULL(SUM("
+            + COLUMN_BYTE_COUNT + "), 0), IFNULL(MIN(" + COLUMN_FIRST_CREATED_AT + "), 0), IFNULL(MAX("
+            + COLUMN_LAST_CREATED_AT + "), 0) FROM " + TABLE_NAME;
+
+    private static final String[] COLUMNS = new String[]{COLUMN_NAME, COLUMN_START_AT, COLUMN_END_AT,
+            COLUMN_ROW_COUNT, COLUMN_FIRST_ID, COLUMN_LAST_ID};
+
+    private LocationPartitionTable() {
+    }
+
+    static void createIfRequired(SQLiteDatabase db) {
+        db.execSQL(CREATE_TABLE_SQL);
+    }
+
+    /**
+     * Returns every partition, oldest first.
+     */
+    static List<Partition> getAll(SQLiteDatabase db) {
+        List<Partition> partitions = new ArrayList<>();
+        Cursor cursor = db.query(TABLE_NAME, COLUMNS, null, null, null, null, COLUMN_START_AT);
+        if (cursor == null) {
+            return partitions;
+        }
+
+        try {
+            while (cursor.moveToNext()) {
+                Partition partition = new Partition(cursor.getString(0), cursor.getLong(1), cursor.getLong(2));
+                if (cursor.getLong(3) == 0) {
+                    partition.setIds(Long.MAX_VALUE, Long.MIN_VALUE);
+                } else {
+                    partition.setIds(cursor.getLong(4), cursor.getLong(5));
+                }
+                partitions.add(partition);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return partitions;
+    }
+
+    /**
+     * Returns the partition that holds the given creation time, creating it if required. A new
+     * partition is aligned to the window and clipped so it does not overlap its neighbours, which
+     * keeps older partitions valid when the window changes.
+     *
+     * @param partitions every partition, oldest first; a created partition is added to it
+     */
+    static Partition getOrCreate(SQLiteDatabase db, List<Partition> partitions, long createdAt, long windowInMillis) {
+        long start = createdAt - floorMod(createdAt, windowInMillis);
+        long end = start + windowInMillis;
+
+        int index = 0;
+        for (; index < partitions.size(); index++) {
+            Partition partition = partitions.get(index);
+            if (partition.contains(createdAt)) {
+                return partition;
+            }
+
+            if (partition.getStart() > createdAt) {
+                end = Math.min(end, partition.getStart());
+                break;
+            }
+
+            start = Math.max(start, partition.getEnd());
+        }
+
+        Partition partition = create(db, start, end);
+        partitions.add(index, partition);
+        return partition;
+    }
+
+    private static Partition create(SQLiteDatabase db, long start, long end) {
+        // Table names cannot start with a minus sign, even if creation times before 1970 are unlikely.
+        String name = PARTITION_PREFIX + (start < 0 ? "n" + -start : String.valueOf(start));
+        Partition partition = new Partition(name, start, end);
+        partition.setIds(Long.MAX_VALUE, Long.MIN_VALUE);
+
+        db.beginTransaction();
+        try {
+            LocationTable.createPartition(db, partition.getName());
+
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_NAME, partition.getName());
+            values.put(COLUMN_START_AT, start);
+            values.put(COLUMN_END_AT, end);
+            values.put(COLUMN_ROW_COUNT, 0);
+            values.put(COLUMN_BYTE_COUNT, 0);
+            db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return partition;
+    }
+
+    static void drop(SQLiteDatabase db, Partition partition) {
+        db.beginTransaction();
+        try {
+            LocationTable.dropPartition(db, partition.getName());
+            db.delete(TABLE_NAME, COLUMN_NAME + " = ?", new String[]{partition.getName()});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Records rows inserted into the partition, in the transaction that inserted them.
+     */
+    static void onInserted(StatementCache statements, Partition partition, long count, long bytes,
+                           long firstCreatedAt, long lastCreatedAt, long firstId, long lastId) {
+        SQLiteStatement statement = statements.get(INSERTED_SQL);
+        statement.bindLong(1, count);
+        statement.bindLong(2, bytes);
+        statement.bindLong(3, firstCreatedAt);
+        statement.bindLong(4, lastCreatedAt);
+        statement.bindLong(5, firstId);
+        statement.bindLong(6, lastId);
+        statement.bindString(7, partition.getName());
+        statement.executeUpdateDelete();
+    }
+
+    /**
+     * Records rows deleted from the partition, in the transaction that deleted them. The size
+     * shrinks by the average row size, the time span is read back from the created_at index and
+     * the id range from the primary key.
+     */
+    static void onDeleted(SQLiteDatabase db, Partition partition, long count) {
+        if (count <= 0) {
+            return;
+        }
+
+        String name = partition.getName();
+        db.execSQL("UPDATE " + TABLE_NAME + " SET "
+                + COLUMN_BYTE_COUNT + " = CASE WHEN " + COLUMN_ROW_COUNT + " > ?1 THEN "
+                + COLUMN_BYTE_COUNT + " - " + COLUMN_BYTE_COUNT + " * ?1 / " + COLUMN_ROW_COUNT + " ELSE 0 END, "
+                + COLUMN_ROW_COUNT + " = MAX(" + COLUMN_ROW_COUNT + " - ?1, 0), "
+                + COLUMN_FIRST_CREATED_AT + " = (SELECT MIN(" + LocationTable.COLUMN_CREATED_AT + ") FROM " + name + "), "
+                + COLUMN_LAST_CREATED_AT + " = (SELECT MAX(" + LocationTable.COLUMN_CREATED_AT + ") FROM " + name + "), "
+                + COLUMN_FIRST_ID + " = (SELECT MIN(" + LocationTable.COLUMN_ID + ") FROM " + name + "), "
+                + COLUMN_LAST_ID + " = (SELECT MAX(" + LocationTable.COLUMN_ID + ") FROM " + name + ")"
+                + " WHERE " + COLUMN_NAME + " = ?2", new Object[]{count, name});
+    }
+
+    /**
+     * Returns the totals over every partition.
+     */
+    static LocationStats getStats(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(STATS_SQL, null);
+        if (cursor == null) {
+            return LocationStats.EMPTY;
+        }
+
+        try {
+            if (!cursor.moveToFirst()) {
+                return LocationStats.EMPTY;
+            }
+            return new LocationStats(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2), cursor.getLong(3));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the row count of the partition.
+     */
+    static long getRowCount(SQLiteDatabase db, Partition partition) {
+        return DatabaseUtils.longForQuery(db, "SELECT " + COLUMN_ROW_COUNT + " FROM " + TABLE_NAME
+                + " WHERE " + COLUMN_NAME + " = ?", new String[]{partition.getName()});
+    }
+
+    private static long floorMod(long value, long divisor) {
+        long mod = value % divisor;
+        return mod < 0 ? mod + divisor : mod;
+    }
+
+    static final class Partition {
+
+        private final String name;
+        private final long start;
+        private final long end;
+
+        private long firstId;
+        private long lastId;
+
+        private String insertSql;
+
+        Partition(String name, long start, long end) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+        }
+
+        private void setIds(long firstId, long lastId) {
+            this.firstId = firstId;
+            this.lastId = lastId;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getStart() {
+            return start;
+        }
+
+        long getEnd() {
+            return end;
+        }
+
+        /**
+         * Returns the statement that inserts a location into the partition, built on first use.
+         */
+        String getInsertSql() {
+            if (insertSql == null) {
+                insertSql = LocationTable.getInsertSql(name);
+            }
+            return insertSql;
+        }
+
+        boolean contains(long createdAt) {
+            return createdAt >= start && createdAt < end;
+        }
+
+        /**
+         * Returns the lowest id the partition may hold.
+         */
+        long getFirstId() {
+            return firstId;
+        }
+
+        /**
+         * Returns the highest id the partition may hold.
+         */
+        long getLastId() {
+            return lastId;
+        }
+    }
+}
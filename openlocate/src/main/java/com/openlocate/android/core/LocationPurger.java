@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.util.Log;
+
+final class LocationPurger {
+
+    private static final String TAG = LocationPurger.class.getSimpleName();
+
+    // Leaves the database to the thread storing new locations between chunks.
+    static final long CHUNK_PAUSE_MSEC = 50;
+
+    private final long pauseInMillis;
+
+    LocationPurger() {
+        this(CHUNK_PAUSE_MSEC);
+    }
+
+    LocationPurger(long pauseInMillis) {
+        this.pauseInMillis = pauseInMillis;
+    }
+
+    /**
+     * Deletes the locations the policy no longer keeps, a chunk at a time, until none are left or
+     * the deadline passes. Whatever is left is purged by the next run.
+     *
+     * @return how many locations were deleted.
+     */
+    long purgeExpired(LocationDataSource dataSource, RetentionPolicy policy, long nowMillis, long deadlineMillis) {
+        long expiredBefore = nowMillis - policy.getPeriodInMillis();
+        long deleted = 0;
+
+        while (true) {
+            int chunk = dataSource.deleteBefore(expiredBefore, policy.getChunkSize());
+            deleted += chunk;
+            if (chunk < policy.getChunkSize()) {
+                break;
+            }
+
+            if (System.currentTimeMillis() >= deadlineMillis) {
+                Log.i(TAG, "Purge budget spent, the rest of the expired locations are left for the next run.");
+                break;
+            }
+
+            try {
+                Thread.sleep(pauseInMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        return deleted;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import java.util.Date;
+import java.util.NoSuchElementException;
+
+/**
+ * Selects stored locations by area and time, one page at a time. Results come in the order the
+ * locations were stored; pass the last location of a page to {@link Builder#setStartAfter} to get
+ * the next one.
+ */
+public final class LocationQuery {
+
+    static final int DEFAULT_LIMIT = 100;
+
+    private static final double METERS_PER_DEGREE = 111320;
+    private static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    private final double minLatitude;
+    private final double minLongitude;
+    private final double maxLatitude;
+    private final double maxLongitude;
+
+    // Set for radius queries, whose bounding box is only a first filter.
+    private final boolean hasRadius;
+    private final double centerLatitude;
+    private final double centerLongitude;
+    private final double radiusInMeters;
+
+    private final long fromMillis;
+    private final long toMillis;
+    private final int limit;
+    private final DispatchCursor after;
+
+    public static final class Builder {
+        private double minLatitude = -90;
+        private double minLongitude = -180;
+        private double maxLatitude = 90;
+        private double maxLongitude = 180;
+        private boolean hasRadius;
+        private double centerLatitude;
+        private double centerLongitude;
+        private double radiusInMeters;
+        private long fromMillis = Long.MIN_VALUE;
+        private long toMillis = Long.MAX_VALUE;
+        private int limit = DEFAULT_LIMIT;
+        private DispatchCursor after = DispatchCursor.START;
+
+        /**
+         * Only returns locations inside the box. A box whose west edge is east of its east edge
+         * crosses the 180th meridian.
+         */
+        public Builder setBoundingBox(double minLatitude, double minLongitude,
+                                      double maxLatitude, double maxLongitude) {
+            if (minLatitude > maxLatitude) {
+                throw new IllegalArgumentException("Minimum latitude is above the maximum latitude.");
+            }
+
+            this.minLatitude = minLatitude;
+            this.minLongitude = minLongitude;
+            this.maxLatitude = maxLatitude;
+            this.maxLongitude = maxLongitude;
+            this.hasRadius = false;
+            return this;
+        }
+
+        /**
+         * Only returns locations within the given distance of a point.
+         */
+        public Builder setRadius(double latitude, double longitude, double radiusInMeters) {
+            if (radiusInMeters < 0) {
+                throw new IllegalArgumentException("Radius must not be negative.");
+            }
+
+            double latitudeSpan = radiusInMeters / METERS_PER_DEGREE;
+            double cos = Math.cos(Math.toRadians(latitude));
+            this.minLatitude = Math.max(-90, latitude - latitudeSpan);
+            this.maxLatitude = Math.min(90, latitude + latitudeSpan);
+
+            if (cos <= 0 || latitudeSpan / cos >= 180 || maxLatitude >= 90 || minLatitude <= -90) {
+                this.minLongitude = -180;
+                this.maxLongitude = 180;
+            } else {
+                this.minLongitude = wrap(longitude - latitudeSpan / cos);
+                this.maxLongitude = wrap(longitude + latitudeSpan / cos);
+            }
+
+            this.hasRadius = true;
+            this.centerLatitude = latitude;
+            this.centerLongitude = longitude;
+            this.radiusInMeters = radiusInMeters;
+            return this;
+        }
+
+        /**
+         * Only returns locations collected at or after {@code from} and before {@code to}. Either
+         * may be null.
+         */
+        public Builder setTimeRange(Date from, Date to) {
+            this.fromMillis = from != null ? from.getTime() : Long.MIN_VALUE;
+            this.toMillis = to != null ? to.getTime() : Long.MAX_VALUE;
+            return this;
+        }
+
+        public Builder setLimit(int limit) {
+            if (limit <= 0) {
+                throw new IllegalArgumentException("Limit must be positive.");
+            }
+
+            this.limit = limit;
+            return this;
+        }
+
+        /**
+         * Starts the page after the given location, the last one of the previous page.
+         */
+        public Builder setStartAfter(OpenLocateLocation location) {
+            this.after = location != null ? DispatchCursor.of(location) : DispatchCursor.START;
+            return this;
+        }
+
+        public LocationQuery build() {
+            return new LocationQuery(this);
+        }
+    }
+
+    private LocationQuery(Builder builder) {
+        this.minLatitude = builder.minLatitude;
+        this.minLongitude = builder.minLongitude;
+        this.maxLatitude = builder.maxLatitude;
+        this.maxLongitude = builder.maxLongitude;
+        this.hasRadius = builder.hasRadius;
+        this.centerLatitude = builder.centerLatitude;
+        this.centerLongitude = builder.centerLongitude;
+        this.radiusInMeters = builder.radiusInMeters;
+        this.fromMillis = builder.fromMillis;
+        this.toMillis = builder.toMillis;
+        this.limit = builder.limit;
+        this.after = builder.after;
+    }
+
+    double getMinLatitude() {
+        return minLatitude;
+    }
+
+    double getMinLongitude() {
+        return minLongitude;
+    }
+
+    double getMaxLatitude() {
+        return maxLatitude;
+    }
+
+    double getMaxLongitude() {
+        return maxLongitude;
+    }
+
+    /**
+     * Returns whether the query is limited to an area rather than the whole globe.
+     */
+    boolean hasArea() {
+        return minLatitude > -90 || maxLatitude < 90 || minLongitude > -180 || maxLongitude < 180;
+    }
+
+    boolean hasRadius() {
+        return hasRadius;
+    }
+
+    boolean crossesAntimeridian() {
+        return minLongitude > maxLongitude;
+    }
+
+    long getFromMillis() {
+        return fromMillis;
+    }
+
+    long getToMillis() {
+        return toMillis;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    DispatchCursor getAfter() {
+        return after;
+    }
+
+    /**
+     * Returns whether the location is one this query selects, apart from paging.
+     */
+    boolean matches(OpenLocateLocation location) {
+        long created = location.getCreated().getTime();
+        if (created < fromMillis || created >= toMillis) {
+            return false;
+        }
+
+        double latitude = location.getLocation().getLatitude();
+        double longitude = location.getLocation().getLongitude();
+        if (latitude < minLatitude || latitude > maxLatitude) {
+            return false;
+        }
+
+        boolean inLongitude = crossesAntimeridian()
+                ? longitude >= minLongitude || longitude <= maxLongitude
+                : longitude >= minLongitude && longitude <= maxLongitude;
+        if (!inLongitude) {
+            return false;
+        }
+
+        return !hasRadius || distanceInMeters(centerLatitude, centerLongitude, latitude, longitude) <= radiusInMeters;
+    }
+
+    /**
+     * Returns the locations of the source that match, up to the limit. Stores use it to apply the
+     * exact area test on top of whatever their index could narrow down.
+     */
+    LocationIterator filter(final LocationIterator source) {
+        return new LocationIterator() {
+            private OpenLocateLocation next;
+            private int returned;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && returned < limit && source.hasNext()) {
+                    OpenLocateLocation candidate = source.next();
+                    if (after.isBefore(candidate) && matches(candidate)) {
+                        next = candidate;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public OpenLocateLocation next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                OpenLocateLocation location = next;
+                next = null;
+                returned++;
+                return location;
+            }
+
+            @Override
+            public void close() {
+                source.close();
+            }
+        };
+    }
+
+    private static double wrap(double longitude) {
+        if (longitude < -180) {
+            return longitude + 360;
+        }
+        if (longitude > 180) {
+            return longitude - 360;
+        }
+        return longitude;
+    }
+
+    private static double distanceInMeters(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLatitude = Math.toRadians(latitude2 - latitude1);
+        double dLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+/**
+ * Compact binary form of a location. The creation time comes first so it can be read without
+ * decoding the rest of the record.
+ */
+final class LocationRecordCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int FLAG_ADVERTISING_INFO = 1;
+    private static final int FLAG_AD_OPT_OUT = 1 << 1;
+    private static final int FLAG_INFORMATION_FIELDS = 1 << 2;
+
+    private static final short NULL_STRING = -1;
+
+    private LocationRecordCodec() {
+    }
+
+    /**
+     * Writes the location at the buffer's position.
+     *
+     * @throws java.nio.BufferOverflowException if the location does not fit in the buffer.
+     */
+    static void encode(OpenLocateLocation location, ByteBuffer buffer) {
+        OpenLocateLocation.LocationInfo info = location.getLocation();
+        AdvertisingIdClient.Info advertisingInfo = location.getAdvertisingInfo();
+        InformationFields fields = location.getInformationFields();
+
+        buffer.putLong(location.getCreated().getTime());
+        buffer.putDouble(info.getLatitude());
+        buffer.putDouble(info.getLongitude());
+        buffer.putFloat((float) info.getHorizontalAccuracy());
+        buffer.putLong(info.getTimeStampSecs());
+        buffer.putFloat(info.getSpeed());
+        buffer.putFloat(info.getCourse());
+        buffer.putDouble(info.getAltitude());
+
+        int flags = 0;
+        if (advertisingInfo != null) {
+            flags |= FLAG_ADVERTISING_INFO;
+            if (advertisingInfo.isLimitAdTrackingEnabled()) {
+                flags |= FLAG_AD_OPT_OUT;
+            }
+        }
+        if (fields != null) {
+            flags |= FLAG_INFORMATION_FIELDS;
+        }
+        buffer.put((byte) flags);
+
+        if (advertisingInfo != null) {
+            putString(buffer, advertisingInfo.getId());
+        }
+
+        if (fields != null) {
+            putString(buffer, fields.getManufacturer());
+            putString(buffer, fields.getModel());
+            putString(buffer, fields.isCharging());
+            putString(buffer, fields.getOperatingSystem());
+            putString(buffer, fields.getCarrierName());
+            putString(buffer, fields.getWifiSsid());
+            putString(buffer, fields.getWifiBssid());
+            putString(buffer, fields.getConnectionType());
+            putString(buffer, fields.getLocationProvider() != null ? fields.getLocationProvider().getValue() : null);
+            putString(buffer, fields.getLocationContext() != null ? fields.getLocationContext().getValue() : null);
+        }
+    }
+
+    /**
+     * Reads the location at the buffer's position. {@code scratch} holds string bytes while they
+     * are decoded and should be as large as the largest record.
+     */
+    static OpenLocateLocation decode(ByteBuffer buffer, byte[] scratch) {
+        Date created = new Date(buffer.getLong());
+        double latitude = buffer.getDouble();
+        double longitude = buffer.getDouble();
+        float horizontalAccuracy = buffer.getFloat();
+        long timestamp = buffer.getLong();
+        float speed = buffer.getFloat();
+        float course = buffer.getFloat();
+        double altitude = buffer.getDouble();
+        int flags = buffer.get();
+
+        AdvertisingIdClient.Info advertisingInfo = null;
+        if ((flags & FLAG_ADVERTISING_INFO) != 0) {
+            advertisingInfo = new AdvertisingIdClient.Info(getString(buffer, scratch), (flags & FLAG_AD_OPT_OUT) != 0);
+        }
+
+        InformationFields fields = null;
+        if ((flags & FLAG_INFORMATION_FIELDS) != 0) {
+            fields = InformationFieldsFactory.getInformationFields(
+                    getString(buffer, scratch),
+                    getString(buffer, scratch),
+                    getString(buffer, scratch),
+                    getString(buffer, scratch),
+                    getString(buffer, scratch),
+                    getString(buffer, scratch),
+                    getString(buffer, scratch),
+                    getString(buffer, scratch),
+                    getString(buffer, scratch),
+                    getString(buffer, scratch)
+            );
+        }
+
+        return new OpenLocateLocation(created, latitude, longitude, horizontalAccuracy, timestamp,
+                speed, course, altitude, advertisingInfo, fields);
+    }
+
+    /**
+     * Reads only the creation time of the record at the given offset.
+     */
+    static long getCreatedAt(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset);
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort(NULL_STRING);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("String is too long to be stored.");
+        }
+
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer, byte[] scratch) {
+        short length = buffer.getShort();
+        if (length == NULL_STRING) {
+            return null;
+        }
+
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, UTF_8);
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.util.Log;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Keeps locations in memory, one field per array of primitives, used as a ring of fixed
+ * capacity. Ids are handed out consecutively, so a location always sits in the slot of its id
+ * modulo the capacity, and the live ones are those from the head up to the next id. Storing a
+ * location copies its fields into the arrays and allocates nothing.
+ *
+ * <p>Like {@link SegmentLog}, deleting by creation time moves the head up to the first newer
+ * location, which assumes they do not go backwards.
+ *
+ * <p>Use {@link #getInstance()} so the components of the process that store and send locations
+ * share them.
+ */
+final class LocationRingBuffer implements LocationDataSource {
+
+    private static final String TAG = LocationRingBuffer.class.getSimpleName();
+
+    // Creation time, timestamp, three doubles, three floats and two references.
+    private static final int SLOT_BYTES = 2 * 8 + 3 * 8 + 3 * 4 + 2 * 4;
+
+    private static LocationRingBuffer instance;
+
+    static synchronized LocationRingBuffer getInstance() {
+        if (instance == null) {
+            instance = new LocationRingBuffer(Constants.DEFAULT_MEMORY_CAPACITY, OverflowPolicy.DROP_OLDEST);
+        }
+        return instance;
+    }
+
+    private Slots slots;
+    private OverflowPolicy overflow;
+
+    private final Map<String, DispatchCursor> cursors = new HashMap<>();
+    private long head = 1;
+    private long nextId = 1;
+    private long newestCreatedAt;
+
+    LocationRingBuffer(int capacity, OverflowPolicy overflow) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+
+        this.slots = new Slots(capacity);
+        this.overflow = overflow != null ? overflow : OverflowPolicy.DROP_OLDEST;
+    }
+
+    /**
+     * Changes the capacity and the overflow policy. When the capacity shrinks, the newest
+     * locations that fit are kept.
+     */
+    synchronized void configure(int capacity, OverflowPolicy overflow) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+
+        this.overflow = overflow != null ? overflow : OverflowPolicy.DROP_OLDEST;
+        if (capacity == slots.capacity) {
+            return;
+        }
+
+        Slots resized = new Slots(capacity);
+        head = Math.max(head, nextId - capacity);
+        for (long id = head; id < nextId; id++) {
+            slots.copy(slots.index(id), resized, resized.index(id));
+        }
+        slots = resized;
+    }
+
+    @Override
+    public synchronized void addAll(List<OpenLocateLocation> locations) {
+        int dropped = 0;
+        for (int i = 0; i < locations.size(); i++) {
+            if (!append(locations.get(i))) {
+                dropped++;
+            }
+        }
+
+        if (dropped > 0) {
+            Log.w(TAG, "Location buffer is full. Dropped " + dropped + " new locations.");
+        }
+    }
+
+    @Override
+    public synchronized void add(OpenLocateLocation location) {
+        if (location != null && !append(location)) {
+            Log.w(TAG, "Location buffer is full. Dropped a new location.");
+        }
+    }
+
+    private boolean append(OpenLocateLocation location) {
+        if (nextId - head >= slots.capacity) {
+            if (overflow == OverflowPolicy.DROP_NEWEST) {
+                return false;
+            }
+            slots.clear(slots.index(head));
+            head++;
+        }
+
+        long createdAt = location.getCreated().getTime();
+        slots.set(slots.index(nextId), createdAt, location);
+        location.setId(nextId);
+        newestCreatedAt = Math.max(newestCreatedAt, createdAt);
+        nextId++;
+        return true;
+    }
+
+    @Override
+    public synchronized List<OpenLocateLocation> getSince(long millisecondsSince1970) {
+        List<OpenLocateLocation> locations = null;
+        for (long id = findFirstCreatedAfter(millisecondsSince1970); id < nextId; id++) {
+            if (slots.createdAt[slots.index(id)] <= millisecondsSince1970) {
+                continue;
+            }
+
+            if (locations == null) {
+                locations = new ArrayList<>();
+            }
+            locations.add(slots.get(slots.index(id), id));
+            if (locations.size() >= LocationTable.QUERY_LIMIT) {
+                break;
+            }
+        }
+        return locations;
+    }
+
+    @Override
+    public synchronized LocationIterator iterateAfter(DispatchCursor cursor, int limit) {
+        long first = Math.max(head, cursor.getId() + 1);
+        return new RingIterator(first, limit > 0 ? Math.min(nextId, first + limit) : nextId);
+    }
+
+    /**
+     * The buffer has no spatial index, so this reads every location after the query's start.
+     */
+    @Override
+    public LocationIterator query(LocationQuery query) {
+        return query.filter(iterateAfter(query.getAfter(), 0));
+    }
+
+    @Override
+    public synchronized int deleteBefore(long millisecondsSince1970, int limit) {
+        long end = findFirstCreatedAfter(millisecondsSince1970);
+        if (limit > 0) {
+            end = Math.min(end, head + limit);
+        }
+
+        int deleted = (int) (end - head);
+        moveHead(end);
+        return deleted;
+    }
+
+    @Override
+    public synchronized long size() {
+        return nextId - head;
+    }
+
+    @Override
+    public synchronized LocationStats getStats() {
+        long count = size();
+        if (count == 0) {
+            return LocationStats.EMPTY;
+        }
+
+        return new LocationStats(count, count * SLOT_BYTES, slots.createdAt[slots.index(head)], newestCreatedAt);
+    }
+
+    @Override
+    public synchronized long countAfter(DispatchCursor cursor) {
+        return nextId - Math.max(head, Math.min(nextId, cursor.getId() + 1));
+    }
+
+    @Override
+    public synchronized DispatchCursor getCursor(String endpoint) {
+        return cursors.get(endpoint);
+    }
+
+    @Override
+    public synchronized void advanceCursor(String endpoint, DispatchCursor cursor, Collection<String> endpoints) {
+        cursors.put(endpoint, cursor);
+
+        DispatchCursor delivered = null;
+        for (String key : endpoints) {
+            DispatchCursor other = cursors.get(key);
+            if (other == null) {
+                return;
+            }
+            if (delivered == null || other.compareTo(delivered) < 0) {
+                delivered = other;
+            }
+        }
+
+        if (delivered != null) {
+            moveHead(Math.min(nextId, delivered.getId() + 1));
+        }
+    }
+
+    /**
+     * The locations stay in memory for the rest of the process.
+     */
+    @Override
+    public void close() {
+    }
+
+    private long findFirstCreatedAfter(long millisecondsSince1970) {
+        long id = head;
+        while (id < nextId && slots.createdAt[slots.index(id)] <= millisecondsSince1970) {
+            id++;
+        }
+        return id;
+    }
+
+    private void moveHead(long id) {
+        for (; head < id; head++) {
+            slots.clear(slots.index(head));
+        }
+    }
+
+    /**
+     * Reads the locations between two ids. Locations overwritten or deleted while it is open are
+     * skipped.
+     */
+    private final class RingIterator implements LocationIterator {
+
+        private long id;
+        private final long end;
+
+        RingIterator(long first, long end) {
+            this.id = first;
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            synchronized (LocationRingBuffer.this) {
+                id = Math.max(id, head);
+                return id < end;
+            }
+        }
+
+        @Override
+        public OpenLocateLocation next() {
+            synchronized (LocationRingBuffer.this) {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                OpenLocateLocation location = slots.get(slots.index(id), id);
+                id++;
+                return location;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class Slots {
+        final int capacity;
+        final long[] createdAt;
+        final double[] latitude;
+        final double[] longitude;
+        final float[] horizontalAccuracy;
+        final long[] timeStampSecs;
+        final float[] speed;
+        final float[] course;
+        final double[] altitude;
+        final AdvertisingIdClient.Info[] advertisingInfo;
+        final InformationFields[] informationFields;
+
+        Slots(int capacity) {
+            this.capacity = capacity;
+            createdAt = new long[capacity];
+            latitude = new double[capacity];
+            longitude = new double[capacity];
+            horizontalAccuracy = new float[capacity];
+            timeStampSecs = new long[capacity];
+            speed = new float[capacity];
+            course = new float[capacity];
+            altitude = new double[capacity];
+            advertisingInfo = new AdvertisingIdClient.Info[capacity];
+            informationFields = new InformationFields[capacity];
+        }
+
+        int index(long id) {
+            return (int) (id % capacity);
+        }
+
+        void set(int i, long created, OpenLocateLocation location) {
+            OpenLocateLocation.LocationInfo info = location.getLocation();
+            createdAt[i] = created;
+            latitude[i] = info.getLatitude();
+            longitude[i] = info.getLongitude();
+            horizontalAccuracy[i] = (float) info.getHorizontalAccuracy();
+            timeStampSecs[i] = info.getTimeStampSecs();
+            speed[i] = info.getSpeed();
+            course[i] = info.getCourse();
+            altitude[i] = info.getAltitude();
+            advertisingInfo[i] = location.getAdvertisingInfo();
+            informationFields[i] = location.getInformationFields();
+        }
+
+        OpenLocateLocation get(int i, long id) {
+            OpenLocateLocation location = new OpenLocateLocation(new Date(createdAt[i]),
+                    latitude[i], longitude[i], horizontalAccuracy[i], timeStampSecs[i], speed[i], course[i],
+                    altitude[i], advertisingInfo[i], informationFields[i]);
+            location.setId(id);
+            return location;
+        }
+
+        void copy(int from, Slots to, int i) {
+            to.createdAt[i] = createdAt[from];
+            to.latitude[i] = latitude[from];
+            to.longitude[i] = longitude[from];
+            to.horizontalAccuracy[i] = horizontalAccuracy[from];
+            to.timeStampSecs[i] = timeStampSecs[from];
+            to.speed[i] = speed[from];
+            to.course[i] = course[from];
+            to.altitude[i] = altitude[from];
+            to.advertisingInfo[i] = advertisingInfo[from];
+            to.informationFields[i] = informationFields[from];
+        }
+
+        // Lets go of the shared details a deleted location pointed to.
+        void clear(int i) {
+            advertisingInfo[i] = null;
+            informationFields[i] = null;
+        }
+    }
+}
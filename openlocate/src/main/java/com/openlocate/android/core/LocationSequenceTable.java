@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Hands out location ids. The sequence keeps counting across partitions, blocks and dropped
+ * tables, so a stored location always has a higher id than everything stored before it and
+ * delivery cursors can be kept as a single id.
+ *
+ * <p>A batch reserves all of its ids with one update, where AUTOINCREMENT kept sqlite_sequence up
+ * to date on every insert.
+ */
+final class LocationSequenceTable {
+
+    static final String TABLE_NAME = "location_sequence";
+
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_LAST_ID = "last_id";
+
+    // The table holds a single row.
+    private static final long ROW_ID = 1;
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_NAME
+            + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY, "
+            + COLUMN_LAST_ID + " INTEGER NOT NULL"
+            + ");";
+
+    private static final String INSERT_SQL = "INSERT OR IGNORE INTO " + TABLE_NAME
+            + " (" + COLUMN_ID + ", " + COLUMN_LAST_ID + ") VALUES (" + ROW_ID + ", 0)";
+
+    private static final String RESERVE_SQL = "UPDATE " + TABLE_NAME + " SET " + COLUMN_LAST_ID + " = "
+            + COLUMN_LAST_ID + " + ? WHERE " + COLUMN_ID + " = " + ROW_ID;
+
+    private static final String LAST_ID_SQL = "SELECT " + COLUMN_LAST_ID + " FROM " + TABLE_NAME
+            + " WHERE " + COLUMN_ID + " = " + ROW_ID;
+
+    private LocationSequenceTable() {
+    }
+
+    static void createIfRequired(SQLiteDatabase db) {
+        db.execSQL(CREATE_TABLE_SQL);
+        db.execSQL(INSERT_SQL);
+    }
+
+    /**
+     * Reserves the given number of consecutive ids and returns the first one. Call it in the
+     * transaction that stores the locations, so ids of a rolled back batch are handed out again.
+     */
+    static long reserve(StatementCache statements, int count) {
+        SQLiteStatement update = statements.get(RESERVE_SQL);
+        update.bindLong(1, count);
+        update.executeUpdateDelete();
+
+        return statements.get(LAST_ID_SQL).simpleQueryForLong() - count + 1;
+    }
+}
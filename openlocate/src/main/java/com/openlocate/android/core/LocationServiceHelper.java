@@ -28,11 +28,11 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.location.Location;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -60,6 +60,7 @@ final class LocationServiceHelper {
 
     private final static String TAG = LocationService.class.getSimpleName();
     private final static String LOCATION_DISPATCH_TAG = LocationService.class.getCanonicalName() + ".location_dispatch_task";
+    private final static String LOCATION_PURGE_TAG = LocationService.class.getCanonicalName() + ".location_purge_task";
 
     private GoogleApiClient googleApiClient;
     private GcmNetworkManager networkManager;
@@ -69,7 +70,9 @@ final class LocationServiceHelper {
     private long transmissionIntervalInSecs = Constants.DEFAULT_TRANSMISSION_INTERVAL_SEC;
     private LocationAccuracy accuracy = Constants.DEFAULT_LOCATION_ACCURACY;
 
-    private LocationDataSource locations;
+    private AsyncLocationDataSource locations;
+    private boolean flushScheduled;
+    private Handler handler;
     private LocationServiceHelper.LocationListener locationListener;
 
     private ArrayList<OpenLocate.Endpoint> endpoints;
@@ -86,7 +89,7 @@ final class LocationServiceHelper {
     }
 
     void onCreate() {
-        locations = new LocationDatabase(DatabaseHelper.getInstance(context));
+        handler = new Handler();
         networkManager = GcmNetworkManager.getInstance(context);
         alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
 
@@ -107,9 +110,15 @@ final class LocationServiceHelper {
     void onDestroy() {
         unschedulePeriodicTasks();
         stopLocationUpdates();
+        flushLocations();
 
         networkManager = null;
-        locations = null;
+        if (locations != null) {
+            // Releases the service's hold on the database once the queued writes are done. The
+            // writer thread finishes them on its own rather than keeping the main thread waiting.
+            locations.close();
+            locations = null;
+        }
 
         setServiceStatusOnStop();
 
@@ -197,6 +206,15 @@ final class LocationServiceHelper {
 
         this.configuration = configuration;
         this.endpoints = endpoints;
+        if (locations == null) {
+            locations = new AsyncLocationDataSource(
+                    new BufferedLocationDataSource(
+                            LocationStores.openWriter(context, configuration),
+                            Constants.LOCATION_BUFFER_MAX_COUNT,
+                            Constants.LOCATION_BUFFER_MAX_AGE_MSEC
+                    )
+            );
+        }
         this.advertisingInfo = new AdvertisingIdClient.Info(adId,
                 intent.getBooleanExtra(Constants.LIMITED_AD_TRACKING_ENABLED_KEY, false)
         );
@@ -267,6 +285,7 @@ final class LocationServiceHelper {
         Log.d(TAG, "TASK REMOVED");
 
         unschedulePeriodicTasks();
+        flushLocations();
     }
 
     private void stopLocationUpdates() {
@@ -282,6 +301,7 @@ final class LocationServiceHelper {
 
     private void schedulePeriodicTasks() {
         scheduleDispatchLocationService();
+        schedulePurgeLocationService();
     }
 
     private void scheduleDispatchLocationService() {
@@ -321,10 +341,38 @@ final class LocationServiceHelper {
         }
     }
 
+    private void schedulePurgeLocationService() {
+
+        if (configuration == null || networkManager == null) {
+            return;
+        }
+
+        Bundle bundle = new Bundle();
+        configuration.getRetentionPolicy().writeTo(bundle);
+
+        PeriodicTask task = new PeriodicTask.Builder()
+                .setExtras(bundle)
+                .setService(PurgeLocationService.class)
+                .setPeriod(Constants.DEFAULT_PURGE_INTERVAL_SEC)
+                .setRequiredNetwork(Task.NETWORK_STATE_ANY)
+                .setRequiresCharging(false)
+                .setPersisted(true)
+                .setUpdateCurrent(true)
+                .setTag(LOCATION_PURGE_TAG)
+                .build();
+
+        try {
+            networkManager.schedule(task);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Google Play Services is not up to date.");
+        }
+    }
+
     private void unschedulePeriodicTasks() {
         if (networkManager != null) {
             try {
                 networkManager.cancelAllTasks(DispatchLocationService.class);
+                networkManager.cancelAllTasks(PurgeLocationService.class);
             } catch (IllegalArgumentException e) {
             }
         }
@@ -367,20 +415,43 @@ final class LocationServiceHelper {
 
             Log.v(TAG, location.toString());
 
-            try {
-                locations.add(
-                        OpenLocateLocation.from(
-                                location,
-                                advertisingInfo,
-                                InformationFieldsFactory.collectInformationFields(context, configuration)
-                        )
-                );
-            } catch (SQLiteFullException exception) {
-                Log.w(TAG, "Database is full. Cannot add data.");
+            // Stored on the writer thread, so this callback, which may run on the main thread,
+            // never waits for the disk.
+            locations.add(
+                    OpenLocateLocation.from(
+                            location,
+                            advertisingInfo,
+                            InformationFieldsFactory.collectInformationFields(context, configuration)
+                    )
+            );
+
+            // Make sure buffered locations are written once they are old enough, even if no
+            // further location arrives to trigger the flush.
+            if (!flushScheduled) {
+                flushScheduled = true;
+                handler.postDelayed(flushTask, Constants.LOCATION_BUFFER_MAX_AGE_MSEC);
             }
+        }
+    }
 
-            Log.v(TAG, "COUNT - " + locations.size());
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushLocations();
         }
+    };
+
+    private void flushLocations() {
+        if (handler != null) {
+            handler.removeCallbacks(flushTask);
+        }
+        flushScheduled = false;
+
+        if (locations == null) {
+            return;
+        }
+
+        locations.flush();
     }
 
     @RequiresApi(26)
@@ -411,10 +482,6 @@ final class LocationServiceHelper {
         return accuracy;
     }
 
-    LocationDataSource getLocations() {
-        return locations;
-    }
-
     public void setEndpoints(ArrayList<OpenLocate.Endpoint> endpoints) {
         this.endpoints = endpoints;
     }
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Bounded queue of locations that could not be stored, kept in memory and appended to a file of
+ * fixed size so they survive a crash. The file is filled with zeros when it is first opened, so
+ * appending to it later needs no new disk space. Records are framed like those of
+ * {@link SegmentLog}, and each append marks the end of the queue, so records left over from
+ * before the queue was last cleared are never read back.
+ *
+ * <p>The file is meant to be written by a single process. Use {@link #getInstance(Context)}.
+ */
+final class LocationSpillQueue {
+
+    private static final String TAG = LocationSpillQueue.class.getSimpleName();
+
+    static final String FILE_NAME = "openlocate_spill.queue";
+    static final int DEFAULT_SIZE = 256 * 1024;
+
+    // Payload length followed by the CRC32 of the payload.
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 4096;
+
+    private static LocationSpillQueue instance;
+
+    static synchronized LocationSpillQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new LocationSpillQueue(new File(context.getFilesDir(), FILE_NAME), DEFAULT_SIZE);
+        }
+        return instance;
+    }
+
+    private final File file;
+    private final int size;
+
+    private final byte[] scratch = new byte[MAX_RECORD_SIZE];
+    private final ByteBuffer record = ByteBuffer.wrap(scratch);
+    private final CRC32 crc = new CRC32();
+
+    private final List<OpenLocateLocation> locations = new ArrayList<>();
+    private RandomAccessFile randomAccessFile;
+    private int end;
+
+    LocationSpillQueue(File file, int size) {
+        this.file = file;
+        this.size = size;
+    }
+
+    /**
+     * Opens the file, allocating it on first use, and reads back the locations that were still
+     * queued when the process last ended.
+     */
+    synchronized void open() throws IOException {
+        if (randomAccessFile != null) {
+            return;
+        }
+
+        RandomAccessFile opened = new RandomAccessFile(file, "rw");
+        try {
+            preallocate(opened);
+            recover(opened);
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        randomAccessFile = opened;
+
+        if (!locations.isEmpty()) {
+            Log.i(TAG, "Recovered " + locations.size() + " locations that could not be stored.");
+        }
+    }
+
+    // Writes zeros rather than only setting the length, which can leave a sparse file whose
+    // blocks are allocated once written, by which time the disk may be full.
+    private void preallocate(RandomAccessFile file) throws IOException {
+        long length = file.length();
+        if (length >= size) {
+            return;
+        }
+
+        byte[] zeros = new byte[8192];
+        file.seek(length);
+        for (long position = length; position < size; position += zeros.length) {
+            file.write(zeros, 0, (int) Math.min(zeros.length, size - position));
+        }
+        file.getFD().sync();
+    }
+
+    private void recover(RandomAccessFile file) throws IOException {
+        byte[] data = new byte[size];
+        file.seek(0);
+        file.readFully(data);
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int position = 0;
+        locations.clear();
+
+        while (position + HEADER_SIZE <= data.length) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > data.length) {
+                break;
+            }
+
+            crc.reset();
+            crc.update(data, position + HEADER_SIZE, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+
+            buffer.position(position + HEADER_SIZE);
+            locations.add(LocationRecordCodec.decode(buffer, scratch));
+            position += HEADER_SIZE + length;
+        }
+
+        end = position;
+    }
+
+    /**
+     * Appends as many of the locations as fit and writes them to disk.
+     *
+     * @return how many were queued. The rest are dropped.
+     */
+    synchronized int offerAll(List<OpenLocateLocation> batch) {
+        int queued = 0;
+        try {
+            open();
+            for (int i = 0; i < batch.size(); i++) {
+                if (!append(batch.get(i))) {
+                    break;
+                }
+                queued++;
+            }
+            randomAccessFile.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not queue locations: " + e.getMessage());
+        }
+
+        if (queued < batch.size()) {
+            Log.w(TAG, "Spill queue is full. Dropped " + (batch.size() - queued) + " locations.");
+        }
+        return queued;
+    }
+
+    private boolean append(OpenLocateLocation location) throws IOException {
+        record.clear();
+        try {
+            LocationRecordCodec.encode(location, record);
+        } catch (BufferOverflowException e) {
+            Log.w(TAG, "Location is too large to be queued.");
+            return false;
+        }
+
+        int length = record.position();
+        int next = end + HEADER_SIZE + length;
+        if (next > size) {
+            return false;
+        }
+
+        crc.reset();
+        crc.update(scratch, 0, length);
+
+        // The header after the record ends the queue, then the length goes last, so a record
+        // without it is never read.
+        if (next + HEADER_SIZE <= size) {
+            randomAccessFile.seek(next);
+            randomAccessFile.writeLong(0);
+        }
+        randomAccessFile.seek(end + 4);
+        randomAccessFile.writeInt((int) crc.getValue());
+        randomAccessFile.write(scratch, 0, length);
+        randomAccessFile.seek(end);
+        randomAccessFile.writeInt(length);
+
+        end = next;
+        locations.add(location);
+        return true;
+    }
+
+    synchronized boolean isEmpty() {
+        return locations.isEmpty();
+    }
+
+    synchronized int size() {
+        return locations.size();
+    }
+
+    /**
+     * Returns the queued locations, oldest first.
+     */
+    synchronized List<OpenLocateLocation> getAll() {
+        return new ArrayList<>(locations);
+    }
+
+    /**
+     * Empties the queue once its locations are stored elsewhere.
+     */
+    synchronized void clear() {
+        locations.clear();
+        end = 0;
+        if (randomAccessFile == null) {
+            return;
+        }
+
+        try {
+            randomAccessFile.seek(0);
+            randomAccessFile.writeLong(0);
+            randomAccessFile.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not clear spill queue: " + e.getMessage());
+        }
+    }
+
+    synchronized void close() {
+        if (randomAccessFile == null) {
+            return;
+        }
+
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close spill queue: " + e.getMessage());
+        }
+        randomAccessFile = null;
+        locations.clear();
+        end = 0;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+/**
+ * Number, approximate size and time span of the locations in a store.
+ */
+final class LocationStats {
+
+    static final LocationStats EMPTY = new LocationStats(0, 0, 0, 0);
+
+    private final long count;
+    private final long approximateBytes;
+    private final long oldestCreatedAt;
+    private final long newestCreatedAt;
+
+    LocationStats(long count, long approximateBytes, long oldestCreatedAt, long newestCreatedAt) {
+        this.count = count;
+        this.approximateBytes = approximateBytes;
+        this.oldestCreatedAt = oldestCreatedAt;
+        this.newestCreatedAt = newestCreatedAt;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getApproximateBytes() {
+        return approximateBytes;
+    }
+
+    /**
+     * Creation time of the oldest location, or zero if there are none.
+     */
+    long getOldestCreatedAt() {
+        return oldestCreatedAt;
+    }
+
+    /**
+     * Creation time of the newest location, or zero if there are none.
+     */
+    long getNewestCreatedAt() {
+        return newestCreatedAt;
+    }
+}
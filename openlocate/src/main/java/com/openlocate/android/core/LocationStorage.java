@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+/**
+ * Where locations are kept on the device until every endpoint has received them.
+ */
+public enum LocationStorage {
+    /**
+     * A SQLite database. Supports storage quotas and eviction policies.
+     */
+    DATABASE,
+
+    /**
+     * Append-only, memory-mapped segment files. Writes are cheaper than with the database, which
+     * suits high-frequency collection. Storage quotas are not applied.
+     */
+    SEGMENT_LOG,
+
+    /**
+     * The SQLite database, with consecutive locations packed into delta-encoded, compressed
+     * blocks. Takes a fraction of the space of {@link #DATABASE}, which suits long offline
+     * periods. Coordinates are kept to about a centimeter. Storage quotas are not applied.
+     *
+     * <p>Unlike the other storages, each batch the service writes is sorted by creation time
+     * before it is packed, so locations within a batch get their ids, and are sent, in creation
+     * order rather than in the order they were collected. Ids in a block are consecutive, and the
+     * sort means a purge by age only ever removes a block's head. Batches themselves keep the
+     * order they were written in.</p>
+     */
+    COMPRESSED_DATABASE,
+
+    /**
+     * A fixed-size ring buffer in memory, for apps that forward locations as they come and do
+     * not need them to survive a restart. Nothing touches the disk. Locations are only seen by
+     * the process that collects and sends them, and are lost when it ends. The methods of
+     * {@link OpenLocate} that read stored locations run in the app's process, so with this
+     * storage they find no locations and report an empty backlog. Storage quotas are not applied;
+     * the capacity and what happens once it is reached are set with
+     * {@link OpenLocate.Configuration.Builder#setMemoryCapacity(int, OverflowPolicy)}.
+     */
+    MEMORY
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.content.Context;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens the location store selected in the configuration.
+ */
+final class LocationStores {
+
+    private LocationStores() {
+    }
+
+    static LocationDataSource open(Context context, OpenLocate.Configuration configuration) {
+        LocationDataSource dataSource = open(context, configuration.getLocationStorage(), StorageQuota.from(configuration));
+        if (configuration.getDatabaseIdleTimeoutInSeconds() > 0) {
+            DatabaseHelper.getInstance(context).setIdleTimeout(
+                    TimeUnit.SECONDS.toMillis(configuration.getDatabaseIdleTimeoutInSeconds()));
+        }
+        if (dataSource instanceof LocationRingBuffer) {
+            ((LocationRingBuffer) dataSource).configure(configuration.getMemoryCapacity(),
+                    configuration.getOverflowPolicy());
+        }
+        if (dataSource instanceof LocationDatabase && configuration.getPartitionWindowInHours() > 0) {
+            ((LocationDatabase) dataSource).setPartitionWindow(
+                    TimeUnit.HOURS.toMillis(configuration.getPartitionWindowInHours()));
+        }
+
+        return dataSource;
+    }
+
+    /**
+     * Opens the store that collection writes to. Stores on disk are put behind a
+     * {@link LocationSpillQueue}, so locations are kept while they cannot be written.
+     * Only the process that collects locations may use it.
+     */
+    static LocationDataSource openWriter(Context context, OpenLocate.Configuration configuration) {
+        return spilling(context, open(context, configuration));
+    }
+
+    /**
+     * Opens the store for reads from the app's process, which does not write to it. The segment
+     * log is opened read-only, since only the process that collects locations may write it.
+     * Locations kept in memory live in the process that collects them, so this process gets an
+     * empty store.
+     */
+    static LocationDataSource openReadOnly(Context context, OpenLocate.Configuration configuration) {
+        if (configuration.getLocationStorage() == LocationStorage.MEMORY) {
+            return new LocationRingBuffer(1, OverflowPolicy.DROP_OLDEST);
+        }
+        if (configuration.getLocationStorage() == LocationStorage.SEGMENT_LOG) {
+            return SegmentLog.openReadOnly(context);
+        }
+        return open(context, configuration);
+    }
+
+    /**
+     * Opens the store and quota saved by the last
+     * {@link OpenLocate#initialize(OpenLocate.Configuration)},
+     * for the services that send and purge locations. It shares the spill queue of
+     * {@link #openWriter(Context, OpenLocate.Configuration)}, so locations queued while the store
+     * could not take writes are written back as soon as sending or purging frees space.
+     */
+    static LocationDataSource open(Context context) {
+        return spilling(context, open(context, getStorage(context),
+                StorageQuota.load(SharedPreferenceUtils.getInstance(context))));
+    }
+
+    /**
+     * Returns the storage saved by the last {@link OpenLocate#initialize(OpenLocate.Configuration)}.
+     */
+    static LocationStorage getStorage(Context context) {
+        String name = SharedPreferenceUtils.getInstance(context)
+                .getStringValue(Constants.LOCATION_STORAGE_KEY, LocationStorage.DATABASE.name());
+
+        try {
+            return LocationStorage.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return LocationStorage.DATABASE;
+        }
+    }
+
+    private static LocationDataSource spilling(Context context, LocationDataSource dataSource) {
+        if (dataSource instanceof LocationDatabase || dataSource instanceof LocationBlockStore
+                || dataSource instanceof SegmentLog) {
+            return new SpillingLocationDataSource(dataSource, LocationSpillQueue.getInstance(context));
+        }
+        return dataSource;
+    }
+
+    private static LocationDataSource open(Context context, LocationStorage storage, StorageQuota quota) {
+        if (storage == LocationStorage.SEGMENT_LOG) {
+            return SegmentLog.getInstance(context);
+        }
+        if (storage == LocationStorage.MEMORY) {
+            return LocationRingBuffer.getInstance();
+        }
+
+        if (storage == LocationStorage.COMPRESSED_DATABASE) {
+            return new LocationBlockStore(DatabaseHelper.getInstance(context));
+        }
+
+        LocationDatabase database = new LocationDatabase(DatabaseHelper.getInstance(context));
+        database.setQuota(quota);
+        return database;
+    }
+}
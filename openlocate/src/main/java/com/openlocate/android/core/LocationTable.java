@@ -21,136 +21,977 @@
  */
 package com.openlocate.android.core;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Stores locations in one table per time window, registered in {@link LocationPartitionTable}.
+ * Purging expired or delivered locations drops whole partitions instead of deleting row by row.
+ */
 final class LocationTable {
 
+    // The unpartitioned table of schema version 2, which is renamed and moved into partitions.
     private static final String TABLE_NAME = "location";
+    private static final String LEGACY_TABLE_NAME = "location_legacy";
+
+    static final String COLUMN_ID = "_id";
+    private static final String COLUMN_LATITUDE = "latitude";
+    private static final String COLUMN_LONGITUDE = "longitude";
+    private static final String COLUMN_HORIZONTAL_ACCURACY = "horizontal_accuracy";
+    private static final String COLUMN_TIMESTAMP = "utc_timestamp";
+    private static final String COLUMN_SPEED = "speed";
+    private static final String COLUMN_COURSE = "course";
+    private static final String COLUMN_ALTITUDE = "altitude";
+    private static final String COLUMN_CONTEXT_ID = "context_id";
+    private static final String COLUMN_IS_CHARGING = "is_charging";
+    private static final String COLUMN_CONNECTION_TYPE = "connection_type";
+    private static final String COLUMN_LOCATION_METHOD = "location_method";
+    private static final String COLUMN_LOCATION_CONTEXT = "location_context";
+    private static final String COLUMN_GEOHASH = "geohash";
 
-    private static final String COLUMN_ID = "_id";
-    private static final String COLUMN_LOCATION = "location";
-    private static final String QUERY_LIMIT = "1500";
+    // Only present in the version 2 schema, where the whole location was stored as JSON.
+    private static final String COLUMN_LEGACY_LOCATION = "location";
 
-    private static final int COLUMN_LOCATION_INDEX = 2;
+    static final int QUERY_LIMIT = 1500;
+    static final long DEFAULT_PARTITION_WINDOW = TimeUnit.DAYS.toMillis(1);
+    private static final String MIGRATION_BATCH_SIZE = "500";
 
     public static final String COLUMN_CREATED_AT = "created_at";
 
-    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS "
-            + TABLE_NAME
-            + " ("
-            + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS %s ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY, "
             + COLUMN_CREATED_AT + " INTEGER NOT NULL, "
-            + COLUMN_LOCATION + " TEXT NOT NULL"
+            + COLUMN_LATITUDE + " REAL NOT NULL, "
+            + COLUMN_LONGITUDE + " REAL NOT NULL, "
+            + COLUMN_HORIZONTAL_ACCURACY + " REAL NOT NULL, "
+            + COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+            + COLUMN_SPEED + " REAL NOT NULL, "
+            + COLUMN_COURSE + " REAL NOT NULL, "
+            + COLUMN_ALTITUDE + " REAL NOT NULL, "
+            + COLUMN_CONTEXT_ID + " INTEGER NOT NULL, "
+            + COLUMN_IS_CHARGING + " TEXT, "
+            + COLUMN_CONNECTION_TYPE + " TEXT, "
+            + COLUMN_LOCATION_METHOD + " TEXT, "
+            + COLUMN_LOCATION_CONTEXT + " TEXT, "
+            + COLUMN_GEOHASH + " INTEGER"
             + ");";
 
-    private static final String CREATE_INDEX_SQL = "CREATE INDEX IF NOT EXISTS `"
-            + COLUMN_CREATED_AT + "_index`" + "ON `" + TABLE_NAME
-            + "` (`" + COLUMN_CREATED_AT + "` ASC);";
+    private static final String INDEX_NAME = COLUMN_CREATED_AT + "_index";
+
+    private static final String CREATE_INDEX_SQL = "CREATE INDEX IF NOT EXISTS `%s`"
+            + "ON `%s` (`" + COLUMN_CREATED_AT + "` ASC);";
+
+    private static final String GEOHASH_INDEX_NAME = COLUMN_GEOHASH + "_index";
+
+    private static final String CREATE_GEOHASH_INDEX_SQL = "CREATE INDEX IF NOT EXISTS `%s`"
+            + "ON `%s` (`" + COLUMN_GEOHASH + "`);";
 
     private static final String DROP_TABLE_SQL = "DROP TABLE IF EXISTS ";
-    private static final String BULK_INSERT_LOCATION = "INSERT INTO "
-            + TABLE_NAME
-            + " (" + COLUMN_LOCATION + ", " + COLUMN_CREATED_AT + ")"
-            + " VALUES (?, ?);";
+    private static final String DROP_INDEX_SQL = "DROP INDEX IF EXISTS ";
+
+    // Columns and values of the insert statement, after "INSERT INTO" and the partition name.
+    private static final String INSERT_COLUMNS_SQL = " ("
+            + COLUMN_CREATED_AT + ", "
+            + COLUMN_LATITUDE + ", "
+            + COLUMN_LONGITUDE + ", "
+            + COLUMN_HORIZONTAL_ACCURACY + ", "
+            + COLUMN_TIMESTAMP + ", "
+            + COLUMN_SPEED + ", "
+            + COLUMN_COURSE + ", "
+            + COLUMN_ALTITUDE + ", "
+            + COLUMN_CONTEXT_ID + ", "
+            + COLUMN_IS_CHARGING + ", "
+            + COLUMN_CONNECTION_TYPE + ", "
+            + COLUMN_LOCATION_METHOD + ", "
+            + COLUMN_LOCATION_CONTEXT + ", "
+            + COLUMN_ID + ", "
+            + COLUMN_GEOHASH
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+
+    // Rough storage cost of a row: the numeric columns plus record and index overhead. The text
+    // columns are added by length.
+    private static final int FIXED_ROW_BYTES = 128;
+
+    static final String ROW_SIZE_SQL = FIXED_ROW_BYTES
+            + " + IFNULL(LENGTH(" + COLUMN_IS_CHARGING + "), 0)"
+            + " + IFNULL(LENGTH(" + COLUMN_CONNECTION_TYPE + "), 0)"
+            + " + IFNULL(LENGTH(" + COLUMN_LOCATION_METHOD + "), 0)"
+            + " + IFNULL(LENGTH(" + COLUMN_LOCATION_CONTEXT + "), 0)";
+
+    // Selections are constant and take their values as arguments, so each connection compiles
+    // them once and finds them in its statement cache afterwards. Cursors are row ids, so reading
+    // and purging after one is a range scan of the primary key.
+    private static final String AFTER_SELECTION = COLUMN_ID + " > ?";
+
+    private static final String UP_TO_SELECTION = COLUMN_ID + " <= ?";
+
+    private static final String SINCE_SELECTION = COLUMN_CREATED_AT + " > ?";
+
+    private static final String BEFORE_SELECTION = COLUMN_CREATED_AT + " <= ?";
+
+    private static final String ORDER_BY = COLUMN_ID;
+
+    // Bind positions for INSERT_COLUMNS_SQL.
+    private static final int BIND_CREATED_AT = 1;
+    private static final int BIND_LATITUDE = 2;
+    private static final int BIND_LONGITUDE = 3;
+    private static final int BIND_HORIZONTAL_ACCURACY = 4;
+    private static final int BIND_TIMESTAMP = 5;
+    private static final int BIND_SPEED = 6;
+    private static final int BIND_COURSE = 7;
+    private static final int BIND_ALTITUDE = 8;
+    private static final int BIND_CONTEXT_ID = 9;
+    private static final int BIND_IS_CHARGING = 10;
+    private static final int BIND_CONNECTION_TYPE = 11;
+    private static final int BIND_LOCATION_METHOD = 12;
+    private static final int BIND_LOCATION_CONTEXT = 13;
+    private static final int BIND_ID = 14;
+    private static final int BIND_GEOHASH = 15;
 
     static void onOpen(SQLiteDatabase db) {
-        db.execSQL(CREATE_TABLE_SQL);
-        db.execSQL(CREATE_INDEX_SQL);
+        createIfRequired(db);
     }
 
     static void createIfRequired(SQLiteDatabase db) {
-        db.execSQL(CREATE_TABLE_SQL);
-        db.execSQL(CREATE_INDEX_SQL);
+        DeviceContextTable.createIfRequired(db);
+        DispatchCursorTable.createIfRequired(db);
+        LocationPartitionTable.createIfRequired(db);
+        LocationBlockTable.createIfRequired(db);
+        LocationSequenceTable.createIfRequired(db);
     }
 
     static void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL(DROP_TABLE_SQL + TABLE_NAME);
-        createIfRequired(db);
+        if (oldVersion < 2) {
+            db.execSQL(DROP_TABLE_SQL + TABLE_NAME);
+            createIfRequired(db);
+            return;
+        }
+
+        migrateFromJson(db);
     }
 
-    static void add(SQLiteDatabase database, OpenLocateLocation location) {
-        if (database == null || location == null) {
-            return;
+    static void createPartition(SQLiteDatabase db, String name) {
+        db.execSQL(String.format(CREATE_TABLE_SQL, name));
+        db.execSQL(String.format(CREATE_INDEX_SQL, name + "_" + INDEX_NAME, name));
+        db.execSQL(String.format(CREATE_GEOHASH_INDEX_SQL, name + "_" + GEOHASH_INDEX_NAME, name));
+    }
+
+    static void dropPartition(SQLiteDatabase db, String name) {
+        db.execSQL(DROP_TABLE_SQL + name);
+    }
+
+    /**
+     * Moves version 2 rows, which kept each location as a JSON string, into partitions. Rows are
+     * read in batches keyed on the row id so the migration never holds more than one batch in
+     * memory. They keep their creation date and are given new ids in the same order; cursors of
+     * version 2 were creation times, so none refer to the old ids.
+     */
+    private static void migrateFromJson(SQLiteDatabase db) {
+        db.execSQL(DROP_INDEX_SQL + INDEX_NAME);
+        db.execSQL("ALTER TABLE " + TABLE_NAME + " RENAME TO " + LEGACY_TABLE_NAME);
+        createIfRequired(db);
+
+        DeviceContextCache contexts = new DeviceContextCache();
+        StatementCache statements = new StatementCache(db);
+        String[] columns = new String[]{COLUMN_ID, COLUMN_CREATED_AT, COLUMN_LEGACY_LOCATION};
+        List<OpenLocateLocation> batch = new ArrayList<>();
+        try {
+            long lastId = 0;
+            boolean hasMore = true;
+            while (hasMore) {
+                Cursor cursor = db.query(LEGACY_TABLE_NAME, columns, COLUMN_ID + " > " + lastId,
+                        null, null, null, COLUMN_ID, MIGRATION_BATCH_SIZE);
+
+                if (cursor == null) {
+                    break;
+                }
+
+                hasMore = false;
+                batch.clear();
+                try {
+                    while (cursor.moveToNext()) {
+                        hasMore = true;
+                        lastId = cursor.getLong(0);
+
+                        OpenLocateLocation location = new OpenLocateLocation(new Date(cursor.getLong(1)),
+                                cursor.getString(2));
+                        if (location.getLocation() != null) {
+                            batch.add(location);
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                addAll(db, statements, batch, contexts, DEFAULT_PARTITION_WINDOW);
+            }
+        } finally {
+            statements.clear();
         }
 
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_CREATED_AT, location.getCreated().getTime());
-        values.put(COLUMN_LOCATION, location.getJson().toString());
-        database.insert(TABLE_NAME, null, values);
+        db.execSQL(DROP_TABLE_SQL + LEGACY_TABLE_NAME);
     }
 
-    static void addAll(SQLiteDatabase database, List<OpenLocateLocation> locations) {
+    /**
+     * Inserts the locations in one transaction. Each batch reads the partition registry once and
+     * keeps a running total for every partition it writes to. Per location, the cached insert
+     * statement of its partition is bound from the location's own fields, without building SQL
+     * or intermediate values. Ids are reserved for the whole batch up front and bound with the
+     * other columns.
+     */
+    static void addAll(SQLiteDatabase database, StatementCache statements, List<OpenLocateLocation> locations,
+                       DeviceContextCache contexts, long partitionWindowInMillis) {
         if (database == null || locations == null || locations.isEmpty()) {
             return;
         }
 
-        SQLiteStatement statement = database.compileStatement(BULK_INSERT_LOCATION);
+        // Consecutive locations nearly always land in the same partition, so a batch rarely
+        // tracks more than one and the last one is checked first.
+        List<Inserted> inserted = new ArrayList<>(1);
+        Inserted rows = null;
 
+        boolean successful = false;
         database.beginTransaction();
-        for (OpenLocateLocation location : locations) {
-            statement.clearBindings();
-            statement.bindString(COLUMN_LOCATION_INDEX, location.getJson().toString());
-            statement.bindLong(2, location.getCreated().getTime());
-            statement.execute();
+        try {
+            List<LocationPartitionTable.Partition> partitions = LocationPartitionTable.getAll(database);
+            long id = LocationSequenceTable.reserve(statements, locations.size());
+            for (OpenLocateLocation location : locations) {
+                long createdAt = location.getCreated().getTime();
+                LocationPartitionTable.Partition partition = LocationPartitionTable.getOrCreate(database,
+                        partitions, createdAt, partitionWindowInMillis);
+
+                if (rows == null || rows.partition != partition) {
+                    rows = getInserted(inserted, partition, statements);
+                }
+
+                bind(rows.statement, location, contexts.getId(database, location));
+                rows.statement.bindLong(BIND_ID, id);
+                rows.statement.executeInsert();
+                location.setId(id);
+                rows.add(createdAt, getSize(location), id);
+                id++;
+            }
+
+            for (Inserted partitionRows : inserted) {
+                LocationPartitionTable.onInserted(statements, partitionRows.partition, partitionRows.count,
+                        partitionRows.bytes, partitionRows.firstCreatedAt, partitionRows.lastCreatedAt,
+                        partitionRows.firstId, partitionRows.lastId);
+            }
+
+            database.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            database.endTransaction();
+
+            if (!successful) {
+                contexts.clear();
+            }
+        }
+    }
+
+    private static Inserted getInserted(List<Inserted> inserted, LocationPartitionTable.Partition partition,
+                                        StatementCache statements) {
+        for (Inserted rows : inserted) {
+            if (rows.partition == partition) {
+                return rows;
+            }
         }
 
-        database.setTransactionSuccessful();
-        database.endTransaction();
+        Inserted rows = new Inserted(partition, statements.get(partition.getInsertSql()));
+        inserted.add(rows);
+        return rows;
+    }
+
+    /**
+     * Returns the statement that inserts a location into the given partition.
+     */
+    static String getInsertSql(String partitionName) {
+        return "INSERT INTO " + partitionName + INSERT_COLUMNS_SQL;
+    }
+
+    /**
+     * Adds the ids of the device contexts the stored locations reference.
+     */
+    static void addContextIds(SQLiteDatabase database, Set<Long> ids) {
+        for (LocationPartitionTable.Partition partition : LocationPartitionTable.getAll(database)) {
+            Cursor cursor = database.rawQuery("SELECT DISTINCT " + COLUMN_CONTEXT_ID + " FROM "
+                    + partition.getName(), null);
+            try {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
     }
 
     static long size(SQLiteDatabase database) {
+        return getStats(database).getCount();
+    }
+
+    static LocationStats getStats(SQLiteDatabase database) {
+        if (database == null) {
+            return LocationStats.EMPTY;
+        }
+
+        return LocationPartitionTable.getStats(database);
+    }
+
+    /**
+     * Counts the locations after the cursor as the total minus the ones at or before it. Those
+     * are purged once every endpoint has received them, so the count that is left to do is small.
+     */
+    static long countAfter(SQLiteDatabase database, DispatchCursor cursor) {
         if (database == null) {
             return 0;
         }
 
-        return DatabaseUtils.queryNumEntries(database, TABLE_NAME);
+        long total = size(database);
+        long upTo = 0;
+        for (LocationPartitionTable.Partition partition : LocationPartitionTable.getAll(database)) {
+            if (partition.getLastId() <= cursor.getId()) {
+                upTo += LocationPartitionTable.getRowCount(database, partition);
+            } else if (partition.getFirstId() <= cursor.getId()) {
+                upTo += DatabaseUtils.queryNumEntries(database, partition.getName(), UP_TO_SELECTION,
+                        getArguments(cursor));
+            }
+        }
+
+        return Math.max(0, total - upTo);
+    }
+
+    private static String[] getArguments(DispatchCursor cursor) {
+        return new String[]{String.valueOf(cursor.getId())};
+    }
+
+    private static long getSize(OpenLocateLocation location) {
+        InformationFields fields = location.getInformationFields();
+        if (fields == null) {
+            return FIXED_ROW_BYTES;
+        }
+
+        return FIXED_ROW_BYTES + length(fields.isCharging()) + length(fields.getConnectionType())
+                + length(valueOf(fields.getLocationProvider())) + length(valueOf(fields.getLocationContext()));
     }
 
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    /**
+     * Deletes matching rows of one partition and updates its statistics in the same transaction.
+     */
+    private static int delete(SQLiteDatabase database, LocationPartitionTable.Partition partition,
+                              String selection, String... selectionArgs) {
+        database.beginTransaction();
+        try {
+            int deleted = database.delete(partition.getName(), selection, selectionArgs);
+            LocationPartitionTable.onDeleted(database, partition, deleted);
+            database.setTransactionSuccessful();
+            return deleted;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Returns up to {@link #QUERY_LIMIT} locations created after the given time, in the order they
+     * were stored.
+     */
     static List<OpenLocateLocation> getSince(SQLiteDatabase database, long millisecondsSince1970) {
         if (database == null) {
             return null;
         }
 
-        Cursor cursor = database.query(TABLE_NAME, null, LocationTable.COLUMN_CREATED_AT + " > " + millisecondsSince1970,
-                null, null, null, LocationTable.COLUMN_CREATED_AT, QUERY_LIMIT);
+        List<LocationPartitionTable.Partition> partitions = new ArrayList<>();
+        for (LocationPartitionTable.Partition partition : LocationPartitionTable.getAll(database)) {
+            if (partition.getEnd() - 1 > millisecondsSince1970) {
+                partitions.add(partition);
+            }
+        }
+
+        LocationIterator iterator = new PartitionedLocationIterator(database, partitions, SINCE_SELECTION,
+                new String[]{String.valueOf(millisecondsSince1970)}, QUERY_LIMIT);
+        List<OpenLocateLocation> locations = null;
+        try {
+            while (iterator.hasNext()) {
+                if (locations == null) {
+                    locations = new ArrayList<>();
+                }
+                locations.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+
+        return locations;
+    }
+
+    static LocationIterator iterateAfter(SQLiteDatabase database, DispatchCursor after, int limit) {
+        if (database == null) {
+            return LocationIterator.EMPTY;
+        }
+
+        // Partitions whose ids all are at or before the cursor cannot hold anything after it.
+        List<LocationPartitionTable.Partition> partitions = new ArrayList<>();
+        for (LocationPartitionTable.Partition partition : LocationPartitionTable.getAll(database)) {
+            if (partition.getLastId() > after.getId()) {
+                partitions.add(partition);
+            }
+        }
+
+        // Keyset pagination on the row id, which every partition serves from its primary key
+        // without a separate index.
+        return new PartitionedLocationIterator(database, partitions, AFTER_SELECTION, getArguments(after), limit);
+    }
+
+    /**
+     * Returns the locations the query selects. Partitions outside its time range are skipped, the
+     * geohash index narrows each remaining one down to the cells around the area, and the exact
+     * area test runs on what is left.
+     */
+    static LocationIterator query(SQLiteDatabase database, LocationQuery query) {
+        if (database == null) {
+            return LocationIterator.EMPTY;
+        }
+
+        DispatchCursor after = query.getAfter();
+        List<LocationPartitionTable.Partition> partitions = new ArrayList<>();
+        for (LocationPartitionTable.Partition partition : LocationPartitionTable.getAll(database)) {
+            if (partition.getLastId() > after.getId() && partition.getEnd() > query.getFromMillis()
+                    && partition.getStart() < query.getToMillis()) {
+                partitions.add(partition);
+            }
+        }
+
+        List<String> arguments = new ArrayList<>();
+        StringBuilder selection = new StringBuilder(AFTER_SELECTION);
+        arguments.add(String.valueOf(after.getId()));
+
+        selection.append(" AND " + COLUMN_CREATED_AT + " >= ? AND " + COLUMN_CREATED_AT + " < ?");
+        arguments.add(String.valueOf(query.getFromMillis()));
+        arguments.add(String.valueOf(query.getToMillis()));
+
+        if (query.hasArea()) {
+            List<long[]> ranges;
+            if (query.crossesAntimeridian()) {
+                ranges = GeoHash.cover(query.getMinLatitude(), query.getMinLongitude(), query.getMaxLatitude(), 180);
+                ranges.addAll(GeoHash.cover(query.getMinLatitude(), -180, query.getMaxLatitude(), query.getMaxLongitude()));
+            } else {
+                ranges = GeoHash.cover(query.getMinLatitude(), query.getMinLongitude(),
+                        query.getMaxLatitude(), query.getMaxLongitude());
+            }
+
+            selection.append(" AND (");
+            for (int i = 0; i < ranges.size(); i++) {
+                selection.append(i > 0 ? " OR " : "")
+                        .append("(" + COLUMN_GEOHASH + " >= ? AND " + COLUMN_GEOHASH + " < ?)");
+                arguments.add(String.valueOf(ranges.get(i)[0]));
+                arguments.add(String.valueOf(ranges.get(i)[1]));
+            }
+            selection.append(")");
+        }
+
+        // Only the radius test is left to do outside of SQL, the page can be cut short otherwise.
+        int limit = query.hasRadius() ? 0 : query.getLimit();
+        return query.filter(new PartitionedLocationIterator(database, partitions, selection.toString(),
+                arguments.toArray(new String[arguments.size()]), limit));
+    }
+
+    private static LocationIterator query(SQLiteDatabase database, String table, String selection,
+                                          String[] selectionArgs, int limit, Map<Long, DeviceContext> contexts) {
+        Cursor cursor = database.query(table, null, selection, selectionArgs,
+                null, null, ORDER_BY, limit > 0 ? String.valueOf(limit) : null);
 
         if (cursor == null || cursor.isClosed()) {
+            return LocationIterator.EMPTY;
+        }
+
+        return new CursorLocationIterator(database, cursor, contexts);
+    }
+
+    /**
+     * Deletes up to {@code limit} of the locations created at or before the given time, oldest
+     * first, and returns how many were deleted. Partitions that end by then are dropped whole
+     * when they fit in the limit, so usually only the one partition that straddles the time is
+     * deleted row by row. A limit of zero or less deletes all of them.
+     */
+    static int deleteBefore(SQLiteDatabase database, long millisecondsSince1970, int limit) {
+        int deleted = 0;
+        database.beginTransaction();
+        try {
+            for (LocationPartitionTable.Partition partition : LocationPartitionTable.getAll(database)) {
+                if (partition.getStart() > millisecondsSince1970 || (limit > 0 && deleted >= limit)) {
+                    break;
+                }
+
+                if (partition.getEnd() - 1 <= millisecondsSince1970) {
+                    long count = LocationPartitionTable.getRowCount(database, partition);
+                    if (limit <= 0 || count <= limit - deleted) {
+                        LocationPartitionTable.drop(database, partition);
+                        deleted += count;
+                        continue;
+                    }
+                }
+
+                if (limit <= 0) {
+                    deleted += delete(database, partition, BEFORE_SELECTION, String.valueOf(millisecondsSince1970));
+                } else {
+                    deleted += delete(database, partition, COLUMN_ID + " IN (SELECT " + COLUMN_ID
+                            + " FROM " + partition.getName() + " WHERE " + BEFORE_SELECTION
+                            + " ORDER BY " + COLUMN_CREATED_AT + ", " + COLUMN_ID
+                            + " LIMIT " + (limit - deleted) + ")", String.valueOf(millisecondsSince1970));
+                }
+            }
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Deletes the locations at or before the cursor, the ones {@link #iterateAfter} skips.
+     * Partitions whose ids all are at or before it are dropped whole, and the rest lose a range
+     * of their primary key.
+     */
+    static void deleteUpTo(SQLiteDatabase database, DispatchCursor cursor) {
+        database.beginTransaction();
+        try {
+            for (LocationPartitionTable.Partition partition : LocationPartitionTable.getAll(database)) {
+                if (partition.getLastId() <= cursor.getId()) {
+                    LocationPartitionTable.drop(database, partition);
+                } else if (partition.getFirstId() <= cursor.getId()) {
+                    delete(database, partition, UP_TO_SELECTION, getArguments(cursor));
+                }
+            }
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    static int deleteOldest(SQLiteDatabase database, int limit) {
+        int deleted = 0;
+        for (LocationPartitionTable.Partition partition : LocationPartitionTable.getAll(database)) {
+            if (deleted >= limit) {
+                break;
+            }
+
+            long count = LocationPartitionTable.getRowCount(database, partition);
+            if (count <= limit - deleted) {
+                LocationPartitionTable.drop(database, partition);
+                deleted += count;
+                continue;
+            }
+
+            deleted += delete(database, partition, COLUMN_ID + " IN (SELECT " + COLUMN_ID
+                    + " FROM " + partition.getName() + " ORDER BY " + COLUMN_CREATED_AT + ", " + COLUMN_ID
+                    + " LIMIT " + (limit - deleted) + ")");
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Deletes, oldest first, locations that are not the first one of their interval.
+     */
+    static int deleteThinned(SQLiteDatabase database, long intervalInMillis, int limit) {
+        int deleted = 0;
+        for (LocationPartitionTable.Partition partition : LocationPartitionTable.getAll(database)) {
+            if (deleted >= limit) {
+                break;
+            }
+
+            String ids = getThinnedIds(database, partition.getName(), intervalInMillis, limit - deleted);
+            if (ids != null) {
+                deleted += delete(database, partition, COLUMN_ID + " IN (" + ids + ")");
+            }
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Walks the partition once in creation order, which the created_at index gives without a
+     * sort, and remembers the interval of the last location it kept.
+     *
+     * @return up to {@code limit} comma-separated ids of locations that share their interval with
+     * an earlier one, or null if there are none.
+     */
+    private static String getThinnedIds(SQLiteDatabase database, String table, long intervalInMillis, int limit) {
+        Cursor cursor = database.query(table, new String[]{COLUMN_ID, COLUMN_CREATED_AT}, null, null, null, null,
+                COLUMN_CREATED_AT + ", " + COLUMN_ID);
+        if (cursor == null) {
             return null;
         }
 
-        return getLocations(cursor);
+        StringBuilder ids = null;
+        int count = 0;
+        try {
+            boolean kept = false;
+            long keptInterval = 0;
+            while (count < limit && cursor.moveToNext()) {
+                long createdAt = cursor.getLong(1);
+                long interval = createdAt - createdAt % intervalInMillis;
+                if (!kept || interval != keptInterval) {
+                    kept = true;
+                    keptInterval = interval;
+                    continue;
+                }
+
+                if (ids == null) {
+                    ids = new StringBuilder();
+                } else {
+                    ids.append(',');
+                }
+                ids.append(cursor.getLong(0));
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return ids != null ? ids.toString() : null;
     }
 
-    static void deleteBefore(SQLiteDatabase database, long millisecondsSince1970) {
-        database.delete(TABLE_NAME, LocationTable.COLUMN_CREATED_AT + " <= " + millisecondsSince1970, null);
+    /**
+     * Deletes, oldest first, locations whose horizontal accuracy is worse than the given one.
+     */
+    static int deleteInaccurate(SQLiteDatabase database, float accuracyInMeters, int limit) {
+        int deleted = 0;
+        for (LocationPartitionTable.Partition partition : LocationPartitionTable.getAll(database)) {
+            if (deleted >= limit) {
+                break;
+            }
+
+            deleted += delete(database, partition, COLUMN_ID + " IN (SELECT " + COLUMN_ID
+                    + " FROM " + partition.getName()
+                    + " WHERE " + COLUMN_HORIZONTAL_ACCURACY + " > " + accuracyInMeters
+                    + " ORDER BY " + COLUMN_CREATED_AT + ", " + COLUMN_ID + " LIMIT " + (limit - deleted) + ")");
+        }
+
+        return deleted;
     }
 
-    private static List<OpenLocateLocation> getLocations(Cursor cursor) {
-        List<OpenLocateLocation> locations = null;
+    private static void bind(SQLiteStatement statement, OpenLocateLocation location, long contextId) {
+        OpenLocateLocation.LocationInfo info = location.getLocation();
+        InformationFields fields = location.getInformationFields();
 
-        if (cursor.moveToFirst()) {
-            locations = new ArrayList<>();
-            do {
-                if (cursor.isClosed()) {
-                    break;
+        statement.clearBindings();
+        statement.bindLong(BIND_CREATED_AT, location.getCreated().getTime());
+        statement.bindDouble(BIND_LATITUDE, info.getLatitude());
+        statement.bindDouble(BIND_LONGITUDE, info.getLongitude());
+        statement.bindDouble(BIND_HORIZONTAL_ACCURACY, info.getHorizontalAccuracy());
+        statement.bindLong(BIND_TIMESTAMP, info.getTimeStampSecs());
+        statement.bindDouble(BIND_SPEED, info.getSpeed());
+        statement.bindDouble(BIND_COURSE, info.getCourse());
+        statement.bindDouble(BIND_ALTITUDE, info.getAltitude());
+        statement.bindLong(BIND_CONTEXT_ID, contextId);
+        statement.bindLong(BIND_GEOHASH, GeoHash.encode(info.getLatitude(), info.getLongitude()));
+
+        if (fields != null) {
+            bindString(statement, BIND_IS_CHARGING, fields.isCharging());
+            bindString(statement, BIND_CONNECTION_TYPE, fields.getConnectionType());
+            bindString(statement, BIND_LOCATION_METHOD, valueOf(fields.getLocationProvider()));
+            bindString(statement, BIND_LOCATION_CONTEXT, valueOf(fields.getLocationContext()));
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static String valueOf(LocationProvider provider) {
+        return provider != null ? provider.getValue() : null;
+    }
+
+    private static String valueOf(LocationContext context) {
+        return context != null ? context.getValue() : null;
+    }
+
+    private static OpenLocateLocation getLocation(SQLiteDatabase database, Cursor cursor,
+                                                  ColumnIndices columns, Map<Long, DeviceContext> contexts) {
+        long contextId = cursor.getLong(columns.contextId);
+        DeviceContext context = contexts.get(contextId);
+        if (context == null) {
+            context = DeviceContextTable.get(database, contextId);
+            if (context == null) {
+                context = new DeviceContext(null, false, null, null, null, null, null, null);
+            }
+            contexts.put(contextId, context);
+        }
+
+        InformationFields informationFields = InformationFieldsFactory.getInformationFields(
+                context.getManufacturer(),
+                context.getModel(),
+                getString(cursor, columns.isCharging),
+                context.getOperatingSystem(),
+                context.getCarrierName(),
+                context.getWifiSsid(),
+                context.getWifiBssid(),
+                getString(cursor, columns.connectionType),
+                getString(cursor, columns.locationMethod),
+                getString(cursor, columns.locationContext)
+        );
+
+        OpenLocateLocation location = new OpenLocateLocation(
+                new Date(cursor.getLong(columns.createdAt)),
+                cursor.getDouble(columns.latitude),
+                cursor.getDouble(columns.longitude),
+                cursor.getFloat(columns.horizontalAccuracy),
+                cursor.getLong(columns.timestamp),
+                cursor.getFloat(columns.speed),
+                cursor.getFloat(columns.course),
+                cursor.getDouble(columns.altitude),
+                context.getAdvertisingInfo(),
+                informationFields
+        );
+        location.setId(cursor.getLong(columns.id));
+        return location;
+    }
+
+    /**
+     * Decodes rows one at a time as the cursor advances. Device contexts are looked up once per
+     * iterator and shared by every row that references them.
+     */
+    private static final class CursorLocationIterator implements LocationIterator {
+
+        private final SQLiteDatabase database;
+        private final Cursor cursor;
+        private final ColumnIndices columns;
+        private final Map<Long, DeviceContext> contexts;
+
+        private boolean advanced;
+        private boolean hasNext;
+
+        CursorLocationIterator(SQLiteDatabase database, Cursor cursor, Map<Long, DeviceContext> contexts) {
+            this.database = database;
+            this.cursor = cursor;
+            this.columns = new ColumnIndices(cursor);
+            this.contexts = contexts;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!advanced) {
+                hasNext = !cursor.isClosed() && cursor.moveToNext();
+                advanced = true;
+            }
+            return hasNext;
+        }
+
+        @Override
+        public OpenLocateLocation next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            advanced = false;
+            return getLocation(database, cursor, columns, contexts);
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Merges the given partitions in id order, running the same selection on each. Ids grow in
+     * the order locations were stored, so partitions mostly hold ranges that follow each other;
+     * one is only queried once its lowest id could be the next to return.
+     */
+    private static final class PartitionedLocationIterator implements LocationIterator {
+
+        private static final Comparator<LocationPartitionTable.Partition> FIRST_ID_ORDER =
+                new Comparator<LocationPartitionTable.Partition>() {
+                    @Override
+                    public int compare(LocationPartitionTable.Partition a, LocationPartitionTable.Partition b) {
+                        return a.getFirstId() < b.getFirstId() ? -1 : (a.getFirstId() == b.getFirstId() ? 0 : 1);
+                    }
+                };
+
+        private static final Comparator<Head> HEAD_ORDER = new Comparator<Head>() {
+            @Override
+            public int compare(Head a, Head b) {
+                long first = a.location.getId();
+                long second = b.location.getId();
+                return first < second ? -1 : (first == second ? 0 : 1);
+            }
+        };
+
+        private final SQLiteDatabase database;
+        private final List<LocationPartitionTable.Partition> partitions;
+        private final String selection;
+        private final String[] selectionArgs;
+        private final int limit;
+        private final Map<Long, DeviceContext> contexts = new HashMap<>();
+        private final PriorityQueue<Head> heads = new PriorityQueue<>(4, HEAD_ORDER);
+
+        private int nextPartition;
+        private int returned;
+
+        PartitionedLocationIterator(SQLiteDatabase database, List<LocationPartitionTable.Partition> partitions,
+                                    String selection, String[] selectionArgs, int limit) {
+            this.database = database;
+            this.partitions = new ArrayList<>(partitions);
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.limit = limit;
+
+            Collections.sort(this.partitions, FIRST_ID_ORDER);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (limit > 0 && returned >= limit) {
+                return false;
+            }
+
+            while (nextPartition < partitions.size()
+                    && (heads.isEmpty() || partitions.get(nextPartition).getFirstId() <= heads.peek().location.getId())) {
+                LocationIterator iterator = query(database, partitions.get(nextPartition++).getName(), selection,
+                        selectionArgs, limit > 0 ? limit - returned : 0, contexts);
+                if (iterator.hasNext()) {
+                    heads.add(new Head(iterator, iterator.next()));
+                } else {
+                    iterator.close();
                 }
+            }
 
-                Date date = new Date(cursor.getLong(cursor.getColumnIndex(COLUMN_CREATED_AT)));
-                String json = cursor.getString(cursor.getColumnIndex(COLUMN_LOCATION));
-                OpenLocateLocation location = new OpenLocateLocation(date, json);
-                locations.add(location);
-            } while (cursor.moveToNext());
+            return !heads.isEmpty();
         }
 
-        cursor.close();
-        return locations;
+        @Override
+        public OpenLocateLocation next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Head head = heads.poll();
+            OpenLocateLocation location = head.location;
+            if (head.iterator.hasNext()) {
+                head.location = head.iterator.next();
+                heads.add(head);
+            } else {
+                head.iterator.close();
+            }
+
+            returned++;
+            return location;
+        }
+
+        @Override
+        public void close() {
+            for (Head head : heads) {
+                head.iterator.close();
+            }
+            heads.clear();
+            nextPartition = partitions.size();
+        }
+
+        /**
+         * The next location of one partition.
+         */
+        private static final class Head {
+            final LocationIterator iterator;
+            OpenLocateLocation location;
+
+            Head(LocationIterator iterator, OpenLocateLocation location) {
+                this.iterator = iterator;
+                this.location = location;
+            }
+        }
+    }
+
+    /**
+     * Rows a batch inserted into one partition.
+     */
+    private static final class Inserted {
+        final LocationPartitionTable.Partition partition;
+        final SQLiteStatement statement;
+        long count;
+        long bytes;
+        long firstCreatedAt = Long.MAX_VALUE;
+        long lastCreatedAt = Long.MIN_VALUE;
+        long firstId = Long.MAX_VALUE;
+        long lastId = Long.MIN_VALUE;
+
+        Inserted(LocationPartitionTable.Partition partition, SQLiteStatement statement) {
+            this.partition = partition;
+            this.statement = statement;
+        }
+
+        void add(long createdAt, long size, long id) {
+            count++;
+            bytes += size;
+            firstCreatedAt = Math.min(firstCreatedAt, createdAt);
+            lastCreatedAt = Math.max(lastCreatedAt, createdAt);
+            firstId = Math.min(firstId, id);
+            lastId = Math.max(lastId, id);
+        }
+    }
+
+    // Missing information fields read back as empty strings, the same as they did from JSON.
+    private static String getString(Cursor cursor, int index) {
+        String value = cursor.getString(index);
+        return value != null ? value : "";
+    }
+
+    private static final class ColumnIndices {
+        final int id;
+        final int createdAt;
+        final int latitude;
+        final int longitude;
+        final int horizontalAccuracy;
+        final int timestamp;
+        final int speed;
+        final int course;
+        final int altitude;
+        final int contextId;
+        final int isCharging;
+        final int connectionType;
+        final int locationMethod;
+        final int locationContext;
+
+        ColumnIndices(Cursor cursor) {
+            id = cursor.getColumnIndex(COLUMN_ID);
+            createdAt = cursor.getColumnIndex(COLUMN_CREATED_AT);
+            latitude = cursor.getColumnIndex(COLUMN_LATITUDE);
+            longitude = cursor.getColumnIndex(COLUMN_LONGITUDE);
+            horizontalAccuracy = cursor.getColumnIndex(COLUMN_HORIZONTAL_ACCURACY);
+            timestamp = cursor.getColumnIndex(COLUMN_TIMESTAMP);
+            speed = cursor.getColumnIndex(COLUMN_SPEED);
+            course = cursor.getColumnIndex(COLUMN_COURSE);
+            altitude = cursor.getColumnIndex(COLUMN_ALTITUDE);
+            contextId = cursor.getColumnIndex(COLUMN_CONTEXT_ID);
+            isCharging = cursor.getColumnIndex(COLUMN_IS_CHARGING);
+            connectionType = cursor.getColumnIndex(COLUMN_CONNECTION_TYPE);
+            locationMethod = cursor.getColumnIndex(COLUMN_LOCATION_METHOD);
+            locationContext = cursor.getColumnIndex(COLUMN_LOCATION_CONTEXT);
+        }
     }
 }
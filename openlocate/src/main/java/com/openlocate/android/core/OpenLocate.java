@@ -26,7 +26,6 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.database.sqlite.SQLiteOpenHelper;
 import android.location.Location;
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -43,6 +42,8 @@ import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
+import com.openlocate.android.callbacks.LocationReadCallback;
+import com.openlocate.android.callbacks.OfflineLocationVisitor;
 import com.openlocate.android.callbacks.OpenLocateLocationCallback;
 import com.openlocate.android.callbacks.TrackingEnabledCallback;
 import com.openlocate.android.exceptions.InvalidConfigurationException;
@@ -72,6 +73,7 @@ public class OpenLocate implements OpenLocateLocationTracker {
     private Context context;
     private ArrayList<Endpoint> endpoints;
     private Configuration configuration;
+    private AsyncLocationReader reader;
 
     private FusedLocationProviderClient fusedLocationProviderClient;
 
@@ -97,6 +99,16 @@ public class OpenLocate implements OpenLocateLocationTracker {
         private boolean isLocationMethodCollectionDisabled;
         private boolean isLocationContextCollectionDisabled;
 
+        private long maxStoredLocations;
+        private long maxStorageBytes;
+        private EvictionPolicy evictionPolicy;
+        private LocationStorage locationStorage;
+        private long partitionWindowInHours;
+        private long databaseIdleTimeoutInSeconds;
+        private RetentionPolicy retentionPolicy;
+        private int memoryCapacity;
+        private OverflowPolicy overflowPolicy;
+
         public static final class Builder {
             private Context context;
             private ArrayList<Endpoint> endpoints;
@@ -111,6 +123,15 @@ public class OpenLocate implements OpenLocateLocationTracker {
             private boolean isConnectionTypeCollectionDisabled;
             private boolean isLocationMethodCollectionDisabled;
             private boolean isLocationContextCollectionDisabled;
+            private long maxStoredLocations;
+            private long maxStorageBytes;
+            private EvictionPolicy evictionPolicy = EvictionPolicy.dropOldest();
+            private LocationStorage locationStorage = LocationStorage.DATABASE;
+            private long partitionWindowInHours;
+            private long databaseIdleTimeoutInSeconds;
+            private RetentionPolicy retentionPolicy = RetentionPolicy.standard();
+            private int memoryCapacity;
+            private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
 
             public Builder(Context context, ArrayList<Endpoint> endpoints) {
                 this.context = context.getApplicationContext();
@@ -173,6 +194,64 @@ public class OpenLocate implements OpenLocateLocationTracker {
                 return this;
             }
 
+            /**
+             * Limits how many locations, and how many bytes, are kept on the device while they
+             * wait to be sent. Zero means no limit.
+             */
+            public Builder setStorageQuota(long maxLocations, long maxBytes) {
+                this.maxStoredLocations = maxLocations;
+                this.maxStorageBytes = maxBytes;
+                return this;
+            }
+
+            public Builder setEvictionPolicy(EvictionPolicy evictionPolicy) {
+                this.evictionPolicy = evictionPolicy;
+                return this;
+            }
+
+            public Builder setLocationStorage(LocationStorage locationStorage) {
+                this.locationStorage = locationStorage;
+                return this;
+            }
+
+            /**
+             * Sets the time span of the partitions the database stores locations in. Expired and
+             * delivered locations are purged a partition at a time. Defaults to one day.
+             */
+            public Builder setPartitionWindow(long windowInHours) {
+                this.partitionWindowInHours = windowInHours;
+                return this;
+            }
+
+            /**
+             * Sets how long the database is kept open after the last component using it is done.
+             * Reopening it is costly, so it is kept open across bursts of work. Defaults to one
+             * minute.
+             */
+            public Builder setDatabaseIdleTimeout(long timeoutInSeconds) {
+                this.databaseIdleTimeoutInSeconds = timeoutInSeconds;
+                return this;
+            }
+
+            /**
+             * Sets how long locations are kept before they are purged, whether or not they were
+             * sent, and how the purge is paced. Defaults to ten days.
+             */
+            public Builder setRetentionPolicy(RetentionPolicy retentionPolicy) {
+                this.retentionPolicy = retentionPolicy;
+                return this;
+            }
+
+            /**
+             * Sets how many locations {@link LocationStorage#MEMORY} holds, and what it does with
+             * new ones once it is full. Defaults to 10000 locations, overwriting the oldest.
+             */
+            public Builder setMemoryCapacity(int capacity, OverflowPolicy overflowPolicy) {
+                this.memoryCapacity = capacity;
+                this.overflowPolicy = overflowPolicy;
+                return this;
+            }
+
             public Configuration build() {
                 if (serverUrl != null) {
 
@@ -201,6 +280,15 @@ public class OpenLocate implements OpenLocateLocationTracker {
             this.isLocationMethodCollectionDisabled = builder.isLocationMethodCollectionDisabled;
             this.isOperatingSystemCollectionDisbaled = builder.isOperatingSystemCollectionDisbaled;
             this.isWifiCollectionDisabled = builder.isWifiCollectionDisabled;
+            this.maxStoredLocations = builder.maxStoredLocations;
+            this.maxStorageBytes = builder.maxStorageBytes;
+            this.evictionPolicy = builder.evictionPolicy;
+            this.locationStorage = builder.locationStorage;
+            this.partitionWindowInHours = builder.partitionWindowInHours;
+            this.databaseIdleTimeoutInSeconds = builder.databaseIdleTimeoutInSeconds;
+            this.retentionPolicy = builder.retentionPolicy;
+            this.memoryCapacity = builder.memoryCapacity;
+            this.overflowPolicy = builder.overflowPolicy;
         }
 
         public List<Endpoint> getEndpoints() {
@@ -243,6 +331,42 @@ public class OpenLocate implements OpenLocateLocationTracker {
             return isLocationContextCollectionDisabled;
         }
 
+        public long getMaxStoredLocations() {
+            return maxStoredLocations;
+        }
+
+        public long getMaxStorageBytes() {
+            return maxStorageBytes;
+        }
+
+        public EvictionPolicy getEvictionPolicy() {
+            return evictionPolicy;
+        }
+
+        public LocationStorage getLocationStorage() {
+            return locationStorage != null ? locationStorage : LocationStorage.DATABASE;
+        }
+
+        public long getPartitionWindowInHours() {
+            return partitionWindowInHours;
+        }
+
+        public long getDatabaseIdleTimeoutInSeconds() {
+            return databaseIdleTimeoutInSeconds;
+        }
+
+        public RetentionPolicy getRetentionPolicy() {
+            return retentionPolicy != null ? retentionPolicy : RetentionPolicy.standard();
+        }
+
+        public int getMemoryCapacity() {
+            return memoryCapacity > 0 ? memoryCapacity : Constants.DEFAULT_MEMORY_CAPACITY;
+        }
+
+        public OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy != null ? overflowPolicy : OverflowPolicy.DROP_OLDEST;
+        }
+
         @Override
         public int describeContents() {
             return 0;
@@ -260,6 +384,15 @@ public class OpenLocate implements OpenLocateLocationTracker {
             dest.writeByte(this.isConnectionTypeCollectionDisabled ? (byte) 1 : (byte) 0);
             dest.writeByte(this.isLocationMethodCollectionDisabled ? (byte) 1 : (byte) 0);
             dest.writeByte(this.isLocationContextCollectionDisabled ? (byte) 1 : (byte) 0);
+            dest.writeLong(this.maxStoredLocations);
+            dest.writeLong(this.maxStorageBytes);
+            dest.writeParcelable(this.evictionPolicy, flags);
+            dest.writeString(getLocationStorage().name());
+            dest.writeLong(this.partitionWindowInHours);
+            dest.writeLong(this.databaseIdleTimeoutInSeconds);
+            dest.writeParcelable(getRetentionPolicy(), flags);
+            dest.writeInt(this.memoryCapacity);
+            dest.writeString(getOverflowPolicy().name());
         }
 
         protected Configuration(Parcel in) {
@@ -273,6 +406,15 @@ public class OpenLocate implements OpenLocateLocationTracker {
             this.isConnectionTypeCollectionDisabled = in.readByte() != 0;
             this.isLocationMethodCollectionDisabled = in.readByte() != 0;
             this.isLocationContextCollectionDisabled = in.readByte() != 0;
+            this.maxStoredLocations = in.readLong();
+            this.maxStorageBytes = in.readLong();
+            this.evictionPolicy = in.readParcelable(EvictionPolicy.class.getClassLoader());
+            this.locationStorage = LocationStorage.valueOf(in.readString());
+            this.partitionWindowInHours = in.readLong();
+            this.databaseIdleTimeoutInSeconds = in.readLong();
+            this.retentionPolicy = in.readParcelable(RetentionPolicy.class.getClassLoader());
+            this.memoryCapacity = in.readInt();
+            this.overflowPolicy = OverflowPolicy.valueOf(in.readString());
         }
 
         public static final Creator<Configuration> CREATOR = new Creator<Configuration>() {
@@ -295,6 +437,8 @@ public class OpenLocate implements OpenLocateLocationTracker {
         public static final String HEADERS = "headers";
         public static final String HEADERS_KEY = "key";
         public static final String HEADERS_VALUE = "value";
+        public static final String PAYLOAD_FORMAT = "payload_format";
+        public static final String CONTENT_ENCODING = "content_encoding";
 
         public static List<Endpoint> fromJson(String json) throws JSONException {
 
@@ -309,6 +453,8 @@ public class OpenLocate implements OpenLocateLocationTracker {
                     JSONObject header = headers.getJSONObject(j);
                     builder.withHeader(header.getString(HEADERS_KEY), header.getString(HEADERS_VALUE));
                 }
+                builder.withPayloadFormat(PayloadFormat.valueOf(jsonEndpoint.optString(PAYLOAD_FORMAT, PayloadFormat.JSON.name())));
+                builder.withContentEncoding(ContentEncoding.valueOf(jsonEndpoint.optString(CONTENT_ENCODING, ContentEncoding.IDENTITY.name())));
                 result.add(builder.build());
             }
 
@@ -334,6 +480,8 @@ public class OpenLocate implements OpenLocateLocationTracker {
                 }
 
                 jsonEndpoint.put(HEADERS, jsonHeaders);
+                jsonEndpoint.put(PAYLOAD_FORMAT, endpoint.payloadFormat.name());
+                jsonEndpoint.put(CONTENT_ENCODING, endpoint.contentEncoding.name());
                 jsonArray.put(jsonEndpoint);
             }
 
@@ -344,6 +492,10 @@ public class OpenLocate implements OpenLocateLocationTracker {
 
         private HashMap<String, String> headers;
 
+        private PayloadFormat payloadFormat = PayloadFormat.JSON;
+
+        private ContentEncoding contentEncoding = ContentEncoding.IDENTITY;
+
         public Endpoint(String url, HashMap<String, String> headers) {
             this.url = url;
 
@@ -355,8 +507,9 @@ public class OpenLocate implements OpenLocateLocationTracker {
         }
 
         private Endpoint(Builder builder) {
-            this.url = builder.url;
-            this.headers = builder.headers;
+            this(builder.url, builder.headers);
+            this.payloadFormat = builder.payloadFormat;
+            this.contentEncoding = builder.contentEncoding;
         }
 
         public String getUrl() {
@@ -367,6 +520,14 @@ public class OpenLocate implements OpenLocateLocationTracker {
             return headers;
         }
 
+        public PayloadFormat getPayloadFormat() {
+            return payloadFormat;
+        }
+
+        public ContentEncoding getContentEncoding() {
+            return contentEncoding;
+        }
+
         public static Builder builder(String url) {
             return new Builder(url);
         }
@@ -377,6 +538,10 @@ public class OpenLocate implements OpenLocateLocationTracker {
 
             private HashMap<String, String> headers;
 
+            private PayloadFormat payloadFormat = PayloadFormat.JSON;
+
+            private ContentEncoding contentEncoding = ContentEncoding.IDENTITY;
+
             public Builder(String url) {
                 this.url = url;
             }
@@ -401,8 +566,27 @@ public class OpenLocate implements OpenLocateLocationTracker {
                 return this;
             }
 
+            /**
+             * Sets how locations are encoded for this endpoint, {@link PayloadFormat#JSON} by
+             * default. The Content-Type of each post matches it.
+             */
+            public Builder withPayloadFormat(PayloadFormat payloadFormat) {
+                this.payloadFormat = payloadFormat;
+                return this;
+            }
+
+            /**
+             * Sets how post bodies to this endpoint are compressed, {@link ContentEncoding#IDENTITY}
+             * by default. If the endpoint answers a compressed post with 415, the post is sent
+             * again uncompressed, and so are the later ones.
+             */
+            public Builder withContentEncoding(ContentEncoding contentEncoding) {
+                this.contentEncoding = contentEncoding;
+                return this;
+            }
+
             public Endpoint build() {
-                return new Endpoint(this.url, this.headers);
+                return new Endpoint(this);
             }
         }
 
@@ -420,6 +604,8 @@ public class OpenLocate implements OpenLocateLocationTracker {
                 dest.writeString(entry.getKey());
                 dest.writeString(entry.getValue());
             }
+            dest.writeString(this.payloadFormat.name());
+            dest.writeString(this.contentEncoding.name());
         }
 
         protected Endpoint(Parcel in) {
@@ -431,6 +617,8 @@ public class OpenLocate implements OpenLocateLocationTracker {
                 String value = in.readString();
                 this.headers.put(key, value);
             }
+            this.payloadFormat = PayloadFormat.valueOf(in.readString());
+            this.contentEncoding = ContentEncoding.valueOf(in.readString());
         }
 
         public static final Creator<Endpoint> CREATOR = new Creator<Endpoint>() {
@@ -619,17 +807,55 @@ public class OpenLocate implements OpenLocateLocationTracker {
         task.execute();
     }
 
+    /**
+     * Returns the locations that have not been sent to each endpoint yet, up to a page per
+     * endpoint.
+     *
+     * <p>Locations kept in {@link LocationStorage#MEMORY} are only held by the location service,
+     * so none are found.</p>
+     */
     public List<EndpointLocation> getOfflineLocations() throws JSONException {
+        LocationDataSource dataSource = LocationStores.openReadOnly(context, configuration);
+        try {
+            return readOfflineLocations(context, dataSource);
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * Reads the same locations as {@link #getOfflineLocations()} on a background thread, and
+     * hands them to the callback there.
+     */
+    public void getOfflineLocations(LocationReadCallback<List<EndpointLocation>> callback) {
+        getReader().read(new AsyncLocationReader.Read<List<EndpointLocation>>() {
+            @Override
+            public List<EndpointLocation> read(LocationDataSource dataSource) throws JSONException {
+                return readOfflineLocations(context, dataSource);
+            }
+        }, callback);
+    }
 
+    private static List<EndpointLocation> readOfflineLocations(Context context, LocationDataSource dataSource)
+            throws JSONException {
         final List<EndpointLocation> result = new ArrayList<>();
         final List<OpenLocate.Endpoint> endpoints = DispatchLocationService.getEndpoints(context);
 
         for (OpenLocate.Endpoint endpoint : endpoints) {
-            String key = DispatchLocationService.md5(endpoint.getUrl().toLowerCase());
-            long timestamp = SharedPreferenceUtils.getInstance(context).getLongValue(key, 0);
-            SQLiteOpenHelper helper = DatabaseHelper.getInstance(context);
-            LocationDataSource dataSource = new LocationDatabase(helper);
-            final List<OpenLocateLocation> locations = dataSource.getSince(timestamp);
+            DispatchCursor cursor = DispatchLocationService.readCursor(context, dataSource, endpoint);
+
+            List<OpenLocateLocation> locations = null;
+            LocationIterator iterator = dataSource.iterateAfter(cursor, LocationTable.QUERY_LIMIT);
+            try {
+                while (iterator.hasNext()) {
+                    if (locations == null) {
+                        locations = new ArrayList<>();
+                    }
+                    locations.add(iterator.next());
+                }
+            } finally {
+                iterator.close();
+            }
 
             result.add(new EndpointLocation(endpoint, locations));
         }
@@ -637,6 +863,133 @@ public class OpenLocate implements OpenLocateLocationTracker {
         return result;
     }
 
+    /**
+     * Walks every location that has not been sent to each endpoint yet, one location at a time.
+     * Unlike {@link #getOfflineLocations()} this is not capped and does not keep the locations
+     * in memory, so it can be used on backlogs of any size.
+     *
+     * <p>Locations kept in {@link LocationStorage#MEMORY} are only held by the location service,
+     * so none are found.</p>
+     */
+    public void visitOfflineLocations(OfflineLocationVisitor visitor) throws JSONException {
+        final List<OpenLocate.Endpoint> endpoints = DispatchLocationService.getEndpoints(context);
+        LocationDataSource dataSource = LocationStores.openReadOnly(context, configuration);
+
+        try {
+            for (OpenLocate.Endpoint endpoint : endpoints) {
+                DispatchCursor cursor = DispatchLocationService.readCursor(context, dataSource, endpoint);
+
+                LocationIterator iterator = dataSource.iterateAfter(cursor, 0);
+                try {
+                    while (iterator.hasNext()) {
+                        visitor.visit(endpoint, iterator.next());
+                    }
+                } finally {
+                    iterator.close();
+                }
+            }
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * Returns the stored locations the query selects, oldest first. Pass the last location of a
+     * page to {@link LocationQuery.Builder#setStartAfter(OpenLocateLocation)} to read the next.
+     *
+     * <p>Locations kept in {@link LocationStorage#MEMORY} are only held by the location service,
+     * so none are found.</p>
+     */
+    public List<OpenLocateLocation> queryLocations(LocationQuery query) {
+        LocationDataSource dataSource = LocationStores.openReadOnly(context, configuration);
+        try {
+            return readLocations(dataSource, query);
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * Runs {@link #queryLocations(LocationQuery)} on a background thread, and hands the
+     * locations to the callback there.
+     */
+    public void queryLocations(final LocationQuery query, LocationReadCallback<List<OpenLocateLocation>> callback) {
+        getReader().read(new AsyncLocationReader.Read<List<OpenLocateLocation>>() {
+            @Override
+            public List<OpenLocateLocation> read(LocationDataSource dataSource) {
+                return readLocations(dataSource, query);
+            }
+        }, callback);
+    }
+
+    private static List<OpenLocateLocation> readLocations(LocationDataSource dataSource, LocationQuery query) {
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        LocationIterator iterator = dataSource.query(query);
+        try {
+            while (iterator.hasNext()) {
+                locations.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+        return locations;
+    }
+
+    /**
+     * Returns how many locations are stored on the device, how much space they take, and how
+     * many each endpoint has yet to receive. The figures are maintained as locations are stored
+     * and sent, so this does not read the locations themselves.
+     *
+     * <p>Locations kept in {@link LocationStorage#MEMORY} are only held by the location service,
+     * so none are found.</p>
+     */
+    public BacklogStatus getBacklogStatus() throws JSONException {
+        LocationDataSource dataSource = LocationStores.openReadOnly(context, configuration);
+        try {
+            return readBacklogStatus(context, dataSource);
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * Runs {@link #getBacklogStatus()} on a background thread, and hands the status to the
+     * callback there.
+     */
+    public void getBacklogStatus(LocationReadCallback<BacklogStatus> callback) {
+        getReader().read(new AsyncLocationReader.Read<BacklogStatus>() {
+            @Override
+            public BacklogStatus read(LocationDataSource dataSource) throws JSONException {
+                return readBacklogStatus(context, dataSource);
+            }
+        }, callback);
+    }
+
+    private static BacklogStatus readBacklogStatus(Context context, LocationDataSource dataSource)
+            throws JSONException {
+        final List<OpenLocate.Endpoint> endpoints = DispatchLocationService.getEndpoints(context);
+
+        Map<String, Long> pendingLocations = new HashMap<>();
+        for (OpenLocate.Endpoint endpoint : endpoints) {
+            DispatchCursor cursor = DispatchLocationService.readCursor(context, dataSource, endpoint);
+            pendingLocations.put(endpoint.getUrl(), dataSource.countAfter(cursor));
+        }
+
+        return new BacklogStatus(dataSource.getStats(), pendingLocations);
+    }
+
+    private synchronized AsyncLocationReader getReader() {
+        if (reader == null) {
+            reader = new AsyncLocationReader(new AsyncLocationReader.Opener() {
+                @Override
+                public LocationDataSource open() {
+                    return LocationStores.openReadOnly(context, configuration);
+                }
+            });
+        }
+        return reader;
+    }
+
     private void onFetchAdvertisingInfo(AdvertisingIdClient.Info info) {
         Intent intent = new Intent(context, LocationService.class);
 
@@ -699,6 +1052,9 @@ public class OpenLocate implements OpenLocateLocationTracker {
             e.printStackTrace();
         }
 
+        SharedPreferenceUtils preferences = SharedPreferenceUtils.getInstance(configuration.context);
+        preferences.setValue(Constants.LOCATION_STORAGE_KEY, configuration.getLocationStorage().name());
+        StorageQuota.from(configuration).save(preferences);
     }
 
     private void validateLocationEnabled() throws LocationDisabledException {
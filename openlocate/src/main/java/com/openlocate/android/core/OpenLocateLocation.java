@@ -60,8 +60,9 @@ public final class OpenLocateLocation implements JsonObjectType {
         static final String WIFI_BSSID = "wifi_bssid";
     }
 
-    private static final String ADVERTISING_ID_TYPE = "aaid";
+    static final String ADVERTISING_ID_TYPE = "aaid";
 
+    private long id;
     private Date created;
     private LocationInfo location;
     private AdvertisingIdClient.Info advertisingInfo;
@@ -71,6 +72,17 @@ public final class OpenLocateLocation implements JsonObjectType {
         return created;
     }
 
+    /**
+     * Row id assigned by the store the location was read from, or zero if it was never stored.
+     */
+    long getId() {
+        return id;
+    }
+
+    void setId(long id) {
+        this.id = id;
+    }
+
     public LocationInfo getLocation() {
         return location;
     }
@@ -87,6 +99,10 @@ public final class OpenLocateLocation implements JsonObjectType {
         this.advertisingInfo = advertisingInfo;
     }
 
+    InformationFields getInformationFields() {
+        return informationFields;
+    }
+
     public static OpenLocateLocation from(Location location,
                                           AdvertisingIdClient.Info advertisingInfo, InformationFields informationFields) {
         return new OpenLocateLocation(location, advertisingInfo, informationFields);
@@ -101,78 +117,33 @@ public final class OpenLocateLocation implements JsonObjectType {
         this.created = new Date();
     }
 
+    OpenLocateLocation(Date created,
+                       double latitude, double longitude, float horizontalAccuracy,
+                       long timeStampSecs, float speed, float course, double altitude,
+                       AdvertisingIdClient.Info advertisingInfo, InformationFields informationFields) {
+        this.created = created;
+        this.location = new LocationInfo();
+        this.location.setLatitude(latitude);
+        this.location.setLongitude(longitude);
+        this.location.setHorizontalAccuracy(horizontalAccuracy);
+        this.location.setTimeStampSecs(timeStampSecs);
+        this.location.setSpeed(speed);
+        this.location.setCourse(course);
+        this.location.setAltitude(altitude);
+        this.advertisingInfo = advertisingInfo;
+        this.informationFields = informationFields;
+    }
+
     OpenLocateLocation(Date created, String jsonString) {
         this.created = created;
         try {
-            JSONObject json = new JSONObject(jsonString);
+            LocationJsonReader reader = new LocationJsonReader(jsonString);
+            reader.read();
 
             location = new LocationInfo();
-            location.setLatitude(json.getDouble(Keys.LATITUDE));
-            location.setLongitude(json.getDouble(Keys.LONGITUDE));
-            location.setHorizontalAccuracy(Float.parseFloat(json.getString(Keys.HORIZONTAL_ACCURACY)));
-            location.setTimeStampSecs(json.getLong(Keys.TIMESTAMP));
-            location.setAltitude(json.getDouble(Keys.ALTITUDE));
-            location.setCourse(Float.parseFloat(json.getString(Keys.COURSE)));
-            location.setSpeed(Float.parseFloat(json.getString(Keys.SPEED)));
-
-            String deviceManufacturer = "";
-            if (json.has(Keys.DEVICE_MANUFACTURER)) {
-                deviceManufacturer = json.getString(Keys.DEVICE_MANUFACTURER);
-            }
-
-
-            String deviceModel = "";
-            if (json.has(Keys.DEVICE_MODEL)) {
-                deviceModel = json.getString(Keys.DEVICE_MODEL);
-            }
-
-            String chargingState = "";
-            if (json.has(Keys.IS_CHARGING)) {
-                chargingState = json.getString(Keys.IS_CHARGING);
-            }
-
-            String operatingSystem = "";
-            if (json.has(Keys.OPERATING_SYSTEM)) {
-                operatingSystem = json.getString(Keys.OPERATING_SYSTEM);
-            }
-
-            String carrierName = "";
-            if (json.has(Keys.CARRIER_NAME)) {
-                carrierName = json.getString(Keys.CARRIER_NAME);
-            }
-
-            String wifiSSID = "";
-            if (json.has(Keys.WIFI_SSID)) {
-                wifiSSID = json.getString(Keys.WIFI_SSID);
-            }
-
-            String wifiBSSID = "";
-            if (json.has(Keys.WIFI_BSSID)) {
-                wifiBSSID = json.getString(Keys.WIFI_BSSID);
-            }
-
-            String connectionType = "";
-            if (json.has(Keys.CONNECTION_TYPE)) {
-                connectionType = json.getString(Keys.CONNECTION_TYPE);
-            }
-
-            String locationMethod = "";
-            if (json.has(Keys.LOCATION_METHOD)) {
-                locationMethod = json.getString(Keys.LOCATION_METHOD);
-            }
-
-            String locationContext = "";
-            if (json.has(Keys.LOCATION_CONTEXT)) {
-                locationContext = json.getString(Keys.LOCATION_CONTEXT);
-            }
-
-            informationFields = InformationFieldsFactory.getInformationFields(deviceManufacturer, deviceModel, chargingState, operatingSystem, carrierName, wifiSSID, wifiBSSID, connectionType, locationMethod, locationContext);
-
-            advertisingInfo = new AdvertisingIdClient.Info(
-                    json.getString(Keys.AD_ID),
-                    json.getBoolean(Keys.AD_OPT_OUT)
-            );
-
+            reader.readLocationInfo(location);
+            informationFields = reader.getInformationFields();
+            advertisingInfo = reader.getAdvertisingInfo();
         } catch (JSONException exception) {
             exception.printStackTrace();
         }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+/**
+ * How locations are encoded when they are posted to an endpoint. Either way the body holds the
+ * same fields, with the same names.
+ */
+public enum PayloadFormat {
+    /**
+     * A JSON object, as sent by earlier versions.
+     */
+    JSON("application/json; charset=UTF-8"),
+
+    /**
+     * CBOR (RFC 7049). The body is a map with the field names in an array under {@code "keys"}
+     * and the locations in an array under {@code "locations"}. Each location is a map from the
+     * index of a field name to its value, so names are not repeated for every location. Numbers
+     * are sent as numbers: coordinates and altitude as 64-bit floats, accuracy, speed and course
+     * as 32-bit floats. Bodies are about a third of the size of JSON and need no text parsing.
+     */
+    CBOR("application/cbor");
+
+    private final String contentType;
+
+    PayloadFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+}
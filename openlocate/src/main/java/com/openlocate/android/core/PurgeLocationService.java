@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteFullException;
+import android.util.Log;
+
+import com.google.android.gms.gcm.GcmNetworkManager;
+import com.google.android.gms.gcm.GcmTaskService;
+import com.google.android.gms.gcm.TaskParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Purges expired locations on a schedule of its own, so a large purge never delays sending.
+ */
+final public class PurgeLocationService extends GcmTaskService {
+
+    private final static String TAG = PurgeLocationService.class.getSimpleName();
+
+    // GcmNetworkManager stops waiting for a task after three minutes.
+    static final long PURGE_TIME_BUDGET = TimeUnit.MINUTES.toMillis(2);
+
+    @Override
+    public int onRunTask(TaskParams taskParams) {
+        return purgeLocations(this, RetentionPolicy.from(taskParams.getExtras()));
+    }
+
+    public static int purgeLocations(Context context, RetentionPolicy policy) {
+        LocationDataSource dataSource = LocationStores.open(context);
+
+        try {
+            long now = System.currentTimeMillis();
+            new LocationPurger().purgeExpired(dataSource, policy, now, now + PURGE_TIME_BUDGET);
+
+            LocationStorage storage = LocationStores.getStorage(context);
+            if (storage == LocationStorage.DATABASE || storage == LocationStorage.COMPRESSED_DATABASE) {
+                // Purged and delivered locations leave their device contexts behind.
+                SQLiteDatabase database = DatabaseHelper.getInstance(context).getWritableDatabase();
+                DeviceContextTable.deleteUnreferenced(database);
+                if (policy.isIncrementalVacuumEnabled()) {
+                    DatabaseHelper.vacuum(database);
+                }
+            }
+        } catch (SQLiteFullException exception) {
+            Log.w(TAG, "Database is full. Cannot purge data.");
+        } finally {
+            dataSource.close();
+        }
+
+        return GcmNetworkManager.RESULT_SUCCESS;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long stored locations are kept, sent or not, and how the maintenance job purges the
+ * ones that have expired. The job deletes them in chunks, each in a transaction of its own, and
+ * pauses between chunks so locations being stored are not held up behind a long purge.
+ */
+public final class RetentionPolicy implements Parcelable {
+
+    static final long DEFAULT_PERIOD_IN_HOURS = TimeUnit.DAYS.toHours(10);
+    static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private static final String PERIOD_KEY = "retention_period";
+    private static final String CHUNK_SIZE_KEY = "retention_chunk_size";
+    private static final String INCREMENTAL_VACUUM_KEY = "retention_incremental_vacuum";
+
+    private final long periodInMillis;
+    private final int chunkSize;
+    private final boolean incrementalVacuum;
+
+    private RetentionPolicy(long periodInMillis, int chunkSize, boolean incrementalVacuum) {
+        this.periodInMillis = periodInMillis;
+        this.chunkSize = chunkSize;
+        this.incrementalVacuum = incrementalVacuum;
+    }
+
+    /**
+     * Keeps locations for ten days, purged 500 at a time.
+     */
+    public static RetentionPolicy standard() {
+        return keepFor(DEFAULT_PERIOD_IN_HOURS);
+    }
+
+    /**
+     * Keeps locations for the given number of hours after they were collected.
+     */
+    public static RetentionPolicy keepFor(long periodInHours) {
+        if (periodInHours <= 0) {
+            throw new IllegalArgumentException("Retention period must be positive.");
+        }
+
+        return new RetentionPolicy(TimeUnit.HOURS.toMillis(periodInHours), DEFAULT_CHUNK_SIZE, false);
+    }
+
+    /**
+     * Returns a copy of the policy that purges at most the given number of locations per chunk.
+     */
+    public RetentionPolicy withChunkSize(int locations) {
+        if (locations <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        }
+
+        return new RetentionPolicy(periodInMillis, locations, incrementalVacuum);
+    }
+
+    /**
+     * Returns a copy of the policy that gives the pages freed by a purge back to the file system.
+     * The first run on a database created by an earlier version rebuilds it once to allow this.
+     */
+    public RetentionPolicy withIncrementalVacuum() {
+        return new RetentionPolicy(periodInMillis, chunkSize, true);
+    }
+
+    long getPeriodInMillis() {
+        return periodInMillis;
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    boolean isIncrementalVacuumEnabled() {
+        return incrementalVacuum;
+    }
+
+    /**
+     * Writes the policy to the extras of a persisted task, which only hold plain values.
+     */
+    void writeTo(Bundle extras) {
+        extras.putLong(PERIOD_KEY, periodInMillis);
+        extras.putInt(CHUNK_SIZE_KEY, chunkSize);
+        extras.putBoolean(INCREMENTAL_VACUUM_KEY, incrementalVacuum);
+    }
+
+    /**
+     * Reads the policy written by {@link #writeTo(Bundle)}, or the standard one if there is none.
+     */
+    static RetentionPolicy from(Bundle extras) {
+        if (extras == null || extras.getLong(PERIOD_KEY, 0) <= 0) {
+            return standard();
+        }
+
+        return new RetentionPolicy(extras.getLong(PERIOD_KEY, 0),
+                Math.max(1, extras.getInt(CHUNK_SIZE_KEY, DEFAULT_CHUNK_SIZE)),
+                extras.getBoolean(INCREMENTAL_VACUUM_KEY, false));
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(this.periodInMillis);
+        dest.writeInt(this.chunkSize);
+        dest.writeByte(this.incrementalVacuum ? (byte) 1 : (byte) 0);
+    }
+
+    protected RetentionPolicy(Parcel in) {
+        this.periodInMillis = in.readLong();
+        this.chunkSize = in.readInt();
+        this.incrementalVacuum = in.readByte() != 0;
+    }
+
+    public static final Creator<RetentionPolicy> CREATOR = new Creator<RetentionPolicy>() {
+        @Override
+        public RetentionPolicy createFromParcel(Parcel source) {
+            return new RetentionPolicy(source);
+        }
+
+        @Override
+        public RetentionPolicy[] newArray(int size) {
+            return new RetentionPolicy[size];
+        }
+    };
+}
@@ -0,0 +1,904 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Location store made of fixed-size, memory-mapped, append-only segment files. Each record is
+ * framed by its length and the CRC32 of its payload, so a record torn by a crash is detected and
+ * cut off the next time the log is opened.
+ *
+ * <p>Records are numbered in the order they were appended and read back in that order, and a
+ * cursor is the number of the last record it passed. Purging by time walks the creation times from
+ * the head and stops at the first newer record. Creation times go backwards when locations queued
+ * while the log could not be written are appended later, by {@link SpillingLocationDataSource};
+ * older records behind a newer one are then kept until it expires as well, so a purge never
+ * removes a record newer than its cutoff. Deleting only moves the head of the log forward. Segments are removed from disk once every record in them is
+ * behind the head.
+ *
+ * <p>The log is meant to be written by a single process. Use {@link #getInstance(Context)} so
+ * everything in that process shares one instance; closing it only writes it to disk. Other processes open it with
+ * {@link #openReadOnly(Context)}, which leaves the files as they are: a torn or half-written
+ * record only ends what that instance reads, and segments behind the head are not deleted.
+ */
+final class SegmentLog implements LocationDataSource {
+
+    private static final String TAG = SegmentLog.class.getSimpleName();
+
+    static final String DIRECTORY_NAME = "openlocate_segments";
+    static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String META_FILE_NAME = "segments.meta";
+    private static final String META_HEAD = "head";
+    private static final String META_CURSOR_PREFIX = "cursor.";
+
+    // Payload length followed by the CRC32 of the payload.
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 4096;
+
+    private static SegmentLog instance;
+
+    static synchronized SegmentLog getInstance(Context context) {
+        if (instance == null) {
+            instance = new SegmentLog(new File(context.getFilesDir(), DIRECTORY_NAME), DEFAULT_SEGMENT_SIZE);
+            instance.shared = true;
+        }
+        return instance;
+    }
+
+    /**
+     * Opens the log for reading from a process other than the one writing it. Every call returns
+     * a new instance holding the records that were complete when it was first read.
+     */
+    static SegmentLog openReadOnly(Context context) {
+        return new SegmentLog(new File(context.getFilesDir(), DIRECTORY_NAME), DEFAULT_SEGMENT_SIZE, true);
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final boolean readOnly;
+    private boolean shared;
+
+    private final byte[] scratch = new byte[MAX_RECORD_SIZE];
+    private final ByteBuffer record = ByteBuffer.wrap(scratch);
+    private final CRC32 crc = new CRC32();
+
+    private boolean opened;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, DispatchCursor> cursors = new HashMap<>();
+    private long head;
+    private long nextId = 1;
+    private long newestCreatedAt;
+
+    // Creation time of the first live record, read again only once the head moves past it.
+    private long oldestId = -1;
+    private long oldestCreatedAt;
+
+    SegmentLog(File directory, int segmentSize) {
+        this(directory, segmentSize, false);
+    }
+
+    SegmentLog(File directory, int segmentSize, boolean readOnly) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * @throws UnwritableStoreException if the log cannot be written, with the locations that were
+     * not appended.
+     */
+    @Override
+    public synchronized void addAll(List<OpenLocateLocation> locationList) {
+        checkWritable();
+        int appended = 0;
+        try {
+            ensureOpen();
+            for (OpenLocateLocation location : locationList) {
+                append(location);
+                appended++;
+            }
+        } catch (IOException e) {
+            throw new UnwritableStoreException("Could not append locations: " + e.getMessage(),
+                    locationList.subList(appended, locationList.size()));
+        } finally {
+            force();
+        }
+    }
+
+    @Override
+    public synchronized void add(OpenLocateLocation location) {
+        addAll(Arrays.asList(location));
+    }
+
+    @Override
+    public synchronized List<OpenLocateLocation> getSince(long millisecondsSince1970) {
+        LocationIterator iterator;
+        try {
+            ensureOpen();
+            iterator = iterate(findFirstCreatedAfter(millisecondsSince1970), millisecondsSince1970,
+                    LocationTable.QUERY_LIMIT);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read location log: " + e.getMessage());
+            return null;
+        }
+
+        List<OpenLocateLocation> locations = null;
+        try {
+            while (iterator.hasNext()) {
+                if (locations == null) {
+                    locations = new ArrayList<>();
+                }
+                locations.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+
+        return locations;
+    }
+
+    @Override
+    public synchronized LocationIterator iterateAfter(DispatchCursor cursor, int limit) {
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open location log: " + e.getMessage());
+            return LocationIterator.EMPTY;
+        }
+
+        return iterate(findFirstAfter(cursor), Long.MIN_VALUE, limit);
+    }
+
+    /**
+     * Iterates over the records from the given id on that were created after the given time.
+     */
+    private LocationIterator iterate(long firstId, long createdAfter, int limit) {
+        if (segments.isEmpty()) {
+            return LocationIterator.EMPTY;
+        }
+
+        List<SegmentSnapshot> snapshots = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            snapshots.add(new SegmentSnapshot(segment));
+        }
+
+        return new SegmentIterator(snapshots, Math.max(head, firstId), createdAfter, limit);
+    }
+
+    /**
+     * The log has no spatial index, so this reads every record after the query's start.
+     */
+    @Override
+    public LocationIterator query(LocationQuery query) {
+        return query.filter(iterateAfter(query.getAfter(), 0));
+    }
+
+    /**
+     * Deletes the records from the head up to the first one created after the given time.
+     */
+    @Override
+    public synchronized int deleteBefore(long millisecondsSince1970, int limit) {
+        checkWritable();
+        try {
+            ensureOpen();
+            if (segments.isEmpty()) {
+                return 0;
+            }
+
+            long first = Math.max(head, segments.get(0).firstId);
+            long id = findFirstCreatedAfter(millisecondsSince1970);
+            if (limit > 0) {
+                id = Math.min(id, first + limit);
+            }
+            if (id <= first) {
+                return 0;
+            }
+
+            moveHead(id);
+            return (int) (id - first);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not purge location log: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    @Override
+    public synchronized long size() {
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open location log: " + e.getMessage());
+            return 0;
+        }
+
+        if (segments.isEmpty()) {
+            return 0;
+        }
+
+        return nextId - Math.max(head, segments.get(0).firstId);
+    }
+
+    @Override
+    public synchronized LocationStats getStats() {
+        long count = size();
+        if (count == 0) {
+            return LocationStats.EMPTY;
+        }
+
+        // Records before the head still occupy the first segment, so the live share of the
+        // segment bytes is an estimate.
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.end;
+        }
+        long records = nextId - segments.get(0).firstId;
+
+        try {
+            return new LocationStats(count, bytes * count / records, getOldestCreatedAt(), newestCreatedAt);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read location log: " + e.getMessage());
+            return new LocationStats(count, bytes * count / records, 0, newestCreatedAt);
+        }
+    }
+
+    @Override
+    public synchronized long countAfter(DispatchCursor cursor) {
+        long count = size();
+        if (count == 0) {
+            return 0;
+        }
+
+        return nextId - Math.max(nextId - count, findFirstAfter(cursor));
+    }
+
+    @Override
+    public synchronized DispatchCursor getCursor(String endpoint) {
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open location log: " + e.getMessage());
+            return null;
+        }
+
+        return cursors.get(endpoint);
+    }
+
+    @Override
+    public synchronized void advanceCursor(String endpoint, DispatchCursor cursor, Collection<String> endpoints) {
+        checkWritable();
+        try {
+            ensureOpen();
+            cursors.put(endpoint, cursor);
+
+            DispatchCursor delivered = null;
+            for (String key : endpoints) {
+                DispatchCursor other = cursors.get(key);
+                if (other == null) {
+                    delivered = null;
+                    break;
+                }
+                if (delivered == null || other.compareTo(delivered) < 0) {
+                    delivered = other;
+                }
+            }
+
+            // The cursors and the head are written to the same file, so they move together.
+            moveHead(delivered != null ? findFirstAfter(delivered) : head);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not store dispatch cursor: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the shared instance to disk but keeps it open, so the next user of the process does
+     * not have to map and check every segment again. Other instances are released.
+     */
+    @Override
+    public synchronized void close() {
+        if (!opened) {
+            return;
+        }
+
+        if (!readOnly) {
+            force();
+        }
+        if (!shared) {
+            release();
+        }
+    }
+
+    private void release() {
+        for (Segment segment : segments) {
+            segment.release();
+        }
+
+        segments.clear();
+        cursors.clear();
+        newestCreatedAt = 0;
+        oldestId = -1;
+        opened = false;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("The location log was opened read-only.");
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (opened) {
+            return;
+        }
+
+        if (readOnly && !directory.isDirectory()) {
+            opened = true;
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        loadMeta();
+        try {
+            openSegments();
+        } catch (IOException e) {
+            release();
+            throw e;
+        }
+
+        if (!segments.isEmpty()) {
+            nextId = segments.get(segments.size() - 1).getNextId();
+        }
+        nextId = Math.max(nextId, head);
+
+        opened = true;
+        if (!readOnly) {
+            deleteDelivered();
+        }
+    }
+
+    private void openSegments() throws IOException {
+        File[] files = directory.listFiles();
+        List<Long> ids = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        ids.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        Log.w(TAG, "Ignoring unexpected file " + name);
+                    }
+                }
+            }
+        }
+        Collections.sort(ids);
+
+        for (int i = 0; i < ids.size(); i++) {
+            if (readOnly) {
+                Segment segment = load(getSegmentFile(ids.get(i)), ids.get(i));
+                if (segment != null) {
+                    segments.add(segment);
+                }
+                continue;
+            }
+
+            Segment segment = recover(getSegmentFile(ids.get(i)), ids.get(i));
+            if (i < ids.size() - 1) {
+                segment.release();
+            }
+            segments.add(segment);
+        }
+    }
+
+    /**
+     * Maps the segment and counts its records. Anything after the last intact record is zeroed,
+     * so a record torn by a crash is dropped and later appends start on a clean slate.
+     */
+    private Segment recover(File file, long firstId) throws IOException {
+        Segment segment = new Segment(file, firstId);
+        segment.map(segmentSize);
+
+        MappedByteBuffer buffer = segment.buffer;
+        int capacity = buffer.capacity();
+        int position = scan(segment);
+
+        if (position + HEADER_SIZE <= capacity && (buffer.getInt(position) != 0 || buffer.getInt(position + 4) != 0)) {
+            Log.w(TAG, "Truncating torn record in " + file.getName());
+            for (int i = position; i < capacity; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+
+        return segment;
+    }
+
+    /**
+     * Maps the segment without writing to it and counts the records that are complete. Returns
+     * null if the writer deleted the segment in the meantime.
+     */
+    private Segment load(File file, long firstId) throws IOException {
+        Segment segment = new Segment(file, firstId);
+        try {
+            segment.mapReadOnly();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+
+        scan(segment);
+        return segment;
+    }
+
+    /**
+     * Counts the intact records at the start of the mapped segment and returns where they end.
+     */
+    private int scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int capacity = buffer.capacity();
+        int position = 0;
+
+        while (position + HEADER_SIZE <= capacity) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > capacity) {
+                break;
+            }
+
+            buffer.position(position + HEADER_SIZE);
+            buffer.get(scratch, 0, length);
+            crc.reset();
+            crc.update(scratch, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+
+            newestCreatedAt = Math.max(newestCreatedAt, LocationRecordCodec.getCreatedAt(buffer, position + HEADER_SIZE));
+            position += HEADER_SIZE + length;
+            segment.count++;
+        }
+
+        segment.end = position;
+        return position;
+    }
+
+    private void append(OpenLocateLocation location) throws IOException {
+        record.clear();
+        try {
+            LocationRecordCodec.encode(location, record);
+        } catch (BufferOverflowException e) {
+            Log.w(TAG, "Location is too large to be stored.");
+            return;
+        }
+
+        int length = record.position();
+        if (HEADER_SIZE + length > segmentSize) {
+            Log.w(TAG, "Location is too large to be stored.");
+            return;
+        }
+
+        crc.reset();
+        crc.update(scratch, 0, length);
+
+        Segment tail = getWritableTail(HEADER_SIZE + length);
+        MappedByteBuffer buffer = tail.buffer;
+        int offset = tail.end;
+
+        buffer.position(offset + HEADER_SIZE);
+        buffer.put(scratch, 0, length);
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        // The length goes last, a record without it is never read.
+        buffer.putInt(offset, length);
+
+        tail.end += HEADER_SIZE + length;
+        tail.count++;
+        newestCreatedAt = Math.max(newestCreatedAt, location.getCreated().getTime());
+        location.setId(nextId++);
+    }
+
+    private Segment getWritableTail(int size) throws IOException {
+        Segment tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (tail != null && tail.end + size <= tail.buffer.capacity()) {
+            return tail;
+        }
+
+        // The old tail is only let go once the new one is mapped, so a failure leaves it as it was.
+        Segment segment = new Segment(getSegmentFile(nextId), nextId);
+        segment.map(segmentSize);
+
+        if (tail != null) {
+            tail.buffer.force();
+            tail.release();
+        }
+        segments.add(segment);
+        return segment;
+    }
+
+    private void force() {
+        if (!segments.isEmpty()) {
+            Segment tail = segments.get(segments.size() - 1);
+            if (tail.buffer != null) {
+                tail.buffer.force();
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the first record after the cursor.
+     */
+    private long findFirstAfter(DispatchCursor cursor) {
+        return Math.min(cursor.getId() + 1, nextId);
+    }
+
+    /**
+     * Returns the id of the first record created after the given time, walking the creation
+     * times from the head.
+     */
+    private long findFirstCreatedAfter(long millisecondsSince1970) throws IOException {
+        long id = head;
+        for (Segment segment : segments) {
+            if (segment.getNextId() <= id) {
+                continue;
+            }
+
+            ByteBuffer buffer = segment.read();
+            int position = 0;
+            for (long recordId = segment.firstId; recordId < segment.getNextId(); recordId++) {
+                int length = buffer.getInt(position);
+                if (recordId >= id) {
+                    if (LocationRecordCodec.getCreatedAt(buffer, position + HEADER_SIZE) > millisecondsSince1970) {
+                        return recordId;
+                    }
+                    id = recordId + 1;
+                }
+                position += HEADER_SIZE + length;
+            }
+        }
+
+        return nextId;
+    }
+
+    private long getOldestCreatedAt() throws IOException {
+        long id = Math.max(head, segments.get(0).firstId);
+        if (id == oldestId) {
+            return oldestCreatedAt;
+        }
+
+        for (Segment segment : segments) {
+            if (segment.getNextId() <= id) {
+                continue;
+            }
+
+            ByteBuffer buffer = segment.read();
+            int position = 0;
+            for (long recordId = segment.firstId; recordId < id; recordId++) {
+                position += HEADER_SIZE + buffer.getInt(position);
+            }
+
+            oldestId = id;
+            oldestCreatedAt = LocationRecordCodec.getCreatedAt(buffer, position + HEADER_SIZE);
+            break;
+        }
+
+        return oldestCreatedAt;
+    }
+
+    private void moveHead(long id) throws IOException {
+        head = Math.max(head, id);
+        saveMeta();
+        deleteDelivered();
+    }
+
+    private void deleteDelivered() {
+        while (segments.size() > 1 && segments.get(0).getNextId() <= head) {
+            Segment segment = segments.remove(0);
+            segment.release();
+            if (!segment.file.delete()) {
+                Log.w(TAG, "Could not delete " + segment.file.getName());
+            }
+        }
+    }
+
+    private File getSegmentFile(long firstId) {
+        return new File(directory, String.format(Locale.US, "%019d", firstId) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Reads the head and the cursors.
+     */
+    private void loadMeta() throws IOException {
+        head = 0;
+        cursors.clear();
+
+        File file = new File(directory, META_FILE_NAME);
+        if (!file.exists()) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+
+        for (String name : properties.stringPropertyNames()) {
+            String value = properties.getProperty(name);
+            try {
+                if (name.equals(META_HEAD)) {
+                    head = Long.parseLong(value);
+                } else if (name.startsWith(META_CURSOR_PREFIX)) {
+                    cursors.put(name.substring(META_CURSOR_PREFIX.length()), new DispatchCursor(Long.parseLong(value)));
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Ignoring malformed entry " + name);
+            }
+        }
+    }
+
+    /**
+     * Replaces the metadata file through a rename, so a crash leaves either the old or the new
+     * version.
+     */
+    private void saveMeta() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(META_HEAD, String.valueOf(head));
+        for (Map.Entry<String, DispatchCursor> entry : cursors.entrySet()) {
+            DispatchCursor cursor = entry.getValue();
+            properties.setProperty(META_CURSOR_PREFIX + entry.getKey(), String.valueOf(cursor.getId()));
+        }
+
+        File file = new File(directory, META_FILE_NAME);
+        File temporary = new File(directory, META_FILE_NAME + ".tmp");
+
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            properties.store(out, null);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    private static final class Segment {
+        final File file;
+        final long firstId;
+        int end;
+        int count;
+
+        // Only the tail stays mapped for writing.
+        MappedByteBuffer buffer;
+        private RandomAccessFile randomAccessFile;
+
+        Segment(File file, long firstId) {
+            this.file = file;
+            this.firstId = firstId;
+        }
+
+        long getNextId() {
+            return firstId + count;
+        }
+
+        void map(int size) throws IOException {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            if (randomAccessFile.length() < size) {
+                randomAccessFile.setLength(size);
+            }
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length());
+        }
+
+        // The mapping outlives the file, so the segment can still be read once the writer
+        // deletes it.
+        void mapReadOnly() throws IOException {
+            RandomAccessFile file = new RandomAccessFile(this.file, "r");
+            try {
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            } finally {
+                file.close();
+            }
+        }
+
+        ByteBuffer read() throws IOException {
+            if (buffer != null) {
+                return buffer.duplicate();
+            }
+
+            RandomAccessFile file = new RandomAccessFile(this.file, "r");
+            try {
+                return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            } finally {
+                file.close();
+            }
+        }
+
+        void release() {
+            buffer = null;
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not close " + file.getName());
+                }
+                randomAccessFile = null;
+            }
+        }
+    }
+
+    /**
+     * What an iterator needs from a segment, captured when the iterator is created so records
+     * appended afterwards are not read half-written.
+     */
+    private static final class SegmentSnapshot {
+        final Segment segment;
+        final long firstId;
+        final long nextId;
+        final ByteBuffer buffer;
+
+        SegmentSnapshot(Segment segment) {
+            this.segment = segment;
+            this.firstId = segment.firstId;
+            this.nextId = segment.getNextId();
+            this.buffer = segment.buffer != null ? segment.buffer.duplicate() : null;
+        }
+
+        ByteBuffer read() throws IOException {
+            return buffer != null ? buffer : segment.read();
+        }
+    }
+
+    /**
+     * Reads records straight out of the mapped segments, one segment at a time.
+     */
+    private static final class SegmentIterator implements LocationIterator {
+        private final List<SegmentSnapshot> snapshots;
+        private final long createdAfter;
+        private final int limit;
+        private final byte[] scratch = new byte[MAX_RECORD_SIZE];
+
+        private int segmentIndex = -1;
+        private ByteBuffer buffer;
+        private long recordId;
+        private long segmentEnd;
+        private int position;
+        private long nextWanted;
+        private int returned;
+
+        private OpenLocateLocation next;
+
+        SegmentIterator(List<SegmentSnapshot> snapshots, long firstId, long createdAfter, int limit) {
+            this.snapshots = snapshots;
+            this.createdAfter = createdAfter;
+            this.limit = limit;
+            this.nextWanted = firstId;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && (limit <= 0 || returned < limit)) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public OpenLocateLocation next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            OpenLocateLocation location = next;
+            next = null;
+            returned++;
+            return location;
+        }
+
+        @Override
+        public void close() {
+            buffer = null;
+            segmentIndex = snapshots.size();
+        }
+
+        private OpenLocateLocation advance() {
+            while (true) {
+                if (buffer == null || recordId >= segmentEnd) {
+                    if (!openNextSegment()) {
+                        return null;
+                    }
+                    continue;
+                }
+
+                int length = buffer.getInt(position);
+                long id = recordId;
+                int offset = position + HEADER_SIZE;
+
+                recordId++;
+                position = offset + length;
+
+                if (id < nextWanted) {
+                    continue;
+                }
+
+                if (createdAfter != Long.MIN_VALUE && LocationRecordCodec.getCreatedAt(buffer, offset) <= createdAfter) {
+                    continue;
+                }
+
+                buffer.position(offset);
+                OpenLocateLocation location = LocationRecordCodec.decode(buffer, scratch);
+                location.setId(id);
+                return location;
+            }
+        }
+
+        private boolean openNextSegment() {
+            buffer = null;
+            while (++segmentIndex < snapshots.size()) {
+                SegmentSnapshot snapshot = snapshots.get(segmentIndex);
+                if (snapshot.nextId <= nextWanted) {
+                    continue;
+                }
+
+                try {
+                    buffer = snapshot.read();
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not read location log: " + e.getMessage());
+                    return false;
+                }
+
+                recordId = snapshot.firstId;
+                segmentEnd = snapshot.nextId;
+                position = 0;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.database.sqlite.SQLiteCantOpenDatabaseException;
+import android.database.sqlite.SQLiteDiskIOException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteFullException;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps collection going while the store cannot take writes. Locations the database rejects
+ * because it is full or cannot be written, and those the segment log fails to append, are put in
+ * a {@link LocationSpillQueue}, and are written back in one batch, ahead of newer locations, once
+ * the store takes writes again:
+ * on the next write, or right after locations are purged or delivered. Until then new locations
+ * join the queue. While the queue is empty, writes go straight to the database.
+ *
+ * <p>Every store of the process shares one queue, so the services that send and purge locations
+ * write it back as well. They synchronize on the queue, so it is written back once. The queue
+ * stays open when a store is closed.
+ *
+ * <p>A crash between writing the queue back and clearing it stores its locations twice.
+ */
+final class SpillingLocationDataSource implements LocationDataSource {
+
+    private static final String TAG = SpillingLocationDataSource.class.getSimpleName();
+
+    private final LocationDataSource delegate;
+    private final LocationSpillQueue spill;
+
+    SpillingLocationDataSource(LocationDataSource delegate, LocationSpillQueue spill) {
+        this.delegate = delegate;
+        this.spill = spill;
+
+        try {
+            spill.open();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open spill queue: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void addAll(List<OpenLocateLocation> locationList) {
+        synchronized (spill) {
+            if (!spill.isEmpty() && !replay()) {
+                spill.offerAll(locationList);
+                return;
+            }
+
+            try {
+                delegate.addAll(locationList);
+            } catch (SQLiteException exception) {
+                if (!isUnwritable(exception)) {
+                    throw exception;
+                }
+                Log.w(TAG, "Database cannot be written. Queuing " + locationList.size() + " locations.");
+                spill.offerAll(locationList);
+            } catch (UnwritableStoreException exception) {
+                Log.w(TAG, exception.getMessage() + ". Queuing " + exception.getUnwritten().size() + " locations.");
+                spill.offerAll(exception.getUnwritten());
+            }
+        }
+    }
+
+    @Override
+    public void add(OpenLocateLocation location) {
+        if (location != null) {
+            addAll(Collections.singletonList(location));
+        }
+    }
+
+    /**
+     * Writes the queued locations to the database.
+     *
+     * @return whether the queue is empty afterwards.
+     */
+    boolean replay() {
+        synchronized (spill) {
+            if (spill.isEmpty()) {
+                return true;
+            }
+
+            List<OpenLocateLocation> pending = spill.getAll();
+            try {
+                delegate.addAll(pending);
+            } catch (SQLiteException exception) {
+                if (!isUnwritable(exception)) {
+                    throw exception;
+                }
+                return false;
+            } catch (UnwritableStoreException exception) {
+                // What the store took is not written back again.
+                spill.clear();
+                spill.offerAll(exception.getUnwritten());
+                return false;
+            }
+
+            spill.clear();
+            Log.i(TAG, "Stored " + pending.size() + " queued locations.");
+            return true;
+        }
+    }
+
+    private static boolean isUnwritable(SQLiteException exception) {
+        return exception instanceof SQLiteFullException
+                || exception instanceof SQLiteDiskIOException
+                || exception instanceof SQLiteCantOpenDatabaseException;
+    }
+
+    int getSpilledCount() {
+        synchronized (spill) {
+            return spill.size();
+        }
+    }
+
+    @Override
+    public List<OpenLocateLocation> getSince(long millisecondsSince1970) {
+        return delegate.getSince(millisecondsSince1970);
+    }
+
+    @Override
+    public LocationIterator iterateAfter(DispatchCursor cursor, int limit) {
+        return delegate.iterateAfter(cursor, limit);
+    }
+
+    @Override
+    public LocationIterator query(LocationQuery query) {
+        return delegate.query(query);
+    }
+
+    @Override
+    public int deleteBefore(long millisecondsSince1970, int limit) {
+        int deleted = delegate.deleteBefore(millisecondsSince1970, limit);
+        if (deleted > 0) {
+            replay();
+        }
+        return deleted;
+    }
+
+    @Override
+    public long size() {
+        synchronized (spill) {
+            return delegate.size() + spill.size();
+        }
+    }
+
+    @Override
+    public LocationStats getStats() {
+        return delegate.getStats();
+    }
+
+    @Override
+    public long countAfter(DispatchCursor cursor) {
+        return delegate.countAfter(cursor);
+    }
+
+    @Override
+    public DispatchCursor getCursor(String endpoint) {
+        return delegate.getCursor(endpoint);
+    }
+
+    @Override
+    public void advanceCursor(String endpoint, DispatchCursor cursor, Collection<String> endpoints) {
+        delegate.advanceCursor(endpoint, cursor, endpoints);
+        replay();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Row and byte limits on the location store. Limits are enforced a few rows at a time after each
+ * insert rather than by one large delete, so a device that stays offline keeps collecting and
+ * its oldest data degrades according to the eviction policy.
+ */
+final class StorageQuota {
+
+    static final StorageQuota UNLIMITED = new StorageQuota(0, 0, EvictionPolicy.dropOldest());
+
+    // Each insert may evict a few more rows than it added, so an exceeded quota converges.
+    private static final int MIN_EVICTION_STEP = 16;
+
+    private final long maxLocations;
+    private final long maxBytes;
+    private final EvictionPolicy policy;
+
+    StorageQuota(long maxLocations, long maxBytes, EvictionPolicy policy) {
+        this.maxLocations = maxLocations;
+        this.maxBytes = maxBytes;
+        this.policy = policy != null ? policy : EvictionPolicy.dropOldest();
+    }
+
+    static StorageQuota from(OpenLocate.Configuration configuration) {
+        if (configuration == null) {
+            return UNLIMITED;
+        }
+
+        return new StorageQuota(configuration.getMaxStoredLocations(), configuration.getMaxStorageBytes(),
+                configuration.getEvictionPolicy());
+    }
+
+    /**
+     * Saves the quota for the services, which do not receive the configuration.
+     */
+    void save(SharedPreferenceUtils preferences) {
+        preferences.setValue(Constants.MAX_STORED_LOCATIONS_KEY, maxLocations);
+        preferences.setValue(Constants.MAX_STORAGE_BYTES_KEY, maxBytes);
+        policy.save(preferences);
+    }
+
+    static StorageQuota load(SharedPreferenceUtils preferences) {
+        return new StorageQuota(preferences.getLongValue(Constants.MAX_STORED_LOCATIONS_KEY, 0),
+                preferences.getLongValue(Constants.MAX_STORAGE_BYTES_KEY, 0), EvictionPolicy.load(preferences));
+    }
+
+    boolean isLimited() {
+        return maxLocations > 0 || maxBytes > 0;
+    }
+
+    /**
+     * Evicts part of whatever exceeds the quota after {@code inserted} locations were added.
+     */
+    int enforce(SQLiteDatabase db, int inserted) {
+        if (!isLimited()) {
+            return 0;
+        }
+
+        int step = Math.max(MIN_EVICTION_STEP, inserted * 2);
+        long excess = 0;
+
+        if (maxLocations > 0) {
+            excess = Math.max(excess, LocationTable.size(db) - maxLocations);
+        }
+
+        if (maxBytes > 0 && getUsedBytes(db) > maxBytes) {
+            excess = Math.max(excess, step);
+        }
+
+        if (excess <= 0) {
+            return 0;
+        }
+
+        return policy.evict(db, (int) Math.min(step, excess));
+    }
+
+    /**
+     * Evicts locations to make room for {@code count} new ones once the disk is full, whether
+     * a quota is configured or not.
+     */
+    int makeRoom(SQLiteDatabase db, int count) {
+        return policy.evict(db, Math.max(MIN_EVICTION_STEP, count * 2));
+    }
+
+    private static long getUsedBytes(SQLiteDatabase db) {
+        // Deleted rows go to the free list and are reused, so they do not count.
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                - DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        return pages * db.getPageSize();
+    }
+}
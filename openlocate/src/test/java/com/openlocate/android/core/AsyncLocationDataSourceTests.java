@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncLocationDataSourceTests {
+
+    private OpenLocateLocation getLocation(long created) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(created), 10.403, 10.234, 40.43f, 1234, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields);
+    }
+
+    @Test
+    public void testWritesRunInOrder() throws Exception {
+        // Given
+        LocationList store = new LocationList();
+        AsyncLocationDataSource dataSource = new AsyncLocationDataSource(store);
+
+        // When
+        dataSource.add(getLocation(1000));
+        dataSource.addAll(Arrays.asList(getLocation(2000), getLocation(3000)));
+        dataSource.close().get(5, TimeUnit.SECONDS);
+
+        // Then
+        List<OpenLocateLocation> locations = store.getSince(0);
+        assertEquals(3, locations.size());
+        assertEquals(1000, locations.get(0).getCreated().getTime());
+        assertEquals(3000, locations.get(2).getCreated().getTime());
+    }
+
+    @Test
+    public void testFlushWritesTheBuffer() throws Exception {
+        // Given
+        LocationList store = new LocationList();
+        AsyncLocationDataSource dataSource = new AsyncLocationDataSource(
+                new BufferedLocationDataSource(store, 50, TimeUnit.MINUTES.toMillis(5)));
+        dataSource.add(getLocation(1000));
+
+        // When
+        dataSource.flush().get(5, TimeUnit.SECONDS);
+
+        // Then
+        assertEquals(1, store.size());
+        dataSource.shutdown();
+    }
+
+    @Test
+    public void testFailedWriteIsReported() throws Exception {
+        // Given
+        LocationList store = new LocationList();
+        AsyncLocationDataSource dataSource = new AsyncLocationDataSource(store);
+
+        // When
+        Future<Void> write = dataSource.add(null);
+
+        // Then
+        try {
+            write.get();
+            fail("The write should have failed.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+        dataSource.add(getLocation(1000)).get();
+        assertEquals(1, store.size());
+        dataSource.shutdown();
+    }
+}
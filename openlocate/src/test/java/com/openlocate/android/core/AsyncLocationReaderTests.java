@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+import com.openlocate.android.callbacks.LocationReadCallback;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncLocationReaderTests {
+
+    private static final class ClosingList extends LocationList {
+        int closed;
+
+        @Override
+        public void close() {
+            closed++;
+        }
+    }
+
+    private static AsyncLocationReader.Opener opening(final LocationDataSource dataSource) {
+        return new AsyncLocationReader.Opener() {
+            @Override
+            public LocationDataSource open() {
+                return dataSource;
+            }
+        };
+    }
+
+    private OpenLocateLocation getLocation(long created) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(created), 10.403, 10.234, 40.43f, 1234, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields);
+    }
+
+    @Test
+    public void testReadRunsOnOpenedStoreAndClosesIt() throws Exception {
+        // Given
+        ClosingList store = new ClosingList();
+        store.add(getLocation(1000));
+        store.add(getLocation(2000));
+        AsyncLocationReader reader = new AsyncLocationReader(opening(store));
+
+        // When
+        long size = reader.read(new AsyncLocationReader.Read<Long>() {
+            @Override
+            public Long read(LocationDataSource dataSource) {
+                return dataSource.size();
+            }
+        }).get(5, TimeUnit.SECONDS);
+
+        // Then
+        assertEquals(2, size);
+        assertEquals(1, store.closed);
+        reader.shutdown();
+    }
+
+    @Test
+    public void testFailedReadIsReportedToTheCallback() throws Exception {
+        // Given
+        ClosingList store = new ClosingList();
+        AsyncLocationReader reader = new AsyncLocationReader(opening(store));
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Error> error = new AtomicReference<>();
+        final AtomicReference<Object> result = new AtomicReference<>();
+
+        // When
+        reader.read(new AsyncLocationReader.Read<Long>() {
+            @Override
+            public Long read(LocationDataSource dataSource) {
+                throw new IllegalStateException("broken");
+            }
+        }, new LocationReadCallback<Long>() {
+            @Override
+            public void onRead(Long size) {
+                result.set(size);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(Error e) {
+                error.set(e);
+                done.countDown();
+            }
+        });
+
+        // Then
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNull(result.get());
+        assertEquals("broken", error.get().getMessage());
+        assertEquals(1, store.closed);
+        reader.shutdown();
+    }
+}
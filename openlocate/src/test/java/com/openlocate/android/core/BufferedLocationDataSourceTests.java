@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.database.sqlite.SQLiteDatabaseLockedException;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BufferedLocationDataSourceTests {
+
+    private OpenLocateLocation getLocation(long created) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(created), 10.403, 10.234, 40.43f, 1234, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields);
+    }
+
+    private static final class CountingList implements LocationDataSource {
+        final LocationList locations = new LocationList();
+        final List<Integer> batches = new ArrayList<>();
+        boolean locked;
+
+        @Override
+        public void addAll(List<OpenLocateLocation> locationList) {
+            if (locked) {
+                throw new SQLiteDatabaseLockedException();
+            }
+            batches.add(locationList.size());
+            locations.addAll(locationList);
+        }
+
+        @Override
+        public void add(OpenLocateLocation location) {
+            batches.add(1);
+            locations.add(location);
+        }
+
+        @Override
+        public List<OpenLocateLocation> getSince(long millisecondsSince1970) {
+            return locations.getSince(millisecondsSince1970);
+        }
+
+        @Override
+        public LocationIterator iterateAfter(DispatchCursor cursor, int limit) {
+            return locations.iterateAfter(cursor, limit);
+        }
+
+        @Override
+        public LocationIterator query(LocationQuery query) {
+            return locations.query(query);
+        }
+
+        @Override
+        public int deleteBefore(long millisecondsSince1970, int limit) {
+            return locations.deleteBefore(millisecondsSince1970, limit);
+        }
+
+        @Override
+        public long size() {
+            return locations.size();
+        }
+
+        @Override
+        public LocationStats getStats() {
+            return locations.getStats();
+        }
+
+        @Override
+        public long countAfter(DispatchCursor cursor) {
+            return locations.countAfter(cursor);
+        }
+
+        @Override
+        public DispatchCursor getCursor(String endpoint) {
+            return locations.getCursor(endpoint);
+        }
+
+        @Override
+        public void advanceCursor(String endpoint, DispatchCursor cursor, Collection<String> endpoints) {
+            locations.advanceCursor(endpoint, cursor, endpoints);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testFlushesWhenFull() {
+        // Given
+        CountingList delegate = new CountingList();
+        BufferedLocationDataSource dataSource = new BufferedLocationDataSource(delegate, 3, Long.MAX_VALUE);
+
+        // When
+        for (int i = 0; i < 7; i++) {
+            dataSource.add(getLocation(1000 + i));
+        }
+
+        // Then
+        assertEquals(2, delegate.batches.size());
+        assertEquals(3, (int) delegate.batches.get(0));
+        assertEquals(3, (int) delegate.batches.get(1));
+        assertEquals(1, dataSource.getBufferedCount());
+        assertEquals(7, dataSource.size());
+    }
+
+    @Test
+    public void testFlushesWhenOld() {
+        // Given
+        CountingList delegate = new CountingList();
+        BufferedLocationDataSource dataSource = new BufferedLocationDataSource(delegate, 100, 0);
+
+        // When
+        dataSource.add(getLocation(1000));
+
+        // Then
+        assertEquals(1, delegate.batches.size());
+        assertEquals(0, dataSource.getBufferedCount());
+    }
+
+    @Test
+    public void testReadsSeeBufferedLocations() {
+        // Given
+        CountingList delegate = new CountingList();
+        BufferedLocationDataSource dataSource = new BufferedLocationDataSource(delegate, 100, Long.MAX_VALUE);
+        dataSource.add(getLocation(1000));
+        dataSource.add(getLocation(2000));
+
+        // When
+        List<OpenLocateLocation> locations = dataSource.getSince(0);
+
+        // Then
+        assertEquals(2, locations.size());
+        assertEquals(1, delegate.batches.size());
+    }
+
+    @Test
+    public void testCloseFlushes() {
+        // Given
+        CountingList delegate = new CountingList();
+        BufferedLocationDataSource dataSource = new BufferedLocationDataSource(delegate, 100, Long.MAX_VALUE);
+        dataSource.add(getLocation(1000));
+
+        // When
+        dataSource.close();
+
+        // Then
+        assertEquals(1, delegate.locations.size());
+    }
+
+    @Test
+    public void testFailedFlushKeepsLocations() {
+        // Given
+        CountingList delegate = new CountingList();
+        BufferedLocationDataSource dataSource = new BufferedLocationDataSource(delegate, 100, Long.MAX_VALUE);
+        dataSource.add(getLocation(1000));
+        dataSource.add(getLocation(2000));
+        delegate.locked = true;
+
+        // When
+        try {
+            dataSource.flush();
+            fail("The flush should have failed.");
+        } catch (SQLiteDatabaseLockedException e) {
+            // Expected
+        }
+
+        // Then
+        assertEquals(2, dataSource.getBufferedCount());
+
+        // When
+        delegate.locked = false;
+        dataSource.add(getLocation(3000));
+        dataSource.flush();
+
+        // Then
+        List<OpenLocateLocation> locations = delegate.locations.getSince(0);
+        assertEquals(3, locations.size());
+        assertEquals(1000, locations.get(0).getCreated().getTime());
+        assertEquals(1, delegate.batches.size());
+    }
+
+    @Test
+    public void testFailedFlushKeepsNewestLocations() {
+        // Given
+        CountingList delegate = new CountingList();
+        BufferedLocationDataSource dataSource = new BufferedLocationDataSource(delegate, 100, Long.MAX_VALUE, 2);
+        dataSource.add(getLocation(1000));
+        dataSource.add(getLocation(2000));
+        dataSource.add(getLocation(3000));
+        delegate.locked = true;
+
+        // When
+        try {
+            dataSource.close();
+            fail("The flush should have failed.");
+        } catch (SQLiteDatabaseLockedException e) {
+            // Expected
+        }
+        delegate.locked = false;
+        dataSource.flush();
+
+        // Then
+        List<OpenLocateLocation> locations = delegate.locations.getSince(0);
+        assertEquals(2, locations.size());
+        assertEquals(2000, locations.get(0).getCreated().getTime());
+    }
+
+    @Test
+    public void testAddKeepsNewestLocations() {
+        // Given
+        CountingList delegate = new CountingList();
+        BufferedLocationDataSource dataSource = new BufferedLocationDataSource(delegate, 100, Long.MAX_VALUE, 2);
+
+        // When
+        dataSource.add(getLocation(1000));
+        dataSource.add(getLocation(2000));
+        dataSource.add(getLocation(3000));
+
+        // Then
+        assertEquals(2, dataSource.getBufferedCount());
+
+        // When
+        dataSource.flush();
+
+        // Then
+        List<OpenLocateLocation> locations = delegate.locations.getSince(0);
+        assertEquals(2, locations.size());
+        assertEquals(2000, locations.get(0).getCreated().getTime());
+    }
+}
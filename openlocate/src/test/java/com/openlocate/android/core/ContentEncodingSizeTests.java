@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the size of a full page of locations in every payload format and content encoding.
+ */
+public class ContentEncodingSizeTests {
+
+    private static List<OpenLocateLocation> getPage() {
+        Random random = new Random(7);
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        double latitude = 40.7128;
+        double longitude = -74.0060;
+        for (int i = 0; i < LocationTable.QUERY_LIMIT; i++) {
+            latitude += (random.nextDouble() - 0.5) / 1000;
+            longitude += (random.nextDouble() - 0.5) / 1000;
+            InformationFields fields = InformationFieldsFactory.getInformationFields(
+                    "Google", "Pixel 2", i % 10 == 0 ? "false" : "true", "Android 8.1.0", "T-Mobile",
+                    "HomeNetwork", "a4:2b:b0:c1:d2:e3", "wifi", "gps", "bground");
+            locations.add(new OpenLocateLocation(new Date(1500000000000L + i * 60000L),
+                    latitude, longitude, 5 + random.nextFloat() * 20, 1500000000 + i * 60,
+                    random.nextFloat() * 3, random.nextFloat() * 360, 10 + random.nextGaussian(),
+                    new AdvertisingIdClient.Info("38400000-8cf0-11bd-b23e-10b96e40000d", false), fields));
+        }
+        return locations;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    private static long encode(final List<OpenLocateLocation> page, PayloadFormat format, ContentEncoding encoding)
+            throws IOException {
+        final PayloadFormat payloadFormat = format;
+        HttpBody body = new HttpBody() {
+            @Override
+            public String getContentType() {
+                return payloadFormat.getContentType();
+            }
+
+            @Override
+            public String getContentEncoding() {
+                return null;
+            }
+
+            @Override
+            public long getContentLength() {
+                return -1;
+            }
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                LocationPageWriter writer = LocationPageWriter.create(payloadFormat, outputStream);
+                writer.beginPage("locations");
+                for (OpenLocateLocation location : page) {
+                    writer.write(location);
+                }
+                writer.endPage();
+            }
+        };
+
+        CountingOutputStream outputStream = new CountingOutputStream();
+        new EncodedHttpBody(body, encoding).writeTo(outputStream);
+        return outputStream.count;
+    }
+
+    @Test
+    public void testEncodingShrinksPage() throws IOException {
+        // Given
+        List<OpenLocateLocation> page = getPage();
+
+        for (PayloadFormat format : PayloadFormat.values()) {
+            // When
+            long identity = encode(page, format, ContentEncoding.IDENTITY);
+
+            for (ContentEncoding encoding : ContentEncoding.values()) {
+                if (encoding == ContentEncoding.IDENTITY) {
+                    continue;
+                }
+
+                // Then
+                assertTrue(format + " " + encoding, encode(page, format, encoding) < identity / 4);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ContentEncodingTests {
+
+    private static final byte[] CONTENT = ("{\"locations\":[{\"latitude\":10.403,\"longitude\":10.234},"
+            + "{\"latitude\":10.403,\"longitude\":10.234},{\"latitude\":10.403,\"longitude\":10.234}]}").getBytes();
+
+    private static HttpBody getBody() {
+        return new HttpBody() {
+            @Override
+            public String getContentType() {
+                return "application/json";
+            }
+
+            @Override
+            public String getContentEncoding() {
+                return null;
+            }
+
+            @Override
+            public long getContentLength() {
+                return CONTENT.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                outputStream.write(CONTENT);
+            }
+        };
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    public void testHeaderValues() {
+        assertNull(ContentEncoding.IDENTITY.getHeaderValue());
+        assertEquals("gzip", ContentEncoding.GZIP.getHeaderValue());
+        assertEquals("deflate", ContentEncoding.DEFLATE.getHeaderValue());
+    }
+
+    @Test
+    public void testOnlyIdentityKnowsItsLength() {
+        // Given
+        EncodedHttpBody identity = new EncodedHttpBody(getBody(), ContentEncoding.IDENTITY);
+        EncodedHttpBody gzip = new EncodedHttpBody(getBody(), ContentEncoding.GZIP);
+
+        // Then
+        assertEquals(CONTENT.length, identity.getContentLength());
+        assertEquals(-1, gzip.getContentLength());
+    }
+
+    @Test
+    public void testGzipBody() throws IOException {
+        // Given
+        EncodedHttpBody body = new EncodedHttpBody(getBody(), ContentEncoding.GZIP);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // When
+        body.writeTo(outputStream);
+
+        // Then
+        assertEquals("gzip", body.getContentEncoding());
+        assertEquals("application/json", body.getContentType());
+        assertEquals(outputStream.size(), body.getBytesWritten());
+        assertTrue(body.getBytesWritten() < CONTENT.length);
+        assertArrayEquals(CONTENT, readAll(new GZIPInputStream(new ByteArrayInputStream(outputStream.toByteArray()))));
+    }
+
+    @Test
+    public void testDeflateBody() throws IOException {
+        // Given
+        EncodedHttpBody body = new EncodedHttpBody(getBody(), ContentEncoding.DEFLATE);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // When
+        body.writeTo(outputStream);
+
+        // Then
+        assertEquals("deflate", body.getContentEncoding());
+        assertEquals(outputStream.size(), body.getBytesWritten());
+        assertArrayEquals(CONTENT, readAll(new InflaterInputStream(new ByteArrayInputStream(outputStream.toByteArray()))));
+    }
+
+    @Test
+    public void testLeavesStreamOpen() throws IOException {
+        // Given
+        final boolean[] closed = new boolean[1];
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+
+        // When
+        new EncodedHttpBody(getBody(), ContentEncoding.GZIP).writeTo(outputStream);
+
+        // Then
+        assertEquals(false, closed[0]);
+    }
+}
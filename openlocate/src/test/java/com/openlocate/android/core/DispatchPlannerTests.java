@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DispatchPlannerTests {
+
+    private final OpenLocate.Endpoint first = OpenLocate.Endpoint.builder("http://localhost/1").build();
+    private final OpenLocate.Endpoint second = OpenLocate.Endpoint.builder("http://localhost/2")
+            .withContentEncoding(ContentEncoding.GZIP)
+            .build();
+    private final OpenLocate.Endpoint third = OpenLocate.Endpoint.builder("http://localhost/3").build();
+    private final OpenLocate.Endpoint cbor = OpenLocate.Endpoint.builder("http://localhost/4")
+            .withPayloadFormat(PayloadFormat.CBOR)
+            .build();
+
+    @Test
+    public void testGroupsEndpointsAtSameCursorAndFormat() {
+        // Given
+        List<OpenLocate.Endpoint> endpoints = Arrays.asList(first, second, third, cbor);
+        List<DispatchCursor> cursors = Arrays.asList(
+                new DispatchCursor(5), new DispatchCursor(5), new DispatchCursor(3), new DispatchCursor(5));
+
+        // When
+        List<DispatchPlanner.Group> groups = DispatchPlanner.plan(endpoints, cursors);
+
+        // Then
+        assertEquals(3, groups.size());
+        assertEquals(new DispatchCursor(5), groups.get(0).cursor);
+        assertEquals(PayloadFormat.JSON, groups.get(0).format);
+        assertEquals(Arrays.asList(first, second), groups.get(0).endpoints);
+        assertEquals(Collections.singletonList(third), groups.get(1).endpoints);
+        assertEquals(PayloadFormat.CBOR, groups.get(2).format);
+        assertEquals(Collections.singletonList(cbor), groups.get(2).endpoints);
+    }
+
+    @Test
+    public void testNoEndpoints() {
+        assertTrue(DispatchPlanner.plan(Collections.<OpenLocate.Endpoint>emptyList(),
+                Collections.<DispatchCursor>emptyList()).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEveryEndpointNeedsCursor() {
+        DispatchPlanner.plan(Arrays.asList(first, second), Collections.singletonList(DispatchCursor.START));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeoHashTests {
+
+    private static boolean covers(List<long[]> ranges, long hash) {
+        for (long[] range : ranges) {
+            if (hash >= range[0] && hash < range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testCoverContainsEveryPointOfTheBox() {
+        // Given
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200; i++) {
+            double minLatitude = random.nextDouble() * 170 - 85;
+            double minLongitude = random.nextDouble() * 350 - 175;
+            double maxLatitude = minLatitude + random.nextDouble() * 5;
+            double maxLongitude = minLongitude + random.nextDouble() * 5;
+
+            // When
+            List<long[]> ranges = GeoHash.cover(minLatitude, minLongitude, maxLatitude, maxLongitude);
+
+            // Then
+            assertTrue(ranges.size() <= 32);
+            assertTrue(covers(ranges, GeoHash.encode(minLatitude, minLongitude)));
+            assertTrue(covers(ranges, GeoHash.encode(maxLatitude, maxLongitude)));
+            assertTrue(covers(ranges, GeoHash.encode(
+                    minLatitude + random.nextDouble() * (maxLatitude - minLatitude),
+                    minLongitude + random.nextDouble() * (maxLongitude - minLongitude))));
+        }
+    }
+
+    @Test
+    public void testCoverRangesAreSortedAndDisjoint() {
+        // When
+        List<long[]> ranges = GeoHash.cover(40.5, -74.3, 41.0, -73.7);
+
+        // Then
+        for (int i = 1; i < ranges.size(); i++) {
+            assertTrue(ranges.get(i - 1)[1] < ranges.get(i)[0]);
+        }
+    }
+
+    @Test
+    public void testWholeGlobeIsOneRange() {
+        // When
+        List<long[]> ranges = GeoHash.cover(-90, -180, 90, 180);
+
+        // Then
+        assertEquals(1, ranges.size());
+        assertTrue(covers(ranges, GeoHash.encode(90, 180)));
+        assertTrue(covers(ranges, GeoHash.encode(-90, -180)));
+    }
+
+    @Test
+    public void testNearbyPointsShareAPrefix() {
+        // When
+        long first = GeoHash.encode(40.7128, -74.0060);
+        long second = GeoHash.encode(40.7130, -74.0062);
+        long far = GeoHash.encode(-33.8688, 151.2093);
+
+        // Then
+        assertTrue(Long.numberOfLeadingZeros(first ^ second) > Long.numberOfLeadingZeros(first ^ far) + 20);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LocationBlockCodecTests {
+
+    private static final DeviceContext CONTEXT = new DeviceContext("1234", true,
+            "Google", "Pixel", "Android 8.0", "Carrier", "ssid", "bssid");
+
+    private static final LocationBlockCodec.Contexts CONTEXTS = new LocationBlockCodec.Contexts() {
+        @Override
+        public DeviceContext get(long id) {
+            return id == 7 ? CONTEXT : null;
+        }
+    };
+
+    private List<OpenLocateLocation> getTrack(int count) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        AdvertisingIdClient.Info info = new AdvertisingIdClient.Info("1234", true);
+
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            locations.add(new OpenLocateLocation(new Date(1500000000000L + i * 60000L),
+                    40.7128 + i * 0.0001, -74.0060 - i * 0.0002, 12.5f, 1500000000L + i * 60,
+                    1.25f, 90.5f, 10.75, info, fields));
+        }
+        return locations;
+    }
+
+    private long[] getContextIds(int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = 7;
+        }
+        return ids;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        // Given
+        List<OpenLocateLocation> locations = getTrack(50);
+
+        // When
+        List<OpenLocateLocation> decoded = LocationBlockCodec.decode(
+                LocationBlockCodec.encode(locations, getContextIds(50)), CONTEXTS);
+
+        // Then
+        assertEquals(50, decoded.size());
+        for (int i = 0; i < locations.size(); i++) {
+            OpenLocateLocation expected = locations.get(i);
+            OpenLocateLocation actual = decoded.get(i);
+            assertEquals(expected.getCreated(), actual.getCreated());
+            assertEquals(expected.getLocation().getLatitude(), actual.getLocation().getLatitude(), 1e-7);
+            assertEquals(expected.getLocation().getLongitude(), actual.getLocation().getLongitude(), 1e-7);
+            assertEquals(expected.getLocation().getHorizontalAccuracy(), actual.getLocation().getHorizontalAccuracy(), 0.01);
+            assertEquals(expected.getLocation().getTimeStampSecs(), actual.getLocation().getTimeStampSecs());
+            assertEquals(expected.getLocation().getSpeed(), actual.getLocation().getSpeed(), 0.01);
+            assertEquals(expected.getLocation().getCourse(), actual.getLocation().getCourse(), 0.01);
+            assertEquals(expected.getLocation().getAltitude(), actual.getLocation().getAltitude(), 0.01);
+            assertEquals("1234", actual.getAdvertisingInfo().getId());
+            assertTrue(actual.getAdvertisingInfo().isLimitAdTrackingEnabled());
+            assertEquals("Pixel", actual.getInformationFields().getModel());
+            assertEquals("true", actual.getInformationFields().isCharging());
+            assertEquals("wifi", actual.getInformationFields().getConnectionType());
+            assertEquals(LocationProvider.GPS, actual.getInformationFields().getLocationProvider());
+        }
+    }
+
+    @Test
+    public void testUnknownContextAndMissingFields() {
+        // Given
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        locations.add(new OpenLocateLocation(new Date(1000), 1, 2, 3, 4, 5, 6, 7, null, null));
+
+        // When
+        OpenLocateLocation decoded = LocationBlockCodec.decode(
+                LocationBlockCodec.encode(locations, new long[]{1}), CONTEXTS).get(0);
+
+        // Then
+        assertEquals(1000, decoded.getCreated().getTime());
+        assertEquals("", decoded.getAdvertisingInfo().getId());
+        assertNull(decoded.getInformationFields().getConnectionType());
+    }
+
+    @Test
+    public void testBlockIsAFractionOfTheRecordSize() {
+        // Given
+        List<OpenLocateLocation> locations = getTrack(50);
+
+        ByteBuffer records = ByteBuffer.allocate(50 * 256);
+        for (OpenLocateLocation location : locations) {
+            LocationRecordCodec.encode(location, records);
+        }
+
+        // When
+        byte[] block = LocationBlockCodec.encode(locations, getContextIds(50));
+
+        // Then
+        assertTrue(block.length * 10 < records.position());
+    }
+
+    @Test
+    public void testContextIdsAreReadWithoutDecoding() {
+        // Given
+        byte[] block = LocationBlockCodec.encode(getTrack(4), new long[]{7, 7, 9, 3});
+
+        // When
+        Set<Long> ids = new HashSet<>();
+        LocationBlockCodec.addContextIds(block, ids);
+
+        // Then
+        assertEquals(new HashSet<>(Arrays.asList(3L, 7L, 9L)), ids);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedBlockIsRejected() {
+        // Given
+        byte[] block = LocationBlockCodec.encode(getTrack(50), getContextIds(50));
+        byte[] truncated = new byte[block.length / 2];
+        System.arraycopy(block, 0, truncated, 0, truncated.length);
+
+        // When
+        LocationBlockCodec.decode(truncated, CONTEXTS);
+    }
+}
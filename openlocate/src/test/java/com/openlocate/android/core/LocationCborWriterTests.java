@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocationCborWriterTests {
+
+    private OpenLocateLocation getLocation(double latitude, long timestamp, String carrierName) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", carrierName, "ssid", "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(1000), latitude, 10.234, 40.43f, timestamp, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields);
+    }
+
+    private byte[] write(PayloadFormat format, List<OpenLocateLocation> locations) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        LocationPageWriter writer = LocationPageWriter.create(format, outputStream);
+        writer.beginPage("locations");
+        for (OpenLocateLocation location : locations) {
+            writer.write(location);
+        }
+        writer.endPage();
+
+        assertEquals(outputStream.size(), writer.getBytesWritten());
+        return outputStream.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> read(byte[] cbor) throws IOException {
+        Map<String, Object> page = (Map<String, Object>) new CborReader(cbor).read();
+        assertEquals(2, page.size());
+        List<Object> keys = (List<Object>) page.get(LocationCborWriter.KEYS_KEY);
+
+        List<Map<String, Object>> locations = new ArrayList<>();
+        for (Object written : (List<Object>) page.get("locations")) {
+            Map<String, Object> location = new LinkedHashMap<>();
+            for (Map.Entry<Object, Object> field : ((Map<Object, Object>) written).entrySet()) {
+                location.put((String) keys.get(((Long) field.getKey()).intValue()), field.getValue());
+            }
+            locations.add(location);
+        }
+        return locations;
+    }
+
+    @Test
+    public void testWritesSameFieldsAsJson() throws Exception {
+        // Given
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        locations.add(getLocation(10.403, 1234, "Carrier"));
+        locations.add(getLocation(-33.5, -70000, "Op\u00e9rateur \ud83d\udcf6"));
+
+        // When
+        List<Map<String, Object>> written = read(write(PayloadFormat.CBOR, locations));
+
+        // Then
+        assertEquals(locations.size(), written.size());
+        for (int i = 0; i < locations.size(); i++) {
+            JSONObject expected = locations.get(i).getJson();
+            Map<String, Object> actual = written.get(i);
+            assertEquals(expected.length(), actual.size());
+            for (Map.Entry<String, Object> field : actual.entrySet()) {
+                String expectedValue = expected.get(field.getKey()).toString();
+                Object value = field.getValue();
+                if (value instanceof Float) {
+                    assertEquals(field.getKey(), (float) Double.parseDouble(expectedValue), value);
+                } else if (value instanceof Double) {
+                    assertEquals(field.getKey(), Double.parseDouble(expectedValue), value);
+                } else {
+                    assertEquals(field.getKey(), expectedValue, value.toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWritesNumbersAsNumbers() throws Exception {
+        // Given
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        locations.add(getLocation(10.403, 1234, "Carrier"));
+
+        // When
+        Map<String, Object> location = read(write(PayloadFormat.CBOR, locations)).get(0);
+
+        // Then
+        assertEquals(10.403, location.get(OpenLocateLocation.Keys.LATITUDE));
+        assertEquals(40.43f, location.get(OpenLocateLocation.Keys.HORIZONTAL_ACCURACY));
+        assertEquals(1.5f, location.get(OpenLocateLocation.Keys.SPEED));
+        assertEquals(1234L, location.get(OpenLocateLocation.Keys.TIMESTAMP));
+        assertEquals(true, location.get(OpenLocateLocation.Keys.AD_OPT_OUT));
+    }
+
+    @Test
+    public void testIsSmallerThanJson() throws Exception {
+        // Given
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            locations.add(getLocation(10 + i / 1000.0, 1500000000 + i, "Carrier"));
+        }
+
+        // When
+        int json = write(PayloadFormat.JSON, locations).length;
+        int cbor = write(PayloadFormat.CBOR, locations).length;
+
+        // Then
+        assertTrue(cbor + " >= " + json, cbor < json / 2);
+    }
+
+    @Test
+    public void testContentTypes() {
+        assertEquals("application/json; charset=UTF-8", PayloadFormat.JSON.getContentType());
+        assertEquals("application/cbor", PayloadFormat.CBOR.getContentType());
+        assertFalse(LocationPageWriter.create(PayloadFormat.JSON, new ByteArrayOutputStream()) instanceof LocationCborWriter);
+    }
+
+    /**
+     * Decodes the subset of CBOR the writer produces.
+     */
+    private static final class CborReader {
+
+        private static final Object BREAK = new Object();
+
+        private final DataInputStream in;
+
+        CborReader(byte[] bytes) {
+            in = new DataInputStream(new ByteArrayInputStream(bytes));
+        }
+
+        Object read() throws IOException {
+            int initial = in.readUnsignedByte();
+            int major = initial >> 5;
+            int info = initial & 0x1F;
+
+            switch (initial) {
+                case 0xF4:
+                    return false;
+                case 0xF5:
+                    return true;
+                case 0xFA:
+                    return in.readFloat();
+                case 0xFB:
+                    return in.readDouble();
+                case 0xFF:
+                    return BREAK;
+            }
+
+            long argument = info == 31 ? -1 : readArgument(info);
+            switch (major) {
+                case 0:
+                    return argument;
+                case 1:
+                    return -1 - argument;
+                case 3:
+                    byte[] text = new byte[(int) argument];
+                    in.readFully(text);
+                    return new String(text, "UTF-8");
+                case 4:
+                    List<Object> list = new ArrayList<>();
+                    for (long i = 0; argument < 0 || i < argument; i++) {
+                        Object item = read();
+                        if (item == BREAK) {
+                            break;
+                        }
+                        list.add(item);
+                    }
+                    return list;
+                case 5:
+                    Map<Object, Object> map = new LinkedHashMap<>();
+                    for (long i = 0; argument < 0 || i < argument; i++) {
+                        Object key = read();
+                        if (key == BREAK) {
+                            break;
+                        }
+                        map.put(key, read());
+                    }
+                    return map;
+                default:
+                    throw new IOException("Unexpected major type " + major);
+            }
+        }
+
+        private long readArgument(int info) throws IOException {
+            switch (info) {
+                case 24:
+                    return in.readUnsignedByte();
+                case 25:
+                    return in.readUnsignedShort();
+                case 26:
+                    return in.readInt() & 0xFFFFFFFFL;
+                case 27:
+                    return in.readLong();
+                default:
+                    return info;
+            }
+        }
+    }
+}
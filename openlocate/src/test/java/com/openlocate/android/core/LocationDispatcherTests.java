@@ -21,78 +21,380 @@
  */
 package com.openlocate.android.core;
 
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class LocationDispatcherTests {
 
-//    @Test
-//    public void testSuccessLocationDispatch() {
-//        final Object syncObject = new Object();
-//
-//        final LocationDataSource dataSource = new LocationList();
-//
-//        HttpClient successClient = new HttpClient() {
-//            @Override
-//            public void post(String url, String json, Map<String, String> additionalHeaders, HttpClientCallback successCallback, HttpClientCallback failureCallback) {
-//                HttpResponse response = new HttpResponse.Builder().setStatusCode(200).build();
-//                successCallback.onCompletion(null, response);
-//
-//                assertEquals(0, dataSource.size());
-//
-//                synchronized (syncObject) {
-//                    syncObject.notify();
-//                }
-//            }
-//        };
-//
-//        LocationDispatcher dispatcher = new LocationDispatcher();
-//        dispatcher.postLocations(successClient, "", null, dataSource);
-//
-//        // Then
-//        synchronized (syncObject) {
-//            try {
-//                syncObject.wait();
-//            } catch (InterruptedException e) {
-//                assertTrue(false);
-//            }
-//        }
-//    }
-//
-//    @Test
-//    public void testFailureLocationDispatch() {
-//        final Object syncObject = new Object();
-//
-//        final LocationDataSource dataSource = new LocationList();
-//
-//        HttpClient failureClient = new HttpClient() {
-//            @Override
-//            public void post(String url, String json, Map<String, String> additionalHeaders, HttpClientCallback successCallback, HttpClientCallback failureCallback) {
-//                HttpResponse response = new HttpResponse.Builder().setStatusCode(400).build();
-//                successCallback.onCompletion(null, response);
-//
-//                assertEquals(1, dataSource.size());
-//
-//                synchronized (syncObject) {
-//                    syncObject.notify();
-//                }
-//            }
-//        };
-//
-//        LocationDispatcher dispatcher = new LocationDispatcher();
-//        dispatcher.postLocations(failureClient, "", null, dataSource);
-//
-//        // Then
-//        synchronized (syncObject) {
-//            try {
-//                syncObject.wait();
-//            } catch (InterruptedException e) {
-//                assertTrue(false);
-//            }
-//        }
-//    }
+    private final OpenLocate.Endpoint endpoint = OpenLocate.Endpoint.builder("http://localhost").build();
+
+    private OpenLocateLocation getLocation(long created) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(created), 10.403, 10.234, 40.43f, 1234, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields);
+    }
+
+    private HttpClient getClient(final int statusCode, final List<String> bodies) {
+        return new HttpClient() {
+            @Override
+            public void post(String url, HttpBody body, Map<String, String> additionalHeaders, HttpClientCallback successCallback, HttpClientCallback failureCallback) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                try {
+                    body.writeTo(outputStream);
+                    bodies.add(outputStream.toString("UTF-8"));
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+                HttpResponse response = new HttpResponse.Builder().setStatusCode(statusCode).build();
+                if (response.isSuccess()) {
+                    successCallback.onCompletion(null, response);
+                } else {
+                    failureCallback.onCompletion(null, response);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testSuccessLocationDispatch() throws JSONException {
+        // Given
+        LocationDataSource dataSource = new LocationList();
+        dataSource.add(getLocation(1000));
+        dataSource.add(getLocation(2000));
+        List<String> bodies = new ArrayList<>();
+
+        // When
+        LocationDispatcher.Page page = new LocationDispatcher().postLocations(getClient(200, bodies), endpoint, DispatchCursor.START, dataSource);
+
+        // Then
+        assertTrue(page.posted);
+        assertEquals(new DispatchCursor(2), page.cursor);
+        assertEquals(1, bodies.size());
+        assertEquals(2, new JSONObject(bodies.get(0)).getJSONArray("locations").length());
+    }
+
+    @Test
+    public void testFailureLocationDispatch() {
+        // Given
+        LocationDataSource dataSource = new LocationList();
+        dataSource.add(getLocation(1000));
+        List<String> bodies = new ArrayList<>();
+
+        // When
+        LocationDispatcher.Page page = new LocationDispatcher().postLocations(getClient(400, bodies), endpoint, DispatchCursor.START, dataSource);
+
+        // Then
+        assertFalse(page.posted);
+        assertEquals(DispatchCursor.START, page.cursor);
+        assertEquals(1, bodies.size());
+    }
+
+    @Test
+    public void testPostsInEndpointPayloadFormat() {
+        // Given
+        LocationDataSource dataSource = new LocationList();
+        dataSource.add(getLocation(1000));
+        OpenLocate.Endpoint cborEndpoint = OpenLocate.Endpoint.builder("http://localhost")
+                .withPayloadFormat(PayloadFormat.CBOR)
+                .build();
+        final List<String> contentTypes = new ArrayList<>();
+        final List<Long> sizes = new ArrayList<>();
+        HttpClient client = new HttpClient() {
+            @Override
+            public void post(String url, HttpBody body, Map<String, String> additionalHeaders, HttpClientCallback successCallback, HttpClientCallback failureCallback) {
+                contentTypes.add(body.getContentType());
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                try {
+                    body.writeTo(outputStream);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+                sizes.add((long) outputStream.size());
+                successCallback.onCompletion(null, new HttpResponse.Builder().setStatusCode(200).build());
+            }
+        };
+
+        // When
+        LocationDispatcher.Page page = new LocationDispatcher().postLocations(client, cborEndpoint, DispatchCursor.START, dataSource);
+
+        // Then
+        assertTrue(page.posted);
+        assertEquals("application/cbor", contentTypes.get(0));
+        assertEquals((long) sizes.get(0), page.bytes);
+    }
+
+    private HttpClient getEncodingClient(final List<Integer> statusCodes, final List<String> encodings, final List<String> bodies) {
+        return new HttpClient() {
+            @Override
+            public void post(String url, HttpBody body, Map<String, String> additionalHeaders, HttpClientCallback successCallback, HttpClientCallback failureCallback) {
+                encodings.add(body.getContentEncoding());
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                try {
+                    body.writeTo(outputStream);
+                    InputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+                    if ("gzip".equals(body.getContentEncoding())) {
+                        inputStream = new GZIPInputStream(inputStream);
+                    }
+                    bodies.add(new Scanner(inputStream, "UTF-8").useDelimiter("\\A").next());
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+
+                HttpResponse response = new HttpResponse.Builder().setStatusCode(statusCodes.remove(0)).build();
+                if (response.isSuccess()) {
+                    successCallback.onCompletion(null, response);
+                } else {
+                    failureCallback.onCompletion(null, response);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testPostsCompressedBody() throws JSONException {
+        // Given
+        LocationDataSource dataSource = new LocationList();
+        dataSource.add(getLocation(1000));
+        OpenLocate.Endpoint gzipEndpoint = OpenLocate.Endpoint.builder("http://localhost/gzip")
+                .withContentEncoding(ContentEncoding.GZIP)
+                .build();
+        List<String> encodings = new ArrayList<>();
+        List<String> bodies = new ArrayList<>();
+
+        // When
+        LocationDispatcher.Page page = new LocationDispatcher().postLocations(
+                getEncodingClient(new ArrayList<>(Arrays.asList(200)), encodings, bodies), gzipEndpoint, DispatchCursor.START, dataSource);
+
+        // Then
+        assertTrue(page.posted);
+        assertEquals(Collections.singletonList("gzip"), encodings);
+        assertEquals(1, new JSONObject(bodies.get(0)).getJSONArray("locations").length());
+        assertTrue(page.bytes < bodies.get(0).length());
+    }
+
+    @Test
+    public void testFallsBackToUncompressedOnUnsupportedMediaType() throws JSONException {
+        // Given
+        LocationDataSource dataSource = new LocationList();
+        dataSource.add(getLocation(1000));
+        dataSource.add(getLocation(2000));
+        OpenLocate.Endpoint gzipEndpoint = OpenLocate.Endpoint.builder("http://localhost/no-gzip")
+                .withContentEncoding(ContentEncoding.GZIP)
+                .build();
+        List<String> encodings = new ArrayList<>();
+        List<String> bodies = new ArrayList<>();
+        HttpClient client = getEncodingClient(new ArrayList<>(Arrays.asList(415, 200, 200)), encodings, bodies);
+
+        // When
+        LocationDispatcher dispatcher = new LocationDispatcher();
+        LocationDispatcher.Page page = dispatcher.postLocations(client, gzipEndpoint, DispatchCursor.START, dataSource);
+        dispatcher.postLocations(client, gzipEndpoint, DispatchCursor.START, dataSource);
+
+        // Then
+        assertTrue(page.posted);
+        assertEquals(new DispatchCursor(2), page.cursor);
+        assertEquals(Arrays.asList("gzip", null, null), encodings);
+        assertEquals(2, new JSONObject(bodies.get(1)).getJSONArray("locations").length());
+    }
+
+    @Test
+    public void testDrainGroupEncodesEachPageOnce() throws JSONException {
+        // Given
+        final int[] reads = new int[1];
+        LocationDataSource dataSource = new LocationList() {
+            @Override
+            public LocationIterator iterateAfter(DispatchCursor cursor, int limit) {
+                reads[0]++;
+                return super.iterateAfter(cursor, limit);
+            }
+        };
+        int total = LocationTable.QUERY_LIMIT + 10;
+        for (int i = 0; i < total; i++) {
+            dataSource.add(getLocation(1000 + i));
+        }
+        OpenLocate.Endpoint first = OpenLocate.Endpoint.builder("http://localhost/first").build();
+        OpenLocate.Endpoint second = OpenLocate.Endpoint.builder("http://localhost/second").build();
+        OpenLocate.Endpoint gzip = OpenLocate.Endpoint.builder("http://localhost/group-gzip")
+                .withContentEncoding(ContentEncoding.GZIP)
+                .build();
+        DispatchPlanner.Group group = DispatchPlanner.plan(Arrays.asList(first, second, gzip),
+                Arrays.asList(DispatchCursor.START, DispatchCursor.START, DispatchCursor.START)).get(0);
+        List<String> encodings = new ArrayList<>();
+        List<String> bodies = new ArrayList<>();
+        final List<String> progress = new ArrayList<>();
+
+        // When
+        new LocationDispatcher().drainGroup(
+                getEncodingClient(new ArrayList<>(Arrays.asList(200, 200, 200, 200, 200, 200)), encodings, bodies),
+                group, dataSource, Long.MAX_VALUE, Long.MAX_VALUE,
+                new LocationDispatcher.GroupProgressListener() {
+                    @Override
+                    public void onProgress(OpenLocate.Endpoint endpoint, DispatchCursor cursor) {
+                        progress.add(endpoint.getUrl() + " " + cursor.getId());
+                    }
+                });
+
+        // Then
+        assertEquals(2, reads[0]);
+        assertEquals(Arrays.asList(null, null, "gzip", null, null, "gzip"), encodings);
+        assertEquals(bodies.get(0), bodies.get(1));
+        assertEquals(bodies.get(0), bodies.get(2));
+        assertEquals(LocationTable.QUERY_LIMIT, new JSONObject(bodies.get(0)).getJSONArray("locations").length());
+        assertEquals(10, new JSONObject(bodies.get(5)).getJSONArray("locations").length());
+        assertEquals(Arrays.asList(
+                "http://localhost/first " + LocationTable.QUERY_LIMIT,
+                "http://localhost/second " + LocationTable.QUERY_LIMIT,
+                "http://localhost/group-gzip " + LocationTable.QUERY_LIMIT,
+                "http://localhost/first " + total,
+                "http://localhost/second " + total,
+                "http://localhost/group-gzip " + total), progress);
+    }
+
+    @Test
+    public void testDrainGroupLeavesOutFailedEndpoint() {
+        // Given
+        LocationDataSource dataSource = new LocationList();
+        for (int i = 0; i < LocationTable.QUERY_LIMIT + 10; i++) {
+            dataSource.add(getLocation(1000 + i));
+        }
+        OpenLocate.Endpoint failing = OpenLocate.Endpoint.builder("http://localhost/failing").build();
+        OpenLocate.Endpoint working = OpenLocate.Endpoint.builder("http://localhost/working").build();
+        DispatchPlanner.Group group = DispatchPlanner.plan(Arrays.asList(failing, working),
+                Arrays.asList(DispatchCursor.START, DispatchCursor.START)).get(0);
+        List<String> encodings = new ArrayList<>();
+        List<String> bodies = new ArrayList<>();
+        final List<String> progress = new ArrayList<>();
+
+        // When
+        new LocationDispatcher().drainGroup(
+                getEncodingClient(new ArrayList<>(Arrays.asList(500, 200, 200)), encodings, bodies),
+                group, dataSource, Long.MAX_VALUE, Long.MAX_VALUE,
+                new LocationDispatcher.GroupProgressListener() {
+                    @Override
+                    public void onProgress(OpenLocate.Endpoint endpoint, DispatchCursor cursor) {
+                        progress.add(endpoint.getUrl());
+                    }
+                });
+
+        // Then
+        assertEquals(3, bodies.size());
+        assertEquals(Arrays.asList("http://localhost/working", "http://localhost/working"), progress);
+    }
+
+    @Test
+    public void testNothingToDispatch() {
+        // Given
+        LocationDataSource dataSource = new LocationList();
+        dataSource.add(getLocation(1000));
+        List<String> bodies = new ArrayList<>();
+
+        // When
+        LocationDispatcher.Page page = new LocationDispatcher().postLocations(getClient(200, bodies), endpoint, new DispatchCursor(1), dataSource);
+
+        // Then
+        assertFalse(page.posted);
+        assertEquals(new DispatchCursor(1), page.cursor);
+        assertTrue(bodies.isEmpty());
+    }
+
+    @Test
+    public void testDrainPagesThroughBacklog() throws JSONException {
+        // Given
+        LocationDataSource dataSource = new LocationList();
+        int total = LocationTable.QUERY_LIMIT * 2 + 10;
+        for (int i = 0; i < total; i++) {
+            // Several locations per millisecond, so pages split inside one.
+            dataSource.add(getLocation(1000 + i / 7));
+        }
+        List<String> bodies = new ArrayList<>();
+        final List<DispatchCursor> progress = new ArrayList<>();
+
+        // When
+        DispatchCursor cursor = new LocationDispatcher().drainLocations(getClient(200, bodies), endpoint,
+                DispatchCursor.START, dataSource, Long.MAX_VALUE, Long.MAX_VALUE,
+                new LocationDispatcher.ProgressListener() {
+                    @Override
+                    public void onProgress(DispatchCursor cursor) {
+                        progress.add(cursor);
+                    }
+                });
+
+        // Then
+        assertEquals(3, bodies.size());
+        assertEquals(3, progress.size());
+        assertEquals(new DispatchCursor(total), cursor);
+        int sent = 0;
+        for (String body : bodies) {
+            sent += new JSONObject(body).getJSONArray("locations").length();
+        }
+        assertEquals(total, sent);
+    }
+
+    @Test
+    public void testDrainStopsWhenBudgetIsSpent() {
+        // Given
+        LocationDataSource dataSource = new LocationList();
+        for (int i = 0; i < LocationTable.QUERY_LIMIT * 3; i++) {
+            dataSource.add(getLocation(1000 + i));
+        }
+        List<String> bodies = new ArrayList<>();
+
+        // When
+        DispatchCursor cursor = new LocationDispatcher().drainLocations(getClient(200, bodies), endpoint,
+                DispatchCursor.START, dataSource, Long.MAX_VALUE, 1,
+                new LocationDispatcher.ProgressListener() {
+                    @Override
+                    public void onProgress(DispatchCursor cursor) {
+                    }
+                });
+
+        // Then
+        assertEquals(1, bodies.size());
+        assertEquals(new DispatchCursor(LocationTable.QUERY_LIMIT), cursor);
+    }
+
+    @Test
+    public void testDrainStopsOnFailure() {
+        // Given
+        LocationDataSource dataSource = new LocationList();
+        dataSource.add(getLocation(1000));
+        List<String> bodies = new ArrayList<>();
+        final List<DispatchCursor> progress = new ArrayList<>();
+
+        // When
+        DispatchCursor cursor = new LocationDispatcher().drainLocations(getClient(500, bodies), endpoint,
+                DispatchCursor.START, dataSource, Long.MAX_VALUE, Long.MAX_VALUE,
+                new LocationDispatcher.ProgressListener() {
+                    @Override
+                    public void onProgress(DispatchCursor cursor) {
+                        progress.add(cursor);
+                    }
+                });
+
+        // Then
+        assertEquals(1, bodies.size());
+        assertTrue(progress.isEmpty());
+        assertEquals(DispatchCursor.START, cursor);
+    }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LocationJsonReaderTests {
+
+    private OpenLocateLocation getLocation(double latitude, double longitude, float accuracy, float speed,
+                                           float course, double altitude, String carrierName, String wifiSsid) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", carrierName, wifiSsid, "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(1000), latitude, longitude, accuracy, 1234, speed, course, altitude,
+                new AdvertisingIdClient.Info("1234", true), fields);
+    }
+
+    private OpenLocateLocation getLocation() {
+        return getLocation(10.403, 10.234, 40.43f, 1.5f, 90.0f, 12.5, "Carrier", "ssid");
+    }
+
+    private void assertSameLocation(OpenLocateLocation expected, OpenLocateLocation actual) {
+        OpenLocateLocation.LocationInfo expectedInfo = expected.getLocation();
+        OpenLocateLocation.LocationInfo actualInfo = actual.getLocation();
+        assertNotNull(actualInfo);
+        assertEquals(Double.doubleToLongBits(expectedInfo.getLatitude()), Double.doubleToLongBits(actualInfo.getLatitude()));
+        assertEquals(Double.doubleToLongBits(expectedInfo.getLongitude()), Double.doubleToLongBits(actualInfo.getLongitude()));
+        assertEquals(Double.doubleToLongBits(expectedInfo.getAltitude()), Double.doubleToLongBits(actualInfo.getAltitude()));
+        assertEquals(Double.doubleToLongBits(expectedInfo.getHorizontalAccuracy()), Double.doubleToLongBits(actualInfo.getHorizontalAccuracy()));
+        assertEquals(Float.floatToIntBits(expectedInfo.getSpeed()), Float.floatToIntBits(actualInfo.getSpeed()));
+        assertEquals(Float.floatToIntBits(expectedInfo.getCourse()), Float.floatToIntBits(actualInfo.getCourse()));
+        assertEquals(expectedInfo.getTimeStampSecs(), actualInfo.getTimeStampSecs());
+        assertEquals(expected.getAdvertisingInfo().getId(), actual.getAdvertisingInfo().getId());
+        assertEquals(expected.getAdvertisingInfo().isLimitAdTrackingEnabled(), actual.getAdvertisingInfo().isLimitAdTrackingEnabled());
+        assertEquals(expected.getInformationFields().toString(), actual.getInformationFields().toString());
+    }
+
+    private OpenLocateLocation roundTrip(OpenLocateLocation location) {
+        return new OpenLocateLocation(location.getCreated(), location.getJson().toString());
+    }
+
+    @Test
+    public void testReadsGetJsonOutput() throws Exception {
+        // Given
+        OpenLocateLocation location = getLocation();
+
+        // When
+        OpenLocateLocation read = roundTrip(location);
+
+        // Then
+        assertEquals(location.getCreated(), read.getCreated());
+        assertSameLocation(location, read);
+        assertTrue(location.getJson().similar(read.getJson()));
+    }
+
+    @Test
+    public void testReadsStreamedOutput() throws Exception {
+        // Given
+        OpenLocateLocation location = getLocation();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        LocationJsonWriter writer = new LocationJsonWriter(outputStream);
+        writer.beginPage("locations");
+        writer.write(location);
+        writer.endPage();
+        String json = new JSONObject(outputStream.toString("UTF-8")).getJSONArray("locations").get(0).toString();
+
+        // When
+        OpenLocateLocation read = new OpenLocateLocation(new Date(1000), json);
+
+        // Then
+        assertSameLocation(location, read);
+    }
+
+    @Test
+    public void testRoundTripsNumbersExactly() {
+        // Given
+        Random random = new Random(42);
+
+        for (int i = 0; i < 2000; i++) {
+            OpenLocateLocation location = getLocation(
+                    random.nextDouble() * 180 - 90,
+                    random.nextDouble() * 360 - 180,
+                    random.nextFloat() * 1000,
+                    random.nextFloat() * 50,
+                    random.nextFloat() * 360,
+                    random.nextGaussian() * 1e6,
+                    "Carrier", "ssid");
+
+            // When, Then
+            assertSameLocation(location, roundTrip(location));
+        }
+    }
+
+    @Test
+    public void testRoundTripsEdgeNumbers() {
+        double[] values = {0.0, -0.0, 1, -33, 1e-7, -1.5e-10, 123456789.123, 1e22, 1e23, Double.MIN_VALUE, Double.MAX_VALUE};
+
+        for (double value : values) {
+            // Given
+            OpenLocateLocation location = getLocation(value, -value, (float) value, Float.MIN_VALUE, 359.99f, value,
+                    "Carrier", "ssid");
+
+            // When, Then
+            assertSameLocation(location, roundTrip(location));
+        }
+    }
+
+    @Test
+    public void testRoundTripsEscapedStrings() {
+        // Given
+        OpenLocateLocation location = getLocation(10.403, 10.234, 40.43f, 1.5f, 90.0f, 12.5,
+                "Car\"rier\\/ \u00e9\u2713", "line\nbreak\ttab\u0001 \ud83d\udcf6");
+
+        // When
+        OpenLocateLocation read = roundTrip(location);
+
+        // Then
+        assertEquals("Car\"rier\\/ \u00e9\u2713", read.getInformationFields().getCarrierName());
+        assertEquals("line\nbreak\ttab\u0001 \ud83d\udcf6", read.getInformationFields().getWifiSsid());
+        assertSameLocation(location, read);
+    }
+
+    @Test
+    public void testSkipsUnknownKeys() throws Exception {
+        // Given
+        JSONObject json = getLocation().getJson();
+        json.put("extra", new JSONObject().put("nested", "}\"]").put("list", new int[]{1, 2}));
+        json.put("flag", true);
+        json.put("nothing", JSONObject.NULL);
+
+        // When
+        OpenLocateLocation read = new OpenLocateLocation(new Date(1000), json.toString());
+
+        // Then
+        assertSameLocation(getLocation(), read);
+    }
+
+    @Test
+    public void testReadsNumbersStoredAsStrings() {
+        // Given
+        String json = "{\"latitude\":\"10.5\",\"longitude\":-20,\"horizontal_accuracy\":\"4\",\"utc_timestamp\":\"1234\","
+                + "\"altitude\":\"1e2\",\"course\":\"90.5\",\"speed\":\"0\",\"ad_id\":\"1234\",\"ad_opt_out\":\"TRUE\"}";
+
+        // When
+        OpenLocateLocation read = new OpenLocateLocation(new Date(1000), json);
+
+        // Then
+        assertEquals(10.5, read.getLocation().getLatitude(), 0);
+        assertEquals(-20, read.getLocation().getLongitude(), 0);
+        assertEquals(4, read.getLocation().getHorizontalAccuracy(), 0);
+        assertEquals(1234, read.getLocation().getTimeStampSecs());
+        assertEquals(100, read.getLocation().getAltitude(), 0);
+        assertEquals(90.5f, read.getLocation().getCourse(), 0);
+        assertTrue(read.getAdvertisingInfo().isLimitAdTrackingEnabled());
+        assertEquals("", read.getInformationFields().getCarrierName());
+    }
+
+    @Test
+    public void testKeepsLocationWithoutAdvertisingInfo() throws Exception {
+        // Given
+        JSONObject json = getLocation().getJson();
+        json.remove(OpenLocateLocation.Keys.AD_ID);
+
+        // When
+        OpenLocateLocation read = new OpenLocateLocation(new Date(1000), json.toString());
+
+        // Then
+        assertNotNull(read.getLocation());
+        assertEquals("Carrier", read.getInformationFields().getCarrierName());
+        assertNull(read.getAdvertisingInfo());
+    }
+
+    @Test
+    public void testMalformedRowHasNoLocation() {
+        String[] rows = {null, "", "[]", "{\"latitude\":", "{\"latitude\":1", "{\"latitude\" 1}", "{\"carrier_name\":\"open}"};
+
+        for (String row : rows) {
+            // When
+            OpenLocateLocation read = new OpenLocateLocation(new Date(1000), row);
+
+            // Then
+            assertNull(row, read.getLocation());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocationJsonWriterTests {
+
+    private OpenLocateLocation getLocation(double latitude, String carrierName, String wifiSsid) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", carrierName, wifiSsid, "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(1000), latitude, 10.234, 40.43f, 1234, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields);
+    }
+
+    private String write(List<OpenLocateLocation> locations) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        LocationJsonWriter writer = new LocationJsonWriter(outputStream);
+        writer.beginPage("locations");
+        for (OpenLocateLocation location : locations) {
+            writer.write(location);
+        }
+        writer.endPage();
+
+        assertEquals(outputStream.size(), writer.getBytesWritten());
+        return outputStream.toString("UTF-8");
+    }
+
+    private void assertWrittenLikeGetJson(List<OpenLocateLocation> locations) throws IOException, JSONException {
+        JSONArray written = new JSONObject(write(locations)).getJSONArray("locations");
+
+        assertEquals(locations.size(), written.length());
+        for (int i = 0; i < locations.size(); i++) {
+            JSONObject expected = new JSONObject(locations.get(i).getJson().toString());
+            assertTrue(written.getJSONObject(i).toString(), expected.similar(written.getJSONObject(i)));
+        }
+    }
+
+    @Test
+    public void testWritesLocationsLikeGetJson() throws Exception {
+        // Given
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        locations.add(getLocation(10.403, "Carrier", "ssid"));
+        locations.add(getLocation(-33, "Carrier", ""));
+        locations.add(getLocation(-0.0, "", "ssid"));
+
+        // When, Then
+        assertWrittenLikeGetJson(locations);
+    }
+
+    @Test
+    public void testWritesEmptyPage() throws Exception {
+        // When
+        String json = write(new ArrayList<OpenLocateLocation>());
+
+        // Then
+        assertEquals("{\"locations\":[]}", json);
+    }
+
+    @Test
+    public void testEscapesStrings() throws Exception {
+        // Given
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        locations.add(getLocation(10.403, "Car\"rier\\/", "line\nbreak\ttab\u0001"));
+        locations.add(getLocation(10.403, "Op\u00e9rateur \u2713", "caf\u00e9 \ud83d\udcf6"));
+
+        // When
+        String json = write(locations);
+
+        // Then
+        assertTrue(json.contains("\"Car\\\"rier\\\\\\/\""));
+        assertTrue(json.contains("\"line\\nbreak\\ttab\\u0001\""));
+        assertWrittenLikeGetJson(locations);
+    }
+
+    @Test
+    public void testSkipsFieldsAfterMissingLocationMethod() throws Exception {
+        // Given
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "unknown", "bground");
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        locations.add(new OpenLocateLocation(new Date(1000), 10.403, 10.234, 40.43f, 1234, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields));
+
+        // When, Then
+        assertWrittenLikeGetJson(locations);
+    }
+
+    @Test
+    public void testWritesPagesLargerThanBuffer() throws Exception {
+        // Given
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            locations.add(getLocation(i + 0.5, "Carrier", "ssid"));
+        }
+
+        // When
+        String json = write(locations);
+
+        // Then
+        assertTrue(json.length() > LocationJsonWriter.BUFFER_SIZE);
+        assertWrittenLikeGetJson(locations);
+    }
+}
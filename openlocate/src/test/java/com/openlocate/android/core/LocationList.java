@@ -1,11 +1,17 @@
 package com.openlocate.android.core;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
-final class LocationList implements LocationDataSource {
+class LocationList implements LocationDataSource {
 
     List<OpenLocateLocation> locations;
+    private long lastId;
+    final Map<String, DispatchCursor> cursors = new HashMap<>();
 
     LocationList() {
         this.locations = new ArrayList<>();
@@ -13,11 +19,14 @@ final class LocationList implements LocationDataSource {
 
     @Override
     public void addAll(List<OpenLocateLocation> locationList) {
-        this.locations.addAll(locationList);
+        for (OpenLocateLocation location : locationList) {
+            add(location);
+        }
     }
 
     @Override
     public void add(OpenLocateLocation location) {
+        location.setId(++lastId);
         this.locations.add(location);
     }
 
@@ -33,14 +42,51 @@ final class LocationList implements LocationDataSource {
     }
 
     @Override
-    public void deleteBefore(long millisecondsSince1970) {
+    public LocationIterator iterateAfter(DispatchCursor cursor, int limit) {
         List<OpenLocateLocation> locations = new ArrayList<OpenLocateLocation>();
         for (OpenLocateLocation location : this.locations) {
-            if (location.getCreated().getTime() <= millisecondsSince1970) {
+            if (cursor.isBefore(location)) {
+                locations.add(location);
+            }
+        }
+        if (limit > 0 && locations.size() > limit) {
+            locations = locations.subList(0, limit);
+        }
+
+        final Iterator<OpenLocateLocation> iterator = locations.iterator();
+        return new LocationIterator() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public OpenLocateLocation next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public LocationIterator query(LocationQuery query) {
+        return query.filter(iterateAfter(query.getAfter(), 0));
+    }
+
+    @Override
+    public int deleteBefore(long millisecondsSince1970, int limit) {
+        List<OpenLocateLocation> locations = new ArrayList<OpenLocateLocation>();
+        for (OpenLocateLocation location : this.locations) {
+            if (location.getCreated().getTime() <= millisecondsSince1970
+                    && (limit <= 0 || locations.size() < limit)) {
                 locations.add(location);
             }
         }
         this.locations.removeAll(locations);
+        return locations.size();
     }
 
     @Override
@@ -48,6 +94,65 @@ final class LocationList implements LocationDataSource {
         return this.locations.size();
     }
 
+    @Override
+    public LocationStats getStats() {
+        if (locations.isEmpty()) {
+            return LocationStats.EMPTY;
+        }
+
+        long oldest = Long.MAX_VALUE;
+        long newest = Long.MIN_VALUE;
+        for (OpenLocateLocation location : locations) {
+            oldest = Math.min(oldest, location.getCreated().getTime());
+            newest = Math.max(newest, location.getCreated().getTime());
+        }
+
+        return new LocationStats(locations.size(), 0, oldest, newest);
+    }
+
+    @Override
+    public long countAfter(DispatchCursor cursor) {
+        long count = 0;
+        for (OpenLocateLocation location : locations) {
+            if (cursor.isBefore(location)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public DispatchCursor getCursor(String endpoint) {
+        return cursors.get(endpoint);
+    }
+
+    @Override
+    public void advanceCursor(String endpoint, DispatchCursor cursor, Collection<String> endpoints) {
+        cursors.put(endpoint, cursor);
+
+        DispatchCursor delivered = null;
+        for (String key : endpoints) {
+            DispatchCursor other = cursors.get(key);
+            if (other == null) {
+                return;
+            }
+            if (delivered == null || other.compareTo(delivered) < 0) {
+                delivered = other;
+            }
+        }
+
+        if (delivered != null) {
+            List<OpenLocateLocation> locations = new ArrayList<OpenLocateLocation>();
+            for (OpenLocateLocation location : this.locations) {
+                if (!delivered.isBefore(location)) {
+                    locations.add(location);
+                }
+            }
+            this.locations.removeAll(locations);
+        }
+    }
+
     @Override
     public void close() {
 
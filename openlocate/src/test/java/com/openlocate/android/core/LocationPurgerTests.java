@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocationPurgerTests {
+
+    private static final long NOW = TimeUnit.DAYS.toMillis(100);
+
+    private OpenLocateLocation getLocation(long created) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(created), 10.403, 10.234, 40.43f, 1234, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields);
+    }
+
+    /**
+     * Records the size of every chunk deleted.
+     */
+    private static final class ChunkList extends LocationList {
+        final List<Integer> chunks = new ArrayList<>();
+
+        @Override
+        public int deleteBefore(long millisecondsSince1970, int limit) {
+            int deleted = super.deleteBefore(millisecondsSince1970, limit);
+            chunks.add(deleted);
+            return deleted;
+        }
+    }
+
+    @Test
+    public void testPurgeDeletesExpiredInChunks() {
+        // Given
+        ChunkList store = new ChunkList();
+        for (int i = 0; i < 7; i++) {
+            store.add(getLocation(NOW - TimeUnit.HOURS.toMillis(30) + i));
+        }
+        store.add(getLocation(NOW - TimeUnit.HOURS.toMillis(1)));
+        RetentionPolicy policy = RetentionPolicy.keepFor(24).withChunkSize(3);
+
+        // When
+        long deleted = new LocationPurger(0).purgeExpired(store, policy, NOW, Long.MAX_VALUE);
+
+        // Then
+        assertEquals(7, deleted);
+        assertEquals(1, store.size());
+        assertEquals(3, (int) store.chunks.get(0));
+        assertEquals(3, (int) store.chunks.get(1));
+        assertEquals(1, (int) store.chunks.get(2));
+        assertEquals(3, store.chunks.size());
+    }
+
+    @Test
+    public void testPurgeStopsOnceTheDeadlinePasses() {
+        // Given
+        ChunkList store = new ChunkList();
+        for (int i = 0; i < 10; i++) {
+            store.add(getLocation(NOW - TimeUnit.HOURS.toMillis(30) + i));
+        }
+        RetentionPolicy policy = RetentionPolicy.keepFor(24).withChunkSize(4);
+
+        // When
+        long deleted = new LocationPurger(0).purgeExpired(store, policy, NOW, 0);
+
+        // Then
+        assertEquals(4, deleted);
+        assertEquals(6, store.size());
+        assertEquals(1, store.chunks.size());
+    }
+
+    @Test
+    public void testPurgeKeepsLocationsWithinThePeriod() {
+        // Given
+        ChunkList store = new ChunkList();
+        store.add(getLocation(NOW - TimeUnit.HOURS.toMillis(23)));
+
+        // When
+        long deleted = new LocationPurger(0).purgeExpired(store, RetentionPolicy.keepFor(24), NOW, Long.MAX_VALUE);
+
+        // Then
+        assertEquals(0, deleted);
+        assertEquals(1, store.size());
+    }
+}
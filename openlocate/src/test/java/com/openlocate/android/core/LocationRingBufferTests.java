@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LocationRingBufferTests {
+
+    private OpenLocateLocation getLocation(long created) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(created), 10.403, 10.234, 40.43f, 1234, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields);
+    }
+
+    private List<OpenLocateLocation> read(LocationDataSource dataSource, DispatchCursor cursor, int limit) {
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        LocationIterator iterator = dataSource.iterateAfter(cursor, limit);
+        while (iterator.hasNext()) {
+            locations.add(iterator.next());
+        }
+        iterator.close();
+        return locations;
+    }
+
+    @Test
+    public void testFieldsRoundTrip() {
+        // Given
+        LocationRingBuffer buffer = new LocationRingBuffer(4, OverflowPolicy.DROP_OLDEST);
+        OpenLocateLocation stored = getLocation(1000);
+
+        // When
+        buffer.add(stored);
+        OpenLocateLocation location = read(buffer, DispatchCursor.START, 0).get(0);
+
+        // Then
+        assertEquals(stored.getId(), location.getId());
+        assertEquals(1000, location.getCreated().getTime());
+        assertEquals(stored.getJson().toString(), location.getJson().toString());
+    }
+
+    @Test
+    public void testDropOldestOverwritesTheOldest() {
+        // Given
+        LocationRingBuffer buffer = new LocationRingBuffer(3, OverflowPolicy.DROP_OLDEST);
+
+        // When
+        buffer.addAll(Arrays.asList(getLocation(1000), getLocation(2000), getLocation(3000),
+                getLocation(4000), getLocation(5000)));
+        List<OpenLocateLocation> locations = read(buffer, DispatchCursor.START, 0);
+
+        // Then
+        assertEquals(3, buffer.size());
+        assertEquals(3, locations.size());
+        assertEquals(3000, locations.get(0).getCreated().getTime());
+        assertEquals(5000, locations.get(2).getCreated().getTime());
+        assertEquals(3000, buffer.getStats().getOldestCreatedAt());
+    }
+
+    @Test
+    public void testDropNewestKeepsWhatIsStored() {
+        // Given
+        LocationRingBuffer buffer = new LocationRingBuffer(3, OverflowPolicy.DROP_NEWEST);
+
+        // When
+        buffer.addAll(Arrays.asList(getLocation(1000), getLocation(2000), getLocation(3000),
+                getLocation(4000), getLocation(5000)));
+        List<OpenLocateLocation> locations = read(buffer, DispatchCursor.START, 0);
+
+        // Then
+        assertEquals(3, locations.size());
+        assertEquals(1000, locations.get(0).getCreated().getTime());
+        assertEquals(3000, locations.get(2).getCreated().getTime());
+    }
+
+    @Test
+    public void testIteratorSkipsOverwrittenLocations() {
+        // Given
+        LocationRingBuffer buffer = new LocationRingBuffer(2, OverflowPolicy.DROP_OLDEST);
+        buffer.addAll(Arrays.asList(getLocation(1000), getLocation(2000)));
+        LocationIterator iterator = buffer.iterateAfter(DispatchCursor.START, 0);
+
+        // When
+        buffer.add(getLocation(3000));
+
+        // Then
+        assertEquals(2000, iterator.next().getCreated().getTime());
+        assertEquals(false, iterator.hasNext());
+    }
+
+    @Test
+    public void testAdvanceCursorDeletesWhatEveryEndpointReceived() {
+        // Given
+        LocationRingBuffer buffer = new LocationRingBuffer(8, OverflowPolicy.DROP_OLDEST);
+        OpenLocateLocation first = getLocation(1000);
+        OpenLocateLocation second = getLocation(2000);
+        buffer.addAll(Arrays.asList(first, second, getLocation(3000)));
+        List<String> endpoints = Arrays.asList("first", "second");
+
+        // When
+        buffer.advanceCursor("first", DispatchCursor.of(second), endpoints);
+        buffer.advanceCursor("second", DispatchCursor.of(first), endpoints);
+
+        // Then
+        assertEquals(2, buffer.size());
+        assertEquals(1, buffer.countAfter(buffer.getCursor("first")));
+        assertEquals(2, buffer.countAfter(buffer.getCursor("second")));
+    }
+
+    @Test
+    public void testShrinkingKeepsTheNewest() {
+        // Given
+        LocationRingBuffer buffer = new LocationRingBuffer(8, OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 6; i++) {
+            buffer.add(getLocation(1000 + i));
+        }
+
+        // When
+        buffer.configure(4, OverflowPolicy.DROP_OLDEST);
+        buffer.add(getLocation(2000));
+        List<OpenLocateLocation> locations = read(buffer, DispatchCursor.START, 0);
+
+        // Then
+        assertEquals(4, locations.size());
+        assertEquals(1003, locations.get(0).getCreated().getTime());
+        assertEquals(2000, locations.get(3).getCreated().getTime());
+    }
+
+    @Test
+    public void testDeleteBefore() {
+        // Given
+        LocationRingBuffer buffer = new LocationRingBuffer(16, OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 10; i++) {
+            buffer.add(getLocation(1000 + i));
+        }
+
+        // When
+        int deleted = buffer.deleteBefore(1004, 3);
+
+        // Then
+        assertEquals(3, deleted);
+        assertEquals(1003, buffer.getSince(0).get(0).getCreated().getTime());
+
+        // When
+        buffer.deleteBefore(Long.MAX_VALUE, 0);
+
+        // Then
+        assertEquals(0, buffer.size());
+        assertNull(buffer.getSince(0));
+    }
+}
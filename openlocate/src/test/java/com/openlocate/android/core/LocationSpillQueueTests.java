@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocationSpillQueueTests {
+
+    private static final int SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OpenLocateLocation getLocation(long created) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(created), 10.403, 10.234, 40.43f, 1234, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields);
+    }
+
+    @Test
+    public void testFileIsPreallocated() throws IOException {
+        // Given
+        File file = new File(folder.getRoot(), LocationSpillQueue.FILE_NAME);
+        LocationSpillQueue queue = new LocationSpillQueue(file, SIZE);
+
+        // When
+        queue.open();
+
+        // Then
+        assertEquals(SIZE, file.length());
+        assertTrue(queue.isEmpty());
+        queue.close();
+    }
+
+    @Test
+    public void testQueuedLocationsSurviveReopening() throws IOException {
+        // Given
+        File file = new File(folder.getRoot(), LocationSpillQueue.FILE_NAME);
+        LocationSpillQueue queue = new LocationSpillQueue(file, SIZE);
+        OpenLocateLocation stored = getLocation(1000);
+        queue.offerAll(Arrays.asList(stored, getLocation(2000)));
+        queue.close();
+
+        // When
+        LocationSpillQueue reopened = new LocationSpillQueue(file, SIZE);
+        reopened.open();
+        List<OpenLocateLocation> locations = reopened.getAll();
+
+        // Then
+        assertEquals(2, locations.size());
+        assertEquals(stored.getJson().toString(), locations.get(0).getJson().toString());
+        assertEquals(2000, locations.get(1).getCreated().getTime());
+        reopened.close();
+    }
+
+    @Test
+    public void testClearedLocationsAreNotReadBack() throws IOException {
+        // Given
+        File file = new File(folder.getRoot(), LocationSpillQueue.FILE_NAME);
+        LocationSpillQueue queue = new LocationSpillQueue(file, SIZE);
+        queue.offerAll(Arrays.asList(getLocation(1000), getLocation(2000), getLocation(3000)));
+        queue.clear();
+        queue.offerAll(Arrays.asList(getLocation(4000)));
+        queue.close();
+
+        // When
+        LocationSpillQueue reopened = new LocationSpillQueue(file, SIZE);
+        reopened.open();
+
+        // Then
+        assertEquals(1, reopened.size());
+        assertEquals(4000, reopened.getAll().get(0).getCreated().getTime());
+        reopened.close();
+    }
+
+    @Test
+    public void testQueueIsBounded() {
+        // Given
+        LocationSpillQueue queue = new LocationSpillQueue(new File(folder.getRoot(), LocationSpillQueue.FILE_NAME), SIZE);
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            locations.add(getLocation(1000 + i));
+        }
+
+        // When
+        int queued = queue.offerAll(locations);
+
+        // Then
+        assertTrue(queued > 0);
+        assertTrue(queued < locations.size());
+        assertEquals(queued, queue.size());
+        queue.close();
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentLogTests {
+
+    private static final int SEGMENT_SIZE = 4200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder();
+    }
+
+    private OpenLocateLocation getLocation(long created) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(created), 10.403, 10.234, 40.43f, 1234, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields);
+    }
+
+    private List<OpenLocateLocation> read(LocationDataSource dataSource, DispatchCursor cursor, int limit) {
+        List<OpenLocateLocation> locations = new ArrayList<>();
+        LocationIterator iterator = dataSource.iterateAfter(cursor, limit);
+        while (iterator.hasNext()) {
+            locations.add(iterator.next());
+        }
+        iterator.close();
+        return locations;
+    }
+
+    private List<File> getSegments() {
+        List<File> segments = new ArrayList<>();
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(".seg")) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    @Test
+    public void testLocationFieldsRoundTrip() {
+        // Given
+        SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE);
+        OpenLocateLocation location = getLocation(1500000000000L);
+
+        // When
+        log.add(location);
+        OpenLocateLocation stored = log.getSince(0).get(0);
+
+        // Then
+        assertEquals(1, log.size());
+        assertEquals(location.getCreated(), stored.getCreated());
+        assertEquals(location.getJson().toString(), stored.getJson().toString());
+    }
+
+    @Test
+    public void testIterateAfter() {
+        // Given
+        SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 100; i++) {
+            log.add(getLocation(1000 + i));
+        }
+
+        // When
+        List<OpenLocateLocation> page = read(log, new DispatchCursor(10), 20);
+        List<OpenLocateLocation> rest = read(log, DispatchCursor.of(page.get(page.size() - 1)), 0);
+
+        // Then
+        assertTrue(getSegments().size() > 1);
+        assertEquals(20, page.size());
+        assertEquals(1010, page.get(0).getCreated().getTime());
+        assertEquals(70, rest.size());
+        assertEquals(1030, rest.get(0).getCreated().getTime());
+        assertEquals(1099, rest.get(rest.size() - 1).getCreated().getTime());
+    }
+
+    @Test
+    public void testDeleteBefore() {
+        // Given
+        SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 10; i++) {
+            log.add(getLocation(1000 + i));
+        }
+
+        // When
+        log.deleteBefore(1004, 0);
+
+        // Then
+        assertEquals(5, log.size());
+        assertEquals(1005, log.getSince(0).get(0).getCreated().getTime());
+
+        // When
+        log.deleteBefore(System.currentTimeMillis(), 0);
+
+        // Then
+        assertEquals(0, log.size());
+        assertNull(log.getSince(0));
+    }
+
+    @Test
+    public void testDeleteBeforeStopsAtLimit() {
+        // Given
+        SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 10; i++) {
+            log.add(getLocation(1000 + i));
+        }
+
+        // When
+        int first = log.deleteBefore(1004, 3);
+        int second = log.deleteBefore(1004, 3);
+
+        // Then
+        assertEquals(3, first);
+        assertEquals(2, second);
+        assertEquals(5, log.size());
+        assertEquals(1005, log.getSince(0).get(0).getCreated().getTime());
+    }
+
+    @Test
+    public void testDeleteBeforeKeepsOlderRecordsBehindANewerOne() {
+        // Given
+        SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE);
+        log.add(getLocation(1000));
+        log.add(getLocation(3000));
+        log.add(getLocation(2000));
+
+        // When
+        int deleted = log.deleteBefore(2500, 0);
+
+        // Then
+        assertEquals(1, deleted);
+        assertEquals(2, log.size());
+        assertEquals(1, log.getSince(2500).size());
+        assertEquals(3000, log.getSince(2500).get(0).getCreated().getTime());
+
+        // When
+        deleted = log.deleteBefore(3000, 0);
+
+        // Then
+        assertEquals(2, deleted);
+        assertEquals(0, log.size());
+    }
+
+    @Test
+    public void testAdvanceCursorDeletesDeliveredSegments() {
+        // Given
+        SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 100; i++) {
+            log.add(getLocation(1000 + i));
+        }
+        int segments = getSegments().size();
+        List<String> endpoints = Arrays.asList("first", "second");
+
+        // When
+        log.advanceCursor("first", new DispatchCursor(90), endpoints);
+
+        // Then
+        assertEquals(100, log.size());
+        assertEquals(segments, getSegments().size());
+
+        // When
+        log.advanceCursor("second", new DispatchCursor(70), endpoints);
+
+        // Then
+        assertEquals(30, log.size());
+        assertTrue(getSegments().size() < segments);
+        assertEquals(new DispatchCursor(70), log.getCursor("second"));
+        assertEquals(1070, read(log, DispatchCursor.START, 1).get(0).getCreated().getTime());
+    }
+
+    @Test
+    public void testStatsFollowAppendsAndPurges() {
+        // Given
+        SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 100; i++) {
+            log.add(getLocation(1000 + i));
+        }
+        List<String> endpoints = Arrays.asList("first", "second");
+        log.advanceCursor("first", new DispatchCursor(90), endpoints);
+
+        // When
+        log.advanceCursor("second", new DispatchCursor(70), endpoints);
+        LocationStats stats = log.getStats();
+
+        // Then
+        assertEquals(30, stats.getCount());
+        assertTrue(stats.getApproximateBytes() > 0);
+        assertEquals(1070, stats.getOldestCreatedAt());
+        assertEquals(1099, stats.getNewestCreatedAt());
+        assertEquals(10, log.countAfter(log.getCursor("first")));
+        assertEquals(30, log.countAfter(log.getCursor("second")));
+        assertEquals(15, log.countAfter(new DispatchCursor(85)));
+    }
+
+    @Test
+    public void testReopenKeepsLocationsAndCursors() {
+        // Given
+        SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 50; i++) {
+            log.add(getLocation(1000 + i));
+        }
+        log.advanceCursor("first", new DispatchCursor(10), Arrays.asList("first"));
+        log.close();
+
+        // When
+        SegmentLog reopened = new SegmentLog(directory, SEGMENT_SIZE);
+        reopened.add(getLocation(2000));
+
+        // Then
+        assertEquals(41, reopened.size());
+        assertEquals(new DispatchCursor(10), reopened.getCursor("first"));
+        List<OpenLocateLocation> locations = read(reopened, reopened.getCursor("first"), 0);
+        assertEquals(41, locations.size());
+        assertEquals(51, locations.get(40).getId());
+    }
+
+    @Test
+    public void testTornRecordIsTruncated() throws IOException {
+        // Given
+        SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE);
+        log.add(getLocation(1000));
+        log.add(getLocation(2000));
+        log.add(getLocation(3000));
+        log.close();
+
+        // Corrupt the last byte of the third record, as if the crash happened while writing it.
+        RandomAccessFile file = new RandomAccessFile(getSegments().get(0), "rw");
+        int position = 0;
+        for (int i = 0; i < 3; i++) {
+            file.seek(position);
+            position += 8 + file.readInt();
+        }
+        file.seek(position - 1);
+        file.writeByte(0x5a);
+        file.close();
+
+        // When
+        SegmentLog reopened = new SegmentLog(directory, SEGMENT_SIZE);
+
+        // Then
+        assertEquals(2, reopened.size());
+
+        // When
+        reopened.add(getLocation(4000));
+        reopened.close();
+        reopened = new SegmentLog(directory, SEGMENT_SIZE);
+
+        // Then
+        List<OpenLocateLocation> locations = reopened.getSince(0);
+        assertEquals(3, locations.size());
+        assertEquals(4000, locations.get(2).getCreated().getTime());
+    }
+
+    @Test
+    public void testReadOnlyOpenWhileAppending() throws Exception {
+        // Given
+        final SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE);
+        log.add(getLocation(1000));
+        final int count = 300;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i < count; i++) {
+                    log.add(getLocation(1000 + i));
+                }
+            }
+        });
+
+        // When
+        writer.start();
+        int opened = 0;
+        while (writer.isAlive() || opened == 0) {
+            SegmentLog reader = new SegmentLog(directory, SEGMENT_SIZE, true);
+            List<OpenLocateLocation> locations = read(reader, DispatchCursor.START, 0);
+            reader.close();
+            opened++;
+
+            // Then
+            assertTrue(!locations.isEmpty());
+            for (int i = 0; i < locations.size(); i++) {
+                assertEquals(i + 1, locations.get(i).getId());
+                assertEquals(1000 + i, locations.get(i).getCreated().getTime());
+            }
+        }
+        writer.join();
+
+        // Then
+        assertEquals(count, log.size());
+        SegmentLog reader = new SegmentLog(directory, SEGMENT_SIZE, true);
+        assertEquals(count, reader.size());
+        assertEquals(count, read(reader, DispatchCursor.START, 0).size());
+        reader.close();
+
+        log.add(getLocation(1000 + count));
+        assertEquals(count + 1, read(log, DispatchCursor.START, 0).size());
+    }
+
+    @Test
+    public void testReadOnlyOpenLeavesFilesAlone() throws IOException {
+        // Given
+        SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 3; i++) {
+            log.add(getLocation(1000 + i));
+        }
+        log.advanceCursor("first", new DispatchCursor(1), Arrays.asList("first"));
+        File meta = new File(directory, "segments.meta");
+        long metaModified = meta.lastModified();
+
+        // A record the writer has started but not finished: the header is there, the payload
+        // is not.
+        RandomAccessFile file = new RandomAccessFile(getSegments().get(0), "rw");
+        int position = 0;
+        for (int i = 0; i < 3; i++) {
+            file.seek(position);
+            position += 8 + file.readInt();
+        }
+        file.seek(position);
+        file.writeInt(100);
+        file.writeInt(0x5a5a5a5a);
+        file.close();
+
+        // When
+        SegmentLog reader = new SegmentLog(directory, SEGMENT_SIZE, true);
+
+        // Then
+        assertEquals(2, reader.size());
+        assertEquals(new DispatchCursor(1), reader.getCursor("first"));
+        assertEquals(1001, read(reader, reader.getCursor("first"), 0).get(0).getCreated().getTime());
+        reader.close();
+
+        file = new RandomAccessFile(getSegments().get(0), "r");
+        file.seek(position);
+        assertEquals(100, file.readInt());
+        file.close();
+        assertEquals(metaModified, meta.lastModified());
+
+        // When
+        log.add(getLocation(2000));
+        reader = new SegmentLog(directory, SEGMENT_SIZE, true);
+
+        // Then
+        assertEquals(3, reader.size());
+        assertEquals(2000, read(reader, DispatchCursor.START, 0).get(2).getCreated().getTime());
+        reader.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReadOnlyRejectsWrites() {
+        // Given
+        SegmentLog reader = new SegmentLog(directory, SEGMENT_SIZE, true);
+
+        // When
+        reader.add(getLocation(1000));
+    }
+
+    @Test
+    public void testReadOnlyOpenOfMissingLog() {
+        // Given
+        SegmentLog reader = new SegmentLog(new File(directory, "missing"), SEGMENT_SIZE, true);
+
+        // Then
+        assertEquals(0, reader.size());
+        assertTrue(read(reader, DispatchCursor.START, 0).isEmpty());
+        assertTrue(!new File(directory, "missing").exists());
+    }
+
+    @Test
+    public void testAppendFailureReturnsTheLocations() throws IOException {
+        // Given
+        File blocked = folder.newFile();
+        SegmentLog log = new SegmentLog(blocked, SEGMENT_SIZE);
+        List<OpenLocateLocation> locations = Arrays.asList(getLocation(1000), getLocation(2000));
+
+        // When
+        UnwritableStoreException failure = null;
+        try {
+            log.addAll(locations);
+        } catch (UnwritableStoreException e) {
+            failure = e;
+        }
+
+        // Then
+        assertEquals(locations, failure.getUnwritten());
+        assertEquals(0, log.size());
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2017 OpenLocate
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.openlocate.android.core;
+
+import android.database.sqlite.SQLiteFullException;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SpillingLocationDataSourceTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OpenLocateLocation getLocation(long created) {
+        InformationFields fields = InformationFieldsFactory.getInformationFields(
+                "Google", "Pixel", "true", "Android 8.0", "Carrier", "ssid", "bssid", "wifi", "gps", "bground");
+        return new OpenLocateLocation(new Date(created), 10.403, 10.234, 40.43f, 1234, 1.5f, 90.0f, 12.5,
+                new AdvertisingIdClient.Info("1234", true), fields);
+    }
+
+    /**
+     * Rejects every write while it is full.
+     */
+    private static final class FullList extends LocationList {
+        boolean full;
+
+        @Override
+        public void addAll(List<OpenLocateLocation> locationList) {
+            if (full) {
+                throw new SQLiteFullException();
+            }
+            super.addAll(locationList);
+        }
+    }
+
+    /**
+     * Stores the first location of every batch and fails on the rest, like a log that runs out
+     * of space in the middle of a batch.
+     */
+    private static final class PartialList extends LocationList {
+        boolean failing;
+
+        @Override
+        public void addAll(List<OpenLocateLocation> locationList) {
+            if (!failing) {
+                super.addAll(locationList);
+                return;
+            }
+            super.addAll(locationList.subList(0, 1));
+            throw new UnwritableStoreException("No space left",
+                    new ArrayList<>(locationList.subList(1, locationList.size())));
+        }
+    }
+
+    private LocationSpillQueue getQueue() {
+        return new LocationSpillQueue(new File(folder.getRoot(), LocationSpillQueue.FILE_NAME), 64 * 1024);
+    }
+
+    @Test
+    public void testLocationsAreQueuedWhileTheStoreIsFull() {
+        // Given
+        FullList store = new FullList();
+        SpillingLocationDataSource dataSource = new SpillingLocationDataSource(store, getQueue());
+        store.full = true;
+
+        // When
+        dataSource.addAll(Arrays.asList(getLocation(1000), getLocation(2000)));
+        dataSource.add(getLocation(3000));
+
+        // Then
+        assertEquals(0, store.size());
+        assertEquals(3, dataSource.getSpilledCount());
+        assertEquals(3, dataSource.size());
+    }
+
+    @Test
+    public void testQueueIsReplayedFirstOnceTheStoreTakesWrites() {
+        // Given
+        FullList store = new FullList();
+        SpillingLocationDataSource dataSource = new SpillingLocationDataSource(store, getQueue());
+        store.full = true;
+        dataSource.addAll(Arrays.asList(getLocation(1000), getLocation(2000)));
+
+        // When
+        store.full = false;
+        dataSource.add(getLocation(3000));
+        List<OpenLocateLocation> locations = store.getSince(0);
+
+        // Then
+        assertEquals(0, dataSource.getSpilledCount());
+        assertEquals(3, locations.size());
+        assertEquals(1000, locations.get(0).getCreated().getTime());
+        assertEquals(3000, locations.get(2).getCreated().getTime());
+    }
+
+    @Test
+    public void testQueueIsReplayedAfterAPurge() {
+        // Given
+        FullList store = new FullList();
+        store.add(getLocation(500));
+        SpillingLocationDataSource dataSource = new SpillingLocationDataSource(store, getQueue());
+        store.full = true;
+        dataSource.add(getLocation(1000));
+
+        // When
+        store.full = false;
+        dataSource.deleteBefore(500, 0);
+
+        // Then
+        assertEquals(0, dataSource.getSpilledCount());
+        assertEquals(1, store.size());
+        assertEquals(1000, store.getSince(0).get(0).getCreated().getTime());
+    }
+
+    @Test
+    public void testQueueIsReplayedByAnotherStoreSharingIt() {
+        // Given
+        FullList store = new FullList();
+        store.add(getLocation(500));
+        LocationSpillQueue queue = getQueue();
+        SpillingLocationDataSource writer = new SpillingLocationDataSource(store, queue);
+        store.full = true;
+        writer.add(getLocation(1000));
+
+        // When
+        store.full = false;
+        SpillingLocationDataSource purger = new SpillingLocationDataSource(store, queue);
+        purger.deleteBefore(500, 0);
+        purger.close();
+
+        // Then
+        assertEquals(0, writer.getSpilledCount());
+        assertEquals(1, store.size());
+        assertEquals(1000, store.getSince(0).get(0).getCreated().getTime());
+    }
+
+    @Test
+    public void testQueueSurvivesARestart() {
+        // Given
+        FullList store = new FullList();
+        SpillingLocationDataSource dataSource = new SpillingLocationDataSource(store, getQueue());
+        store.full = true;
+        dataSource.add(getLocation(1000));
+        dataSource.close();
+
+        // When
+        FullList restarted = new FullList();
+        SpillingLocationDataSource reopened = new SpillingLocationDataSource(restarted, getQueue());
+        reopened.addAll(Collections.singletonList(getLocation(2000)));
+
+        // Then
+        assertEquals(2, restarted.size());
+        assertEquals(1000, restarted.getSince(0).get(0).getCreated().getTime());
+    }
+
+    @Test
+    public void testLocationsTheStoreCouldNotAppendAreQueued() {
+        // Given
+        PartialList store = new PartialList();
+        SpillingLocationDataSource dataSource = new SpillingLocationDataSource(store, getQueue());
+        store.failing = true;
+
+        // When
+        dataSource.addAll(Arrays.asList(getLocation(1000), getLocation(2000), getLocation(3000)));
+
+        // Then
+        assertEquals(1, store.size());
+        assertEquals(2, dataSource.getSpilledCount());
+
+        // When
+        dataSource.add(getLocation(4000));
+
+        // Then
+        assertEquals(2, store.size());
+        assertEquals(2, dataSource.getSpilledCount());
+        assertEquals(2000, store.getSince(0).get(1).getCreated().getTime());
+
+        // When
+        store.failing = false;
+        dataSource.add(getLocation(5000));
+        List<OpenLocateLocation> locations = store.getSince(0);
+
+        // Then
+        assertEquals(0, dataSource.getSpilledCount());
+        assertEquals(5, locations.size());
+        assertEquals(3000, locations.get(2).getCreated().getTime());
+        assertEquals(4000, locations.get(3).getCreated().getTime());
+        assertEquals(5000, locations.get(4).getCreated().getTime());
+    }
+}